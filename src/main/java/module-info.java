@@ -18,10 +18,19 @@
  module org.proticity.irc.client {
     exports org.proticity.irc.client;
     exports org.proticity.irc.client.command;
+    exports org.proticity.irc.client.logging;
+    exports org.proticity.irc.client.metrics;
+    exports org.proticity.irc.client.ratelimit;
+    exports org.proticity.irc.client.request;
+    exports org.proticity.irc.client.state;
     exports org.proticity.irc.client.transport;
 
     requires io.netty.buffer;
+    requires io.netty.codec;
     requires io.netty.codec.http;
+    requires io.netty.handler;
+    requires io.netty.transport;
+    requires micrometer.core;
     requires org.reactivestreams;
     requires reactor.core;
     requires reactor.netty;
@@ -0,0 +1,136 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A consistent hash ring which places keys on shards.
+ * <p>
+ * Each shard is placed at many points around the ring, and a key belongs to the first shard found
+ * walking clockwise from the key's hash. Adding a shard only takes keys from the shards on either
+ * side of its points, and when a shard is skipped its keys spread over the remaining shards
+ * rather than all falling on one. The ring is held in sorted arrays, so a lookup is a binary
+ * search; it is not thread safe.
+ */
+@ParametersAreNonnullByDefault
+final class HashRing {
+    private final int pointsPerShard;
+    private long[] points = new long[0];
+    private int[] owners = new int[0];
+    private int shards;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param pointsPerShard The number of points at which each shard is placed.
+     */
+    HashRing(int pointsPerShard) {
+        if (pointsPerShard < 1) {
+            throw new IllegalArgumentException("Each shard must have at least one point.");
+        }
+        this.pointsPerShard = pointsPerShard;
+    }
+
+    /**
+     * Adds the next shard to the ring.
+     *
+     * @return The number of the shard, counting from 0.
+     */
+    int addShard() {
+        int shard = shards++;
+        int size = points.length;
+        var newPoints = Arrays.copyOf(points, size + pointsPerShard);
+        var newOwners = Arrays.copyOf(owners, size + pointsPerShard);
+        for (int i = 0; i < pointsPerShard; i++) {
+            newPoints[size + i] = hash(shard + "#" + i);
+            newOwners[size + i] = shard;
+        }
+        // Sort the points, keeping each owner with its point.
+        var order = new Integer[newPoints.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(newPoints[a], newPoints[b]));
+        points = new long[order.length];
+        owners = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = newPoints[order[i]];
+            owners[i] = newOwners[order[i]];
+        }
+        return shard;
+    }
+
+    /**
+     * Returns the number of shards on the ring.
+     *
+     * @return The number of shards.
+     */
+    int getShards() {
+        return shards;
+    }
+
+    /**
+     * Finds the shard a key belongs to, skipping shards which cannot accept it.
+     *
+     * @param key    The key.
+     * @param accept Whether a shard can accept the key.
+     * @return The shard, or -1 if no shard can accept the key.
+     */
+    int locate(String key, IntPredicate accept) {
+        if (points.length == 0) {
+            return -1;
+        }
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        var tried = new boolean[shards];
+        int remaining = shards;
+        for (int i = 0; i < points.length && remaining > 0; i++) {
+            int shard = owners[(start + i) % points.length];
+            if (tried[shard]) {
+                continue;
+            }
+            if (accept.test(shard)) {
+                return shard;
+            }
+            tried[shard] = true;
+            remaining--;
+        }
+        return -1;
+    }
+
+    /**
+     * Hashes a key to a point on the ring.
+     */
+    static long hash(String key) {
+        // FNV-1a with a final mix, so that similar keys land far apart.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+/**
+ * What happens to the commands for a subscriber of {@link IrcClient#commands(int, InboundOverflow)}
+ * once its buffer is full.
+ */
+public enum InboundOverflow {
+    /**
+     * Wait for the subscriber. No commands are lost, but the connection's shared pipeline waits
+     * with it, holding up the other subscribers and, once the transport's read watermarks are
+     * crossed, pausing reads from the server.
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest buffered command to make room. The subscriber never holds up the others,
+     * but sees only the most recent commands when it falls behind.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Fail the subscriber's stream with an overflow error. The other subscribers are not affected.
+     */
+    ERROR
+}
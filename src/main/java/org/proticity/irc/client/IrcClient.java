@@ -17,33 +17,74 @@
  */
 package org.proticity.irc.client;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.proticity.irc.client.command.Capability;
 import org.proticity.irc.client.command.InvalidCommand;
 import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.JoinCommand;
+import org.proticity.irc.client.command.NicknamePrefix;
+import org.proticity.irc.client.command.NumericReplyCommand;
 import org.proticity.irc.client.command.PingCommand;
+import org.proticity.irc.client.command.PongCommand;
+import org.proticity.irc.client.command.ServerPrefix;
+import org.proticity.irc.client.command.TagKey;
+import org.proticity.irc.client.command.Utf8;
+import org.proticity.irc.client.logging.OverflowPolicy;
+import org.proticity.irc.client.logging.WireLogger;
+import org.proticity.irc.client.metrics.ClientMetrics;
+import org.proticity.irc.client.metrics.PipelineLatency;
+import org.proticity.irc.client.metrics.ServerLatency;
+import org.proticity.irc.client.metrics.ServerTime;
 import org.proticity.irc.client.parser.IrcParseException;
 import org.proticity.irc.client.parser.IrcParser;
+import org.proticity.irc.client.ratelimit.SlidingWindowLimiter;
+import org.proticity.irc.client.request.ReplyPattern;
+import org.proticity.irc.client.request.RequestCorrelator;
+import org.proticity.irc.client.state.CapabilityNegotiator;
+import org.proticity.irc.client.state.ChannelStateTracker;
+import org.proticity.irc.client.state.MessageDeduplicator;
+import org.proticity.irc.client.state.SaslPlain;
+import org.proticity.irc.client.state.StringCache;
+import org.proticity.irc.client.state.TagKeyCache;
+import org.proticity.irc.client.transport.ConnectionEvent;
+import org.proticity.irc.client.transport.IdleTimeoutException;
+import org.proticity.irc.client.transport.ReadWatermarks;
+import org.proticity.irc.client.transport.ReceivedText;
+import org.proticity.irc.client.transport.ReconnectingTransport;
 import org.proticity.irc.client.transport.TcpTransport;
 import org.proticity.irc.client.transport.Transport;
+import org.proticity.irc.client.transport.WebSocketCompression;
 import org.proticity.irc.client.transport.WebSocketTransport;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BufferOverflowStrategy;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
 
 /**
  * Provides a client for publish/subscribe messaging using IRCv3.
@@ -61,53 +102,267 @@ import reactor.core.publisher.Mono;
 public class IrcClient {
     private static final IrcParser PARSER = new IrcParser();
 
-    private static final char COLOR = (char) 27;
-
     private static final int MODE_WALLOPS = 4;
 
     private static final int MODE_INVISIBLE = 8;
 
+    /**
+     * The maximum length of a line sent to the server in bytes, excluding the line ending.
+     */
+    private static final int MAX_LINE_BYTES = 510;
+
+    /**
+     * The numeric replies with which a server refuses to let the client join a channel.
+     */
+    private static final Set<Integer> JOIN_ERRORS = Set.of(403, 405, 437, 471, 473, 474, 475, 476, 477, 489);
+
+    /**
+     * The length assumed for the client's host name while the server has not revealed it.
+     */
+    private static final int MAX_HOST_BYTES = 63;
+
+    private static final TagKey MSG_ID = new TagKey("msg-id");
+
+    /**
+     * The numeric replies with which a server refuses to register the client.
+     */
+    private static final Set<Integer> REGISTRATION_ERRORS = Set.of(432, 433, 436, 464, 465);
+
+    /**
+     * The prefix of the tokens sent in keepalive pings.
+     */
+    private static final String KEEPALIVE_PREFIX = "keepalive-";
+
     /**
      * A copy of the builder that was used to create the client.
      */
     private IrcClientBuilder builder;
 
     /**
-     * A map of channels that have been joined to the channel information.
+     * The parser for input from the server.
+     */
+    private IrcParser parser;
+
+    /**
+     * The channels the client is in and their members, as reported by the server.
+     */
+    private ChannelStateTracker channelState;
+
+    /**
+     * The negotiation of capabilities with the server.
+     */
+    private volatile CapabilityNegotiator capabilities;
+
+    /**
+     * The requests awaiting replies from the server.
+     */
+    private RequestCorrelator requests;
+
+    /**
+     * The result of registering with the server, completed once the server has welcomed the client
+     * and capability negotiation has settled.
      */
-    private Map<String, Boolean> channels = new ConcurrentHashMap<>();
+    private volatile MonoProcessor<RegistrationResult> registration = MonoProcessor.create();
 
     /**
-     * The buffered writer for debug output.
+     * The channels to rejoin once the client has registered again after a reconnection.
      */
-    private BufferedWriter bufferedDebugStreamWriter;
+    private Set<String> rejoin = ConcurrentHashMap.newKeySet();
 
     /**
-     * The output writer for the debug output.
+     * The time at which registration started.
      */
-    private OutputStreamWriter debugStreamWriter;
+    private long registrationStart;
+
+    /**
+     * Whether the server has welcomed the client. Only accessed from the inbound pipeline.
+     */
+    private boolean welcomed;
+
+    /**
+     * The name of the server which welcomed the client.
+     */
+    private String serverName;
+
+    /**
+     * The scheduler on which the client waits to send.
+     */
+    private final Scheduler timer;
+
+    /**
+     * The clock, in nanoseconds, of the client's waits.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * The budget of channel joins, if joins are rate limited.
+     */
+    private SlidingWindowLimiter joinBudget;
+
+    /**
+     * The filter for repeated messages, if enabled.
+     */
+    private MessageDeduplicator deduplicator;
+
+    /**
+     * The budget of messages, if messages are rate limited.
+     */
+    private SlidingWindowLimiter messageBudget;
+
+    /**
+     * The asynchronous logger for debug output.
+     */
+    private WireLogger wireLogger;
+
+    /**
+     * The meters for this connection.
+     */
+    private ClientMetrics metrics;
+
+    /**
+     * The latency of the inbound pipeline, if it is being recorded.
+     */
+    private PipelineLatency pipelineLatency;
+
+    /**
+     * The server-to-client delivery latency, if it is being measured.
+     */
+    private ServerLatency serverLatency;
+
+    /**
+     * The periodic ping which measures the round trip time to the server, if it is running.
+     */
+    private Disposable latencyProbe;
+
+    /**
+     * The scheduled check which pings the server when the connection is idle, if it is running.
+     */
+    private Disposable.Swap keepAliveProbe;
+
+    /**
+     * The time the last input was read from the server.
+     */
+    private volatile long lastReadNanos;
+
+    /**
+     * The time the last keepalive ping was sent.
+     */
+    private volatile long keepAliveSentNanos;
+
+    /**
+     * The round trip time of the last keepalive ping, or -1 if none has been answered.
+     */
+    private volatile long keepAliveRoundTrip = -1;
 
     /**
      * The stream of inbound commands from the server.
      */
     private Flux<IrcCommand> inbound;
 
+    /**
+     * The stream of inbound commands with the times they were dispatched, which is the source of
+     * {@link #inbound}, if the latency of the pipeline is being recorded.
+     */
+    private Flux<Dispatched> dispatched;
+
     protected IrcClient(final IrcClientBuilder builder) {
         this.builder = new IrcClientBuilder(builder);
         if (builder.debugStream != null) {
-            debugStreamWriter = new OutputStreamWriter(builder.debugStream, StandardCharsets.UTF_8);
-            bufferedDebugStreamWriter = new BufferedWriter(debugStreamWriter);
+            wireLogger = new WireLogger(builder.debugStream, builder.colorizedDebug, builder.debugBufferSize,
+                    builder.debugOverflowPolicy, builder.debugSampleRate);
         }
         if (builder.transport == null) {
             throw new IllegalStateException("Transport has not been specified.");
         }
-        inbound = builder.transport.receive().doOnNext(this::logInboundNext)
-                .flatMap(PARSER::messages).doOnNext(this::handleMessage);
+        if (builder.meterRegistry != null) {
+            metrics = new ClientMetrics(builder.meterRegistry, builder.connectionName);
+        } else {
+            metrics = ClientMetrics.disabled();
+        }
+        parser = builder.tagKeyCache != null ? new IrcParser(builder.tagKeyCache) : PARSER;
+        channelState = builder.stringCache != null ? new ChannelStateTracker(builder.nickname, builder.stringCache)
+                : new ChannelStateTracker(builder.nickname);
+        capabilities = new CapabilityNegotiator(builder.capabilities,
+                builder.saslAccount != null ? new SaslPlain(builder.saslAccount, builder.saslPassword) : null);
+        requests = new RequestCorrelator(line -> sendThen(Flux.just(line)),
+                () -> capabilities.isEnabled("labeled-response"), channelState::getChannelTypes,
+                builder.maxInFlightRequests, builder.requestTimeout);
+        metrics.gauge("channels", channelState, ChannelStateTracker::getChannelCount);
+        if (builder.timer != null) {
+            timer = builder.timer;
+            clock = () -> builder.timer.now(TimeUnit.NANOSECONDS);
+        } else {
+            timer = Schedulers.parallel();
+            clock = System::nanoTime;
+        }
+        lastReadNanos = clock.getAsLong();
+        if (builder.joinRatePeriod != null) {
+            joinBudget = new SlidingWindowLimiter(builder.joinRateLimit, builder.joinRatePeriod, clock);
+        }
+        if (builder.messageRatePeriod != null) {
+            messageBudget = new SlidingWindowLimiter(builder.messageRateLimit, builder.messageRatePeriod, clock);
+        }
+        if (builder.pipelineLatencyWindow != null) {
+            pipelineLatency = new PipelineLatency(builder.pipelineLatencyWindow);
+            pipelineLatency.register(metrics);
+        }
+        if (builder.serverLatencyPingInterval != null) {
+            serverLatency = new ServerLatency();
+            serverLatency.register(metrics);
+        }
+        if (builder.deduplicator != null) {
+            deduplicator = builder.deduplicator;
+            metrics.counter("dedup.hits", deduplicator, MessageDeduplicator::getHits);
+            metrics.counter("dedup.misses", deduplicator, MessageDeduplicator::getMisses);
+        }
+        var received = builder.transport.receiveTimed();
+        if (builder.keepAliveInterval != null && !(builder.transport instanceof ReconnectingTransport)) {
+            // A reconnecting transport drops a silent connection itself and reconnects, while any
+            // other is closed, ending the stream.
+            var deadline = builder.keepAliveInterval.plus(builder.keepAliveTimeout);
+            received = received.timeout(deadline,
+                    Flux.defer(() -> Flux.error(new IdleTimeoutException(deadline))), timer)
+                    .doOnError(IdleTimeoutException.class, error -> {
+                        metrics.idleTimedOut();
+                        dispose().subscribe(null, disposeError -> { });
+                    });
+        }
+        var commands = received.doOnNext(text -> {
+            lastReadNanos = clock.getAsLong();
+            logInboundNext(text.getText());
+        }).flatMapIterable(this::parse);
+        if (deduplicator != null) {
+            // Drop repeats before they reach the client's state or its subscribers.
+            commands = commands.filter(command -> !deduplicator.isDuplicate(command));
+        }
+        if (pipelineLatency == null) {
+            inbound = share(commands.doOnNext(this::dispatch));
+        } else {
+            // The dispatch time travels with the command to each subscriber, so that the time the
+            // command waits in the pipeline and any buffer is included in its delivery.
+            dispatched = share(commands.map(command -> new Dispatched(command, dispatch(command))));
+            inbound = dispatched.map(Dispatched::getCommand);
+        }
+        builder.transport.events().subscribe(this::connectionEvent);
+        connect();
+    }
+
+    /**
+     * Finishes the inbound pipeline, which every subscriber shares.
+     *
+     * @param commands The dispatched commands.
+     * @return The shared stream of commands.
+     */
+    private <T> Flux<T> share(Flux<T> commands) {
         // If error suppression is enabled, ignore IrcParseException.
         if (builder.suppressParseErrors) {
-            inbound = inbound.onErrorContinue(err -> err instanceof IrcParseException, (err, input) -> { });
+            commands = commands.onErrorContinue(err -> err instanceof IrcParseException, (err, input) -> { });
         }
-        connect();
+        // Requests can no longer be answered once the connection has closed.
+        commands = commands.doOnError(requests::close).doOnComplete(() ->
+                requests.close(new IllegalStateException("The connection closed before the request was answered.")));
+        // The connection can only be read once, so every subscriber shares a single pipeline.
+        return commands.publish().autoConnect();
     }
 
     protected void connect() {
@@ -119,53 +374,244 @@ public class IrcClient {
             modes |= MODE_INVISIBLE;
         }
 
-        var capsMono = sendThen(Flux.fromIterable(builder.capabilities).map(cap -> "CAP REQ :" + cap.toString()));
-        var passMono = sendThen(Flux.just("PASS " + builder.password));
-        var userMono =
-                sendThen(Flux.just("NICK " + builder.nickname,
-                        "USER " + builder.user + " " + modes + " * :" + builder.realName));
-        if (builder.password != null) {
-            userMono = passMono.then(userMono);
+        registrationStart = System.nanoTime();
+        if (builder.pipelinedRegistration) {
+            // Send the whole registration preamble in one write.
+            var preamble = new ArrayList<>(capabilities.startPipelined());
+            if (builder.password != null) {
+                preamble.add("PASS " + builder.password);
+            }
+            preamble.add("NICK " + builder.nickname);
+            preamble.add("USER " + builder.user + " " + modes + " * :" + builder.realName);
+            sendBatch(preamble).subscribe(null, registration::onError);
+        } else {
+            var capsMono = sendThen(Flux.fromIterable(capabilities.start()));
+            var passMono = sendThen(Flux.just("PASS " + builder.password));
+            var userMono =
+                    sendThen(Flux.just("NICK " + builder.nickname,
+                            "USER " + builder.user + " " + modes + " * :" + builder.realName));
+            if (builder.password != null) {
+                userMono = passMono.then(userMono);
+            }
+            capsMono.then(userMono).subscribe(null, registration::onError);
+        }
+        metrics.connected();
+        if (serverLatency != null && latencyProbe == null) {
+            latencyProbe = Flux.interval(builder.serverLatencyPingInterval)
+                    .concatMap(tick -> sendThen(Flux.just("PING :" + serverLatency.probeToken()))
+                            .onErrorResume(err -> Mono.empty()))
+                    .subscribe();
+        }
+        lastReadNanos = clock.getAsLong();
+        if (builder.keepAliveInterval != null && keepAliveProbe == null) {
+            keepAliveProbe = Disposables.swap();
+            scheduleKeepAlive();
+        }
+    }
+
+    /**
+     * Schedules the next keepalive check for the moment the connection will have been idle for
+     * the keepalive interval, so that the ping leaves on time and the server has the whole
+     * timeout to reply. The check pings the server if nothing has been read since, and schedules
+     * the next.
+     */
+    private void scheduleKeepAlive() {
+        if (keepAliveProbe.isDisposed()) {
+            return;
         }
-        capsMono.then(userMono).subscribe();
+        long interval = builder.keepAliveInterval.toNanos();
+        long due = Math.max(lastReadNanos, keepAliveSentNanos) + interval;
+        var check = Mono.delay(Duration.ofNanos(Math.max(0, due - clock.getAsLong())), timer).flatMap(tick -> {
+            long now = clock.getAsLong();
+            if (now - lastReadNanos < interval || now - keepAliveSentNanos < interval) {
+                return Mono.<Void>empty();
+            }
+            keepAliveSentNanos = now;
+            return sendThen(Flux.just("PING :" + KEEPALIVE_PREFIX + now)).onErrorResume(err -> Mono.empty());
+        }).subscribe(null, null, this::scheduleKeepAlive);
+        // The swap disposes the check itself if the client has been disposed meanwhile.
+        keepAliveProbe.replace(check);
     }
 
     /**
-     * Log a message from the server to the debug {@link OutputStream}.
+     * Follows the state of the transport's connection, registering again when it reconnects.
      *
-     * @param message The server message to log.
+     * @param event The change in the connection's state.
      */
-    protected void logInboundNext(String message) {
-        if (bufferedDebugStreamWriter == null) {
-            return;
+    private void connectionEvent(ConnectionEvent event) {
+        if (event.getType() == ConnectionEvent.Type.DISCONNECTED) {
+            if (event.getError().filter(IdleTimeoutException.class::isInstance).isPresent()) {
+                metrics.idleTimedOut();
+            }
+            // The server has forgotten the client, so its state is stale. Remember which channels
+            // to return to.
+            rejoin.addAll(channelState.getChannels());
+            channelState.clear();
+            requests.reset(event.getError().orElseGet(() ->
+                    new IllegalStateException("The connection was lost before the request was answered.")));
+        } else if (event.getType() == ConnectionEvent.Type.CONNECTED && event.isReconnect()) {
+            metrics.reconnected();
+            reconnected();
         }
-        message = Instant.now().toString() + " < " + message;
-        if (builder.colorizedDebug) {
-            message = (char) COLOR + "[32m" + message + (char) COLOR + "[39m";
+    }
+
+    /**
+     * Registers again on a new connection, rejoining the channels the client was in once
+     * registered.
+     */
+    private void reconnected() {
+        welcomed = false;
+        serverName = null;
+        capabilities = new CapabilityNegotiator(builder.capabilities,
+                builder.saslAccount != null ? new SaslPlain(builder.saslAccount, builder.saslPassword) : null);
+        if (registration.isTerminated()) {
+            registration = MonoProcessor.create();
         }
+        var channels = new ArrayList<>(rejoin);
+        rejoin.removeAll(channels);
+        connect();
+        if (!channels.isEmpty()) {
+            // Joins are paced by the join budget, so a large rejoin is spread out as the server
+            // requires.
+            registration.flatMapMany(result -> joinAll(channels)).subscribe(null, error -> rejoin.addAll(channels));
+        }
+    }
+
+    /**
+     * Parses input from the server, recording the parse in the client's metrics.
+     *
+     * @param input The input from the server.
+     * @return The commands parsed from the input.
+     */
+    private List<IrcCommand> parse(ReceivedText input) {
+        metrics.received(input.getText());
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
-            bufferedDebugStreamWriter.write(message, 0, message.length());
-            bufferedDebugStreamWriter.newLine();
-            bufferedDebugStreamWriter.flush();
-        } catch (IOException e) {
-            // TODO: Handle
+            if (pipelineLatency == null && serverLatency == null) {
+                return parser.parse(input.getText());
+            }
+            var commands = parser.parse(input.getText(), input.getReceivedNanos());
+            if (pipelineLatency != null) {
+                pipelineLatency.record(PipelineLatency.Stage.READ_TO_PARSE,
+                        System.nanoTime() - input.getReceivedNanos());
+            }
+            return commands;
+        } catch (IrcParseException e) {
+            metrics.parseError();
+            throw e;
+        } finally {
+            if (metrics.isEnabled()) {
+                metrics.parsed(System.nanoTime() - start);
+            }
         }
     }
 
-    protected void logOutboundNext(String message) {
-        if (bufferedDebugStreamWriter == null) {
-            return;
+    /**
+     * Passes a command to the built-in handler, recording it in the client's metrics.
+     *
+     * @param command The command received from the server.
+     * @return The time at which the command was dispatched, if the latency of the pipeline is being
+     * recorded, or else 0.
+     */
+    private long dispatch(IrcCommand command) {
+        if (command instanceof InvalidCommand) {
+            metrics.invalidCommand();
+        }
+        metrics.inbound(command.getCommand());
+        long dispatchedNanos = 0;
+        if (pipelineLatency != null) {
+            dispatchedNanos = System.nanoTime();
+            pipelineLatency.record(PipelineLatency.Stage.PARSE_TO_DISPATCH,
+                    dispatchedNanos - command.getParsedNanos());
+        }
+        if (serverLatency != null) {
+            serverLatency.record(command);
         }
-        message = Instant.now().toString() + " >> " + message;
-        if (builder.colorizedDebug) {
-            message = (char) COLOR + "[34m" + message + (char) COLOR + "[39m";
+        channelState.apply(command);
+        var replies = capabilities.apply(command);
+        if (!replies.isEmpty()) {
+            sendBatch(replies).subscribe();
         }
+        requests.route(command);
+        if (!registration.isTerminated()) {
+            register(command);
+        }
+        if (!metrics.isEnabled()) {
+            handleMessage(command);
+            return dispatchedNanos;
+        }
+        long start = System.nanoTime();
         try {
-            bufferedDebugStreamWriter.write(message, 0, message.length());
-            bufferedDebugStreamWriter.newLine();
-            bufferedDebugStreamWriter.flush();
-        } catch (IOException e) {
-            // TODO: Handle
+            handleMessage(command);
+        } finally {
+            metrics.dispatched(System.nanoTime() - start);
+        }
+        return dispatchedNanos;
+    }
+
+    /**
+     * Follows the progress of registration, completing it once the server has welcomed the client
+     * and every capability request has been answered.
+     *
+     * @param command The command received from the server.
+     */
+    private void register(IrcCommand command) {
+        if (command instanceof NumericReplyCommand) {
+            int code = ((NumericReplyCommand) command).getReplyCode();
+            if (code == 1) {
+                welcomed = true;
+                serverName = command.getPrefix().filter(prefix -> prefix instanceof ServerPrefix)
+                        .map(prefix -> ((ServerPrefix) prefix).getServerName()).orElse(null);
+            } else if (!welcomed && REGISTRATION_ERRORS.contains(code)) {
+                registration.onError(new RegistrationException("Registration was refused: "
+                        + command.getTrailingParameter().orElse(command.getCommand()), command));
+                return;
+            }
+        } else if (!welcomed && "ERROR".equals(command.getCommand())) {
+            registration.onError(new RegistrationException("The server closed the connection: "
+                    + command.getTrailingParameter().orElse(""), command));
+            return;
+        } else if (!welcomed && "NOTICE".equals(command.getCommand()) && command.getTrailingParameter()
+                .filter(text -> text.startsWith("Login authentication failed")
+                        || text.startsWith("Improperly formatted auth")).isPresent()) {
+            // Twitch refuses bad credentials with a notice rather than a numeric reply.
+            registration.onError(new RegistrationException(command.getTrailingParameter().get(), command));
+            return;
+        }
+        if (welcomed && capabilities.isSettled()) {
+            long nanos = System.nanoTime() - registrationStart;
+            metrics.registered(nanos);
+            if (builder.transport instanceof ReconnectingTransport) {
+                // The server has accepted the client, so a later loss is not a refusal.
+                ((ReconnectingTransport) builder.transport).stable();
+            }
+            registration.onNext(new RegistrationResult(channelState.getNickname(), serverName,
+                    capabilities.getEnabled(), capabilities.getAccount().orElse(null), Duration.ofNanos(nanos)));
+        }
+    }
+
+    /**
+     * Log a message from the server to the debug {@link OutputStream}.
+     * <p>
+     * The message is handed off to a {@link WireLogger} and is formatted and written on a
+     * background thread.
+     *
+     * @param message The server message to log.
+     */
+    protected void logInboundNext(String message) {
+        if (wireLogger != null) {
+            wireLogger.inbound(message);
+        }
+    }
+
+    /**
+     * Log a message to the server to the debug {@link OutputStream}.
+     *
+     * @param message The client message to log.
+     */
+    protected void logOutboundNext(String message) {
+        if (wireLogger != null) {
+            wireLogger.outbound(message);
         }
     }
 
@@ -186,43 +632,260 @@ public class IrcClient {
      * the disposal operation to be emitted.
      */
     public Mono<Void> dispose() {
-        return builder.transport.dispose().doOnNext(v -> {
-            if (bufferedDebugStreamWriter != null) {
-                try {
-                    bufferedDebugStreamWriter.close();
-                } catch (IOException e) {
-                    // TODO: Handle
-                }
+        return builder.transport.dispose().doOnTerminate(() -> {
+            if (latencyProbe != null) {
+                latencyProbe.dispose();
             }
-            if (debugStreamWriter != null) {
-                try {
-                    debugStreamWriter.close();
-                } catch (IOException e) {
-                    // TODO: Handle
-                }
+            if (keepAliveProbe != null) {
+                keepAliveProbe.dispose();
+            }
+            if (wireLogger != null) {
+                // Transports complete on the event loop, which must not wait for the log to drain.
+                wireLogger.shutdown();
             }
+            metrics.close();
         });
     }
 
     /**
      * Returns a stream of commands coming from the server.
+     * <p>
+     * The connection to the server is read by a single pipeline which is shared by all subscribers
+     * of the stream. The server is read from once the first subscriber subscribes.
      *
      * @return The commands coming from the server.
      */
     public Flux<IrcCommand> commands() {
-        return inbound;
+        return dispatched == null ? inbound : timed(dispatched);
+    }
+
+    /**
+     * Returns a stream of commands coming from the server, buffered for a subscriber which may
+     * fall behind the others.
+     * <p>
+     * Commands are buffered for the subscriber until it requests them. Once the buffer is full
+     * they are handled by the overflow strategy: with {@link InboundOverflow#BLOCK} the shared
+     * pipeline waits for the subscriber, while with the other strategies the subscriber never
+     * holds up the pipeline and commands it cannot take are dropped or fail its stream. Dropped
+     * commands are counted in the client's metrics.
+     * <p>
+     * While the pipeline waits, commands back up into the transport, which stops reading from the
+     * connection once its read watermarks are crossed. The watermarks are set with
+     * {@link IrcClientBuilder#readWatermarks(ReadWatermarks)}.
+     *
+     * @param bufferSize The number of commands to buffer for the subscriber.
+     * @param overflow   What to do once the buffer is full.
+     * @return The commands coming from the server.
+     */
+    public Flux<IrcCommand> commands(int bufferSize, InboundOverflow overflow) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be positive.");
+        }
+        if (dispatched == null) {
+            return buffered(inbound, bufferSize, overflow);
+        }
+        return timed(buffered(dispatched, bufferSize, overflow));
+    }
+
+    /**
+     * Buffers the shared stream of commands for a single subscriber.
+     */
+    private <T> Flux<T> buffered(Flux<T> commands, int bufferSize, InboundOverflow overflow) {
+        switch (overflow) {
+            case DROP_OLDEST:
+                return commands.onBackpressureBuffer(bufferSize, dropped -> metrics.droppedCommand(),
+                        BufferOverflowStrategy.DROP_OLDEST);
+            case ERROR:
+                return commands.onBackpressureBuffer(bufferSize, dropped -> metrics.droppedCommand(),
+                        BufferOverflowStrategy.ERROR);
+            default:
+                // The subscriber's own queue of bufferSize commands, which is filled from the shared
+                // pipeline ahead of the subscriber's demand and only asks the pipeline for more as the
+                // subscriber drains it. Once it is full the pipeline waits for this subscriber.
+                return commands.publishOn(Schedulers.immediate(), bufferSize);
+        }
+    }
+
+    /**
+     * Measures the delivery of commands to a subscriber of the command stream. This wraps the
+     * subscriber itself, after the shared pipeline and any buffer of its own, so the time a command
+     * waits for the subscriber is included.
+     */
+    private Flux<IrcCommand> timed(Flux<Dispatched> commands) {
+        return commands.transform(Operators.<Dispatched, IrcCommand>lift((scannable, actual) ->
+                new DeliveryTimingSubscriber(actual)));
+    }
+
+    /**
+     * Returns the meters for this client's connection.
+     *
+     * @return The client's metrics.
+     */
+    public ClientMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the latencies of the stages of the inbound pipeline, if they are being recorded.
+     *
+     * @return The inbound pipeline latencies, if enabled with
+     * {@link IrcClientBuilder#pipelineLatency()}.
+     */
+    public Optional<PipelineLatency> pipelineLatency() {
+        return Optional.ofNullable(pipelineLatency);
+    }
+
+    /**
+     * Returns the measurement of delivery latency from the server, if it is enabled.
+     *
+     * @return The server latency measurement, if enabled with
+     * {@link IrcClientBuilder#serverLatency()}.
+     */
+    public Optional<ServerLatency> serverLatency() {
+        return Optional.ofNullable(serverLatency);
+    }
+
+    /**
+     * Returns the round trip time of the last keepalive ping the server answered.
+     *
+     * @return The round trip time, if keepalive is enabled with
+     * {@link IrcClientBuilder#keepAlive(Duration, Duration)} and a ping has been answered.
+     */
+    public Optional<Duration> keepAliveRoundTripTime() {
+        long rtt = keepAliveRoundTrip;
+        return rtt < 0 ? Optional.empty() : Optional.of(Duration.ofNanos(rtt));
+    }
+
+    /**
+     * Returns the filter for repeated messages, if it is enabled.
+     *
+     * @return The message deduplicator, if enabled with {@link IrcClientBuilder#deduplicate()}.
+     */
+    public Optional<MessageDeduplicator> deduplicator() {
+        return Optional.ofNullable(deduplicator);
+    }
+
+    /**
+     * Returns the state of the channels the client is in, as tracked from the commands received
+     * from the server.
+     *
+     * @return The channel state.
+     */
+    public ChannelStateTracker channelState() {
+        return channelState;
+    }
+
+    /**
+     * Returns the result of registering with the server.
+     * <p>
+     * The result is emitted once the server has welcomed the client and answered every capability
+     * request. Subscribing reads from the server if nothing else has yet.
+     *
+     * @return A {@link Mono} of the registration result, which fails with a
+     * {@link RegistrationException} if the server refuses registration or the connection closes
+     * first.
+     */
+    public Mono<RegistrationResult> registration() {
+        return Mono.defer(() -> Mono.first(registration, inbound.then(Mono.defer(() -> Mono.error(
+                new RegistrationException("The connection closed before registration finished."))))));
+    }
+
+    /**
+     * Returns the changes in the state of the client's connection, such as its loss and
+     * reconnection when reconnection is enabled with {@link IrcClientBuilder#reconnect()}.
+     *
+     * @return A {@link Flux} of connection events, which are not buffered.
+     * @see Transport#events()
+     */
+    public Flux<ConnectionEvent> connectionEvents() {
+        return builder.transport.events();
+    }
+
+    /**
+     * Returns the capabilities negotiated with the server.
+     *
+     * @return The capability negotiation.
+     */
+    public CapabilityNegotiator capabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Sends a command and returns the server's reply to it.
+     * <p>
+     * The reply is the set of numerics the server sends in response to the command, such as the
+     * <code>WHO</code> replies up to <code>RPL_ENDOFWHO</code>. When the server supports the
+     * <code>labeled-response</code> capability and it has been requested, the reply is identified
+     * by label; otherwise replies are matched to requests in the order the requests were sent.
+     * The number of requests awaiting replies at once and the time to wait for a reply are set
+     * with {@link IrcClientBuilder#requests(int, Duration)}.
+     *
+     * @param command The command to send, which must be one with a reply known to
+     *                {@link ReplyPattern#forCommand(String, String)} given the server's channel types.
+     * @return A {@link Flux} of the reply, which sends the command when subscribed to and fails
+     * with a {@link org.proticity.irc.client.request.ReplyException} if the server replies with
+     * an error.
+     */
+    public Flux<IrcCommand> request(String command) {
+        return requests.request(command);
+    }
+
+    /**
+     * Sends a command and returns the server's reply to it.
+     *
+     * @param command The command to send.
+     * @param pattern The numerics which make up the reply.
+     * @return A {@link Flux} of the reply.
+     * @see #request(String)
+     */
+    public Flux<IrcCommand> request(String command, ReplyPattern pattern) {
+        return requests.request(command, pattern);
     }
 
     /**
      * The built in command handler, where the client itself handles routine tasks.
      * <p>
-     * This primarily handles PING commands to prevent disconnection.
+     * This primarily handles PING commands to prevent disconnection, and the replies to the
+     * client's own keepalive and latency probes.
      *
      * @param command The command received from the server.
      */
     protected void handleMessage(final IrcCommand command) {
         if (command instanceof PingCommand) {
-            sendThen(Flux.just("PONG :" + ((PingCommand) command).getHost()));
+            sendThen(Flux.just("PONG :" + ((PingCommand) command).getHost())).subscribe();
+        } else if (command instanceof PongCommand) {
+            var params = command.getParameters();
+            command.getTrailingParameter().or(() -> params.isEmpty() ? Optional.empty()
+                    : Optional.of(params.get(params.size() - 1)))
+                    .ifPresent(token -> pong(token, ServerTime.of(command)));
+        }
+    }
+
+    /**
+     * Records the reply to one of the client's pings.
+     *
+     * @param token      The token echoed by the server.
+     * @param serverTime The time the server stamped the reply with, or {@link ServerTime#UNKNOWN}.
+     */
+    private void pong(String token, long serverTime) {
+        if (token.startsWith(KEEPALIVE_PREFIX)) {
+            long sent;
+            try {
+                sent = Long.parseLong(token.substring(KEEPALIVE_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            long now = clock.getAsLong();
+            long rtt = now - sent;
+            if (rtt >= 0) {
+                keepAliveRoundTrip = rtt;
+                metrics.keepAlive(rtt);
+                if (serverLatency != null) {
+                    serverLatency.recordRoundTrip(rtt, now);
+                }
+            }
+        } else if (serverLatency != null) {
+            serverLatency.pong(token, serverTime);
         }
     }
 
@@ -237,7 +900,28 @@ public class IrcClient {
      * @return A {@link Mono} for consuming send completion.
      */
     public Mono<Void> sendThen(final Flux<String> commands) {
-        return builder.transport.send(commands.doOnNext(this::logOutboundNext)).then();
+        return builder.transport.send(commands.doOnNext(this::logOutboundNext).doOnNext(metrics::outbound))
+                .doOnSubscribe(s -> metrics.sendStarted())
+                .doFinally(signal -> metrics.sendFinished());
+    }
+
+    /**
+     * Produces a publisher for the results of emitting a batch of commands to the server.
+     * <p>
+     * The commands are handed to the transport together, which sends them in as few writes as it
+     * is able. As with {@link #sendThen(Flux)} nothing is sent until a subscription is made.
+     *
+     * @param commands The commands to issue, in order.
+     * @return A {@link Mono} for consuming send completion.
+     */
+    public Mono<Void> sendBatch(final List<String> commands) {
+        return Mono.defer(() -> {
+            for (var command : commands) {
+                logOutboundNext(command);
+                metrics.outbound(command);
+            }
+            return builder.transport.sendBatch(commands);
+        }).doOnSubscribe(s -> metrics.sendStarted()).doFinally(signal -> metrics.sendFinished());
     }
 
     /**
@@ -274,6 +958,106 @@ public class IrcClient {
         sendThen(commands).block(timeout);
     }
 
+    /**
+     * Sends a message to a channel or user.
+     * <p>
+     * Text too long to fit within the server's line length limit, once the server has prefixed it
+     * with the client's <code>nick!user@host</code> to relay it, is split across several messages
+     * at word boundaries where possible. Line breaks in the text also start new messages. Each
+     * message is sent once the {@link IrcClientBuilder#messageRate(int, Duration) message rate}
+     * allows, and those which it allows at once are sent together in a single batch.
+     *
+     * @param target The channel or nickname to send the message to.
+     * @param text   The text of the message.
+     * @return A {@link Mono} which sends the messages when subscribed to and completes once they
+     * are sent.
+     */
+    public Mono<Void> privmsg(String target, String text) {
+        return message("PRIVMSG", target, text);
+    }
+
+    /**
+     * Sends a notice to a channel or user, splitting long text across several notices.
+     *
+     * @param target The channel or nickname to send the notice to.
+     * @param text   The text of the notice.
+     * @return A {@link Mono} which sends the notices when subscribed to and completes once they
+     * are sent.
+     * @see #privmsg(String, String)
+     */
+    public Mono<Void> notice(String target, String text) {
+        return message("NOTICE", target, text);
+    }
+
+    private Mono<Void> message(String command, String target, String text) {
+        return Mono.defer(() -> {
+            var head = command + " " + target + " :";
+            var pieces = MessageSplitter.split(text, textByteBudget(head));
+            var lines = new ArrayList<String>(pieces.size());
+            for (var piece : pieces) {
+                lines.add(head + piece);
+            }
+            return sendPaced(lines);
+        });
+    }
+
+    /**
+     * Sends messages in order, each once the message budget allows.
+     * <p>
+     * A place is reserved for each message in turn, so that a text split into more messages than
+     * the limit allows in a window does not burst past the server's limit. The messages the budget allows now
+     * are sent together, and each of the rest after its own wait.
+     *
+     * @param lines The messages to send.
+     * @return A {@link Mono} which completes once the messages are sent.
+     */
+    private Mono<Void> sendPaced(List<String> lines) {
+        if (messageBudget == null) {
+            return sendBatch(lines);
+        }
+        long reserved = clock.getAsLong();
+        var now = new ArrayList<String>(lines.size());
+        var later = new ArrayList<Mono<Void>>();
+        for (var line : lines) {
+            long wait = messageBudget.reserve(1);
+            if (wait == 0 && later.isEmpty()) {
+                now.add(line);
+            } else {
+                // Waits are measured from the reservation, not from when the earlier messages
+                // finish sending.
+                later.add(Mono.defer(() -> {
+                    long remaining = reserved + wait - clock.getAsLong();
+                    return remaining <= 0 ? Mono.<Long>empty() : Mono.delay(Duration.ofNanos(remaining), timer);
+                }).then(sendBatch(List.of(line))));
+            }
+        }
+        return (now.isEmpty() ? Mono.<Void>empty() : sendBatch(now)).thenMany(Flux.concat(later)).then();
+    }
+
+    /**
+     * Returns the budget of messages the client may send, if messages are rate limited.
+     *
+     * @return The message budget, if limited with
+     * {@link IrcClientBuilder#messageRate(int, Duration)}.
+     */
+    public Optional<SlidingWindowLimiter> messageBudget() {
+        return Optional.ofNullable(messageBudget);
+    }
+
+    /**
+     * Calculates how many bytes of text fit in a message once the server relays it.
+     *
+     * @param head The command and target which precede the text.
+     * @return The number of bytes available for the text.
+     */
+    private int textByteBudget(String head) {
+        // The server relays the message as ":nick!user@host <head><text>".
+        int prefixBytes = channelState.getOwnPrefix().map(Utf8::length)
+                .orElseGet(() -> Utf8.length(channelState.getNickname())
+                        + Utf8.length(builder.user) + 2 + MAX_HOST_BYTES);
+        return Math.max(MAX_LINE_BYTES - prefixBytes - 2 - Utf8.length(head), 4);
+    }
+
     /**
      * Normalizes a channel name for consistency.
      *
@@ -281,7 +1065,7 @@ public class IrcClient {
      * @return A normalized channel name (always preceded with a '#' character and in all lower
      * case).
      */
-    private static String normalizeChannelName(String channel) {
+    static String normalizeChannelName(String channel) {
         if (channel == null) {
             throw new IllegalArgumentException("Argument 'channel' cannot be null.");
         }
@@ -294,20 +1078,212 @@ public class IrcClient {
     /**
      * Join a new channel.
      * <p>
-     * This will join the given channel if it is not already joined. The return value indicates if
-     * the join operation made a change or if the channel was already joined.
+     * This will join the given channel if it is not already joined, as confirmed by the server.
+     * The return value indicates if the channel was already joined.
      *
      * @param channel The channel to join.
-     * @return A {@link Mono} representing the completion of the join.
+     * @return A {@link Mono} of whether the channel was already joined, which completes once the
+     * join is sent.
+     * @see #joinAll(Collection)
      */
     public Mono<Boolean> join(String channel) {
         var channelName = normalizeChannelName(channel);
-        return sendThen(Flux.just("JOIN " + channelName)).map(t -> channels.putIfAbsent(channelName, true) != null);
+        return Mono.defer(() -> channelState.isJoined(channelName) ? Mono.just(true)
+                : paceJoins(1).then(sendThen(Flux.just("JOIN " + channelName))).thenReturn(false));
+    }
+
+    /**
+     * Join many channels.
+     * <p>
+     * The channels are packed into as few JOIN commands as the server's line length and
+     * <code>TARGMAX</code> limits allow, which are sent no faster than the join rate configured
+     * with {@link IrcClientBuilder#joinRate(int, Duration)}. The result of each join is emitted as
+     * the server confirms or refuses it, and the stream completes once every channel has a result.
+     * Channels which the client is already in are reported as joined straight away. A server may
+     * silently ignore a join, so channels it has not answered within the request timeout set with
+     * {@link IrcClientBuilder#requests(int, Duration)} after the last JOIN is sent are reported as
+     * not joined, without a reply.
+     *
+     * @param channels The channels to join.
+     * @return A {@link Flux} of the result of joining each channel.
+     */
+    public Flux<JoinResult> joinAll(Collection<String> channels) {
+        var requested = new LinkedHashSet<String>();
+        for (var channel : channels) {
+            requested.add(normalizeChannelName(channel));
+        }
+        return Flux.defer(() -> {
+            var joined = new ArrayList<JoinResult>();
+            var pending = ConcurrentHashMap.<String>newKeySet();
+            for (var channel : requested) {
+                if (channelState.isJoined(channel)) {
+                    joined.add(new JoinResult(channel, true, null));
+                } else {
+                    pending.add(channel);
+                }
+            }
+            if (pending.isEmpty()) {
+                return Flux.fromIterable(joined);
+            }
+            int maxTargets = (int) Math.min(channelState.getTargetLimit("JOIN"),
+                    joinBudget != null ? joinBudget.getCapacity() : Integer.MAX_VALUE);
+            var lines = JoinPlanner.plan(new ArrayList<>(pending), MAX_LINE_BYTES, maxTargets);
+            int results = joined.size() + pending.size();
+            var deadline = MonoProcessor.<Long>create();
+            // Subscribe to the replies before any JOIN is sent, so that none can be missed. Once the
+            // deadline passes the channels still pending are reported as not joined.
+            var replies = inbound.<JoinResult>handle((command, sink) -> {
+                var result = joinResult(command, pending);
+                if (result != null) {
+                    sink.next(result);
+                    if (pending.isEmpty()) {
+                        sink.complete();
+                    }
+                }
+            }).takeUntilOther(deadline).concatWith(Flux.defer(() -> Flux.fromIterable(new ArrayList<>(pending))
+                    .filter(pending::remove).map(channel -> new JoinResult(channel, false, null))));
+            var sends = Flux.fromIterable(lines)
+                    .concatMap(line -> paceJoins(JoinPlanner.targets(line)).then(sendThen(Flux.just(line))))
+                    .then(Mono.delay(builder.requestTimeout, timer))
+                    .doOnNext(deadline::onNext)
+                    .thenMany(Flux.<JoinResult>empty());
+            // The deadline is cancelled once every channel has a result.
+            return Flux.merge(Flux.fromIterable(joined), replies, sends).take(results);
+        });
+    }
+
+    /**
+     * Waits until the join budget allows channels to be joined.
+     *
+     * @param count The number of channels to join.
+     * @return A {@link Mono} which completes when the channels may be joined.
+     */
+    private Mono<Void> paceJoins(int count) {
+        if (joinBudget == null) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> {
+            long wait = joinBudget.reserve(count);
+            return wait == 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(wait), timer).then();
+        });
+    }
+
+    /**
+     * Matches a command from the server to a pending channel join.
+     *
+     * @param command The command from the server.
+     * @param pending The channels waiting to be joined, from which the matched channel is removed.
+     * @return The result of the join, or null if the command is not a reply to one.
+     */
+    @Nullable
+    private JoinResult joinResult(IrcCommand command, Set<String> pending) {
+        String channel = null;
+        boolean joined = false;
+        if (command instanceof JoinCommand) {
+            var prefix = command.getPrefix().orElse(null);
+            if (prefix instanceof NicknamePrefix
+                    && ((NicknamePrefix) prefix).getNickname().equalsIgnoreCase(channelState.getNickname())) {
+                channel = ((JoinCommand) command).getChannel().toString();
+                joined = true;
+            }
+        } else if (command instanceof NumericReplyCommand) {
+            if (JOIN_ERRORS.contains(((NumericReplyCommand) command).getReplyCode())
+                    && command.getParameters().size() >= 2) {
+                channel = command.getParameters().get(1);
+            }
+        } else if ("NOTICE".equals(command.getCommand()) && !command.getParameters().isEmpty()
+                && "msg_channel_suspended".equals(command.getTags().get(MSG_ID))) {
+            // Twitch refuses to join a suspended channel with a notice rather than a numeric reply.
+            channel = command.getParameters().get(0);
+        }
+        if (channel == null) {
+            return null;
+        }
+        channel = channel.toLowerCase(Locale.ROOT);
+        return pending.remove(channel) ? new JoinResult(channel, joined, command) : null;
     }
 
+    /**
+     * Leave a channel.
+     *
+     * @param channel The channel to leave.
+     * @return A {@link Mono} of whether the client was in the channel, as confirmed by the server,
+     * which completes once the part is sent.
+     */
     public Mono<Boolean> part(String channel) {
         var channelName = normalizeChannelName(channel);
-        return sendThen(Flux.just("PART " + channelName)).map(t -> channels.remove(channelName) != null);
+        return Mono.defer(() -> {
+            boolean joined = channelState.isJoined(channelName);
+            return sendThen(Flux.just("PART " + channelName)).thenReturn(joined);
+        });
+    }
+
+    /**
+     * A command and the time at which the client dispatched it, from the monotonic
+     * {@link System#nanoTime()} clock.
+     */
+    private static final class Dispatched {
+        private final IrcCommand command;
+        private final long nanos;
+
+        private Dispatched(IrcCommand command, long nanos) {
+            this.command = command;
+            this.nanos = nanos;
+        }
+
+        private IrcCommand getCommand() {
+            return command;
+        }
+    }
+
+    /**
+     * Measures the time from a command being dispatched until a subscriber of the command stream has
+     * finished with it.
+     */
+    private final class DeliveryTimingSubscriber implements CoreSubscriber<Dispatched>, Subscription {
+        private final CoreSubscriber<? super IrcCommand> actual;
+        private Subscription subscription;
+
+        private DeliveryTimingSubscriber(CoreSubscriber<? super IrcCommand> actual) {
+            this.actual = actual;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            actual.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(Dispatched command) {
+            actual.onNext(command.command);
+            pipelineLatency.record(PipelineLatency.Stage.DISPATCH_TO_COMPLETE, System.nanoTime() - command.nanos);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            actual.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            subscription.cancel();
+        }
     }
 
     /**
@@ -319,59 +1295,194 @@ public class IrcClient {
         return new IrcClientBuilder();
     }
 
-    /**
-     * A builder for new instances of the {@link IrcClient}.
-     */
-    @ParametersAreNonnullByDefault
-    public static class IrcClientBuilder {
+    /**
+     * A builder for new instances of the {@link IrcClient}.
+     */
+    @ParametersAreNonnullByDefault
+    public static class IrcClientBuilder {
+        /**
+         * The debugging {@link OutputStream} to use, if any.
+         */
+        private OutputStream debugStream;
+
+        /**
+         * Whether debugging output should be colorized.
+         */
+        private boolean colorizedDebug;
+
+        /**
+         * The number of debug lines which may be buffered for output.
+         */
+        private int debugBufferSize = WireLogger.DEFAULT_BUFFER_SIZE;
+
+        /**
+         * What to do with debug lines when the debug buffer is full.
+         */
+        private OverflowPolicy debugOverflowPolicy = OverflowPolicy.DROP;
+
+        /**
+         * Log one in every this many lines to the debug output.
+         */
+        private int debugSampleRate = 1;
+
+        /**
+         * The user the client will use for login.
+         */
+        private String user;
+
+        /**
+         * The OAuth token the client will use for login.
+         */
+        private String password;
+
+        /**
+         * The nickname of the user after connection.
+         */
+        private String nickname;
+
+        /**
+         * The real name of the user.
+         */
+        private String realName;
+
+        /**
+         * The custom {@link Transport} to use to connect, if any.
+         */
+        private Transport transport;
+
+        /**
+         * A set of capabilities to provide to the server.
+         */
+        private Set<Capability> capabilities = new HashSet<>();
+
+        /**
+         * Whether to suppress command parse errors on commands from the server.
+         */
+        private boolean suppressParseErrors;
+
+        private boolean invisible;
+
+        private boolean receiveWallops;
+
+        /**
+         * The registry in which to record the client's metrics, if any.
+         */
+        private MeterRegistry meterRegistry;
+
+        /**
+         * The name of the connection in the client's metrics.
+         */
+        private String connectionName;
+
+        /**
+         * The window over which to report inbound pipeline latency, if it is recorded.
+         */
+        private Duration pipelineLatencyWindow;
+
+        /**
+         * The interval between pings measuring round trip time, if server latency is measured.
+         */
+        private Duration serverLatencyPingInterval;
+
+        /**
+         * Whether to send the registration commands in a single write.
+         */
+        private boolean pipelinedRegistration;
+
+        /**
+         * The account to log in to with SASL, if any.
+         */
+        private String saslAccount;
+
+        /**
+         * The password for the SASL account.
+         */
+        private String saslPassword;
+
+        /**
+         * The number of channels which may be joined in each join rate period.
+         */
+        private int joinRateLimit;
+
+        /**
+         * The period over which the join rate is limited, if joins are rate limited.
+         */
+        private Duration joinRatePeriod;
+
+        /**
+         * The number of messages which may be sent in each message rate period.
+         */
+        private int messageRateLimit;
+
+        /**
+         * The period over which the message rate is limited, if messages are rate limited.
+         */
+        private Duration messageRatePeriod;
+
         /**
-         * The debugging {@link OutputStream} to use, if any.
+         * The scheduler on which the client waits to send, if not the default.
          */
-        private OutputStream debugStream;
+        private Scheduler timer;
 
         /**
-         * Whether debugging output should be colorized.
+         * The number of requests which may await replies at once.
          */
-        private boolean colorizedDebug;
+        private int maxInFlightRequests = RequestCorrelator.DEFAULT_MAX_IN_FLIGHT;
 
         /**
-         * The user the client will use for login.
+         * The time to wait for the reply to a request.
          */
-        private String user;
+        private Duration requestTimeout = RequestCorrelator.DEFAULT_TIMEOUT;
 
         /**
-         * The OAuth token the client will use for login.
+         * The filter for repeated messages, if any.
          */
-        private String password;
+        private MessageDeduplicator deduplicator;
 
         /**
-         * The nickname of the user after connection.
+         * The cache of canonical strings for the client's channel state, if shared.
          */
-        private String nickname;
+        private StringCache stringCache;
 
         /**
-         * The real name of the user.
+         * The cache of parsed tag keys, if any.
          */
-        private String realName;
+        private TagKeyCache tagKeyCache;
 
         /**
-         * The custom {@link Transport} to use to connect, if any.
+         * Creates a transport for each connection, if the transport was chosen by address.
          */
-        private Transport transport;
+        private Supplier<? extends Transport> transportFactory;
 
         /**
-         * A set of capabilities to provide to the server.
+         * The read watermarks for the transport, if not its own.
          */
-        private Set<Capability> capabilities;
+        private ReadWatermarks readWatermarks;
 
         /**
-         * Whether to suppress command parse errors on commands from the server.
+         * Whether to reconnect when the connection is lost.
          */
-        private boolean suppressParseErrors;
+        private boolean reconnect;
 
-        private boolean invisible;
+        /**
+         * The wait before the first reconnection attempt.
+         */
+        private Duration reconnectMinBackoff = ReconnectingTransport.DEFAULT_MIN_BACKOFF;
 
-        private boolean receiveWallops;
+        /**
+         * The longest wait between reconnection attempts.
+         */
+        private Duration reconnectMaxBackoff = ReconnectingTransport.DEFAULT_MAX_BACKOFF;
+
+        /**
+         * The time the connection may be idle before the server is pinged, if keepalive is enabled.
+         */
+        private Duration keepAliveInterval;
+
+        /**
+         * The time to wait for input after the keepalive interval before the connection is dropped.
+         */
+        private Duration keepAliveTimeout;
 
         /**
          * Creates a new {@link IrcClientBuilder}.
@@ -391,11 +1502,38 @@ public class IrcClient {
             capabilities = new HashSet<>(builder.capabilities);
             colorizedDebug = builder.colorizedDebug;
             debugStream = builder.debugStream;
+            debugBufferSize = builder.debugBufferSize;
+            debugOverflowPolicy = builder.debugOverflowPolicy;
+            debugSampleRate = builder.debugSampleRate;
             transport = builder.transport;
             user = builder.user;
             password = builder.password;
             realName = builder.realName;
             suppressParseErrors = builder.suppressParseErrors;
+            meterRegistry = builder.meterRegistry;
+            connectionName = builder.connectionName;
+            pipelineLatencyWindow = builder.pipelineLatencyWindow;
+            serverLatencyPingInterval = builder.serverLatencyPingInterval;
+            pipelinedRegistration = builder.pipelinedRegistration;
+            saslAccount = builder.saslAccount;
+            saslPassword = builder.saslPassword;
+            joinRateLimit = builder.joinRateLimit;
+            joinRatePeriod = builder.joinRatePeriod;
+            messageRateLimit = builder.messageRateLimit;
+            messageRatePeriod = builder.messageRatePeriod;
+            timer = builder.timer;
+            maxInFlightRequests = builder.maxInFlightRequests;
+            requestTimeout = builder.requestTimeout;
+            deduplicator = builder.deduplicator;
+            stringCache = builder.stringCache;
+            tagKeyCache = builder.tagKeyCache;
+            transportFactory = builder.transportFactory;
+            readWatermarks = builder.readWatermarks;
+            reconnect = builder.reconnect;
+            reconnectMinBackoff = builder.reconnectMinBackoff;
+            reconnectMaxBackoff = builder.reconnectMaxBackoff;
+            keepAliveInterval = builder.keepAliveInterval;
+            keepAliveTimeout = builder.keepAliveTimeout;
         }
 
         /**
@@ -461,6 +1599,52 @@ public class IrcClient {
             return debug(outputStream);
         }
 
+        /**
+         * Set the number of lines the debug output may buffer.
+         * <p>
+         * Debug output is written asynchronously. Lines wait in a bounded buffer until a
+         * background thread writes them, and when the buffer is full the
+         * {@link #debugOverflowPolicy(OverflowPolicy) overflow policy} applies.
+         *
+         * @param bufferSize The number of lines to buffer.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder debugBufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Debug buffer size must be positive.");
+            }
+            debugBufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Control what happens to debug lines when the debug buffer is full.
+         * <p>
+         * The default is {@link OverflowPolicy#DROP}, which never stalls network I/O.
+         *
+         * @param overflowPolicy The policy to apply when the buffer is full.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder debugOverflowPolicy(OverflowPolicy overflowPolicy) {
+            debugOverflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Log only a sample of lines to the debug output.
+         *
+         * @param sampleRate Log one in every <code>sampleRate</code> lines. A value of 1 logs every
+         *                   line.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder debugSampleRate(int sampleRate) {
+            if (sampleRate < 1) {
+                throw new IllegalArgumentException("Debug sample rate must be at least 1.");
+            }
+            debugSampleRate = sampleRate;
+            return this;
+        }
+
         /**
          * Enables suppression of parse errors on commands from the server.
          * <p>
@@ -541,6 +1725,20 @@ public class IrcClient {
          */
         public IrcClientBuilder transport(Transport transport) {
             this.transport = transport;
+            transportFactory = null;
+            return this;
+        }
+
+        /**
+         * Specifies how to create a {@link Transport} for each connection, which allows the client
+         * to reconnect when enabled with {@link #reconnect()}.
+         *
+         * @param factory Creates the {@link Transport} for a connection.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder transport(Supplier<? extends Transport> factory) {
+            transportFactory = factory;
+            transport = factory.get();
             return this;
         }
 
@@ -551,8 +1749,7 @@ public class IrcClient {
          * @return The instance of the {@link IrcClientBuilder}.
          */
         public IrcClientBuilder webSocket(String uri) {
-            transport = WebSocketTransport.createSecure(uri);
-            return this;
+            return transport(() -> WebSocketTransport.createSecure(uri));
         }
 
         /**
@@ -563,8 +1760,20 @@ public class IrcClient {
          * @return The instance of the {@link IrcClientBuilder}.
          */
         public IrcClientBuilder webSocket(String uri, int port) {
-            transport = WebSocketTransport.createSecure(uri, port);
-            return this;
+            return transport(() -> WebSocketTransport.createSecure(uri, port));
+        }
+
+        /**
+         * Use a default WebSocket/TLS transport to a given URI and port which offers to compress
+         * messages with the <code>permessage-deflate</code> extension.
+         *
+         * @param uri         The URI to which to connect.
+         * @param port        The port on which to connect.
+         * @param compression The compression settings to negotiate.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder webSocket(String uri, int port, WebSocketCompression compression) {
+            return transport(() -> WebSocketTransport.createSecure(uri, port, compression));
         }
 
         /**
@@ -574,8 +1783,7 @@ public class IrcClient {
          * @return The instance of the {@link IrcClientBuilder}.
          */
         public IrcClientBuilder tcp(String host) {
-            transport = TcpTransport.createSecure(host);
-            return this;
+            return transport(() -> TcpTransport.createSecure(host));
         }
 
         /**
@@ -586,7 +1794,22 @@ public class IrcClient {
          * @return The instance of the {@link IrcClientBuilder}.
          */
         public IrcClientBuilder tcp(String host, int port) {
-            transport = TcpTransport.createSecure(host, port);
+            return transport(() -> TcpTransport.createSecure(host, port));
+        }
+
+        /**
+         * Set the bounds on the messages the transport reads ahead of the client, which stop
+         * reading from the connection while a slow subscriber holds up the client and resume it
+         * once it catches up. This applies to TCP and WebSocket transports, including those chosen
+         * by address such as with {@link #tcp(String)} and {@link #webSocket(String)}.
+         * <p>
+         * By default the transport's own watermarks are used.
+         *
+         * @param watermarks The bounds on the messages read but not yet requested.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder readWatermarks(ReadWatermarks watermarks) {
+            readWatermarks = watermarks;
             return this;
         }
 
@@ -607,7 +1830,7 @@ public class IrcClient {
         public IrcClientBuilder twitch() {
             // If no transport is set, use WebSocket to connect to Twitch servers.
             if (transport == null) {
-                transport = WebSocketTransport.createSecure("wss://irc-ws.chat.twitch.tv");
+                webSocket("wss://irc-ws.chat.twitch.tv");
             }
 
             // Set default anonymous Twitch connection values.
@@ -621,6 +1844,16 @@ public class IrcClient {
                 password = "SCHMOOPIE";
             }
 
+            // Twitch allows 20 join attempts in each 10 second period.
+            if (joinRatePeriod == null) {
+                joinRate(20, Duration.ofSeconds(10));
+            }
+
+            // Twitch allows an account 20 messages in each 30 second period.
+            if (messageRatePeriod == null) {
+                messageRate(20, Duration.ofSeconds(30));
+            }
+
             // Add the Twitch capabilities.
             capability("twitch.tv/tags");
             capability("twitch.tv/membership");
@@ -635,9 +1868,6 @@ public class IrcClient {
          * @return The instance of the {@link IrcClientBuilder}.
          */
         public IrcClientBuilder capability(final Capability capability) {
-            if (capabilities == null) {
-                capabilities = new HashSet<>();
-            }
             capabilities.add(capability);
             return this;
         }
@@ -653,6 +1883,338 @@ public class IrcClient {
             return capability(new Capability(capability));
         }
 
+        /**
+         * Record metrics for the client in a Micrometer {@link MeterRegistry}.
+         * <p>
+         * The client's meters are tagged with the lowest number not used by another open unnamed
+         * client in the registry, so each client has meters of its own.
+         *
+         * @param registry The registry in which to record metrics.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder metrics(MeterRegistry registry) {
+            meterRegistry = registry;
+            return this;
+        }
+
+        /**
+         * Record metrics for the client in a Micrometer {@link MeterRegistry}.
+         *
+         * @param registry       The registry in which to record metrics.
+         * @param connectionName The name of the connection to use in the metrics'
+         *                       <code>connection</code> tag. The names of connections should come
+         *                       from a small, fixed set. Should another open client in the registry
+         *                       have the same name, a number is added to keep their meters apart.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder metrics(MeterRegistry registry, String connectionName) {
+            this.connectionName = connectionName;
+            return metrics(registry);
+        }
+
+        /**
+         * Record the latency of each stage of the inbound pipeline, from the transport reading a
+         * line to the subscribers of {@link IrcClient#commands()} having processed it.
+         * <p>
+         * Latencies are available from {@link IrcClient#pipelineLatency()} and, when a registry is
+         * configured with {@link #metrics(MeterRegistry)}, are published as gauges.
+         *
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder pipelineLatency() {
+            return pipelineLatency(PipelineLatency.DEFAULT_WINDOW);
+        }
+
+        /**
+         * Record the latency of each stage of the inbound pipeline.
+         *
+         * @param window The window over which latency percentiles are reported.
+         * @return The instance of the {@link IrcClientBuilder}.
+         * @see #pipelineLatency()
+         */
+        public IrcClientBuilder pipelineLatency(Duration window) {
+            pipelineLatencyWindow = window;
+            return this;
+        }
+
+        /**
+         * Measure the latency of message delivery from the server to the client.
+         * <p>
+         * Latency is measured from the times servers stamp on messages, using the
+         * <code>tmi-sent-ts</code> tag on Twitch or the IRCv3 <code>server-time</code> capability,
+         * which must be requested separately. The server is also pinged periodically to measure
+         * the round trip time, which is used to correct for the skew between the server's clock and
+         * the client's.
+         * <p>
+         * Measurements are available from {@link IrcClient#serverLatency()} and, when a registry is
+         * configured with {@link #metrics(MeterRegistry)}, are published as gauges.
+         *
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder serverLatency() {
+            return serverLatency(ServerLatency.DEFAULT_PING_INTERVAL);
+        }
+
+        /**
+         * Measure the latency of message delivery from the server to the client.
+         *
+         * @param pingInterval The interval at which to ping the server to measure round trip time.
+         * @return The instance of the {@link IrcClientBuilder}.
+         * @see #serverLatency()
+         */
+        public IrcClientBuilder serverLatency(Duration pingInterval) {
+            serverLatencyPingInterval = pingInterval;
+            return this;
+        }
+
+        /**
+         * Send the registration commands in a single write.
+         * <p>
+         * Capability requests, SASL authentication, and the PASS, NICK and USER commands are all
+         * sent at once rather than each waiting for the previous to be sent, and capabilities are
+         * requested without waiting for the server to list them. The outcome is available from
+         * {@link IrcClient#registration()}.
+         *
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder pipelinedRegistration() {
+            return pipelinedRegistration(true);
+        }
+
+        /**
+         * Set whether to send the registration commands in a single write.
+         *
+         * @param enabled Whether to pipeline registration.
+         * @return The instance of the {@link IrcClientBuilder}.
+         * @see #pipelinedRegistration()
+         */
+        public IrcClientBuilder pipelinedRegistration(boolean enabled) {
+            pipelinedRegistration = enabled;
+            return this;
+        }
+
+        /**
+         * Log in to an account with SASL <code>PLAIN</code> during capability negotiation.
+         *
+         * @param account  The account to log in to.
+         * @param password The password for the account.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder sasl(String account, String password) {
+            saslAccount = account;
+            saslPassword = password;
+            return this;
+        }
+
+        /**
+         * Limit the rate at which the client joins channels.
+         * <p>
+         * Up to <code>joins</code> channels may be joined at once, after which joins are paced so
+         * that no more than <code>joins</code> are attempted in any window of length
+         * <code>period</code>, as servers which count joins over a sliding window require. By
+         * default joins are not limited, except when connecting to Twitch.
+         *
+         * @param joins  The number of channels which may be joined in each period.
+         * @param period The period over which joins are limited.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder joinRate(int joins, Duration period) {
+            if (joins < 1) {
+                throw new IllegalArgumentException("Join rate must be positive.");
+            }
+            joinRateLimit = joins;
+            joinRatePeriod = period;
+            return this;
+        }
+
+        /**
+         * Limit the requests made with {@link IrcClient#request(String)}.
+         * <p>
+         * By default up to {@value RequestCorrelator#DEFAULT_MAX_IN_FLIGHT} requests may await
+         * replies at once, and each waits 30 seconds for its reply.
+         *
+         * @param maxInFlight The number of requests which may await replies at once. Further
+         *                    requests are sent as earlier ones are answered.
+         * @param timeout     The time to wait for the reply to a request.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder requests(int maxInFlight, Duration timeout) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("The number of requests in flight must be positive.");
+            }
+            maxInFlightRequests = maxInFlight;
+            requestTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Drop messages which repeat one already received, as identified by their
+         * <code>msgid</code> tag, or their <code>id</code> tag on Twitch.
+         * <p>
+         * Up to {@value MessageDeduplicator#DEFAULT_CAPACITY} message IDs are remembered for 5
+         * minutes. Repeats are dropped before the client processes them, and the number of repeats
+         * and of new messages are counted in the client's metrics.
+         *
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder deduplicate() {
+            return deduplicate(new MessageDeduplicator());
+        }
+
+        /**
+         * Drop messages which repeat one already received.
+         *
+         * @param capacity The number of message IDs to remember.
+         * @param ttl      The time for which to remember a message ID.
+         * @return The instance of the {@link IrcClientBuilder}.
+         * @see #deduplicate()
+         */
+        public IrcClientBuilder deduplicate(int capacity, Duration ttl) {
+            return deduplicate(new MessageDeduplicator(capacity, ttl));
+        }
+
+        /**
+         * Drop messages which repeat one already seen by a deduplicator, which may be shared with
+         * other clients so that a message received by any of them is delivered only once.
+         *
+         * @param deduplicator The deduplicator, or null to deliver every message.
+         * @return The instance of the {@link IrcClientBuilder}.
+         * @see #deduplicate()
+         */
+        public IrcClientBuilder deduplicate(@Nullable MessageDeduplicator deduplicator) {
+            this.deduplicator = deduplicator;
+            return this;
+        }
+
+        /**
+         * Canonicalize the nicknames and channel names in the client's channel state through a
+         * cache, which may be shared with other clients to save memory.
+         * <p>
+         * By default each client has a cache of its own.
+         *
+         * @param cache The cache of canonical strings.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder stringCache(StringCache cache) {
+            stringCache = cache;
+            return this;
+        }
+
+        /**
+         * Look up the tag keys of commands from the server in a cache, which may be shared with
+         * other clients, rather than parsing each key.
+         *
+         * @param cache The cache of tag keys, or null to parse every key.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder tagKeyCache(@Nullable TagKeyCache cache) {
+            tagKeyCache = cache;
+            return this;
+        }
+
+        /**
+         * Reconnect when the connection is lost, with the default backoff.
+         * <p>
+         * After a reconnection the client registers again, negotiating its capabilities afresh,
+         * and rejoins the channels it was in, paced by the {@link #joinRate(int, Duration) join
+         * rate}. Subscribers of {@link IrcClient#commands()} remain subscribed throughout. Requests
+         * awaiting replies when the connection is lost fail. Progress is reported by
+         * {@link IrcClient#connectionEvents()}.
+         * <p>
+         * Reconnection requires a transport chosen by address, such as with {@link #tcp(String)},
+         * or created by a factory given to {@link #transport(Supplier)}.
+         *
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder reconnect() {
+            return reconnect(ReconnectingTransport.DEFAULT_MIN_BACKOFF, ReconnectingTransport.DEFAULT_MAX_BACKOFF);
+        }
+
+        /**
+         * Reconnect when the connection is lost.
+         * <p>
+         * The wait before each attempt doubles from <code>minBackoff</code> up to
+         * <code>maxBackoff</code> with each consecutive failure, and is randomly shortened by up to
+         * half so that many clients do not reconnect in step.
+         *
+         * @param minBackoff The wait before the first attempt.
+         * @param maxBackoff The longest wait between attempts.
+         * @return The instance of the {@link IrcClientBuilder}.
+         * @see #reconnect()
+         */
+        public IrcClientBuilder reconnect(Duration minBackoff, Duration maxBackoff) {
+            reconnect = true;
+            reconnectMinBackoff = minBackoff;
+            reconnectMaxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * Detect dead connections by pinging the server when the connection is idle.
+         * <p>
+         * When nothing has been read for <code>interval</code> the client pings the server, and
+         * measures the round trip time of the reply. Should nothing
+         * at all be read within <code>timeout</code> after the interval, the connection is taken
+         * to be dead. With {@link #reconnect()} it is then dropped and replaced, and otherwise the
+         * client is closed and {@link IrcClient#commands()} fails with an
+         * {@link IdleTimeoutException}. A half-open connection is thereby noticed within seconds
+         * rather than when the operating system gives up on it.
+         * <p>
+         * A {@link ReconnectingTransport} given to {@link #transport(Transport)} must itself be
+         * given the read timeout, of <code>interval</code> plus <code>timeout</code>, as the client
+         * leaves dropping a dead connection to it; {@link #connect()} fails if it has none.
+         * <p>
+         * Round trip times are available from {@link IrcClient#keepAliveRoundTripTime()}, are
+         * recorded in the client's metrics, and feed {@link #serverLatency() server latency}
+         * measurement when it is enabled.
+         *
+         * @param interval The time the connection may be idle before the server is pinged.
+         * @param timeout  The time after the interval by which the server must have replied.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder keepAlive(Duration interval, Duration timeout) {
+            if (interval.isNegative() || interval.isZero() || timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("The keepalive interval and timeout must be positive.");
+            }
+            keepAliveInterval = interval;
+            keepAliveTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Limit the rate at which the client sends messages with {@link IrcClient#privmsg(String,
+         * String)} and {@link IrcClient#notice(String, String)}.
+         * <p>
+         * Up to <code>messages</code> messages may be sent at once, after which messages are paced
+         * so that no more than <code>messages</code> are sent in any window of length
+         * <code>period</code>. By default messages are not limited, except when connecting to
+         * Twitch.
+         *
+         * @param messages The number of messages which may be sent in each period.
+         * @param period   The period over which messages are limited.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        public IrcClientBuilder messageRate(int messages, Duration period) {
+            if (messages < 1) {
+                throw new IllegalArgumentException("Message rate must be positive.");
+            }
+            messageRateLimit = messages;
+            messageRatePeriod = period;
+            return this;
+        }
+
+        /**
+         * Set the scheduler on which the client waits, whose clock also paces its joins and
+         * messages and times its keepalive, so tests can run the client on virtual time.
+         *
+         * @param timer The scheduler.
+         * @return The instance of the {@link IrcClientBuilder}.
+         */
+        IrcClientBuilder timer(Scheduler timer) {
+            this.timer = timer;
+            return this;
+        }
+
         public IrcClientBuilder invisible() {
             return invisible(true);
         }
@@ -689,7 +2251,45 @@ public class IrcClient {
             if (user == null) {
                 user = nickname;
             }
-            return new IrcClient(this);
+            if (keepAliveInterval != null && transport instanceof ReconnectingTransport
+                    && ((ReconnectingTransport) transport).getReadTimeout().isEmpty()) {
+                // The client leaves dead connections to the transport, which would never notice them.
+                throw new IllegalArgumentException("Keepalive requires the reconnecting transport to have a read "
+                        + "timeout.");
+            }
+            var built = this;
+            if (readWatermarks != null) {
+                // Replace the transport for this client alone, so a builder reused for another client
+                // does not share it.
+                built = new IrcClientBuilder(this);
+                var watermarks = readWatermarks;
+                built.transport = withWatermarks(transport, watermarks);
+                if (transportFactory != null) {
+                    var factory = transportFactory;
+                    built.transportFactory = () -> withWatermarks(factory.get(), watermarks);
+                }
+            }
+            if (reconnect && !(built.transport instanceof ReconnectingTransport)) {
+                if (built.transportFactory == null) {
+                    throw new IllegalArgumentException("Reconnection requires a transport factory.");
+                }
+                // Wrap the transport for this client alone, so a builder reused for another client
+                // does not share it.
+                built = new IrcClientBuilder(built);
+                built.transport = new ReconnectingTransport(built.transportFactory, reconnectMinBackoff,
+                        reconnectMaxBackoff, ReconnectingTransport.DEFAULT_JITTER, 0,
+                        keepAliveInterval != null ? keepAliveInterval.plus(keepAliveTimeout) : null);
+            }
+            return new IrcClient(built);
+        }
+
+        private static Transport withWatermarks(Transport transport, ReadWatermarks watermarks) {
+            if (transport instanceof TcpTransport) {
+                return ((TcpTransport) transport).withWatermarks(watermarks);
+            } else if (transport instanceof WebSocketTransport) {
+                return ((WebSocketTransport) transport).withWatermarks(watermarks);
+            }
+            throw new IllegalArgumentException("Read watermarks require a TCP or WebSocket transport.");
         }
     }
 }
@@ -0,0 +1,552 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.handler.ssl.SslContext;
+import org.proticity.irc.client.IrcClient.IrcClientBuilder;
+import org.proticity.irc.client.metrics.ClientMetrics;
+import org.proticity.irc.client.state.StringCache;
+import org.proticity.irc.client.state.TagKeyCache;
+import org.proticity.irc.client.transport.DnsCache;
+import org.proticity.irc.client.transport.HappyEyeballsConnector;
+import org.proticity.irc.client.transport.ReadWatermarks;
+import org.proticity.irc.client.transport.TcpTransport;
+import org.proticity.irc.client.transport.TlsContexts;
+import org.proticity.irc.client.transport.WebSocketTransport;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Manages many {@link IrcClient}s which share their resources.
+ * <p>
+ * Every client in a group runs on the group's event loops and makes TLS connections with the
+ * group's TLS context, whose session cache lets reconnections to a server resume their sessions
+ * rather than perform full handshakes. Clients also share caches of canonical strings and of
+ * parsed tag keys, and record their metrics in the group's registry. The per-client cost of a
+ * connection is then little more than its socket and its own state.
+ * <p>
+ * Clients are opened with {@link #open(IrcClientBuilder)}, which limits how many connect and
+ * register at once so that opening hundreds of clients does not flood the server or the CPU with
+ * handshakes. Closing the group closes its clients and releases its event loops.
+ */
+@ParametersAreNonnullByDefault
+public class IrcClientGroup {
+    private static final int DEFAULT_SECURE_TCP_PORT = 6697;
+
+    private static final int DEFAULT_SECURE_WEBSOCKET_PORT = 443;
+
+    private final LoopResources loops;
+    private final SslContext sslContext;
+    private final StringCache strings;
+    private final TagKeyCache tagKeys;
+    private final MeterRegistry meterRegistry;
+    private final int maxConcurrentConnects;
+    private final Duration connectTimeout;
+    private final HappyEyeballsConnector connector;
+    private final ReadWatermarks watermarks;
+
+    private final Set<IrcClient> clients = ConcurrentHashMap.newKeySet();
+    private final Queue<PendingConnect> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connecting = new AtomicInteger();
+
+    protected IrcClientGroup(IrcClientGroupBuilder builder) {
+        loops = LoopResources.create(builder.threadPrefix, builder.threads, true);
+        if (builder.sslContext != null) {
+            sslContext = builder.sslContext;
+        } else {
+            try {
+                sslContext = TlsContexts.create(builder.sslSessionCacheSize, builder.sslSessionTimeout);
+            } catch (UncheckedIOException e) {
+                loops.dispose();
+                throw e;
+            }
+        }
+        strings = new StringCache(builder.stringCacheSize);
+        tagKeys = new TagKeyCache();
+        meterRegistry = builder.meterRegistry;
+        maxConcurrentConnects = builder.maxConcurrentConnects;
+        connectTimeout = builder.connectTimeout;
+        watermarks = builder.watermarks;
+        connector = builder.dnsTtl != null
+                ? new HappyEyeballsConnector(new DnsCache(builder.dnsTtl), builder.stagger, meterRegistry) : null;
+        if (meterRegistry != null) {
+            Gauge.builder(ClientMetrics.PREFIX + "group.clients", clients, Set::size)
+                    .description("Clients open in the group").register(meterRegistry);
+            Gauge.builder(ClientMetrics.PREFIX + "group.connecting", connecting, AtomicInteger::get)
+                    .description("Clients of the group connecting").register(meterRegistry);
+            Gauge.builder(ClientMetrics.PREFIX + "group.queued", queue, Queue::size)
+                    .description("Clients of the group waiting to connect").register(meterRegistry);
+        }
+    }
+
+    /**
+     * Prepares a new client group.
+     *
+     * @return A builder for a new client group.
+     */
+    public static IrcClientGroupBuilder create() {
+        return new IrcClientGroupBuilder();
+    }
+
+    /**
+     * Prepares a client which shares the group's caches and metrics registry.
+     * <p>
+     * A transport must still be chosen for the client, which should be one of the group's, such as
+     * from {@link #tcp(String)}, for the client to share the group's event loops and TLS context.
+     * To let the client reconnect, give the builder a factory of the group's transports, such as
+     * <code>builder.transport(() -&gt; group.tcp(host))</code>.
+     * <p>
+     * Each client's meters are tagged with a number of its own, which is reused once the client
+     * closes, so the group's registry holds one set of meters for each open client.
+     *
+     * @return A builder for a new client.
+     */
+    public IrcClientBuilder client() {
+        var builder = IrcClient.create().stringCache(strings).tagKeyCache(tagKeys);
+        if (meterRegistry != null) {
+            builder.metrics(meterRegistry);
+        }
+        return builder;
+    }
+
+    /**
+     * Prepares a client for Twitch's TMI servers over a secure WebSocket connection from the
+     * group.
+     *
+     * @return A builder for a new client with Twitch support enabled.
+     * @see IrcClientBuilder#twitch()
+     */
+    public IrcClientBuilder twitch() {
+        return client().transport(() -> webSocket("wss://irc-ws.chat.twitch.tv")).twitch();
+    }
+
+    /**
+     * Creates a TCP/TLS transport to a host on the default port 6697, which runs on the group's
+     * event loops.
+     *
+     * @param host The host to which to connect.
+     * @return The transport.
+     */
+    public TcpTransport tcp(String host) {
+        return tcp(host, DEFAULT_SECURE_TCP_PORT);
+    }
+
+    /**
+     * Creates a TCP/TLS transport which runs on the group's event loops with the group's read
+     * watermarks. Should the group race connections, the host is resolved through the group's DNS
+     * cache.
+     *
+     * @param host The host to which to connect.
+     * @param port The port on which to connect.
+     * @return The transport.
+     */
+    public TcpTransport tcp(String host, int port) {
+        if (connector != null) {
+            return TcpTransport.createSecure(host, port, loops, sslContext, connector).withWatermarks(watermarks);
+        }
+        return TcpTransport.createSecure(host, port, loops, sslContext).withWatermarks(watermarks);
+    }
+
+    /**
+     * Creates a WebSocket/TLS transport to a URI on the default port 443, which runs on the
+     * group's event loops.
+     *
+     * @param uri The URI to which to connect.
+     * @return The transport.
+     */
+    public WebSocketTransport webSocket(String uri) {
+        return webSocket(uri, DEFAULT_SECURE_WEBSOCKET_PORT);
+    }
+
+    /**
+     * Creates a WebSocket/TLS transport which runs on the group's event loops with the group's
+     * read watermarks.
+     *
+     * @param uri  The URI to which to connect.
+     * @param port The port on which to connect.
+     * @return The transport.
+     */
+    public WebSocketTransport webSocket(String uri, int port) {
+        return WebSocketTransport.createSecure(uri, port, loops, sslContext).withWatermarks(watermarks);
+    }
+
+    /**
+     * Opens a client in the group.
+     * <p>
+     * The client connects once fewer than the group's maximum number of clients are connecting,
+     * and is emitted once it has registered with the server. Should registration fail or time out
+     * the client is closed and the error emitted instead.
+     *
+     * @param builder The builder for the client.
+     * @return A {@link Mono} of the registered client. The client is not opened until the result is
+     * subscribed to.
+     */
+    public Mono<IrcClient> open(IrcClientBuilder builder) {
+        return Mono.create(sink -> {
+            var pending = new PendingConnect(builder, sink);
+            sink.onCancel(() -> pending.cancelled = true);
+            queue.add(pending);
+            drain();
+        });
+    }
+
+    /**
+     * Opens many clients in the group.
+     *
+     * @param builders The builders for the clients.
+     * @return A {@link Flux} of the clients as they register.
+     * @see #open(IrcClientBuilder)
+     */
+    public Flux<IrcClient> openAll(Iterable<IrcClientBuilder> builders) {
+        return Flux.fromIterable(builders).flatMap(this::open, maxConcurrentConnects);
+    }
+
+    /**
+     * Closes a client and removes it from the group.
+     *
+     * @param client The client.
+     * @return A {@link Mono} which completes once the client is closed.
+     */
+    public Mono<Void> close(IrcClient client) {
+        return client.dispose().doFinally(signal -> clients.remove(client));
+    }
+
+    /**
+     * Returns the clients open in the group.
+     *
+     * @return The clients.
+     */
+    public Set<IrcClient> getClients() {
+        return Collections.unmodifiableSet(clients);
+    }
+
+    /**
+     * Returns the event loops the group's clients run on.
+     *
+     * @return The event loops.
+     */
+    public LoopResources getLoopResources() {
+        return loops;
+    }
+
+    /**
+     * Returns the TLS context the group's clients connect with.
+     *
+     * @return The TLS context.
+     */
+    public SslContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Returns the connector which races connections to the addresses of the group's servers.
+     *
+     * @return The connector, or null if the group connects to one address at a time.
+     */
+    @Nullable
+    public HappyEyeballsConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * Returns the cache of canonical strings shared by the group's clients.
+     *
+     * @return The string cache.
+     */
+    public StringCache getStringCache() {
+        return strings;
+    }
+
+    /**
+     * Returns the cache of tag keys shared by the group's clients.
+     *
+     * @return The tag key cache.
+     */
+    public TagKeyCache getTagKeyCache() {
+        return tagKeys;
+    }
+
+    /**
+     * Closes every client in the group and releases the group's event loops, blocking until they
+     * are released.
+     */
+    public void close() {
+        dispose().block();
+    }
+
+    /**
+     * Closes every client in the group and releases the group's event loops.
+     *
+     * @return A {@link Mono} for the operation, which must be subscribed to for the group to close.
+     */
+    public Mono<Void> dispose() {
+        return Flux.fromIterable(clients).flatMap(this::close).then(loops.disposeLater());
+    }
+
+    /**
+     * Starts connecting clients from the queue while fewer than the maximum are connecting.
+     */
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = connecting.get();
+            if (current >= maxConcurrentConnects) {
+                return;
+            }
+            if (!connecting.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            var pending = queue.poll();
+            if (pending == null || pending.cancelled) {
+                connecting.decrementAndGet();
+                continue;
+            }
+            connect(pending);
+        }
+    }
+
+    private void connect(PendingConnect pending) {
+        IrcClient client;
+        try {
+            client = pending.builder.connect();
+        } catch (RuntimeException e) {
+            release();
+            pending.sink.error(e);
+            return;
+        }
+        clients.add(client);
+        // The client leaves the group once its stream ends, even when it is closed directly
+        // rather than through the group.
+        client.commands().ignoreElements().subscribe(null, error -> clients.remove(client),
+                () -> clients.remove(client));
+        client.registration().timeout(connectTimeout).subscribe(result -> {
+            release();
+            if (pending.cancelled) {
+                close(client).subscribe();
+            } else {
+                pending.sink.success(client);
+            }
+        }, error -> {
+            release();
+            close(client).subscribe(null, closeError -> { });
+            pending.sink.error(error);
+        });
+    }
+
+    private void release() {
+        connecting.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * A client waiting to connect.
+     */
+    private static final class PendingConnect {
+        private final IrcClientBuilder builder;
+        private final MonoSink<IrcClient> sink;
+        private volatile boolean cancelled;
+
+        private PendingConnect(IrcClientBuilder builder, MonoSink<IrcClient> sink) {
+            this.builder = builder;
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * A builder for new instances of the {@link IrcClientGroup}.
+     */
+    @ParametersAreNonnullByDefault
+    public static class IrcClientGroupBuilder {
+        private String threadPrefix = "irc";
+
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        private SslContext sslContext;
+
+        private int sslSessionCacheSize = TlsContexts.DEFAULT_SESSION_CACHE_SIZE;
+
+        private Duration sslSessionTimeout = TlsContexts.DEFAULT_SESSION_TIMEOUT;
+
+        private int stringCacheSize = StringCache.DEFAULT_SIZE;
+
+        private MeterRegistry meterRegistry;
+
+        private int maxConcurrentConnects = 16;
+
+        private Duration connectTimeout = Duration.ofSeconds(30);
+
+        private Duration dnsTtl;
+
+        private Duration stagger = HappyEyeballsConnector.DEFAULT_STAGGER;
+
+        private ReadWatermarks watermarks = ReadWatermarks.DEFAULT;
+
+        /**
+         * Creates a new {@link IrcClientGroupBuilder}.
+         */
+        protected IrcClientGroupBuilder() {
+        }
+
+        /**
+         * Set the number of event loop threads the group's clients run on.
+         * <p>
+         * The default is one per available processor.
+         *
+         * @param prefix  The prefix of the names of the threads.
+         * @param threads The number of threads.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder threads(String prefix, int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("The number of threads must be positive.");
+            }
+            threadPrefix = prefix;
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Provide the TLS context for the group's clients to connect with, rather than one with
+         * the default settings. By default the group creates a context of its own, which uses the
+         * OpenSSL engine when it is available.
+         *
+         * @param sslContext The TLS context, or null to use the default.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder sslContext(@Nullable SslContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * Set how TLS sessions are cached for resumption when reconnecting. This has no effect on
+         * a TLS context provided with {@link #sslContext(SslContext)}.
+         * <p>
+         * By default 1024 sessions are cached for an hour.
+         *
+         * @param size    The number of sessions to cache.
+         * @param timeout The time for which a session is cached.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder sslSessionCache(int size, Duration timeout) {
+            sslSessionCacheSize = size;
+            sslSessionTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Set the size of the cache of canonical strings shared by the group's clients.
+         *
+         * @param size The number of slots in the cache.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder stringCacheSize(int size) {
+            stringCacheSize = size;
+            return this;
+        }
+
+        /**
+         * Record the metrics of the group and of its clients in a Micrometer
+         * {@link MeterRegistry}.
+         *
+         * @param registry The registry in which to record metrics.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder metrics(MeterRegistry registry) {
+            meterRegistry = registry;
+            return this;
+        }
+
+        /**
+         * Limit the number of clients which connect and register at once.
+         * <p>
+         * By default 16 clients connect at once, and each is given 30 seconds to register.
+         *
+         * @param maxConcurrentConnects The number of clients which may connect at once.
+         * @param timeout               The time a client is given to connect and register.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder connects(int maxConcurrentConnects, Duration timeout) {
+            if (maxConcurrentConnects < 1) {
+                throw new IllegalArgumentException("The number of concurrent connects must be positive.");
+            }
+            this.maxConcurrentConnects = maxConcurrentConnects;
+            connectTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Race connections to the addresses of a server over TCP, starting each after the one
+         * before fails or after a stagger, and cache resolved addresses across the group's
+         * clients. Servers whose names resolve to several addresses are then reached as quickly
+         * as the fastest of them, even when some are unreachable.
+         * <p>
+         * By default each client resolves its server's name itself and connects to one address at
+         * a time.
+         *
+         * @param dnsTtl  The time for which resolved addresses are cached.
+         * @param stagger The time to wait for an attempt before starting the next.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder happyEyeballs(Duration dnsTtl, Duration stagger) {
+            if (dnsTtl.isNegative() || stagger.isNegative()) {
+                throw new IllegalArgumentException("The DNS TTL and stagger must not be negative.");
+            }
+            this.dnsTtl = dnsTtl;
+            this.stagger = stagger;
+            return this;
+        }
+
+        /**
+         * Set the bounds on the messages the group's transports read ahead of their clients, which
+         * stop reading from a connection while a slow subscriber holds up its client.
+         * <p>
+         * By default the transports' own watermarks are used.
+         *
+         * @param watermarks The bounds on the messages read but not yet requested.
+         * @return The instance of the {@link IrcClientGroupBuilder}.
+         */
+        public IrcClientGroupBuilder readWatermarks(ReadWatermarks watermarks) {
+            this.watermarks = watermarks;
+            return this;
+        }
+
+        /**
+         * Produce the {@link IrcClientGroup}.
+         *
+         * @return The group.
+         */
+        public IrcClientGroup build() {
+            return new IrcClientGroup(this);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Packs channels into as few JOIN commands as the server's limits allow.
+ */
+@ParametersAreNonnullByDefault
+final class JoinPlanner {
+    private static final String JOIN = "JOIN ";
+
+    private JoinPlanner() {
+    }
+
+    /**
+     * Packs channels into JOIN commands, each of which joins a comma-separated list of channels.
+     *
+     * @param channels     The channels to join.
+     * @param maxLineBytes The maximum length of a command in bytes, excluding the line ending.
+     * @param maxTargets   The maximum number of channels in one command.
+     * @return The commands to send.
+     */
+    static List<String> plan(Collection<String> channels, int maxLineBytes, int maxTargets) {
+        var lines = new ArrayList<String>();
+        var line = new StringBuilder(maxLineBytes).append(JOIN);
+        int lineBytes = JOIN.length();
+        int targets = 0;
+        for (var channel : channels) {
+            int channelBytes = channel.getBytes(StandardCharsets.UTF_8).length;
+            if (targets > 0 && (targets >= maxTargets || lineBytes + 1 + channelBytes > maxLineBytes)) {
+                lines.add(line.toString());
+                line.setLength(JOIN.length());
+                lineBytes = JOIN.length();
+                targets = 0;
+            }
+            if (targets > 0) {
+                line.append(',');
+                lineBytes++;
+            }
+            line.append(channel);
+            lineBytes += channelBytes;
+            targets++;
+        }
+        if (targets > 0) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Counts the channels joined by a command produced by {@link #plan(Collection, int, int)}.
+     *
+     * @param line The command.
+     * @return The number of channels it joins.
+     */
+    static int targets(String line) {
+        int targets = 1;
+        for (int i = JOIN.length(); i < line.length(); i++) {
+            if (line.charAt(i) == ',') {
+                targets++;
+            }
+        }
+        return targets;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.IrcCommand;
+
+/**
+ * The outcome of joining one channel with {@link IrcClient#joinAll(java.util.Collection)}.
+ */
+@ParametersAreNonnullByDefault
+public final class JoinResult {
+    private final String channel;
+    private final boolean joined;
+    private final IrcCommand reply;
+
+    JoinResult(String channel, boolean joined, @Nullable IrcCommand reply) {
+        this.channel = channel;
+        this.joined = joined;
+        this.reply = reply;
+    }
+
+    /**
+     * Returns the name of the channel.
+     *
+     * @return The normalized name of the channel.
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns whether the client is in the channel.
+     *
+     * @return Whether the channel was joined.
+     */
+    public boolean isJoined() {
+        return joined;
+    }
+
+    /**
+     * Returns the reply from the server, which is the JOIN echoed back on success or the error
+     * reply on failure.
+     *
+     * @return The server's reply, or nothing if the client was already in the channel.
+     */
+    public Optional<IrcCommand> getReply() {
+        return Optional.ofNullable(reply);
+    }
+
+    @Override
+    public String toString() {
+        return channel + (joined ? " joined" : " not joined");
+    }
+}
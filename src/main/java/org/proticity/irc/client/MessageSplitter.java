@@ -0,0 +1,131 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.Utf8;
+
+/**
+ * Splits message text into pieces which fit within the server's line length once relayed.
+ * <p>
+ * Lengths are counted in UTF-8 bytes as the text is scanned, so the text is never encoded to
+ * measure it. Text is split after the last space which fits, or failing that between characters,
+ * never inside a surrogate pair or before a combining mark, variation selector, emoji modifier or
+ * joined character. Line breaks in the text always split it, as they cannot be sent within a line.
+ */
+@ParametersAreNonnullByDefault
+final class MessageSplitter {
+    private MessageSplitter() {
+    }
+
+    /**
+     * Splits text into pieces of at most a number of bytes.
+     *
+     * @param text     The text to split.
+     * @param maxBytes The maximum length of each piece in UTF-8 bytes, which must be at least 4 so
+     *                 that any character fits.
+     * @return The pieces, in order. Empty lines are dropped, but text which is empty to begin with
+     * is returned as a single empty piece.
+     */
+    static List<String> split(String text, int maxBytes) {
+        if (maxBytes < 4) {
+            throw new IllegalArgumentException("Messages must be allowed at least 4 bytes.");
+        }
+        // Every UTF-16 unit encodes to at most 3 bytes, so short text needs no scan.
+        if (text.length() <= maxBytes / 3 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return List.of(text);
+        }
+        var pieces = new ArrayList<String>(1 + text.length() * 3 / maxBytes);
+        int start = 0;
+        int bytes = 0;
+        int space = -1;
+        int boundary = -1;
+        int i = 0;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            if (cp == '\n' || cp == '\r') {
+                if (i > start) {
+                    pieces.add(text.substring(start, i));
+                }
+                start = ++i;
+                bytes = 0;
+                space = -1;
+                boundary = -1;
+                continue;
+            }
+            if (i > start && !extendsCluster(cp)) {
+                boundary = i;
+                if (cp == ' ') {
+                    space = i;
+                }
+            }
+            int length = Utf8.length(cp);
+            if (bytes + length > maxBytes) {
+                int end;
+                int next;
+                if (space > start) {
+                    end = space;
+                    next = space + 1;
+                } else {
+                    // Break between clusters, or within one only if it is longer than a whole piece.
+                    end = boundary > start ? boundary : i;
+                    next = end;
+                }
+                pieces.add(text.substring(start, end));
+                start = next;
+                i = next;
+                bytes = 0;
+                space = -1;
+                boundary = -1;
+                continue;
+            }
+            bytes += length;
+            i += Character.charCount(cp);
+        }
+        if (i > start || pieces.isEmpty()) {
+            pieces.add(text.substring(start));
+        }
+        return pieces;
+    }
+
+    /**
+     * Returns whether a character continues the grapheme cluster before it, so that text may not
+     * be split before it.
+     */
+    private static boolean extendsCluster(int cp) {
+        if (cp < 0x300) {
+            return false;
+        }
+        if (cp == 0x200D || (cp >= 0xFE00 && cp <= 0xFE0F) || (cp >= 0x1F3FB && cp <= 0x1F3FF)
+                || (cp >= 0xE0020 && cp <= 0xE007F)) {
+            // Zero width joiners, variation selectors, emoji modifiers and tag characters.
+            return true;
+        }
+        switch (Character.getType(cp)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
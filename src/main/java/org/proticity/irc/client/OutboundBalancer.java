@@ -0,0 +1,286 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.proticity.irc.client.metrics.ClientMetrics;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+/**
+ * Spreads outbound messages over several clients, each logged in to its own account.
+ * <p>
+ * Servers limit the rate at which each account may send, so a pool of accounts can send at the
+ * combined rate of all of them. Each message goes to the client with the most of its
+ * {@link IrcClient#messageBudget() message budget} remaining, so that accounts are used in
+ * proportion to their real limits rather than in turn. A channel may be pinned to one client, such
+ * as the account with moderator rights in it.
+ * <p>
+ * Messages to the same channel through different connections may arrive out of order. Channels
+ * for which order matters can be marked as ordered: their messages are queued and sent one after
+ * another, through a single client for as long as any are pending. A message whose subscriber
+ * cancels before its turn is dropped from the queue; once its turn comes it is sent regardless.
+ */
+@ParametersAreNonnullByDefault
+public class OutboundBalancer {
+    private final List<Member> members = new ArrayList<>();
+    private final Map<String, Member> pinned = new ConcurrentHashMap<>();
+    private final Map<String, OrderedChannel> ordered = new HashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+
+    /**
+     * Creates a balancer over some clients.
+     *
+     * @param clients The clients to send through.
+     */
+    public OutboundBalancer(Collection<IrcClient> clients) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one client is required.");
+        }
+        for (var client : clients) {
+            members.add(new Member(client));
+        }
+    }
+
+    /**
+     * Sends every message to a channel through one client.
+     *
+     * @param channel The channel.
+     * @param client  The client to send through, which must be one of the balancer's.
+     * @return The balancer.
+     */
+    public OutboundBalancer pin(String channel, IrcClient client) {
+        pinned.put(IrcClient.normalizeChannelName(channel), member(client));
+        return this;
+    }
+
+    /**
+     * Keeps the messages to a channel in the order they are sent.
+     *
+     * @param channel The channel.
+     * @return The balancer.
+     */
+    public synchronized OutboundBalancer ordered(String channel) {
+        ordered.putIfAbsent(IrcClient.normalizeChannelName(channel), new OrderedChannel());
+        return this;
+    }
+
+    /**
+     * Sends a message to a channel through the client with the most budget remaining, or through
+     * the channel's pinned client.
+     *
+     * @param channel The channel.
+     * @param text    The text of the message.
+     * @return A {@link Mono} which completes once the message is sent.
+     * @see IrcClient#privmsg(String, String)
+     */
+    public Mono<Void> privmsg(String channel, String text) {
+        return Mono.defer(() -> {
+            var name = IrcClient.normalizeChannelName(channel);
+            OrderedChannel order;
+            synchronized (this) {
+                order = ordered.get(name);
+                if (order != null) {
+                    return order.enqueue(name, text);
+                }
+            }
+            return send(choose(name), name, text);
+        });
+    }
+
+    /**
+     * Returns the number of messages sent through the balancer.
+     *
+     * @return The number of messages sent.
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * Returns the number of messages sent through one of the balancer's clients.
+     *
+     * @param client The client.
+     * @return The number of messages sent through the client.
+     */
+    public long getSent(IrcClient client) {
+        return member(client).sent.sum();
+    }
+
+    /**
+     * Publishes the number of messages sent through the balancer, in total and through each client,
+     * as counters.
+     *
+     * @param registry The registry in which to record metrics.
+     * @param name     The name of the balancer in the metrics' <code>balancer</code> tag.
+     */
+    public void metrics(MeterRegistry registry, String name) {
+        FunctionCounter.builder(ClientMetrics.PREFIX + "balancer.sent", sent, LongAdder::sum)
+                .tag("balancer", name).description("Messages sent through the balancer").register(registry);
+        for (int i = 0; i < members.size(); i++) {
+            FunctionCounter.builder(ClientMetrics.PREFIX + "balancer.client.sent", members.get(i).sent,
+                    LongAdder::sum).tag("balancer", name).tag("client", Integer.toString(i))
+                    .description("Messages sent through one client of the balancer").register(registry);
+        }
+    }
+
+    private Mono<Void> send(Member member, String channel, String text) {
+        return member.client.privmsg(channel, text).doOnSuccess(v -> {
+            sent.increment();
+            member.sent.increment();
+        });
+    }
+
+    /**
+     * Chooses the client to send a message to a channel through.
+     */
+    private Member choose(String channel) {
+        var member = pinned.get(channel);
+        if (member != null) {
+            return member;
+        }
+        // Start from a rotating position so that clients with equal budgets take turns.
+        int start = Math.floorMod(next.getAndIncrement(), members.size());
+        Member best = null;
+        long bestDelay = Long.MAX_VALUE;
+        long bestAvailable = -1;
+        for (int i = 0; i < members.size(); i++) {
+            var candidate = members.get((start + i) % members.size());
+            var budget = candidate.client.messageBudget().orElse(null);
+            if (budget == null) {
+                return candidate;
+            }
+            long delay = budget.delay(1);
+            long available = budget.available();
+            if (delay < bestDelay || (delay == bestDelay && available > bestAvailable)) {
+                best = candidate;
+                bestDelay = delay;
+                bestAvailable = available;
+            }
+        }
+        return best;
+    }
+
+    private Member member(IrcClient client) {
+        for (var member : members) {
+            if (member.client == client) {
+                return member;
+            }
+        }
+        throw new IllegalArgumentException("The client is not one of the balancer's.");
+    }
+
+    /**
+     * A client and the messages sent through it.
+     */
+    private static final class Member {
+        private final IrcClient client;
+        private final LongAdder sent = new LongAdder();
+
+        private Member(IrcClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * The messages pending to a channel whose order is kept.
+     */
+    private final class OrderedChannel {
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private Member member;
+        private boolean sending;
+
+        /**
+         * Queues a message behind the channel's earlier messages. Called while holding the
+         * balancer's lock.
+         */
+        private Mono<Void> enqueue(String channel, String text) {
+            var message = new Pending(text);
+            queue.add(message);
+            return message.result.doOnSubscribe(s -> sendNext(channel)).doOnCancel(() -> {
+                synchronized (OutboundBalancer.this) {
+                    if (queue.remove(message) && queue.isEmpty() && !sending) {
+                        member = null;
+                    }
+                }
+            });
+        }
+
+        /**
+         * Sends the message at the head of the queue unless one is being sent, through the client
+         * the earlier messages were sent through if any are still pending.
+         */
+        private void sendNext(String channel) {
+            Pending message;
+            Member through;
+            synchronized (OutboundBalancer.this) {
+                if (sending || queue.isEmpty()) {
+                    if (!sending) {
+                        member = null;
+                    }
+                    return;
+                }
+                message = queue.poll();
+                if (member == null) {
+                    member = choose(channel);
+                }
+                through = member;
+                sending = true;
+            }
+            send(through, channel, message.text).subscribe(null, error -> {
+                message.result.onError(error);
+                sent(channel);
+            }, () -> {
+                message.result.onComplete();
+                sent(channel);
+            });
+        }
+
+        private void sent(String channel) {
+            synchronized (OutboundBalancer.this) {
+                sending = false;
+            }
+            sendNext(channel);
+        }
+    }
+
+    /**
+     * A message queued to an ordered channel, and the result of sending it.
+     */
+    private static final class Pending {
+        private final String text;
+        private final MonoProcessor<Void> result = MonoProcessor.create();
+
+        private Pending(String text) {
+            this.text = text;
+        }
+    }
+}
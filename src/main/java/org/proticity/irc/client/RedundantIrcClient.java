@@ -0,0 +1,321 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.IrcClient.IrcClientBuilder;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.metrics.ServerTime;
+import org.proticity.irc.client.state.MessageDeduplicator;
+import org.proticity.irc.client.transport.ConnectionEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A client which keeps standby connections in the same channels as its primary connection, so that
+ * nothing is missed when one connection fails.
+ * <p>
+ * Every connection joins every channel, ideally through a different endpoint. The commands they
+ * receive are merged into one stream, in which each message appears once. Messages are recognized
+ * by their message IDs, or failing that by the time the server sent them together with their
+ * content. Commands which carry neither, and so cannot be told apart from a genuine repeat, are
+ * passed on only from the primary. Whichever connection delivers a message first delivers it, so a
+ * message is not lost while any connection is receiving.
+ * <p>
+ * Messages are sent through the primary. The primary is healthy while it is registered and its
+ * connection is up. Once it is not, the first healthy standby is promoted in its place. Since the
+ * standby is already in the channels, it takes over without joining them again. Clients configured
+ * with {@link IrcClientBuilder#keepAlive(java.time.Duration, java.time.Duration) keepalive} notice
+ * a dead connection, and so fail over, within seconds. A failed connection which recovers becomes a
+ * standby.
+ */
+@ParametersAreNonnullByDefault
+public class RedundantIrcClient {
+    private final List<Member> members;
+    private final MessageDeduplicator deduplicator;
+    private final Flux<IrcCommand> inbound;
+    private final AtomicLong failovers = new AtomicLong();
+    private volatile Member primary;
+
+    /**
+     * Creates a redundant client and opens its connections, recognizing repeated messages with a
+     * deduplicator of the default size.
+     *
+     * @param builders    Prepares the client for each connection, given the connection's number.
+     *                    The first connection starts as the primary.
+     * @param connections The number of connections.
+     */
+    public RedundantIrcClient(IntFunction<IrcClientBuilder> builders, int connections) {
+        this(builders, connections, new MessageDeduplicator());
+    }
+
+    /**
+     * Creates a redundant client and opens its connections.
+     *
+     * @param builders     Prepares the client for each connection, given the connection's number.
+     *                     The first connection starts as the primary.
+     * @param connections  The number of connections.
+     * @param deduplicator Recognizes the messages already received by another connection. Its time to
+     *                     live must exceed the difference in delivery times between connections.
+     */
+    public RedundantIrcClient(IntFunction<IrcClientBuilder> builders, int connections,
+                              MessageDeduplicator deduplicator) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("The number of connections must be positive.");
+        }
+        this.deduplicator = deduplicator;
+        var opened = new ArrayList<Member>(connections);
+        for (int i = 0; i < connections; i++) {
+            opened.add(new Member(builders.apply(i).connect()));
+        }
+        members = Collections.unmodifiableList(opened);
+        primary = members.get(0);
+        var streams = new ArrayList<Flux<IrcCommand>>(connections);
+        for (var member : members) {
+            streams.add(member.client.commands().onErrorResume(error -> Flux.empty())
+                    .filter(command -> accept(member, command)));
+        }
+        inbound = Flux.merge(streams).publish().autoConnect();
+        for (var member : members) {
+            monitor(member);
+        }
+    }
+
+    /**
+     * Returns the commands received by every connection, merged into one stream without repeats.
+     *
+     * @return The commands coming from the server.
+     */
+    public Flux<IrcCommand> commands() {
+        return inbound;
+    }
+
+    /**
+     * Joins a channel on every connection.
+     *
+     * @param channel The channel to join.
+     * @return A {@link Mono} of the result of joining on the first connection to succeed, or of
+     * the last to fail if every connection fails.
+     */
+    public Mono<JoinResult> join(String channel) {
+        return joinAll(List.of(channel)).next();
+    }
+
+    /**
+     * Joins many channels on every connection, once each has registered.
+     *
+     * @param channels The channels to join.
+     * @return A {@link Flux} of the result of joining each channel, from the first connection to
+     * join it, or the last to fail if every connection fails.
+     */
+    public Flux<JoinResult> joinAll(Collection<String> channels) {
+        return Flux.fromIterable(members)
+                .flatMap(member -> member.client.registration().thenMany(member.client.joinAll(channels))
+                        .onErrorResume(error -> Flux.empty()))
+                .groupBy(JoinResult::getChannel)
+                .flatMap(results -> results.takeUntil(JoinResult::isJoined).last(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Leaves a channel on every connection.
+     *
+     * @param channel The channel to leave.
+     * @return A {@link Mono} of whether any connection was in the channel.
+     */
+    public Mono<Boolean> part(String channel) {
+        return Flux.fromIterable(members).flatMap(member -> member.client.part(channel)
+                .onErrorResume(error -> Mono.just(false))).any(Boolean::booleanValue);
+    }
+
+    /**
+     * Sends a message to a channel or user through the primary.
+     *
+     * @param target The channel or user.
+     * @param text   The text of the message.
+     * @return A {@link Mono} which completes once the message is sent.
+     * @see IrcClient#privmsg(String, String)
+     */
+    public Mono<Void> privmsg(String target, String text) {
+        return Mono.defer(() -> primary.client.privmsg(target, text));
+    }
+
+    /**
+     * Sends commands through the primary.
+     *
+     * @param commands The commands to send.
+     * @return A {@link Mono} which completes once the commands are sent.
+     * @see IrcClient#sendThen(Flux)
+     */
+    public Mono<Void> sendThen(Flux<String> commands) {
+        return Mono.defer(() -> primary.client.sendThen(commands));
+    }
+
+    /**
+     * Returns the client through which messages are currently sent.
+     *
+     * @return The primary client.
+     */
+    public IrcClient getPrimary() {
+        return primary.client;
+    }
+
+    /**
+     * Returns the clients of every connection.
+     *
+     * @return The clients, in order of their connection numbers.
+     */
+    public List<IrcClient> getClients() {
+        var clients = new ArrayList<IrcClient>(members.size());
+        for (var member : members) {
+            clients.add(member.client);
+        }
+        return Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Returns the number of times a standby has been promoted to primary.
+     *
+     * @return The number of failovers.
+     */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    /**
+     * Returns the deduplicator recognizing messages received by more than one connection, whose
+     * hits count the messages received redundantly.
+     *
+     * @return The deduplicator.
+     */
+    public MessageDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Close every connection, blocking until they are closed.
+     */
+    public void close() {
+        dispose().block();
+    }
+
+    /**
+     * Close every connection without blocking.
+     *
+     * @return A {@link Mono} for the operation, which must be subscribed to for the connections to
+     * close.
+     */
+    public Mono<Void> dispose() {
+        return Flux.fromIterable(members).flatMap(member -> member.client.dispose()).then();
+    }
+
+    /**
+     * Returns whether to pass on a command received by a connection.
+     */
+    private boolean accept(Member member, IrcCommand command) {
+        var id = MessageDeduplicator.messageId(command);
+        if (id != null) {
+            return !deduplicator.isDuplicate(id);
+        }
+        long sent = ServerTime.of(command);
+        if (sent != ServerTime.UNKNOWN) {
+            return !deduplicator.isDuplicate(contentKey(sent, command));
+        }
+        return member == primary;
+    }
+
+    /**
+     * Identifies a message without an ID by the time it was sent and its content.
+     */
+    static String contentKey(long sent, IrcCommand command) {
+        var key = new StringBuilder(64).append(sent).append(' ');
+        command.getPrefix().ifPresent(prefix -> key.append(prefix).append(' '));
+        key.append(command.getCommand());
+        for (var param : command.getParameters()) {
+            key.append(' ').append(param);
+        }
+        command.getTrailingParameter().ifPresent(trailing -> key.append(" :").append(trailing));
+        return key.toString();
+    }
+
+    /**
+     * Follows the health of a connection, failing over when the primary becomes unhealthy.
+     */
+    private void monitor(Member member) {
+        member.client.registration().subscribe(result -> healthy(member), error -> unhealthy(member));
+        member.client.connectionEvents().subscribe(event -> {
+            if (event.getType() == ConnectionEvent.Type.DISCONNECTED
+                    || event.getType() == ConnectionEvent.Type.CLOSED) {
+                unhealthy(member);
+            } else if (event.getType() == ConnectionEvent.Type.CONNECTED && event.isReconnect()) {
+                // The client registers afresh on the new connection.
+                member.client.registration().subscribe(result -> healthy(member), error -> unhealthy(member));
+            }
+        });
+        member.client.commands().ignoreElements().subscribe(null, error -> unhealthy(member),
+                () -> unhealthy(member));
+    }
+
+    private synchronized void healthy(Member member) {
+        member.healthy = true;
+        member.failed = false;
+        if (primary.failed) {
+            // No standby was ready when the primary failed.
+            promote(member);
+        }
+    }
+
+    private synchronized void unhealthy(Member member) {
+        member.healthy = false;
+        member.failed = true;
+        if (member == primary) {
+            for (var standby : members) {
+                if (standby.healthy) {
+                    promote(standby);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void promote(Member member) {
+        if (member != primary) {
+            primary = member;
+            failovers.incrementAndGet();
+        }
+    }
+
+    /**
+     * A connection and its health.
+     */
+    private static final class Member {
+        private final IrcClient client;
+        private volatile boolean healthy;
+        private volatile boolean failed;
+
+        private Member(IrcClient client) {
+            this.client = client;
+        }
+    }
+}
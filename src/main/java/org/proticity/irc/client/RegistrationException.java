@@ -0,0 +1,50 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.IrcCommand;
+
+/**
+ * An exception signalling that the server refused to register the client.
+ */
+@ParametersAreNonnullByDefault
+public class RegistrationException extends RuntimeException {
+    private final transient IrcCommand reply;
+
+    public RegistrationException(String message) {
+        this(message, null);
+    }
+
+    public RegistrationException(String message, @Nullable IrcCommand reply) {
+        super(message);
+        this.reply = reply;
+    }
+
+    /**
+     * Returns the reply from the server which refused registration.
+     *
+     * @return The server's reply, if registration failed because of one.
+     */
+    public Optional<IrcCommand> getReply() {
+        return Optional.ofNullable(reply);
+    }
+}
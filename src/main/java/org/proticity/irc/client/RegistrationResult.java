@@ -0,0 +1,97 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.Capability;
+
+/**
+ * The outcome of registering a connection with the server.
+ */
+@ParametersAreNonnullByDefault
+public final class RegistrationResult {
+    private final String nickname;
+    private final String server;
+    private final Set<Capability> capabilities;
+    private final String account;
+    private final Duration duration;
+
+    RegistrationResult(String nickname, @Nullable String server, Set<Capability> capabilities,
+                       @Nullable String account, Duration duration) {
+        this.nickname = nickname;
+        this.server = server;
+        this.capabilities = Set.copyOf(capabilities);
+        this.account = account;
+        this.duration = duration;
+    }
+
+    /**
+     * Returns the nickname the server registered the client with.
+     *
+     * @return The client's nickname.
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Returns the name of the server the client registered with.
+     *
+     * @return The server's name, if it gave one.
+     */
+    public Optional<String> getServer() {
+        return Optional.ofNullable(server);
+    }
+
+    /**
+     * Returns the capabilities enabled when registration finished.
+     *
+     * @return The enabled capabilities.
+     */
+    public Set<Capability> getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Returns the account the client logged in to with SASL.
+     *
+     * @return The account, if the client logged in.
+     */
+    public Optional<String> getAccount() {
+        return Optional.ofNullable(account);
+    }
+
+    /**
+     * Returns the time from sending the first registration command until registration finished.
+     *
+     * @return The time taken to register.
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "RegistrationResult[" + nickname + "@" + server + " in " + duration.toMillis() + "ms]";
+    }
+}
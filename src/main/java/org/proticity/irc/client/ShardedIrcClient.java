@@ -0,0 +1,429 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.IrcClient.IrcClientBuilder;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.transport.ReconnectingTransport;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+/**
+ * A client which spreads its channels over several connections.
+ * <p>
+ * Servers limit how many channels one connection may join and how much one connection may read,
+ * so following many channels takes many connections. Channels are placed on connections, or
+ * shards, by consistent hashing, and no shard is given more than a set number of channels. When
+ * every shard is full another is opened. When a shard's connection is lost for good its channels
+ * are rejoined on the other shards and a replacement shard is opened, which takes new channels
+ * once it has registered. Replacements are opened after a backoff which grows with each
+ * replacement that fails before registering, so an unreachable server is not retried in a tight
+ * loop. Channels which no other shard can take wait for the replacement.
+ * <p>
+ * The commands received by every shard are merged into a single stream. Each shard is an ordinary
+ * {@link IrcClient}, which may itself be configured to reconnect.
+ */
+@ParametersAreNonnullByDefault
+public class ShardedIrcClient {
+    /**
+     * The number of points at which each shard is placed on the hash ring.
+     */
+    private static final int RING_POINTS = 64;
+
+    private final IntFunction<IrcClientBuilder> builders;
+    private final int channelsPerShard;
+    private final HashRing ring = new HashRing(RING_POINTS);
+    private final List<Shard> shards = new ArrayList<>();
+    private final Map<String, Shard> assignments = new HashMap<>();
+    private final Flux<IrcCommand> inbound;
+    private final long minBackoff;
+    private final long maxBackoff;
+
+    /**
+     * Receives the stream of each shard opened once the merged stream has been subscribed to.
+     */
+    private FluxSink<Flux<IrcCommand>> streamSink;
+    private boolean disposed;
+
+    /**
+     * Creates a sharded client and opens its first shards.
+     *
+     * @param builders         Prepares the client for each shard, given the shard's number.
+     * @param shards           The number of shards to open at first.
+     * @param channelsPerShard The most channels any shard may be in.
+     */
+    public ShardedIrcClient(IntFunction<IrcClientBuilder> builders, int shards, int channelsPerShard) {
+        this(builders, shards, channelsPerShard, ReconnectingTransport.DEFAULT_MIN_BACKOFF,
+                ReconnectingTransport.DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * Creates a sharded client and opens its first shards.
+     *
+     * @param builders         Prepares the client for each shard, given the shard's number.
+     * @param shards           The number of shards to open at first.
+     * @param channelsPerShard The most channels any shard may be in.
+     * @param minBackoff       The wait before replacing a lost shard, which doubles with each
+     *                         consecutive replacement which fails before registering.
+     * @param maxBackoff       The longest wait before replacing a lost shard.
+     */
+    public ShardedIrcClient(IntFunction<IrcClientBuilder> builders, int shards, int channelsPerShard,
+                            Duration minBackoff, Duration maxBackoff) {
+        if (shards < 1 || channelsPerShard < 1) {
+            throw new IllegalArgumentException("The number of shards and of channels per shard must be positive.");
+        }
+        if (minBackoff.isNegative() || minBackoff.isZero() || maxBackoff.compareTo(minBackoff) < 0) {
+            throw new IllegalArgumentException("Backoff must be positive, with the maximum at least the minimum.");
+        }
+        this.builders = builders;
+        this.channelsPerShard = channelsPerShard;
+        this.minBackoff = minBackoff.toNanos();
+        this.maxBackoff = maxBackoff.toNanos();
+        // Only the streams of live shards are merged, those open when the merged stream is first
+        // subscribed to and those opened later, so lost shards are not held on to.
+        inbound = Flux.<Flux<IrcCommand>>create(sink -> {
+            synchronized (this) {
+                for (var shard : this.shards) {
+                    if (shard.live) {
+                        sink.next(shard.client.commands());
+                    }
+                }
+                streamSink = sink;
+            }
+        }).flatMap(stream -> stream.onErrorResume(error -> Flux.empty()), Integer.MAX_VALUE)
+                .publish().autoConnect();
+        synchronized (this) {
+            for (int i = 0; i < shards; i++) {
+                open(ring.addShard(), true, 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the commands received by every shard, merged into one stream.
+     * <p>
+     * Commands which every connection receives, such as PINGs, appear once for each shard.
+     *
+     * @return The commands coming from the server.
+     */
+    public Flux<IrcCommand> commands() {
+        return inbound;
+    }
+
+    /**
+     * Joins a channel on the shard it belongs to.
+     *
+     * @param channel The channel to join.
+     * @return A {@link Mono} of the result of the join.
+     */
+    public Mono<JoinResult> join(String channel) {
+        return joinAll(List.of(channel)).next();
+    }
+
+    /**
+     * Joins many channels, each on the shard it belongs to.
+     * <p>
+     * The channels of each shard are joined together with {@link IrcClient#joinAll(Collection)}
+     * once the shard has registered. Channels which the server refuses are released from their
+     * shards.
+     *
+     * @param channels The channels to join.
+     * @return A {@link Flux} of the result of joining each channel.
+     */
+    public Flux<JoinResult> joinAll(Collection<String> channels) {
+        return Flux.defer(() -> {
+            var requested = new LinkedHashSet<String>();
+            for (var channel : channels) {
+                requested.add(IrcClient.normalizeChannelName(channel));
+            }
+            return joinPlaced(assign(requested, null));
+        });
+    }
+
+    /**
+     * Leaves a channel.
+     *
+     * @param channel The channel to leave.
+     * @return A {@link Mono} of whether the client was in the channel.
+     */
+    public Mono<Boolean> part(String channel) {
+        return Mono.defer(() -> {
+            var name = IrcClient.normalizeChannelName(channel);
+            Shard shard;
+            synchronized (this) {
+                shard = assignments.remove(name);
+                if (shard != null) {
+                    shard.channels.remove(name);
+                }
+            }
+            return shard == null ? Mono.just(false) : shard.client.part(name);
+        });
+    }
+
+    /**
+     * Returns the client of the shard a channel has been joined on, through which messages to the
+     * channel should be sent.
+     *
+     * @param channel The channel.
+     * @return The shard's client, if the channel has been joined.
+     */
+    public synchronized Optional<IrcClient> shardFor(String channel) {
+        var shard = assignments.get(IrcClient.normalizeChannelName(channel));
+        return shard == null ? Optional.empty() : Optional.of(shard.client);
+    }
+
+    /**
+     * Sends a message to a channel through the shard it has been joined on.
+     *
+     * @param channel The channel.
+     * @param text    The text of the message.
+     * @return A {@link Mono} which completes once the message is sent, or fails if the channel has
+     * not been joined.
+     * @see IrcClient#privmsg(String, String)
+     */
+    public Mono<Void> privmsg(String channel, String text) {
+        return Mono.defer(() -> shardFor(channel).map(client -> client.privmsg(channel, text))
+                .orElseGet(() -> Mono.error(new IllegalStateException("Channel " + channel + " is not joined."))));
+    }
+
+    /**
+     * Returns the clients of the shards.
+     *
+     * @return The shards' clients, in order of their shard numbers.
+     */
+    public synchronized List<IrcClient> getShards() {
+        var clients = new ArrayList<IrcClient>(shards.size());
+        for (var shard : shards) {
+            clients.add(shard.client);
+        }
+        return Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Returns the number of channels assigned to shards.
+     *
+     * @return The number of channels.
+     */
+    public synchronized int getChannelCount() {
+        return assignments.size();
+    }
+
+    /**
+     * Close every shard, blocking until they are closed.
+     */
+    public void close() {
+        dispose().block();
+    }
+
+    /**
+     * Close every shard without blocking.
+     *
+     * @return A {@link Mono} for the operation, which must be subscribed to for the shards to
+     * close.
+     */
+    public Mono<Void> dispose() {
+        return Mono.defer(() -> {
+            List<Shard> closing;
+            synchronized (this) {
+                disposed = true;
+                closing = new ArrayList<>(shards);
+                if (streamSink != null) {
+                    streamSink.complete();
+                }
+            }
+            return Flux.fromIterable(closing).flatMap(shard -> shard.client.dispose()).then();
+        });
+    }
+
+    /**
+     * Places channels on shards, opening shards as needed.
+     *
+     * @param channels The channels to place.
+     * @param unplaced Receives the channels no shard can take, rather than opening another shard
+     *                 for them, or null to open shards as needed.
+     * @return The channels placed on each shard which are not already in a shard.
+     */
+    private synchronized Map<Shard, List<String>> assign(Collection<String> channels,
+                                                         @Nullable Collection<String> unplaced) {
+        var placed = new HashMap<Shard, List<String>>();
+        for (var channel : channels) {
+            if (assignments.containsKey(channel)) {
+                continue;
+            }
+            int index = ring.locate(channel, this::accepts);
+            if (index < 0) {
+                if (unplaced != null) {
+                    unplaced.add(channel);
+                    continue;
+                }
+                index = ring.addShard();
+                open(index, true, 0);
+            }
+            place(shards.get(index), channel, placed);
+        }
+        return placed;
+    }
+
+    private void place(Shard shard, String channel, Map<Shard, List<String>> placed) {
+        shard.channels.add(channel);
+        assignments.put(channel, shard);
+        placed.computeIfAbsent(shard, s -> new ArrayList<>()).add(channel);
+    }
+
+    private Flux<JoinResult> joinPlaced(Map<Shard, List<String>> placed) {
+        return Flux.fromIterable(placed.entrySet()).flatMap(entry -> joinOn(entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * Returns whether a shard can take another channel.
+     */
+    private boolean accepts(int index) {
+        var shard = shards.get(index);
+        return shard.accepting && shard.channels.size() < channelsPerShard;
+    }
+
+    /**
+     * Joins channels on a shard once it has registered.
+     */
+    private Flux<JoinResult> joinOn(Shard shard, List<String> channels) {
+        return shard.client.registration().thenMany(shard.client.joinAll(channels)).doOnNext(result -> {
+            if (!result.isJoined()) {
+                release(shard, result.getChannel());
+            }
+        });
+    }
+
+    private synchronized void release(Shard shard, String channel) {
+        if (assignments.remove(channel, shard)) {
+            shard.channels.remove(channel);
+        }
+    }
+
+    /**
+     * Opens the client of a shard, replacing any earlier client of the same shard. Must be called
+     * while holding the client's lock.
+     *
+     * @param index     The number of the shard.
+     * @param accepting Whether the shard takes channels before it has registered.
+     * @param failures  The number of consecutive replacements of the shard which failed before
+     *                  registering.
+     * @return The shard.
+     */
+    private Shard open(int index, boolean accepting, int failures) {
+        var shard = new Shard(builders.apply(index).connect(), failures);
+        shard.accepting = accepting;
+        if (index < shards.size()) {
+            shards.set(index, shard);
+        } else {
+            shards.add(shard);
+        }
+        if (streamSink != null) {
+            streamSink.next(shard.client.commands());
+        }
+        // The shard takes new channels once registered, and is lost when its stream ends.
+        shard.client.registration().subscribe(result -> {
+            shard.accepting = true;
+            shard.failures = 0;
+        }, error -> { });
+        shard.client.commands().ignoreElements().subscribe(null, error -> failed(index, shard),
+                () -> failed(index, shard));
+        return shard;
+    }
+
+    /**
+     * Moves the channels of a lost shard to other shards, and replaces it after a backoff.
+     */
+    private void failed(int index, Shard shard) {
+        var waiting = new ArrayList<String>();
+        Map<Shard, List<String>> moved;
+        int failures;
+        synchronized (this) {
+            if (disposed || shards.get(index) != shard) {
+                return;
+            }
+            shard.accepting = false;
+            shard.live = false;
+            var orphans = new ArrayList<>(shard.channels);
+            for (var channel : orphans) {
+                assignments.remove(channel);
+            }
+            shard.channels.clear();
+            // Move the orphans to the shards which are working. Opening more shards for them would
+            // only multiply the connections failing when the server cannot be reached.
+            moved = assign(orphans, waiting);
+            failures = shard.failures + 1;
+        }
+        shard.client.dispose().subscribe(null, error -> { });
+        joinPlaced(moved).subscribe(null, error -> { });
+        long delay = ReconnectingTransport.backoff(failures, minBackoff, maxBackoff,
+                ReconnectingTransport.DEFAULT_JITTER, ThreadLocalRandom.current().nextDouble());
+        Mono.delay(Duration.ofNanos(delay)).subscribe(tick -> replace(index, shard, failures, waiting));
+    }
+
+    /**
+     * Opens the replacement of a lost shard, which joins the channels no other shard could take.
+     */
+    private void replace(int index, Shard lost, int failures, List<String> waiting) {
+        var placed = new HashMap<Shard, List<String>>();
+        synchronized (this) {
+            if (disposed || shards.get(index) != lost) {
+                return;
+            }
+            // The replacement takes no new channels until it proves able to register, so that
+            // they go to the shards which are working.
+            var replacement = open(index, false, failures);
+            for (var channel : waiting) {
+                if (!assignments.containsKey(channel)) {
+                    place(replacement, channel, placed);
+                }
+            }
+        }
+        joinPlaced(placed).subscribe(null, error -> { });
+    }
+
+    /**
+     * A connection and the channels placed on it.
+     */
+    private static final class Shard {
+        private final IrcClient client;
+        private final Collection<String> channels = new LinkedHashSet<>();
+        private volatile boolean accepting;
+        private volatile boolean live = true;
+        private volatile int failures;
+
+        private Shard(IrcClient client, int failures) {
+            this.client = client;
+            this.failures = failures;
+        }
+    }
+}
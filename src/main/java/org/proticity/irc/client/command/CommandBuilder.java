@@ -31,6 +31,8 @@ public class CommandBuilder {
     private String command;
     private List<String> parameters;
     private String trailingParameter;
+    private long receivedNanos;
+    private long parsedNanos;
 
     public CommandBuilder() {
     }
@@ -66,6 +68,28 @@ public class CommandBuilder {
         return this;
     }
 
+    /**
+     * Sets the time at which the command was read from the network.
+     *
+     * @param receivedNanos The value of {@link System#nanoTime()} when the command was read.
+     * @return The instance of the {@link CommandBuilder}.
+     */
+    public CommandBuilder receivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+        return this;
+    }
+
+    /**
+     * Sets the time at which the command was parsed.
+     *
+     * @param parsedNanos The value of {@link System#nanoTime()} when the command was parsed.
+     * @return The instance of the {@link CommandBuilder}.
+     */
+    public CommandBuilder parsedNanos(long parsedNanos) {
+        this.parsedNanos = parsedNanos;
+        return this;
+    }
+
     @Nullable
     public Map<TagKey, String> getTags() {
         return tags;
@@ -91,6 +115,14 @@ public class CommandBuilder {
         return trailingParameter;
     }
 
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    public long getParsedNanos() {
+        return parsedNanos;
+    }
+
     @NonNull
     public String getParameter(int index) {
         if (parameters == null || parameters.size() <= index) {
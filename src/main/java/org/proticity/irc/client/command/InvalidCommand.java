@@ -58,6 +58,18 @@ public class InvalidCommand extends IrcCommand {
         setCommand("INVALID");
     }
 
+    /**
+     * Create an invalid command for a given input string and error, read from the network at a
+     * given time.
+     * @param input the invalid input.
+     * @param error the error generated by the input.
+     * @param receivedNanos the value of {@link System#nanoTime()} when the input was read.
+     */
+    public InvalidCommand(String input, Exception error, long receivedNanos) {
+        this(input, error);
+        setReceivedNanos(receivedNanos);
+    }
+
     @Override
     @NonNull
     public String toString() {
@@ -35,6 +35,8 @@ public class IrcCommand {
     private String command;
     private List<String> parameters;
     private String trailingParameter;
+    private long receivedNanos;
+    private long parsedNanos;
 
     protected IrcCommand() {
     }
@@ -45,6 +47,8 @@ public class IrcCommand {
         setCommand(builder.getCommand());
         setParameters(builder.getParameters());
         setTrailingParameter(builder.getTrailingParameter());
+        setReceivedNanos(builder.getReceivedNanos());
+        setParsedNanos(builder.getParsedNanos());
     }
 
     @NonNull
@@ -82,11 +86,17 @@ public class IrcCommand {
     }
 
     protected Channel channelFromParameter(int index) {
-        if (index >= getParameters().size()) {
+        String parameter;
+        if (index < getParameters().size()) {
+            parameter = getParameters().get(index);
+        } else if (index == getParameters().size() && trailingParameter != null) {
+            // Some servers send the last parameter as a trailing parameter, as in "JOIN :#channel".
+            parameter = trailingParameter;
+        } else {
             // TODO: Better error
             throw new RuntimeException();
         }
-        var matcher = CHANNEL.matcher(getParameters().get(index));
+        var matcher = CHANNEL.matcher(parameter);
         if (!matcher.lookingAt()) {
             // TODO: Better error
             throw new RuntimeException();
@@ -138,4 +148,32 @@ public class IrcCommand {
     protected void setTrailingParameter(@Nullable String trailingParameter) {
         this.trailingParameter = trailingParameter;
     }
+
+    /**
+     * Returns the time at which the command was read from the network, from the monotonic
+     * {@link System#nanoTime()} clock.
+     *
+     * @return The time the command was read, or 0 if it is not known.
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    protected void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * Returns the time at which the command was parsed, from the monotonic
+     * {@link System#nanoTime()} clock.
+     *
+     * @return The time the command was parsed, or 0 if it is not known.
+     */
+    public long getParsedNanos() {
+        return parsedNanos;
+    }
+
+    protected void setParsedNanos(long parsedNanos) {
+        this.parsedNanos = parsedNanos;
+    }
 }
@@ -42,6 +42,7 @@ public class KickCommand extends IrcCommand {
         }
 
         var userList = COMMA.split(getParameters().get(1));
+        users = new ArrayList<>(userList.length);
         for (var user : userList) {
             users.add(new User(user));
         }
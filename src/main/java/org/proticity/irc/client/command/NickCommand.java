@@ -28,6 +28,9 @@ public class NickCommand extends IrcCommand {
 
     @NonNull
     public String getNickname() {
+        if (getParameters().isEmpty()) {
+            return getTrailingParameter().orElseThrow();
+        }
         return Objects.requireNonNull(getParameters().get(0));
     }
 }
@@ -17,15 +17,35 @@
  */
 package org.proticity.irc.client.command;
 
+import java.util.Optional;
+
 import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
 
 public class QuitCommand extends IrcCommand {
     public QuitCommand(@NonNull CommandBuilder builder) {
         super(builder);
     }
 
-    @NonNull
+    /**
+     * Returns the quit message.
+     *
+     * @return The quit message, or <code>null</code> if the user quit without one.
+     * @deprecated A quit message is optional, so use {@link #message()} instead.
+     */
+    @Deprecated
+    @Nullable
     public String getMessage() {
-        return getTrailingParameter().get();
+        return getTrailingParameter().orElse(null);
+    }
+
+    /**
+     * Returns the quit message, if the user gave one.
+     *
+     * @return The quit message.
+     */
+    @NonNull
+    public Optional<String> message() {
+        return getTrailingParameter();
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.command;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Measures text in UTF-8 bytes, the unit in which IRC limits the length of lines, without encoding
+ * it.
+ */
+@ParametersAreNonnullByDefault
+public final class Utf8 {
+    private Utf8() {
+    }
+
+    /**
+     * Computes the length of text when encoded as UTF-8.
+     *
+     * @param text The text.
+     * @return The number of bytes of the UTF-8 encoding of the text.
+     */
+    public static int length(CharSequence text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Computes the length of a character when encoded as UTF-8.
+     *
+     * @param codePoint The code point of the character.
+     * @return The number of bytes of the UTF-8 encoding of the character.
+     */
+    public static int length(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        } else if (codePoint < 0x800) {
+            return 2;
+        } else if (codePoint < 0x10000) {
+            return 3;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.logging;
+
+/**
+ * The behavior of a {@link WireLogger} when its buffer is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the line being logged. The network thread is never stalled, but lines can be lost
+     * when the output cannot keep up.
+     */
+    DROP,
+
+    /**
+     * Wait for space in the buffer. No lines are lost, but a slow output will apply backpressure to
+     * the thread doing the logging.
+     */
+    BLOCK
+}
@@ -0,0 +1,356 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.logging;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An asynchronous logger for raw protocol lines.
+ * <p>
+ * Logging a line only captures the line, its direction and the current time into a bounded ring
+ * buffer. A background thread drains the buffer in batches, formats the entries and writes them to
+ * the output, flushing once per batch rather than once per line. This keeps formatting and I/O off
+ * of the network event loop so that wire logging can remain enabled under production load.
+ * <p>
+ * Loggers which write to the same output share one background thread, so that many clients
+ * logging to, for example, {@link System#out} do not each need a thread of their own. Loggers with
+ * different outputs are drained by different threads, so that an output which blocks holds up only
+ * the loggers writing to it. The logger does not own its output, which is flushed but never closed,
+ * since it is often shared.
+ */
+@ParametersAreNonnullByDefault
+public class WireLogger implements Closeable {
+    /**
+     * The default number of lines which may be buffered before the {@link OverflowPolicy} applies.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final char COLOR = (char) 27;
+
+    private static final String INBOUND_COLOR = COLOR + "[32m";
+
+    private static final String OUTBOUND_COLOR = COLOR + "[34m";
+
+    private static final String RESET_COLOR = COLOR + "[39m";
+
+    /**
+     * The longest time the drain thread will sleep before checking the buffer again.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The time a blocked producer waits before retrying when the buffer is full.
+     */
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final MpscRingBuffer<Entry> buffer;
+    private final Drainer drainer;
+    private final BufferedWriter writer;
+    private final boolean colorize;
+    private final OverflowPolicy overflowPolicy;
+    private final int sampleRate;
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+
+    /**
+     * Released once the drain thread has written the last of the logger's lines.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a new {@link WireLogger} with default buffering which drops lines on overflow and
+     * logs every line.
+     *
+     * @param outputStream The stream to which the log is written.
+     * @param colorize     Whether to colorize the output with ANSI escape sequences.
+     */
+    public WireLogger(OutputStream outputStream, boolean colorize) {
+        this(outputStream, colorize, DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP, 1);
+    }
+
+    /**
+     * Creates a new {@link WireLogger}.
+     *
+     * @param outputStream   The stream to which the log is written.
+     * @param colorize       Whether to colorize the output with ANSI escape sequences.
+     * @param bufferSize     The number of lines which may be waiting to be written.
+     * @param overflowPolicy The behavior when the buffer is full.
+     * @param sampleRate     Log only one in every <code>sampleRate</code> lines. A value of 1 logs
+     *                       every line.
+     */
+    public WireLogger(OutputStream outputStream, boolean colorize, int bufferSize,
+                      OverflowPolicy overflowPolicy, int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1.");
+        }
+        this.buffer = new MpscRingBuffer<>(bufferSize);
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.colorize = colorize;
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = sampleRate;
+        this.drainer = Drainer.of(outputStream, this);
+    }
+
+    /**
+     * Logs a line received from the server.
+     *
+     * @param line The line received.
+     */
+    public void inbound(String line) {
+        log(line, true);
+    }
+
+    /**
+     * Logs a line sent to the server.
+     *
+     * @param line The line sent.
+     */
+    public void outbound(String line) {
+        log(line, false);
+    }
+
+    private void log(String line, boolean inbound) {
+        if (closed) {
+            return;
+        }
+        if (sampleRate > 1 && sampleCounter.getAndIncrement() % sampleRate != 0) {
+            return;
+        }
+        var entry = new Entry(System.currentTimeMillis(), inbound, line);
+        while (!buffer.offer(entry)) {
+            if (overflowPolicy == OverflowPolicy.DROP || closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            drainer.wake();
+            LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+        }
+        drainer.wakeIfIdle();
+    }
+
+    /**
+     * Returns the number of lines which were discarded because the buffer was full.
+     *
+     * @return The number of discarded lines.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of batches which could not be written due to an I/O error.
+     *
+     * @return The number of failed writes.
+     */
+    public long getWriteErrorCount() {
+        return writeErrors.get();
+    }
+
+    /**
+     * Stops the logger without waiting. Lines which have already been logged are still written and
+     * the output is flushed, but it is not closed. This is safe to call from the network event
+     * loop.
+     */
+    public void shutdown() {
+        if (!closed) {
+            closed = true;
+            drainer.wake();
+        }
+    }
+
+    /**
+     * Stops the logger, waiting until any lines which have already been logged are written and
+     * the output is flushed. The output is not closed.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes all buffered entries, up to the buffer capacity, and flushes once.
+     *
+     * @return The number of entries written.
+     */
+    private int writeBatch() {
+        int count = 0;
+        Entry entry;
+        try {
+            while (count < buffer.capacity() && (entry = buffer.poll()) != null) {
+                write(entry);
+                count++;
+            }
+            if (count > 0) {
+                writer.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            writeErrors.incrementAndGet();
+        }
+        return count;
+    }
+
+    private void write(Entry entry) throws IOException {
+        if (colorize) {
+            writer.write(entry.inbound ? INBOUND_COLOR : OUTBOUND_COLOR);
+        }
+        writer.write(Instant.ofEpochMilli(entry.timestamp).toString());
+        writer.write(entry.inbound ? " < " : " >> ");
+        writer.write(entry.line);
+        if (colorize) {
+            writer.write(RESET_COLOR);
+        }
+        writer.newLine();
+    }
+
+    /**
+     * A captured but not yet formatted line.
+     */
+    private static final class Entry {
+        private final long timestamp;
+        private final boolean inbound;
+        private final String line;
+
+        private Entry(long timestamp, boolean inbound, String line) {
+            this.timestamp = timestamp;
+            this.inbound = inbound;
+            this.line = line;
+        }
+    }
+
+    /**
+     * The thread which drains the buffers of every logger writing to one output. The thread exits
+     * once the last of its loggers has stopped.
+     */
+    private static final class Drainer implements Runnable {
+        /**
+         * The running drainers by output, compared by identity since streams rarely define equality.
+         */
+        private static final Map<OutputStream, Drainer> DRAINERS = new IdentityHashMap<>();
+
+        private final OutputStream output;
+        private final Collection<WireLogger> loggers = new CopyOnWriteArrayList<>();
+        private final Thread thread;
+
+        /**
+         * Whether the thread is parked waiting for entries.
+         */
+        private volatile boolean draining = true;
+
+        private Drainer(OutputStream output) {
+            this.output = output;
+            thread = new Thread(this, "irc-wire-logger");
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Adds a logger to the drainer for its output, starting one if there is none.
+         *
+         * @param output The output to which the logger writes.
+         * @param logger The logger.
+         * @return The drainer for the output.
+         */
+        private static Drainer of(OutputStream output, WireLogger logger) {
+            synchronized (DRAINERS) {
+                var drainer = DRAINERS.get(output);
+                if (drainer == null) {
+                    drainer = new Drainer(output);
+                    DRAINERS.put(output, drainer);
+                    drainer.thread.start();
+                }
+                drainer.loggers.add(logger);
+                drainer.wake();
+                return drainer;
+            }
+        }
+
+        /**
+         * Removes this drainer if it no longer has any loggers. Loggers are only added while holding
+         * the same lock, so none can be added to a drainer once it has retired.
+         *
+         * @return Whether the drainer retired.
+         */
+        private boolean retireIfUnused() {
+            synchronized (DRAINERS) {
+                if (!loggers.isEmpty()) {
+                    return false;
+                }
+                DRAINERS.remove(output);
+                return true;
+            }
+        }
+
+        private void wake() {
+            LockSupport.unpark(thread);
+        }
+
+        private void wakeIfIdle() {
+            if (!draining) {
+                wake();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int written = 0;
+                for (var logger : loggers) {
+                    // Read the closed flag before draining so the final pass catches every logged line.
+                    var stopping = logger.closed;
+                    written += logger.writeBatch();
+                    if (stopping) {
+                        loggers.remove(logger);
+                        logger.stopped.countDown();
+                    }
+                }
+                if (loggers.isEmpty() && retireIfUnused()) {
+                    return;
+                }
+                if (written == 0) {
+                    draining = false;
+                    // Loggers which log or close while the thread parks unpark it, and the park is
+                    // bounded in case the flag was read before it was published.
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    draining = true;
+                }
+            }
+        }
+    }
+}
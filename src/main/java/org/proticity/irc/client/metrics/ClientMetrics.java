@@ -0,0 +1,467 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.metrics;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.proticity.irc.client.command.Utf8;
+
+/**
+ * The meters for a single IRC connection.
+ * <p>
+ * All meters are created up front, so recording is a map lookup at most and never registers a new
+ * meter on the hot path. Commands are tagged by name only for a fixed set of well-known commands;
+ * numeric replies are tagged as <code>numeric</code> and anything else as <code>other</code>, which
+ * keeps the tag cardinality bounded no matter what the server sends.
+ * <p>
+ * Every open connection in a registry has meters of its own, told apart by the
+ * {@value #CONNECTION_TAG} tag. A connection without a name is tagged with the lowest number not
+ * in use by another open unnamed connection, and a connection whose name is in use by another is
+ * tagged with the name followed by such a number, so the tag takes only as many values as there
+ * are connections open at once. A connection's meters are removed from the registry once it is
+ * {@link #close() closed}.
+ */
+@ParametersAreNonnullByDefault
+public class ClientMetrics {
+    /**
+     * The prefix of the names of all meters.
+     */
+    public static final String PREFIX = "irc.client.";
+
+    /**
+     * The tag identifying the connection a meter belongs to.
+     */
+    public static final String CONNECTION_TAG = "connection";
+
+    private static final String NUMERIC = "numeric";
+
+    private static final String OTHER = "other";
+
+    private static final String[] KNOWN_COMMANDS = {
+        "PRIVMSG", "NOTICE", "WHISPER", "JOIN", "PART", "KICK", "QUIT", "NICK", "MODE", "TOPIC", "INVITE",
+        "PING", "PONG", "CAP", "PASS", "USER", "ERROR", "SQUERY", "AUTHENTICATE", "WHO", "WHOIS", "NAMES",
+        "LIST", "CLEARCHAT", "CLEARMSG", "GLOBALUSERSTATE", "HOSTTARGET", "RECONNECT", "ROOMSTATE",
+        "USERNOTICE", "USERSTATE", "INVALID"
+    };
+
+    /**
+     * The connections using each registry, which is held weakly so that a registry is not kept
+     * alive by its metrics.
+     */
+    private static final Map<MeterRegistry, Usage> USAGE = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final MeterRegistry registry;
+    private final Usage usage;
+    private final String slotName;
+    private final int slot;
+    private final Tags tags;
+    private final boolean enabled;
+    private final Map<String, Counter> inboundCounters;
+    private final Map<String, Counter> outboundCounters;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final Counter parseErrors;
+    private final Counter invalidCommands;
+    private final Counter droppedCommands;
+    private final Counter connects;
+    private final Counter reconnects;
+    private final Counter idleTimeouts;
+    private final Timer parseTimer;
+    private final Timer dispatchTimer;
+    private final Timer registrationTimer;
+    private final Timer keepAliveTimer;
+    private final AtomicInteger pendingSends = new AtomicInteger();
+    private final List<Meter> meters = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * Creates the meters for a connection.
+     *
+     * @param registry       The registry in which to register the meters.
+     * @param connectionName The name of the connection, used as the value of the
+     *                       {@value #CONNECTION_TAG} tag, or null to leave the tag out.
+     */
+    public ClientMetrics(MeterRegistry registry, @Nullable String connectionName) {
+        this(registry, connectionName, true);
+    }
+
+    private ClientMetrics(MeterRegistry registry, @Nullable String connectionName, boolean enabled) {
+        this.registry = registry;
+        this.enabled = enabled;
+        usage = enabled ? USAGE.computeIfAbsent(registry, r -> new Usage()) : new Usage();
+        slotName = connectionName != null ? connectionName : "";
+        if (enabled) {
+            slot = usage.takeSlot(slotName);
+            var value = connectionName == null ? Integer.toString(slot)
+                    : slot == 0 ? connectionName : connectionName + "-" + slot;
+            tags = Tags.of(CONNECTION_TAG, value);
+        } else {
+            slot = -1;
+            tags = Tags.empty();
+        }
+        inboundCounters = commandCounters("inbound");
+        outboundCounters = commandCounters("outbound");
+        bytesIn = own(Counter.builder(PREFIX + "bytes").baseUnit("bytes").tags(tags).tag("direction", "inbound")
+                .description("Bytes of protocol text received").register(registry));
+        bytesOut = own(Counter.builder(PREFIX + "bytes").baseUnit("bytes").tags(tags).tag("direction", "outbound")
+                .description("Bytes of protocol text sent").register(registry));
+        parseErrors = own(Counter.builder(PREFIX + "parse.errors").tags(tags)
+                .description("Inbound input which failed to parse with an error").register(registry));
+        invalidCommands = own(Counter.builder(PREFIX + "invalid.commands").tags(tags)
+                .description("Inbound lines which were parsed as invalid commands").register(registry));
+        droppedCommands = own(Counter.builder(PREFIX + "inbound.dropped").tags(tags)
+                .description("Inbound commands discarded by a subscriber which fell behind").register(registry));
+        connects = own(Counter.builder(PREFIX + "connections").tags(tags).tag("type", "connect")
+                .description("Connections established").register(registry));
+        reconnects = own(Counter.builder(PREFIX + "connections").tags(tags).tag("type", "reconnect")
+                .description("Connections re-established after one was lost").register(registry));
+        idleTimeouts = own(Counter.builder(PREFIX + "connections").tags(tags).tag("type", "idle-timeout")
+                .description("Connections dropped for missing their read deadline").register(registry));
+        parseTimer = own(Timer.builder(PREFIX + "parse").tags(tags)
+                .description("Time to parse a unit of inbound input").register(registry));
+        dispatchTimer = own(Timer.builder(PREFIX + "dispatch").tags(tags)
+                .description("Time spent in the built-in command handler").register(registry));
+        registrationTimer = own(Timer.builder(PREFIX + "registration").tags(tags)
+                .description("Time from starting registration until the server welcomed the client")
+                .register(registry));
+        keepAliveTimer = own(Timer.builder(PREFIX + "keepalive.rtt").tags(tags)
+                .description("Round trip time of keepalive pings to the server").register(registry));
+        own(Gauge.builder(PREFIX + "outbound.pending", pendingSends, AtomicInteger::get).tags(tags)
+                .description("Send operations which have not yet completed").register(registry));
+    }
+
+    /**
+     * Returns metrics which record nothing, for use when no registry has been configured.
+     *
+     * @return Metrics which record nothing.
+     */
+    public static ClientMetrics disabled() {
+        return new ClientMetrics(new CompositeMeterRegistry(), null, false);
+    }
+
+    /**
+     * Takes a reference to a meter of this connection, to be released when it is closed.
+     *
+     * @param meter The meter, as registered in the registry.
+     * @param <M>   The type of meter.
+     * @return The meter.
+     */
+    <M extends Meter> M own(M meter) {
+        if (!enabled) {
+            return meter;
+        }
+        synchronized (usage) {
+            if (closed) {
+                // The connection is gone, and its tag may already belong to another connection whose
+                // meter this is, so the meter is only removed if nothing uses it.
+                if (!usage.users.containsKey(meter.getId())) {
+                    registry.remove(meter);
+                }
+                return meter;
+            }
+            usage.users.merge(meter.getId(), 1, Integer::sum);
+            meters.add(meter);
+        }
+        return meter;
+    }
+
+    /**
+     * Removes this connection's meters from the registry and frees its tag for another connection.
+     */
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (usage) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (var meter : meters) {
+                if (usage.users.merge(meter.getId(), -1, Integer::sum) <= 0) {
+                    usage.users.remove(meter.getId());
+                    registry.remove(meter);
+                }
+            }
+            meters.clear();
+            usage.releaseSlot(slotName, slot);
+        }
+    }
+
+    private Map<String, Counter> commandCounters(String direction) {
+        var counters = new HashMap<String, Counter>(KNOWN_COMMANDS.length * 2 + 4);
+        for (var command : KNOWN_COMMANDS) {
+            counters.put(command, commandCounter(direction, command));
+        }
+        counters.put(NUMERIC, commandCounter(direction, NUMERIC));
+        counters.put(OTHER, commandCounter(direction, OTHER));
+        return counters;
+    }
+
+    private Counter commandCounter(String direction, String command) {
+        return own(Counter.builder(PREFIX + "messages").tags(tags).tag("direction", direction)
+                .tag("command", command).description("Protocol messages by command").register(registry));
+    }
+
+    /**
+     * Registers a gauge on this connection.
+     *
+     * @param name     The name of the gauge, without the {@value #PREFIX} prefix.
+     * @param obj      The object the gauge samples.
+     * @param function The function which samples the object.
+     * @param <T>      The type of object sampled.
+     */
+    public <T> void gauge(String name, T obj, ToDoubleFunction<T> function) {
+        own(Gauge.builder(PREFIX + name, obj, function).tags(tags).register(registry));
+    }
+
+    /**
+     * Registers a counter on this connection whose count is kept by another object.
+     *
+     * @param name     The name of the counter, without the {@value #PREFIX} prefix.
+     * @param obj      The object which keeps the count.
+     * @param function The function which reads the count from the object.
+     * @param <T>      The type of object which keeps the count.
+     */
+    public <T> void counter(String name, T obj, ToDoubleFunction<T> function) {
+        own(FunctionCounter.builder(PREFIX + name, obj, function).tags(tags).register(registry));
+    }
+
+    /**
+     * Returns whether the metrics are being recorded, so callers can skip taking timestamps when
+     * they are not.
+     *
+     * @return Whether metrics are recorded.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the registry the meters are registered in.
+     *
+     * @return The meter registry.
+     */
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Returns the common tags of this connection's meters.
+     *
+     * @return The connection tags.
+     */
+    public Tags getTags() {
+        return tags;
+    }
+
+    /**
+     * Records a unit of raw input received from the server.
+     *
+     * @param input The input received.
+     */
+    public void received(String input) {
+        if (enabled) {
+            bytesIn.increment(Utf8.length(input));
+        }
+    }
+
+    /**
+     * Records a parsed command received from the server.
+     *
+     * @param command The name of the command.
+     */
+    public void inbound(String command) {
+        if (enabled) {
+            inboundCounters.get(commandTag(command, 0, command.length())).increment();
+        }
+    }
+
+    /**
+     * Records a line sent to the server.
+     *
+     * @param line The line sent.
+     */
+    public void outbound(String line) {
+        if (!enabled) {
+            return;
+        }
+        bytesOut.increment(Utf8.length(line));
+        int start = 0;
+        if (line.startsWith("@")) {
+            start = line.indexOf(' ') + 1;
+        }
+        if (start > 0 && line.startsWith(":", start)) {
+            start = line.indexOf(' ', start) + 1;
+        }
+        int end = line.indexOf(' ', start);
+        outboundCounters.get(commandTag(line, start, end < 0 ? line.length() : end)).increment();
+    }
+
+    /**
+     * Records input which failed to parse.
+     */
+    public void parseError() {
+        parseErrors.increment();
+    }
+
+    /**
+     * Records an invalid command received from the server.
+     */
+    public void invalidCommand() {
+        invalidCommands.increment();
+    }
+
+    /**
+     * Records a connection to the server.
+     */
+    public void connected() {
+        connects.increment();
+    }
+
+    /**
+     * Records a connection to the server established after an earlier one was lost.
+     */
+    public void reconnected() {
+        reconnects.increment();
+    }
+
+    /**
+     * Records an inbound command discarded because its subscriber's buffer was full.
+     */
+    public void droppedCommand() {
+        droppedCommands.increment();
+    }
+
+    /**
+     * Records a connection dropped because nothing was read from it within its deadline.
+     */
+    public void idleTimedOut() {
+        idleTimeouts.increment();
+    }
+
+    /**
+     * Records the round trip time of a keepalive ping.
+     *
+     * @param nanos The round trip time, in nanoseconds.
+     */
+    public void keepAlive(long nanos) {
+        keepAliveTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time taken to parse a unit of input.
+     *
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void parsed(long nanos) {
+        parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time taken by the built-in command handler.
+     *
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void dispatched(long nanos) {
+        dispatchTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time taken to register with the server.
+     *
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void registered(long nanos) {
+        registrationTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the start of a send operation.
+     */
+    public void sendStarted() {
+        pendingSends.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a send operation, whether it succeeded or not.
+     */
+    public void sendFinished() {
+        pendingSends.decrementAndGet();
+    }
+
+    /**
+     * Maps a command name to its bounded tag value.
+     *
+     * @param text  The text containing the command name.
+     * @param start The start of the command name.
+     * @param end   The end of the command name.
+     * @return The tag value for the command.
+     */
+    private String commandTag(String text, int start, int end) {
+        int length = end - start;
+        if (length == 3 && Character.isDigit(text.charAt(start))) {
+            return NUMERIC;
+        }
+        var command = start == 0 && end == text.length() ? text : text.substring(start, end);
+        return inboundCounters.containsKey(command) ? command : OTHER;
+    }
+
+    /**
+     * The meters and connection tags in use in a registry. Meters are counted by their ID, as
+     * meters in different registries with the same ID compare equal.
+     */
+    private static final class Usage {
+        private final Map<Meter.Id, Integer> users = new HashMap<>();
+        private final Map<String, BitSet> slots = new HashMap<>();
+
+        private synchronized int takeSlot(String name) {
+            var taken = slots.computeIfAbsent(name, n -> new BitSet());
+            int slot = taken.nextClearBit(0);
+            taken.set(slot);
+            return slot;
+        }
+
+        private synchronized void releaseSlot(String name, int slot) {
+            var taken = slots.get(name);
+            taken.clear(slot);
+            if (taken.isEmpty()) {
+                slots.remove(name);
+            }
+        }
+    }
+}
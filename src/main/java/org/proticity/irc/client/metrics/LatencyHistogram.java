@@ -0,0 +1,194 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A concurrent histogram of latencies with bounded relative error.
+ * <p>
+ * Values are counted in log-linear buckets in the manner of HdrHistogram: every power of two range
+ * is divided into 128 equal sub-buckets, so any value is reported within 1% of its true value.
+ * Recording a value is a bucket index computation and an atomic increment, and never allocates.
+ * <p>
+ * The histogram accumulates values until a {@link #intervalSnapshot() snapshot} is taken, which
+ * moves the counts recorded so far into an immutable {@link Snapshot} and starts a new interval.
+ * Each recorded value lands in exactly one interval even when recording races with a snapshot.
+ */
+@ParametersAreNonnullByDefault
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 8;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * The largest value which can be recorded, about 68 seconds in nanoseconds. Larger values are
+     * counted as this value.
+     */
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    private static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value The value to record. Negative values are counted as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts.incrementAndGet(index(value));
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the values recorded since the last snapshot and starts a new interval.
+     *
+     * @return The values recorded since the last snapshot.
+     */
+    public Snapshot intervalSnapshot() {
+        var snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i) == 0 ? 0 : counts.getAndSet(i, 0);
+            snapshot[i] = count;
+            total += count;
+        }
+        return new Snapshot(snapshot, total, max.getAndSet(0));
+    }
+
+    /**
+     * Returns the bucket which counts a value.
+     *
+     * @param value A value between 0 and {@link #MAX_VALUE}.
+     * @return The index of the value's bucket.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value which is counted in a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The largest value counted in the bucket.
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * An immutable view of the values recorded in a {@link LatencyHistogram} during an interval.
+     */
+    public static final class Snapshot {
+        /**
+         * A snapshot with no values.
+         */
+        public static final Snapshot EMPTY = new Snapshot(new long[0], 0, 0);
+
+        private final long[] counts;
+        private final long totalCount;
+        private final long max;
+
+        private Snapshot(long[] counts, long totalCount, long max) {
+            this.counts = counts;
+            this.totalCount = totalCount;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of values recorded.
+         *
+         * @return The number of values recorded.
+         */
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * Returns the largest value recorded.
+         *
+         * @return The largest value recorded, or 0 if no values were recorded.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the value at a given percentile.
+         *
+         * @param percentile The percentile, between 0 and 100.
+         * @return The smallest value which at least the given percentage of values are less than or
+         * equal to, or 0 if no values were recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(highestEquivalentValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Returns the mean of the values recorded.
+         *
+         * @return The mean value, or 0 if no values were recorded.
+         */
+        public double getMean() {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    sum += (double) counts[i] * highestEquivalentValue(i);
+                }
+            }
+            return Math.min(sum / totalCount, max);
+        }
+    }
+}
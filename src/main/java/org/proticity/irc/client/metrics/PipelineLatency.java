@@ -0,0 +1,148 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.metrics;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.micrometer.core.instrument.Gauge;
+
+/**
+ * Latency histograms for the stages of a connection's inbound pipeline.
+ * <p>
+ * Commands are stamped with the time the transport read them and the time they were parsed, which
+ * allows the delay to be attributed to each {@link Stage} of the pipeline. Latencies are collected
+ * over windows of a minimum length; queries return the most recently completed window so that
+ * percentiles reflect current conditions rather than the lifetime of the connection. A window is
+ * completed by the first query made after it has run for its length, so a metrics registry which
+ * is scraped regularly will see consecutive windows of about the scrape interval or the window
+ * length, whichever is longer.
+ */
+@ParametersAreNonnullByDefault
+public class PipelineLatency {
+    /**
+     * The default length of the window over which latencies are reported.
+     */
+    public static final Duration DEFAULT_WINDOW = Duration.ofMinutes(1);
+
+    private static final double[] PUBLISHED_PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    /**
+     * A stage of the inbound pipeline.
+     */
+    public enum Stage {
+        /**
+         * From the transport reading a line to the line having been parsed.
+         */
+        READ_TO_PARSE("read_to_parse"),
+
+        /**
+         * From a command having been parsed to it being dispatched to the client's handler.
+         */
+        PARSE_TO_DISPATCH("parse_to_dispatch"),
+
+        /**
+         * From a command being dispatched until a subscriber of the command stream has returned
+         * from processing it, including the time the command waited in the shared pipeline and in
+         * the subscriber's own buffer. This is recorded once for each subscriber of each command.
+         */
+        DISPATCH_TO_COMPLETE("dispatch_to_complete");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        /**
+         * Returns the value of the <code>stage</code> tag for the stage.
+         *
+         * @return The tag value of the stage.
+         */
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private final Map<Stage, WindowedHistogram> windows = new EnumMap<>(Stage.class);
+
+    /**
+     * Creates latency tracking which reports over the {@link #DEFAULT_WINDOW default window}.
+     */
+    public PipelineLatency() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Creates latency tracking.
+     *
+     * @param window The length of the window over which latencies are reported.
+     */
+    public PipelineLatency(Duration window) {
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("The latency window must be positive.");
+        }
+        for (var stage : Stage.values()) {
+            windows.put(stage, new WindowedHistogram(window.toNanos()));
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param stage The stage of the pipeline.
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(Stage stage, long nanos) {
+        windows.get(stage).record(nanos);
+    }
+
+    /**
+     * Returns the latencies of the most recently completed window for a stage.
+     *
+     * @param stage The stage of the pipeline.
+     * @return The latencies of the stage, in nanoseconds.
+     */
+    public LatencyHistogram.Snapshot getSnapshot(Stage stage) {
+        return windows.get(stage).snapshot();
+    }
+
+    /**
+     * Publishes the percentiles and maximum of each stage as gauges.
+     *
+     * @param metrics The metrics of the connection.
+     */
+    public void register(ClientMetrics metrics) {
+        for (var stage : Stage.values()) {
+            for (var percentile : PUBLISHED_PERCENTILES) {
+                metrics.own(Gauge.builder(ClientMetrics.PREFIX + "pipeline.latency", this,
+                        latency -> latency.getSnapshot(stage).getValueAtPercentile(percentile) / 1e9)
+                        .tags(metrics.getTags()).tag("stage", stage.getTag())
+                        .tag("percentile", Double.toString(percentile / 100.0)).baseUnit("seconds")
+                        .description("Latency of a stage of the inbound pipeline").register(metrics.getRegistry()));
+            }
+            metrics.own(Gauge.builder(ClientMetrics.PREFIX + "pipeline.latency.max", this,
+                    latency -> latency.getSnapshot(stage).getMax() / 1e9)
+                    .tags(metrics.getTags()).tag("stage", stage.getTag()).baseUnit("seconds")
+                    .description("Maximum latency of a stage of the inbound pipeline")
+                    .register(metrics.getRegistry()));
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.metrics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.micrometer.core.instrument.Gauge;
+import org.proticity.irc.client.command.IrcCommand;
+
+/**
+ * Measures the latency of message delivery from the server to the client.
+ * <p>
+ * The time each message was received is compared with the time the server stamped it with (see
+ * {@link ServerTime}). The difference is the delivery delay plus the skew between the server's and
+ * the client's clocks. Delivery latency is the difference less the estimated skew.
+ * <p>
+ * When the server stamps the replies to probe pings, the skew is estimated as NTP does: the
+ * server's time in the reply is taken to be the midpoint of the round trip, and of the last few
+ * probes the one with the shortest round trip is trusted. Otherwise the skew is estimated from the
+ * smallest difference seen over a horizon much longer than the reporting window, which is taken to
+ * be a message delivered in half of the smallest round trip time. In either case a connection
+ * which becomes slow and stays slow is reported as slow rather than absorbed into the skew.
+ * <p>
+ * Latency is recorded in a histogram for the connection and as lightweight statistics for each
+ * channel. Per-channel statistics are only available programmatically, since publishing them as
+ * meters would not keep the number of time series bounded.
+ */
+@ParametersAreNonnullByDefault
+public class ServerLatency {
+    /**
+     * The default interval at which the server is pinged to measure round trip time.
+     */
+    public static final Duration DEFAULT_PING_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * The default maximum number of channels for which statistics are kept.
+     */
+    public static final int DEFAULT_MAX_CHANNELS = 10_000;
+
+    /**
+     * The prefix of the tokens sent in latency probe pings.
+     */
+    private static final String PROBE_PREFIX = "latency-";
+
+    /**
+     * The time over which the smallest difference is kept when no probe carries the server's time.
+     */
+    private static final Duration SKEW_HORIZON = Duration.ofHours(1);
+
+    /**
+     * The number of recent probes from which the skew is estimated.
+     */
+    private static final int PROBE_SAMPLES = 8;
+
+    private static final long UNKNOWN = Long.MAX_VALUE;
+
+    /**
+     * The weight of each new sample in the per-channel moving averages.
+     */
+    private static final double EWMA_ALPHA = 0.05;
+
+    private final long wallBaseMillis = System.currentTimeMillis();
+    private final long nanoBase = System.nanoTime();
+    private final WindowedHistogram delivery;
+    private final WindowedHistogram roundTrip;
+    private final SlidingMinimum offset;
+    private final SlidingMinimum minimumRoundTrip;
+    private final long[] probeRoundTrips = new long[PROBE_SAMPLES];
+    private final long[] probeSkews = new long[PROBE_SAMPLES];
+    private int probes;
+    private final int maxChannels;
+    private final Map<String, ChannelLatency> channels = new ConcurrentHashMap<>();
+    private final AtomicLong lastRoundTrip = new AtomicLong(UNKNOWN);
+
+    /**
+     * Creates latency measurement with default settings.
+     */
+    public ServerLatency() {
+        this(PipelineLatency.DEFAULT_WINDOW, DEFAULT_MAX_CHANNELS);
+    }
+
+    /**
+     * Creates latency measurement.
+     *
+     * @param window      The window over which latencies are reported.
+     * @param maxChannels The maximum number of channels for which statistics are kept.
+     */
+    public ServerLatency(Duration window, int maxChannels) {
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("The latency window must be positive.");
+        }
+        delivery = new WindowedHistogram(window.toNanos());
+        roundTrip = new WindowedHistogram(window.toNanos());
+        long horizon = Math.max(window.toNanos(), SKEW_HORIZON.toNanos());
+        offset = new SlidingMinimum(horizon);
+        minimumRoundTrip = new SlidingMinimum(horizon);
+        this.maxChannels = maxChannels;
+    }
+
+    /**
+     * Records the delivery of a command, if it carries the time it was sent.
+     *
+     * @param command The command received.
+     */
+    public void record(IrcCommand command) {
+        long sent = ServerTime.of(command);
+        if (sent == ServerTime.UNKNOWN) {
+            return;
+        }
+        long receivedNanos = command.getReceivedNanos() != 0 ? command.getReceivedNanos() : System.nanoTime();
+        long received = wallBaseMillis + TimeUnit.NANOSECONDS.toMillis(receivedNanos - nanoBase);
+        long difference = received - sent;
+        offset.update(difference, receivedNanos);
+        long latency = Math.max(0, difference - getClockSkewMillis());
+        delivery.record(TimeUnit.MILLISECONDS.toNanos(latency));
+
+        var params = command.getParameters();
+        if (!params.isEmpty()) {
+            var target = params.get(0);
+            if (!target.isEmpty() && target.charAt(0) == '#') {
+                var stats = channels.get(target);
+                if (stats == null && channels.size() < maxChannels) {
+                    stats = channels.computeIfAbsent(target, key -> new ChannelLatency());
+                }
+                if (stats != null) {
+                    stats.record(latency);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the token for a ping which probes the round trip time to the server.
+     *
+     * @return The token to send as the parameter of a PING.
+     */
+    public String probeToken() {
+        return PROBE_PREFIX + System.nanoTime();
+    }
+
+    /**
+     * Records the reply to a probe ping.
+     *
+     * @param token The token echoed by the server in its PONG.
+     * @return Whether the token belonged to a probe.
+     */
+    public boolean pong(String token) {
+        return pong(token, ServerTime.UNKNOWN);
+    }
+
+    /**
+     * Records the reply to a probe ping, which the server may have stamped with its time.
+     *
+     * @param token      The token echoed by the server in its PONG.
+     * @param serverTime The time the server sent the PONG in milliseconds since the epoch, or
+     *                   {@link ServerTime#UNKNOWN}.
+     * @return Whether the token belonged to a probe.
+     */
+    public boolean pong(String token, long serverTime) {
+        if (!token.startsWith(PROBE_PREFIX)) {
+            return false;
+        }
+        long sent;
+        try {
+            sent = Long.parseLong(token.substring(PROBE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long rtt = now - sent;
+        if (rtt < 0) {
+            return false;
+        }
+        recordRoundTrip(rtt, now);
+        if (serverTime != ServerTime.UNKNOWN) {
+            long midpoint = wallBaseMillis + TimeUnit.NANOSECONDS.toMillis(sent + rtt / 2 - nanoBase);
+            recordProbe(rtt, midpoint - serverTime);
+        }
+        return true;
+    }
+
+    private synchronized void recordProbe(long rtt, long skew) {
+        probeRoundTrips[probes % PROBE_SAMPLES] = rtt;
+        probeSkews[probes % PROBE_SAMPLES] = skew;
+        probes++;
+    }
+
+    /**
+     * Returns the skew measured by the recent probe with the shortest round trip, whose timing is
+     * the least disturbed by queueing.
+     */
+    private synchronized long probeSkew() {
+        long best = UNKNOWN;
+        long skew = UNKNOWN;
+        for (int i = 0; i < Math.min(probes, PROBE_SAMPLES); i++) {
+            if (probeRoundTrips[i] < best) {
+                best = probeRoundTrips[i];
+                skew = probeSkews[i];
+            }
+        }
+        return skew;
+    }
+
+    /**
+     * Records a round trip time to the server measured by other means.
+     *
+     * @param nanos The round trip time in nanoseconds.
+     * @param now   The value of {@link System#nanoTime()} when the round trip completed.
+     */
+    public void recordRoundTrip(long nanos, long now) {
+        lastRoundTrip.set(nanos);
+        roundTrip.record(nanos);
+        minimumRoundTrip.update(nanos, now);
+    }
+
+    /**
+     * Returns the estimated difference between the client's clock and the server's clock.
+     *
+     * @return The amount by which the client's clock is ahead of the server's, in milliseconds, or
+     * 0 if no messages with server times have been received.
+     */
+    public long getClockSkewMillis() {
+        long probed = probeSkew();
+        if (probed != UNKNOWN) {
+            return probed;
+        }
+        long minimum = offset.get();
+        if (minimum == UNKNOWN) {
+            return 0;
+        }
+        long rtt = minimumRoundTrip.get();
+        return rtt == UNKNOWN ? minimum : minimum - TimeUnit.NANOSECONDS.toMillis(rtt / 2);
+    }
+
+    /**
+     * Returns the delivery latencies of the most recently completed window.
+     *
+     * @return The delivery latencies, in nanoseconds.
+     */
+    public LatencyHistogram.Snapshot getDeliveryLatency() {
+        return delivery.snapshot();
+    }
+
+    /**
+     * Returns the round trip times of the most recently completed window.
+     *
+     * @return The round trip times, in nanoseconds.
+     */
+    public LatencyHistogram.Snapshot getRoundTripTime() {
+        return roundTrip.snapshot();
+    }
+
+    /**
+     * Returns the most recently measured round trip time.
+     *
+     * @return The last round trip time, if one has been measured.
+     */
+    public Optional<Duration> getLastRoundTripTime() {
+        long rtt = lastRoundTrip.get();
+        return rtt == UNKNOWN ? Optional.empty() : Optional.of(Duration.ofNanos(rtt));
+    }
+
+    /**
+     * Returns the delivery latency statistics of a channel.
+     *
+     * @param channel The channel, including its prefix, e.g. <code>#channel</code>.
+     * @return The statistics for the channel, if any messages with server times have been received
+     * from it and it is within the limit of tracked channels.
+     */
+    public Optional<ChannelLatency> getChannelLatency(String channel) {
+        return Optional.ofNullable(channels.get(channel));
+    }
+
+    /**
+     * Publishes the connection's latency, round trip time and clock skew as gauges.
+     *
+     * @param metrics The metrics of the connection.
+     */
+    public void register(ClientMetrics metrics) {
+        for (var quantile : new double[] {0.5, 0.99}) {
+            metrics.own(Gauge.builder(ClientMetrics.PREFIX + "server.latency", this,
+                    latency -> latency.getDeliveryLatency().getValueAtPercentile(quantile * 100) / 1e9)
+                    .tags(metrics.getTags()).tag("percentile", Double.toString(quantile)).baseUnit("seconds")
+                    .description("Delivery latency from the server to the client").register(metrics.getRegistry()));
+        }
+        metrics.own(Gauge.builder(ClientMetrics.PREFIX + "server.latency.max", this,
+                latency -> latency.getDeliveryLatency().getMax() / 1e9)
+                .tags(metrics.getTags()).baseUnit("seconds")
+                .description("Maximum delivery latency from the server to the client").register(metrics.getRegistry()));
+        metrics.own(Gauge.builder(ClientMetrics.PREFIX + "server.rtt", this,
+                latency -> latency.getLastRoundTripTime().map(rtt -> rtt.toNanos() / 1e9).orElse(Double.NaN))
+                .tags(metrics.getTags()).baseUnit("seconds")
+                .description("Round trip time of the last ping to the server").register(metrics.getRegistry()));
+        metrics.own(Gauge.builder(ClientMetrics.PREFIX + "server.clock.skew", this,
+                latency -> latency.getClockSkewMillis() / 1e3)
+                .tags(metrics.getTags()).baseUnit("seconds")
+                .description("Estimated amount the client's clock is ahead of the server's")
+                .register(metrics.getRegistry()));
+    }
+
+    /**
+     * Delivery latency statistics for a channel.
+     * <p>
+     * Statistics are updated only by the connection's inbound pipeline and may be read from any
+     * thread.
+     */
+    public static final class ChannelLatency {
+        private volatile long count;
+        private volatile double average;
+        private volatile long max;
+
+        private void record(long latencyMillis) {
+            average = count == 0 ? latencyMillis : average + EWMA_ALPHA * (latencyMillis - average);
+            max = Math.max(max, latencyMillis);
+            count++;
+        }
+
+        /**
+         * Returns the number of messages measured.
+         *
+         * @return The number of messages measured.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the exponentially weighted moving average of the delivery latency.
+         *
+         * @return The average latency, in milliseconds.
+         */
+        public double getAverageMillis() {
+            return average;
+        }
+
+        /**
+         * Returns the largest delivery latency measured.
+         *
+         * @return The largest latency, in milliseconds.
+         */
+        public long getMaxMillis() {
+            return max;
+        }
+    }
+
+    /**
+     * The minimum of a value over the current and previous windows, so that it follows changes
+     * such as clock drift without forgetting the minimum entirely at the start of each window.
+     */
+    private static final class SlidingMinimum {
+        private final long windowNanos;
+        private long current = UNKNOWN;
+        private long previous = UNKNOWN;
+        private long start = System.nanoTime();
+
+        private SlidingMinimum(long windowNanos) {
+            this.windowNanos = windowNanos;
+        }
+
+        private synchronized void update(long value, long now) {
+            if (now - start >= windowNanos) {
+                previous = current;
+                current = UNKNOWN;
+                start = now;
+            }
+            current = Math.min(current, value);
+        }
+
+        private synchronized long get() {
+            return Math.min(current, previous);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.metrics;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.TagKey;
+
+/**
+ * Extracts the time at which the server sent a command from its tags.
+ * <p>
+ * Twitch stamps messages with a <code>tmi-sent-ts</code> tag holding milliseconds since the epoch
+ * and IRCv3 servers with the <code>server-time</code> capability stamp them with a
+ * <code>time</code> tag holding an ISO 8601 UTC timestamp. Both are parsed by hand, without
+ * allocating, as they are read for every message.
+ */
+@ParametersAreNonnullByDefault
+public final class ServerTime {
+    /**
+     * The tag Twitch uses for the time a message was sent.
+     */
+    public static final TagKey TMI_SENT_TS = new TagKey("tmi-sent-ts");
+
+    /**
+     * The tag the IRCv3 <code>server-time</code> capability uses for the time a message was sent.
+     */
+    public static final TagKey TIME = new TagKey("time");
+
+    /**
+     * The value returned when a command has no parsable server time.
+     */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    private ServerTime() {
+    }
+
+    /**
+     * Returns the time at which the server sent a command.
+     *
+     * @param command The command.
+     * @return The time the command was sent in milliseconds since the epoch, or {@link #UNKNOWN}.
+     */
+    public static long of(IrcCommand command) {
+        var tags = command.getTags();
+        if (tags.isEmpty()) {
+            return UNKNOWN;
+        }
+        var sent = tags.get(TMI_SENT_TS);
+        if (sent != null) {
+            return parseEpochMillis(sent);
+        }
+        return parseIso8601(tags.get(TIME));
+    }
+
+    /**
+     * Parses a decimal number of milliseconds since the epoch.
+     *
+     * @param text The text to parse.
+     * @return The parsed time, or {@link #UNKNOWN} if the text is not a number.
+     */
+    public static long parseEpochMillis(@Nullable String text) {
+        if (text == null || text.isEmpty() || text.length() > 18) {
+            return UNKNOWN;
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return UNKNOWN;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses an ISO 8601 UTC timestamp of the form <code>YYYY-MM-DDThh:mm:ss[.sss]Z</code>.
+     *
+     * @param text The text to parse.
+     * @return The parsed time in milliseconds since the epoch, or {@link #UNKNOWN} if the text is
+     * not in the expected form.
+     */
+    public static long parseIso8601(@Nullable String text) {
+        if (text == null || text.length() < 20 || text.charAt(text.length() - 1) != 'Z'
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return UNKNOWN;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return UNKNOWN;
+        }
+        int millis = 0;
+        int end = text.length() - 1;
+        if (end > 19) {
+            if (text.charAt(19) != '.' || end == 20) {
+                return UNKNOWN;
+            }
+            int scale = 100;
+            for (int i = 20; i < end; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return UNKNOWN;
+                }
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+    }
+
+    /**
+     * Parses a fixed number of decimal digits.
+     *
+     * @return The parsed value, or -1 if any character is not a digit.
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
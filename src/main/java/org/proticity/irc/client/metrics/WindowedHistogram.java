@@ -0,0 +1,67 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.metrics;
+
+/**
+ * A {@link LatencyHistogram} which is reported over windows of a minimum length.
+ * <p>
+ * A window is completed by the first query made after it has run for its length, and queries
+ * return the most recently completed window.
+ */
+final class WindowedHistogram {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final long windowNanos;
+    private volatile LatencyHistogram.Snapshot completed = LatencyHistogram.Snapshot.EMPTY;
+    private volatile long start = System.nanoTime();
+
+    /**
+     * Creates a new windowed histogram.
+     *
+     * @param windowNanos The minimum length of a window, in nanoseconds.
+     */
+    WindowedHistogram(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Records a value in the current window.
+     *
+     * @param value The value to record.
+     */
+    void record(long value) {
+        histogram.record(value);
+    }
+
+    /**
+     * Returns the most recently completed window.
+     *
+     * @return The values recorded in the most recently completed window.
+     */
+    LatencyHistogram.Snapshot snapshot() {
+        long now = System.nanoTime();
+        if (now - start >= windowNanos) {
+            synchronized (this) {
+                if (now - start >= windowNanos) {
+                    completed = histogram.intervalSnapshot();
+                    start = now;
+                }
+            }
+        }
+        return completed;
+    }
+}
@@ -18,7 +18,10 @@
 package org.proticity.irc.client.parser;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,6 +33,7 @@ import org.proticity.irc.client.command.InvalidCommand;
 import org.proticity.irc.client.command.InviteCommand;
 import org.proticity.irc.client.command.IrcCommand;
 import org.proticity.irc.client.command.JoinCommand;
+import org.proticity.irc.client.command.KickCommand;
 import org.proticity.irc.client.command.MessageCommand;
 import org.proticity.irc.client.command.ModeCommand;
 import org.proticity.irc.client.command.NickCommand;
@@ -40,12 +44,14 @@ import org.proticity.irc.client.command.PartCommand;
 import org.proticity.irc.client.command.PingCommand;
 import org.proticity.irc.client.command.PongCommand;
 import org.proticity.irc.client.command.PrivmsgCommand;
+import org.proticity.irc.client.command.QuitCommand;
 import org.proticity.irc.client.command.SQueryCommand;
 import org.proticity.irc.client.command.ServerPrefix;
 import org.proticity.irc.client.command.TagKey;
 import org.proticity.irc.client.command.TopicCommand;
 import org.proticity.irc.client.command.User;
 import org.proticity.irc.client.command.twitch.WhisperCommand;
+import org.proticity.irc.client.state.TagKeyCache;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.FluxSink;
 import reactor.util.annotation.NonNull;
@@ -71,7 +77,7 @@ public class IrcInput implements Serializable {
             Pattern.compile("^(?<prefix>[#+&]|(![A-Z0-9]{5}))(?<name>[^ \0\r\n:,\u0007]+)");
     private static final Pattern NUMERIC_REPLY = Pattern.compile("^[0-9]{3}");
     private static final Pattern NONCRLF = Pattern.compile("^[^\r\n]*");
-    private static final Pattern PARAM = Pattern.compile("^[^ \r\n:]+");
+    private static final Pattern PARAM = Pattern.compile("^[^ \r\n:][^ \r\n]*");
     private static final Pattern TAG_KEY = Pattern.compile("^[a-zA-Z0-9\\-]+");
     private static final Pattern TAG_VENDOR = Pattern.compile("^" + HOSTNAME_PATTERN + "/");
     private static final Pattern TAG_VALUE = Pattern.compile("^(\\\\[ ;\r\n\0]|[^ ;\r\n\0])*");
@@ -83,28 +89,78 @@ public class IrcInput implements Serializable {
 
     private String input;
     private int position;
+    private long receivedNanos;
+    private transient TagKeyCache tagKeys;
 
     public IrcInput(String input) {
         this.input = input;
     }
 
+    /**
+     * Creates an input which was read from the network at a known time.
+     * <p>
+     * Commands parsed from the input carry the time it was read, and the time at which they were
+     * parsed, for latency measurement.
+     *
+     * @param input         The input text.
+     * @param receivedNanos The value of {@link System#nanoTime()} when the input was read.
+     */
+    public IrcInput(String input, long receivedNanos) {
+        this(input);
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * Creates an input which was read from the network at a known time, and which looks tag keys
+     * up in a cache.
+     *
+     * @param input         The input text.
+     * @param receivedNanos The value of {@link System#nanoTime()} when the input was read, or 0 if
+     *                      it is not known.
+     * @param tagKeys       The cache of tag keys, or null to parse every key.
+     */
+    public IrcInput(String input, long receivedNanos, @Nullable TagKeyCache tagKeys) {
+        this(input, receivedNanos);
+        this.tagKeys = tagKeys;
+    }
+
     public Flux<IrcCommand> messages() {
-        tryCrlf();
         return Flux.create((FluxSink<IrcCommand> sink) -> {
-            while (!tryEof()) {
-                try {
-                    sink.next(message());
-                } catch (IrcParseException e) {
-                    sink.next(new InvalidCommand(e.getInput(), e));
-                }
-                if (!tryCrlf()) {
-                    break;
-                }
-            }
+            messages(sink::next);
             sink.complete();
         });
     }
 
+    /**
+     * Parses all of the messages in the input synchronously.
+     *
+     * @return The parsed messages, in order.
+     */
+    public List<IrcCommand> parse() {
+        var commands = new ArrayList<IrcCommand>(1);
+        messages(commands::add);
+        return commands;
+    }
+
+    /**
+     * Parses all of the messages in the input, passing each to a consumer as it is parsed.
+     *
+     * @param consumer The consumer of the parsed messages.
+     */
+    protected void messages(@NonNull Consumer<IrcCommand> consumer) {
+        tryCrlf();
+        while (!tryEof()) {
+            try {
+                consumer.accept(message());
+            } catch (IrcParseException e) {
+                consumer.accept(new InvalidCommand(e.getInput(), e, receivedNanos));
+            }
+            if (!tryCrlf()) {
+                break;
+            }
+        }
+    }
+
     protected IrcCommand message() {
         var builder = new CommandBuilder();
         if (tryConsume('@')) {
@@ -127,6 +183,9 @@ public class IrcInput implements Serializable {
             }
             builder.parameter(consume(PARAM).group());
         }
+        if (receivedNanos != 0) {
+            builder.receivedNanos(receivedNanos).parsedNanos(System.nanoTime());
+        }
 
         switch (builder.getCommand()) {
             case "PRIVMSG":
@@ -150,9 +209,15 @@ public class IrcInput implements Serializable {
             case "TOPIC":
                 return new TopicCommand(builder);
             case "MODE":
-                return new ModeCommand(builder);
+                var target = builder.getParameters();
+                if (target != null && !target.isEmpty() && CHANNEL.matcher(target.get(0)).lookingAt()) {
+                    return new ModeCommand(builder);
+                }
+                return new IrcCommand(builder);
             case "KICK":
-                // TODO
+                return new KickCommand(builder);
+            case "QUIT":
+                return new QuitCommand(builder);
             case "INVITE":
                 return new InviteCommand(builder);
             case "SQUERY":
@@ -230,6 +295,27 @@ public class IrcInput implements Serializable {
     }
 
     protected TagKey tagKey() {
+        if (tagKeys == null) {
+            return parseTagKey();
+        }
+        int start = position;
+        int end = start;
+        while (end < input.length() && " ;=\r\n".indexOf(input.charAt(end)) < 0) {
+            end++;
+        }
+        var key = tagKeys.get(input, start, end);
+        if (key != null) {
+            position = end;
+            return key;
+        }
+        key = parseTagKey();
+        if (position == end) {
+            tagKeys.put(input, start, end, key);
+        }
+        return key;
+    }
+
+    protected TagKey parseTagKey() {
         var clientOnly = tryConsume('+');
         var vendor = tryTagVendor();
         return new TagKey(clientOnly, vendor.orElse(null), consume(TAG_KEY).group());
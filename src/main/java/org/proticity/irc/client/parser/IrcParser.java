@@ -17,8 +17,12 @@
  */
 package org.proticity.irc.client.parser;
 
+import java.util.List;
+
 import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.state.TagKeyCache;
 import reactor.core.publisher.Flux;
+import reactor.util.annotation.Nullable;
 
 /**
  * A stateless parser for IRC messages from the server to the client.
@@ -29,10 +33,24 @@ import reactor.core.publisher.Flux;
  * @see IrcInput
  */
 public class IrcParser {
+    @Nullable
+    private final TagKeyCache tagKeys;
+
     /**
      * Constructs a new {@link IrcParser}.
      */
     public IrcParser() {
+        this(null);
+    }
+
+    /**
+     * Constructs a new {@link IrcParser} which looks tag keys up in a cache, which may be shared
+     * with other parsers.
+     *
+     * @param tagKeys The cache of tag keys, or null to parse every key.
+     */
+    public IrcParser(@Nullable TagKeyCache tagKeys) {
+        this.tagKeys = tagKeys;
     }
 
     /**
@@ -43,7 +61,7 @@ public class IrcParser {
      * @return A {@link Flux} of {@link IrcCommand} objects representing parsed messages.
      */
     public Flux<IrcCommand> messages(Flux<String> inputs) {
-        return inputs.map(IrcInput::new).flatMap(IrcInput::messages);
+        return inputs.map(input -> new IrcInput(input, 0, tagKeys)).flatMap(IrcInput::messages);
     }
 
     /**
@@ -54,6 +72,33 @@ public class IrcParser {
      * @return A {@link Flux} of {@link IrcCommand} objects representing parsed messages.
      */
     public Flux<IrcCommand> messages(String input) {
-        return new IrcInput(input).messages();
+        return new IrcInput(input, 0, tagKeys).messages();
+    }
+
+    /**
+     * Parses incoming IRC messages synchronously.
+     * <p>
+     * This avoids creating a publisher for every input and is suited to use within an existing
+     * reactive pipeline, for example with {@link Flux#flatMapIterable(java.util.function.Function)}.
+     *
+     * @param input An incoming IRC message from the server.
+     *
+     * @return The {@link IrcCommand} objects representing the parsed messages.
+     */
+    public List<IrcCommand> parse(String input) {
+        return new IrcInput(input, 0, tagKeys).parse();
+    }
+
+    /**
+     * Parses incoming IRC messages synchronously, stamping the commands with the time at which the
+     * input was read.
+     *
+     * @param input         An incoming IRC message from the server.
+     * @param receivedNanos The value of {@link System#nanoTime()} when the input was read.
+     *
+     * @return The {@link IrcCommand} objects representing the parsed messages.
+     */
+    public List<IrcCommand> parse(String input, long receivedNanos) {
+        return new IrcInput(input, receivedNanos, tagKeys).parse();
     }
 }
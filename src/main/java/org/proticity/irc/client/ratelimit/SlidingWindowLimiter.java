@@ -0,0 +1,176 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.ratelimit;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A limiter which allows no more than a number of operations in any window of a period, as
+ * servers which count the commands of each client over a sliding window do.
+ * <p>
+ * The limiter keeps the times of the last operations up to its capacity. An operation is admitted
+ * once the operation as many places before it is a period old, so the limit holds in every window,
+ * not only in windows aligned with a burst. Callers may {@link #reserve(long) reserve} operations
+ * which are not yet allowed, in which case they are told how long to wait before proceeding; later
+ * callers then wait in turn, so operations are admitted in the order they reserved.
+ */
+@ParametersAreNonnullByDefault
+public class SlidingWindowLimiter {
+    private final long period;
+    private final LongSupplier clock;
+
+    /**
+     * The times, from the limiter's clock, of the last operations admitted or reserved, in order
+     * from {@link #oldest}.
+     */
+    private final long[] times;
+
+    private int oldest;
+
+    /**
+     * Creates a limiter under which every operation is allowed straight away.
+     *
+     * @param capacity The number of operations allowed in each window, which is also the number
+     *                 allowed in a burst.
+     * @param period   The length of the window.
+     */
+    public SlidingWindowLimiter(long capacity, Duration period) {
+        this(capacity, period, System::nanoTime);
+    }
+
+    /**
+     * Creates a limiter which reads the time from a clock of its own.
+     *
+     * @param capacity The number of operations allowed in each window.
+     * @param period   The length of the window.
+     * @param clock    The clock, in nanoseconds.
+     */
+    public SlidingWindowLimiter(long capacity, Duration period, LongSupplier clock) {
+        if (capacity < 1 || capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Period must be positive.");
+        }
+        this.period = period.toNanos();
+        this.clock = clock;
+        times = new long[(int) capacity];
+        Arrays.fill(times, clock.getAsLong() - this.period);
+    }
+
+    /**
+     * Returns the number of operations allowed in each window.
+     *
+     * @return The capacity of the limiter.
+     */
+    public long getCapacity() {
+        return times.length;
+    }
+
+    /**
+     * Returns the number of operations which are currently allowed.
+     *
+     * @return The operations allowed now, or 0 if none are or callers are waiting.
+     */
+    public synchronized long available() {
+        long now = clock.getAsLong();
+        if (newest() > now) {
+            return 0;
+        }
+        int available = 0;
+        while (available < times.length && times[index(available)] + period <= now) {
+            available++;
+        }
+        return available;
+    }
+
+    /**
+     * Returns how long it would be until operations are allowed, without reserving them.
+     *
+     * @param operations The number of operations, which may not exceed the capacity.
+     * @return The time in nanoseconds until the operations would be allowed, which is 0 if they are
+     * allowed now.
+     */
+    public synchronized long delay(long operations) {
+        long now = clock.getAsLong();
+        return Math.max(0, admission(operations, now) - now);
+    }
+
+    /**
+     * Reserves operations if they are allowed now.
+     *
+     * @param operations The number of operations, which may not exceed the capacity.
+     * @return Whether the operations were reserved.
+     */
+    public synchronized boolean tryAcquire(long operations) {
+        long now = clock.getAsLong();
+        long at = admission(operations, now);
+        if (at > now) {
+            return false;
+        }
+        admit(operations, at);
+        return true;
+    }
+
+    /**
+     * Reserves operations, to be performed once they are allowed.
+     *
+     * @param operations The number of operations, which may not exceed the capacity.
+     * @return The time in nanoseconds the caller must wait before performing the operations, which
+     * is 0 if they are allowed now.
+     */
+    public synchronized long reserve(long operations) {
+        long now = clock.getAsLong();
+        long at = admission(operations, now);
+        admit(operations, at);
+        return at - now;
+    }
+
+    /**
+     * Returns the earliest time at which operations may be performed together, after those already
+     * reserved.
+     */
+    private long admission(long operations, long now) {
+        if (operations < 0 || operations > times.length) {
+            throw new IllegalArgumentException("Operations must be between 0 and the capacity.");
+        }
+        if (operations == 0) {
+            return Math.max(now, newest());
+        }
+        // Each operation takes the place of the one a capacity earlier, which must leave the window.
+        return Math.max(Math.max(now, newest()), times[index((int) operations - 1)] + period);
+    }
+
+    private void admit(long operations, long at) {
+        for (int i = 0; i < operations; i++) {
+            times[oldest] = at;
+            oldest = index(1);
+        }
+    }
+
+    private long newest() {
+        return times[index(times.length - 1)];
+    }
+
+    private int index(int offset) {
+        return (oldest + offset) % times.length;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.request;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.IrcCommand;
+
+/**
+ * An exception signalling that the server answered a request with an error.
+ */
+@ParametersAreNonnullByDefault
+public class ReplyException extends RuntimeException {
+    private final transient IrcCommand reply;
+
+    public ReplyException(IrcCommand reply) {
+        super("The server replied with an error: " + reply);
+        this.reply = reply;
+    }
+
+    /**
+     * Returns the error reply from the server.
+     *
+     * @return The server's reply.
+     */
+    public IrcCommand getReply() {
+        return reply;
+    }
+}
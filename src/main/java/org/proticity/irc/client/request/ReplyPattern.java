@@ -0,0 +1,247 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.request;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Describes the numeric replies a server sends in response to a command.
+ * <p>
+ * A reply consists of any number of numerics from the reply set, finished by one of the end
+ * numerics. A failure numeric ends the reply with an error. Patterns for the common query commands
+ * are provided, and are chosen for a command with {@link #forCommand(String)}.
+ */
+@ParametersAreNonnullByDefault
+public final class ReplyPattern {
+    /**
+     * The characters which begin channel names on servers which do not advertise
+     * <code>CHANTYPES</code>.
+     */
+    public static final String DEFAULT_CHANNEL_TYPES = "#&";
+
+    /**
+     * WHO, including WHOX replies.
+     */
+    public static final ReplyPattern WHO = new ReplyPattern("WHO", Set.of(352, 354), Set.of(315), Set.of());
+
+    /**
+     * NAMES for a single channel.
+     */
+    public static final ReplyPattern NAMES = new ReplyPattern("NAMES", Set.of(353), Set.of(366), Set.of());
+
+    /**
+     * WHOIS for a single nickname. Unknown nicknames are reported within the reply.
+     */
+    public static final ReplyPattern WHOIS = new ReplyPattern("WHOIS",
+            Set.of(276, 301, 307, 310, 311, 312, 313, 317, 319, 320, 330, 338, 378, 379, 401, 402, 671),
+            Set.of(318), Set.of());
+
+    /**
+     * WHOWAS for a single nickname.
+     */
+    public static final ReplyPattern WHOWAS = new ReplyPattern("WHOWAS", Set.of(312, 314, 330, 338, 406),
+            Set.of(369), Set.of());
+
+    /**
+     * LIST.
+     */
+    public static final ReplyPattern LIST = new ReplyPattern("LIST", Set.of(321, 322), Set.of(323), Set.of());
+
+    /**
+     * MODE querying the modes of a channel.
+     */
+    public static final ReplyPattern CHANNEL_MODE = new ReplyPattern("MODE", Set.of(), Set.of(324),
+            Set.of(403, 442));
+
+    /**
+     * MODE listing the bans of a channel.
+     */
+    public static final ReplyPattern BAN_LIST = new ReplyPattern("MODE", Set.of(367), Set.of(368),
+            Set.of(403, 442, 482));
+
+    /**
+     * MODE listing the ban exceptions of a channel.
+     */
+    public static final ReplyPattern EXCEPTION_LIST = new ReplyPattern("MODE", Set.of(348), Set.of(349),
+            Set.of(403, 442, 482));
+
+    /**
+     * MODE listing the invite exceptions of a channel.
+     */
+    public static final ReplyPattern INVITE_LIST = new ReplyPattern("MODE", Set.of(346), Set.of(347),
+            Set.of(403, 442, 482));
+
+    /**
+     * ISON.
+     */
+    public static final ReplyPattern ISON = new ReplyPattern("ISON", Set.of(), Set.of(303), Set.of());
+
+    /**
+     * USERHOST.
+     */
+    public static final ReplyPattern USERHOST = new ReplyPattern("USERHOST", Set.of(), Set.of(302), Set.of());
+
+    /**
+     * MOTD. A server without a message of the day ends the reply with 422.
+     */
+    public static final ReplyPattern MOTD = new ReplyPattern("MOTD", Set.of(372, 375), Set.of(376, 422), Set.of());
+
+    private final String command;
+    private final Set<Integer> replies;
+    private final Set<Integer> endings;
+    private final Set<Integer> failures;
+    private final Set<Integer> codes;
+
+    /**
+     * Creates a pattern.
+     *
+     * @param command  The command the pattern describes replies to.
+     * @param replies  The numerics which make up the body of a reply.
+     * @param endings  The numerics which end a reply.
+     * @param failures The numerics which end a reply with an error.
+     */
+    public ReplyPattern(String command, Set<Integer> replies, Set<Integer> endings, Set<Integer> failures) {
+        if (endings.isEmpty() && failures.isEmpty()) {
+            throw new IllegalArgumentException("A reply pattern must have a numeric which ends it.");
+        }
+        this.command = command.toUpperCase(Locale.ROOT);
+        this.replies = Set.copyOf(replies);
+        this.endings = Set.copyOf(endings);
+        this.failures = Set.copyOf(failures);
+        var all = new HashSet<Integer>(replies);
+        all.addAll(endings);
+        all.addAll(failures);
+        codes = Set.copyOf(all);
+    }
+
+    /**
+     * Chooses the pattern for the reply to a command, on a server with the default channel types.
+     *
+     * @param line The command, as it will be sent to the server.
+     * @return The pattern of the command's reply, if it is a command with a known reply.
+     * @see #forCommand(String, String)
+     */
+    public static Optional<ReplyPattern> forCommand(String line) {
+        return forCommand(line, DEFAULT_CHANNEL_TYPES);
+    }
+
+    /**
+     * Chooses the pattern for the reply to a command.
+     * <p>
+     * A MODE query has a known reply only when its target is a channel. The reply to a query of a
+     * user's modes is a single numeric which no request can be told apart by, so it has none.
+     *
+     * @param line         The command, as it will be sent to the server.
+     * @param channelTypes The characters which begin channel names, from the server's
+     *                     <code>CHANTYPES</code>.
+     * @return The pattern of the command's reply, if it is a command with a known reply.
+     */
+    public static Optional<ReplyPattern> forCommand(String line, String channelTypes) {
+        var words = line.trim().split(" +");
+        switch (words[0].toUpperCase(Locale.ROOT)) {
+            case "WHO":
+                return Optional.of(WHO);
+            case "NAMES":
+                return Optional.of(NAMES);
+            case "WHOIS":
+                return Optional.of(WHOIS);
+            case "WHOWAS":
+                return Optional.of(WHOWAS);
+            case "LIST":
+                return Optional.of(LIST);
+            case "ISON":
+                return Optional.of(ISON);
+            case "USERHOST":
+                return Optional.of(USERHOST);
+            case "MOTD":
+                return Optional.of(MOTD);
+            case "MODE":
+                if (words.length < 2 || words[1].isEmpty() || channelTypes.indexOf(words[1].charAt(0)) < 0) {
+                    return Optional.empty();
+                }
+                if (words.length == 2) {
+                    return Optional.of(CHANNEL_MODE);
+                }
+                if (words.length == 3) {
+                    switch (words[2]) {
+                        case "b":
+                        case "+b":
+                            return Optional.of(BAN_LIST);
+                        case "e":
+                        case "+e":
+                            return Optional.of(EXCEPTION_LIST);
+                        case "I":
+                        case "+I":
+                            return Optional.of(INVITE_LIST);
+                        default:
+                            return Optional.empty();
+                    }
+                }
+                return Optional.empty();
+            default:
+                return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the command the pattern describes replies to.
+     *
+     * @return The command, in upper case.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns every numeric which belongs to the reply.
+     *
+     * @return The reply's numerics.
+     */
+    public Set<Integer> getCodes() {
+        return codes;
+    }
+
+    /**
+     * Returns whether a numeric ends the reply successfully.
+     *
+     * @param code The numeric.
+     * @return Whether the numeric ends the reply.
+     */
+    public boolean isEnd(int code) {
+        return endings.contains(code);
+    }
+
+    /**
+     * Returns whether a numeric ends the reply with an error.
+     *
+     * @param code The numeric.
+     * @return Whether the numeric is a failure.
+     */
+    public boolean isFailure(int code) {
+        return failures.contains(code);
+    }
+
+    @Override
+    public String toString() {
+        return "ReplyPattern[" + command + " " + replies + " until " + endings + "]";
+    }
+}
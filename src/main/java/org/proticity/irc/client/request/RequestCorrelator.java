@@ -0,0 +1,505 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.request;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.NumericReplyCommand;
+import org.proticity.irc.client.command.TagKey;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+/**
+ * Routes the replies the server sends to the requests they answer.
+ * <p>
+ * When the <code>labeled-response</code> capability is enabled each request is sent with a unique
+ * label, which the server attaches to its reply, either directly or on a batch containing the
+ * reply. Otherwise requests are matched in order: servers answer commands in the order they
+ * receive them, so each numeric is given to the oldest outstanding request whose
+ * {@link ReplyPattern} includes it, and that request finishes when one of its end numerics
+ * arrives. Routing a reply is a lookup by label, batch or numeric rather than a scan of every
+ * request.
+ * <p>
+ * A request which is cancelled or times out while its reply is still expected remains in the
+ * queue, discarding its reply when it arrives, so that the requests after it stay aligned with
+ * their replies. If no reply arrives within the timeout of its abandonment it is assumed never to
+ * come, and the request leaves the queue. Only a limited number of requests are sent at once;
+ * further requests wait until earlier ones finish.
+ */
+@ParametersAreNonnullByDefault
+public class RequestCorrelator {
+    /**
+     * The default number of requests which may be awaiting replies at once.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+    /**
+     * The default time to wait for the reply to a request.
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Errors which the server may send in reply to any command, naming the command in their
+     * second parameter.
+     */
+    private static final Set<Integer> COMMAND_ERRORS = Set.of(263, 421, 461, 481);
+
+    private static final TagKey LABEL = new TagKey("label");
+
+    private static final TagKey BATCH = new TagKey("batch");
+
+    private final Function<String, Mono<Void>> sender;
+    private final BooleanSupplier labeled;
+    private final Supplier<String> channelTypes;
+    private final int maxInFlight;
+    private final Duration timeout;
+
+    private final Map<ReplyPattern, ArrayDeque<Request>> queues = new HashMap<>();
+    private final Map<Integer, List<ReplyPattern>> patternsByCode = new HashMap<>();
+    private final Map<String, Request> byLabel = new HashMap<>();
+    private final Map<String, Request> byBatch = new HashMap<>();
+    private final ArrayDeque<Request> waiting = new ArrayDeque<>();
+    private int inFlight;
+    private long sequence;
+    private Throwable closed;
+
+    /**
+     * The number of requests which replies may be routed to, so that routing can skip taking the
+     * lock when there are none.
+     */
+    private volatile int routable;
+
+    /**
+     * Creates a correlator.
+     *
+     * @param sender      Sends a command to the server.
+     * @param labeled     Whether the <code>labeled-response</code> capability is enabled.
+     * @param maxInFlight The number of requests which may be awaiting replies at once.
+     * @param timeout     The time to wait for the reply to a request.
+     */
+    public RequestCorrelator(Function<String, Mono<Void>> sender, BooleanSupplier labeled, int maxInFlight,
+                             Duration timeout) {
+        this(sender, labeled, () -> ReplyPattern.DEFAULT_CHANNEL_TYPES, maxInFlight, timeout);
+    }
+
+    /**
+     * Creates a correlator.
+     *
+     * @param sender       Sends a command to the server.
+     * @param labeled      Whether the <code>labeled-response</code> capability is enabled.
+     * @param channelTypes The characters which begin channel names on the server.
+     * @param maxInFlight  The number of requests which may be awaiting replies at once.
+     * @param timeout      The time to wait for the reply to a request.
+     */
+    public RequestCorrelator(Function<String, Mono<Void>> sender, BooleanSupplier labeled,
+                             Supplier<String> channelTypes, int maxInFlight, Duration timeout) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The number of requests in flight must be positive.");
+        }
+        this.sender = sender;
+        this.labeled = labeled;
+        this.channelTypes = channelTypes;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sends a command with a known reply and returns the reply.
+     *
+     * @param command The command to send.
+     * @return The numerics which make up the reply.
+     * @throws IllegalArgumentException If the reply to the command is not known.
+     * @see ReplyPattern#forCommand(String, String)
+     */
+    public Flux<IrcCommand> request(String command) {
+        var pattern = ReplyPattern.forCommand(command, channelTypes.get()).orElseThrow(() ->
+                new IllegalArgumentException("The reply to '" + command + "' is not known."));
+        return request(command, pattern);
+    }
+
+    /**
+     * Sends a command and returns its reply.
+     * <p>
+     * The command is sent when the returned {@link Flux} is subscribed to, once fewer than the
+     * maximum number of requests are in flight. The {@link Flux} fails with a
+     * {@link ReplyException} if the server replies with an error, and with a
+     * {@link java.util.concurrent.TimeoutException} if the reply does not finish in time.
+     *
+     * @param command The command to send.
+     * @param pattern The pattern of the command's reply.
+     * @return The messages which make up the reply.
+     */
+    public Flux<IrcCommand> request(String command, ReplyPattern pattern) {
+        return Flux.<IrcCommand>create(sink -> {
+            var request = new Request(command, pattern, sink);
+            sink.onDispose(() -> abandon(request));
+            submit(request);
+        }).timeout(timeout);
+    }
+
+    /**
+     * Returns the number of requests which have been sent and are awaiting replies.
+     *
+     * @return The number of requests in flight.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of requests waiting to be sent.
+     *
+     * @return The number of waiting requests.
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Routes a command received from the server to the request it answers, if any.
+     *
+     * @param command The command.
+     * @return Whether the command was part of the reply to a request.
+     */
+    public boolean route(IrcCommand command) {
+        if (routable == 0) {
+            return false;
+        }
+        Request target;
+        boolean end;
+        boolean failure;
+        synchronized (this) {
+            var tags = command.getTags();
+            var batch = tags.isEmpty() ? null : tags.get(BATCH);
+            var label = tags.isEmpty() ? null : tags.get(LABEL);
+            var params = command.getParameters();
+            if (batch != null && byBatch.containsKey(batch)) {
+                target = byBatch.get(batch);
+                end = false;
+            } else if (label != null && byLabel.containsKey(label)) {
+                target = byLabel.get(label);
+                if ("BATCH".equals(command.getCommand()) && !params.isEmpty() && params.get(0).startsWith("+")) {
+                    // The reply is a batch of messages, which ends with the batch.
+                    byBatch.put(params.get(0).substring(1), target);
+                    updateRoutable();
+                    return true;
+                }
+                if ("ACK".equals(command.getCommand())) {
+                    finish(target);
+                    target.sink.complete();
+                    return true;
+                }
+                end = true;
+            } else if ("BATCH".equals(command.getCommand()) && !params.isEmpty()
+                    && params.get(0).startsWith("-") && byBatch.containsKey(params.get(0).substring(1))) {
+                target = byBatch.remove(params.get(0).substring(1));
+                finish(target);
+                target.sink.complete();
+                return true;
+            } else if (command instanceof NumericReplyCommand) {
+                return routeInOrder((NumericReplyCommand) command);
+            } else {
+                return false;
+            }
+            failure = isFailure(target.pattern, command);
+            if (end || failure) {
+                finish(target);
+            }
+        }
+        if (failure) {
+            target.sink.error(new ReplyException(command));
+        } else {
+            target.sink.next(command);
+            if (end) {
+                target.sink.complete();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fails every request, as when the connection is closed. Later requests fail immediately.
+     *
+     * @param error The reason requests failed.
+     */
+    public void close(Throwable error) {
+        synchronized (this) {
+            closed = error;
+        }
+        reset(error);
+    }
+
+    /**
+     * Fails every outstanding request, as when the connection is lost, leaving later requests to
+     * be sent as normal.
+     *
+     * @param error The reason requests failed.
+     */
+    public void reset(Throwable error) {
+        var failed = new ArrayList<Request>();
+        synchronized (this) {
+            failed.addAll(waiting);
+            waiting.clear();
+            failed.addAll(byLabel.values());
+            for (var queue : queues.values()) {
+                for (var request : queue) {
+                    if (!request.finished) {
+                        failed.add(request);
+                    }
+                }
+                queue.clear();
+            }
+            byLabel.clear();
+            byBatch.clear();
+            inFlight = 0;
+            updateRoutable();
+            for (var request : failed) {
+                request.finished = true;
+            }
+        }
+        for (var request : failed) {
+            request.sink.error(error);
+        }
+    }
+
+    private boolean routeInOrder(NumericReplyCommand command) {
+        int code = command.getReplyCode();
+        var params = command.getParameters();
+        ArrayDeque<Request> queue = null;
+        if (COMMAND_ERRORS.contains(code)) {
+            // These errors name the command they answer, so match them on that.
+            if (params.size() >= 2) {
+                queue = oldest(queues.keySet(), params.get(1));
+            }
+        } else {
+            var patterns = patternsByCode.get(code);
+            if (patterns != null) {
+                queue = oldest(patterns, null);
+            }
+        }
+        if (queue == null) {
+            return false;
+        }
+        var target = queue.peek();
+        boolean failure = isFailure(target.pattern, command);
+        boolean end = failure || target.pattern.isEnd(code);
+        if (end) {
+            queue.poll();
+            updateRoutable();
+        }
+        if (target.abandoned) {
+            // The requester has gone, but the reply still belongs to it.
+            return true;
+        }
+        if (end) {
+            finish(target);
+        }
+        // Signals are delivered under the lock here, which keeps them ordered with the routing.
+        if (failure) {
+            target.sink.error(new ReplyException(command));
+        } else {
+            target.sink.next(command);
+            if (end) {
+                target.sink.complete();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the queue whose first request is the oldest, among the queues for some patterns.
+     *
+     * @param patterns The patterns to consider.
+     * @param command  The command the pattern must be for, or null to consider every pattern.
+     */
+    @Nullable
+    private ArrayDeque<Request> oldest(Iterable<ReplyPattern> patterns, @Nullable String command) {
+        ArrayDeque<Request> oldest = null;
+        long now = System.nanoTime();
+        for (var pattern : patterns) {
+            if (command != null && !pattern.getCommand().equalsIgnoreCase(command)) {
+                continue;
+            }
+            var queue = queues.get(pattern);
+            if (queue == null) {
+                continue;
+            }
+            expire(queue, now);
+            if (!queue.isEmpty()
+                    && (oldest == null || queue.peek().sequence < oldest.peek().sequence)) {
+                oldest = queue;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Drops abandoned requests from the head of a queue whose replies are overdue, so that a reply
+     * which never comes does not misalign the requests after them for good.
+     */
+    private void expire(ArrayDeque<Request> queue, long now) {
+        boolean expired = false;
+        while (!queue.isEmpty() && queue.peek().abandoned && now - queue.peek().expiresAt >= 0) {
+            queue.poll();
+            expired = true;
+        }
+        if (expired) {
+            updateRoutable();
+        }
+    }
+
+    private static boolean isFailure(ReplyPattern pattern, IrcCommand command) {
+        if (!(command instanceof NumericReplyCommand)) {
+            return false;
+        }
+        int code = ((NumericReplyCommand) command).getReplyCode();
+        return pattern.isFailure(code) || COMMAND_ERRORS.contains(code);
+    }
+
+    private void submit(Request request) {
+        Throwable error;
+        synchronized (this) {
+            error = closed;
+            if (error == null) {
+                if (inFlight < maxInFlight) {
+                    start(request);
+                } else {
+                    waiting.add(request);
+                }
+                return;
+            }
+        }
+        request.finished = true;
+        request.sink.error(error);
+    }
+
+    /**
+     * Sends a request. Requests are sent while holding the lock, so that they are written in the
+     * order they were queued.
+     */
+    private void start(Request request) {
+        inFlight++;
+        request.sequence = sequence++;
+        String line;
+        if (labeled.getAsBoolean()) {
+            request.label = Long.toString(request.sequence, Character.MAX_RADIX);
+            byLabel.put(request.label, request);
+            line = "@label=" + request.label + " " + request.command;
+        } else {
+            queues.computeIfAbsent(request.pattern, this::addPattern).add(request);
+            line = request.command;
+        }
+        updateRoutable();
+        sender.apply(line).subscribe(null, error -> fail(request, error));
+    }
+
+    private ArrayDeque<Request> addPattern(ReplyPattern pattern) {
+        for (var code : pattern.getCodes()) {
+            patternsByCode.computeIfAbsent(code, c -> new ArrayList<>(1)).add(pattern);
+        }
+        return new ArrayDeque<>();
+    }
+
+    private void fail(Request request, Throwable error) {
+        synchronized (this) {
+            if (request.finished) {
+                return;
+            }
+            var queue = queues.get(request.pattern);
+            if (queue != null) {
+                queue.remove(request);
+            }
+            finish(request);
+        }
+        request.sink.error(error);
+    }
+
+    /**
+     * Abandons a request whose subscriber has gone, which is also called once a request finishes.
+     */
+    private synchronized void abandon(Request request) {
+        if (request.finished) {
+            return;
+        }
+        if (waiting.remove(request)) {
+            request.finished = true;
+            return;
+        }
+        if (request.label == null) {
+            request.abandoned = true;
+            request.expiresAt = System.nanoTime() + timeout.toNanos();
+        }
+        finish(request);
+    }
+
+    /**
+     * Releases a request's place in flight and sends the next waiting request.
+     */
+    private void finish(Request request) {
+        if (request.finished) {
+            return;
+        }
+        request.finished = true;
+        if (request.label != null) {
+            byLabel.remove(request.label);
+        }
+        inFlight--;
+        while (inFlight < maxInFlight && !waiting.isEmpty()) {
+            start(waiting.poll());
+        }
+        updateRoutable();
+    }
+
+    private void updateRoutable() {
+        int count = byLabel.size() + byBatch.size();
+        for (var queue : queues.values()) {
+            count += queue.size();
+        }
+        routable = count;
+    }
+
+    private static final class Request {
+        private final String command;
+        private final ReplyPattern pattern;
+        private final FluxSink<IrcCommand> sink;
+        private long sequence;
+        private String label;
+        private boolean finished;
+        private boolean abandoned;
+        private long expiresAt;
+
+        private Request(String command, ReplyPattern pattern, FluxSink<IrcCommand> sink) {
+            this.command = command;
+            this.pattern = pattern;
+            this.sink = sink;
+        }
+    }
+}
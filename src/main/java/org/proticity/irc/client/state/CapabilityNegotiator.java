@@ -0,0 +1,479 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.Capability;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.NumericReplyCommand;
+
+/**
+ * Negotiates IRCv3 capabilities with the server.
+ * <p>
+ * Negotiation starts with <code>CAP LS 302</code>, which suspends registration on servers which
+ * support capabilities. Once the complete, possibly multi-line, list of available capabilities
+ * has arrived, every wanted capability the server offers is requested in as few
+ * <code>CAP REQ</code> commands as fit on a line, and <code>CAP END</code> is sent once all of them
+ * have been acknowledged or refused and any SASL authentication has finished. Capabilities which
+ * the server later adds or removes with <code>cap-notify</code> are requested or dropped as they
+ * come and go.
+ * <p>
+ * With {@link #startPipelined()} the requests are sent along with <code>CAP LS</code> rather than
+ * after its reply, saving a round trip. Should the server refuse a request because it named a
+ * capability the server lacks, the capabilities it does offer are requested again.
+ * <p>
+ * Servers which do not answer <code>CAP LS</code> before completing registration, such as Twitch,
+ * are sent the requests once the client is registered instead.
+ * <p>
+ * Commands must be applied by the inbound pipeline, which sends the commands the negotiator returns.
+ * The negotiated state can be read from any thread.
+ */
+@ParametersAreNonnullByDefault
+public class CapabilityNegotiator {
+    private static final int RPL_WELCOME = 1;
+
+    private static final int ERR_UNKNOWNCOMMAND = 421;
+
+    private static final int RPL_LOGGEDIN = 900;
+
+    private static final int RPL_SASLSUCCESS = 903;
+
+    /**
+     * The numeric replies which end a failed SASL authentication.
+     */
+    private static final Set<Integer> SASL_FAILURES = Set.of(902, 904, 905, 906, 907);
+
+    private static final int MAX_LINE_BYTES = 510;
+
+    private static final String REQ = "CAP REQ :";
+
+    private static final Capability SASL = new Capability("sasl");
+
+    private final Set<Capability> wanted;
+
+    private final SaslPlain sasl;
+
+    private final Map<Capability, String> available = new ConcurrentHashMap<>();
+
+    private final Set<Capability> enabled = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The capabilities listed so far by a multi-line <code>CAP LS</code> reply.
+     */
+    private final Map<Capability, String> listing = new LinkedHashMap<>();
+
+    /**
+     * The capabilities which have been requested and not yet acknowledged or refused.
+     */
+    private final Set<Capability> requested = new HashSet<>();
+
+    /**
+     * The capabilities which the server has refused although it offers them.
+     */
+    private final Set<Capability> refused = new HashSet<>();
+
+    /**
+     * The number of capability requests which have not yet been answered.
+     */
+    private int outstanding;
+
+    private boolean listed;
+
+    private boolean registered;
+
+    private boolean authenticating;
+
+    private boolean authenticationDone;
+
+    private volatile boolean complete;
+
+    private volatile String account;
+
+    /**
+     * Creates a negotiator.
+     *
+     * @param wanted The capabilities to enable if the server supports them.
+     */
+    public CapabilityNegotiator(Collection<Capability> wanted) {
+        this(wanted, null);
+    }
+
+    /**
+     * Creates a negotiator which authenticates with SASL.
+     *
+     * @param wanted The capabilities to enable if the server supports them.
+     * @param sasl   The credentials to authenticate with, if any.
+     */
+    public CapabilityNegotiator(Collection<Capability> wanted, @Nullable SaslPlain sasl) {
+        var caps = new LinkedHashSet<>(wanted);
+        if (sasl != null) {
+            caps.add(SASL);
+        }
+        this.wanted = Collections.unmodifiableSet(caps);
+        this.sasl = sasl;
+    }
+
+    /**
+     * Returns the commands which begin negotiation, to be sent before registering.
+     *
+     * @return The commands to send.
+     */
+    public List<String> start() {
+        return List.of("CAP LS 302");
+    }
+
+    /**
+     * Returns the commands which begin negotiation with every wanted capability requested
+     * immediately, to be sent in the same write as the registration commands.
+     * <p>
+     * SASL is requested on its own line, so that it is not refused along with a capability the
+     * server lacks, and authentication is started straight away.
+     *
+     * @return The commands to send.
+     */
+    public List<String> startPipelined() {
+        var lines = new ArrayList<String>();
+        lines.add("CAP LS 302");
+        var caps = new LinkedHashSet<>(wanted);
+        caps.remove(SASL);
+        lines.addAll(request(caps, false));
+        if (sasl != null) {
+            lines.addAll(request(List.of(SASL), false));
+            lines.add("AUTHENTICATE PLAIN");
+            authenticating = true;
+        }
+        return lines;
+    }
+
+    /**
+     * Advances negotiation with a command received from the server.
+     *
+     * @param command The command.
+     * @return The commands to send in response, if any.
+     */
+    public List<String> apply(IrcCommand command) {
+        if (command instanceof NumericReplyCommand) {
+            return numericReply((NumericReplyCommand) command);
+        }
+        var params = command.getParameters();
+        if ("AUTHENTICATE".equals(command.getCommand())) {
+            var challenge = command.getTrailingParameter().orElse(params.isEmpty() ? "" : params.get(0));
+            return authenticating && "+".equals(challenge) ? sasl.respond() : List.of();
+        }
+        if (!"CAP".equals(command.getCommand()) || params.size() < 2) {
+            return List.of();
+        }
+        var subcommand = params.get(1).toUpperCase(Locale.ROOT);
+        // A "*" before the final parameter marks a reply which continues on the next line.
+        boolean continued = params.size() >= 3 && "*".equals(params.get(2))
+                && command.getTrailingParameter().isPresent();
+        var values = command.getTrailingParameter()
+                .orElse(params.size() >= 3 && !continued ? params.get(params.size() - 1) : "");
+        switch (subcommand) {
+            case "LS":
+                parse(values, listing);
+                if (continued || listed) {
+                    return List.of();
+                }
+                listed = true;
+                available.putAll(listing);
+                listing.clear();
+                return finish(request(wanted, true));
+            case "ACK":
+                return ack(values, continued);
+            case "NAK":
+                return nak(values, continued);
+            case "NEW":
+                available.putAll(parse(values, new LinkedHashMap<>()));
+                return listed ? request(wanted, true) : List.of();
+            case "DEL":
+                for (var cap : parse(values, new LinkedHashMap<>()).keySet()) {
+                    available.remove(cap);
+                    enabled.remove(cap);
+                }
+                return List.of();
+            default:
+                return List.of();
+        }
+    }
+
+    /**
+     * Returns whether initial negotiation has finished, so that registration may proceed.
+     *
+     * @return Whether negotiation is complete.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns whether negotiation is complete and every request made has been answered.
+     *
+     * @return Whether negotiation has settled.
+     */
+    public boolean isSettled() {
+        return complete && outstanding == 0;
+    }
+
+    /**
+     * Returns the capabilities the client asked for.
+     *
+     * @return The wanted capabilities.
+     */
+    public Set<Capability> getWanted() {
+        return wanted;
+    }
+
+    /**
+     * Returns the capabilities the server offers.
+     *
+     * @return An unmodifiable, live view of the available capabilities.
+     */
+    public Set<Capability> getAvailable() {
+        return Collections.unmodifiableSet(available.keySet());
+    }
+
+    /**
+     * Returns the capabilities which are enabled on the connection.
+     *
+     * @return An unmodifiable, live view of the enabled capabilities.
+     */
+    public Set<Capability> getEnabled() {
+        return Collections.unmodifiableSet(enabled);
+    }
+
+    /**
+     * Returns whether a capability is enabled.
+     *
+     * @param capability The capability.
+     * @return Whether it is enabled.
+     */
+    public boolean isEnabled(Capability capability) {
+        return enabled.contains(capability);
+    }
+
+    /**
+     * Returns whether a capability is enabled.
+     *
+     * @param capability The name of the capability, including its vendor if it has one.
+     * @return Whether it is enabled.
+     */
+    public boolean isEnabled(String capability) {
+        return isEnabled(new Capability(capability));
+    }
+
+    /**
+     * Returns the value the server advertised for a capability, such as the mechanisms listed for
+     * <code>sasl</code>.
+     *
+     * @param capability The capability.
+     * @return The capability's value, if it is available and has one.
+     */
+    public Optional<String> getValue(Capability capability) {
+        return Optional.ofNullable(available.get(capability)).filter(value -> !value.isEmpty());
+    }
+
+    /**
+     * Returns the account the client logged in to with SASL.
+     *
+     * @return The account, if the client has logged in.
+     */
+    public Optional<String> getAccount() {
+        return Optional.ofNullable(account);
+    }
+
+    private List<String> ack(String values, boolean continued) {
+        var lines = new ArrayList<String>();
+        for (var token : values.split(" ")) {
+            // A capability prefixed with "-" has been disabled.
+            boolean disabled = token.startsWith("-");
+            var cap = capability(disabled ? token.substring(1) : token);
+            if (cap == null) {
+                continue;
+            }
+            requested.remove(cap);
+            if (disabled) {
+                enabled.remove(cap);
+            } else {
+                enabled.add(cap);
+                if (cap.equals(SASL) && sasl != null && !authenticating && !authenticationDone) {
+                    authenticating = true;
+                    lines.add("AUTHENTICATE PLAIN");
+                }
+            }
+        }
+        return continued ? lines : answered(lines);
+    }
+
+    private List<String> nak(String values, boolean continued) {
+        var caps = parse(values, new LinkedHashMap<>()).keySet();
+        requested.removeAll(caps);
+        var lines = new ArrayList<String>();
+        if (listed && !available.keySet().containsAll(caps)) {
+            // A request made before the server listed its capabilities named one it lacks, so ask
+            // again for those it has.
+            lines.addAll(request(caps, true));
+        } else {
+            refused.addAll(caps);
+        }
+        if (caps.contains(SASL) && lines.isEmpty()) {
+            // No reply to a pipelined AUTHENTICATE will come once SASL is refused.
+            authenticating = false;
+        }
+        return continued ? lines : answered(lines);
+    }
+
+    private List<String> numericReply(NumericReplyCommand command) {
+        var params = command.getParameters();
+        int code = command.getReplyCode();
+        if (code == RPL_WELCOME) {
+            registered = true;
+            complete = true;
+            if (!listed) {
+                // The server registered without answering CAP LS, so ask for everything wanted.
+                listed = true;
+                return request(wanted, false);
+            }
+        } else if (code == ERR_UNKNOWNCOMMAND) {
+            if (params.size() >= 2 && "CAP".equalsIgnoreCase(params.get(1))) {
+                // The server does not support capabilities at all.
+                listed = true;
+                complete = true;
+            }
+        } else if (code == RPL_LOGGEDIN) {
+            if (params.size() >= 3) {
+                account = params.get(2);
+            }
+        } else if (code == RPL_SASLSUCCESS || SASL_FAILURES.contains(code)) {
+            if (authenticating) {
+                authenticating = false;
+                authenticationDone = true;
+                return finish(List.of());
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Requests wanted capabilities which are neither enabled nor already requested.
+     *
+     * @param candidates       The capabilities to consider.
+     * @param requireAvailable Whether to request only capabilities the server is known to offer.
+     */
+    private List<String> request(Collection<Capability> candidates, boolean requireAvailable) {
+        var missing = new LinkedHashSet<Capability>();
+        for (var cap : candidates) {
+            if (wanted.contains(cap) && !enabled.contains(cap) && !requested.contains(cap)
+                    && !refused.contains(cap) && (!requireAvailable || available.containsKey(cap))) {
+                missing.add(cap);
+            }
+        }
+        var lines = requestLines(missing);
+        requested.addAll(missing);
+        outstanding += lines.size();
+        return lines;
+    }
+
+    private List<String> answered(List<String> lines) {
+        if (outstanding > 0) {
+            outstanding--;
+        }
+        return finish(lines);
+    }
+
+    /**
+     * Ends negotiation once every request has been answered and authentication has finished.
+     */
+    private List<String> finish(List<String> lines) {
+        if (complete || !listed || outstanding > 0 || authenticating) {
+            return lines;
+        }
+        complete = true;
+        if (registered) {
+            return lines;
+        }
+        var result = new ArrayList<>(lines);
+        result.add("CAP END");
+        return result;
+    }
+
+    /**
+     * Packs capabilities into as few <code>CAP REQ</code> commands as fit within the line limit.
+     * Each command is acknowledged or refused as a whole.
+     */
+    static List<String> requestLines(Collection<Capability> caps) {
+        var lines = new ArrayList<String>();
+        var line = new StringBuilder(REQ);
+        for (var cap : caps) {
+            var name = cap.toString();
+            if (line.length() > REQ.length() && line.length() + 1 + name.length() > MAX_LINE_BYTES) {
+                lines.add(line.toString());
+                line.setLength(REQ.length());
+            }
+            if (line.length() > REQ.length()) {
+                line.append(' ');
+            }
+            line.append(name);
+        }
+        if (line.length() > REQ.length()) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Parses a space-separated list of capabilities, each optionally with a value.
+     */
+    private static Map<Capability, String> parse(String values, Map<Capability, String> into) {
+        for (var token : values.split(" ")) {
+            int equals = token.indexOf('=');
+            var cap = capability(equals >= 0 ? token.substring(0, equals) : token);
+            if (cap != null) {
+                into.put(cap, equals >= 0 ? token.substring(equals + 1) : "");
+            }
+        }
+        return into;
+    }
+
+    @Nullable
+    private static Capability capability(String name) {
+        if (name.isEmpty()) {
+            return null;
+        }
+        try {
+            return new Capability(name);
+        } catch (IllegalArgumentException e) {
+            // Skip a capability with a malformed name rather than failing negotiation.
+            return null;
+        }
+    }
+}
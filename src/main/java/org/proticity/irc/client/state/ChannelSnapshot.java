@@ -0,0 +1,103 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An immutable snapshot of a channel's membership.
+ */
+@ParametersAreNonnullByDefault
+public final class ChannelSnapshot {
+    private final String name;
+    private final MemberSet members;
+    private final String prefixSymbols;
+    private final long version;
+
+    ChannelSnapshot(String name, MemberSet members, String prefixSymbols, long version) {
+        this.name = name;
+        this.members = members;
+        this.prefixSymbols = prefixSymbols;
+        this.version = version;
+    }
+
+    /**
+     * Returns the name of the channel.
+     *
+     * @return The name of the channel, in lower case.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of members in the channel.
+     *
+     * @return The number of members.
+     */
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    /**
+     * Returns whether a user is a member of the channel.
+     *
+     * @param nickname The nickname of the user.
+     * @return Whether the user is a member.
+     */
+    public boolean isMember(String nickname) {
+        return members.mode(nickname) >= 0;
+    }
+
+    /**
+     * Returns the nicknames of the members of the channel.
+     *
+     * @return An unmodifiable set of the members' nicknames.
+     */
+    public Set<String> getMembers() {
+        return members.nicknames();
+    }
+
+    /**
+     * Returns the membership prefixes of a member, such as <code>@</code> for a channel operator
+     * or <code>+</code> for a voiced user, from highest to lowest rank.
+     *
+     * @param nickname The nickname of the member.
+     * @return The member's prefixes, which are empty if it has none, or nothing if the user is not
+     * a member.
+     */
+    public Optional<String> getPrefixes(String nickname) {
+        int mode = members.mode(nickname);
+        if (mode < 0) {
+            return Optional.empty();
+        }
+        var prefixes = new StringBuilder(2);
+        for (int i = 0; i < prefixSymbols.length(); i++) {
+            if ((mode & (1 << i)) != 0) {
+                prefixes.append(prefixSymbols.charAt(i));
+            }
+        }
+        return Optional.of(prefixes.toString());
+    }
+
+    long getVersion() {
+        return version;
+    }
+}
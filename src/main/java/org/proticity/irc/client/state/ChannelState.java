@@ -0,0 +1,148 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.util.concurrent.locks.StampedLock;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The state of one joined channel.
+ * <p>
+ * The channel is written only by the inbound pipeline. Readers take snapshots with an optimistic
+ * read of a {@link StampedLock}, which does not block the writer or other readers unless the
+ * channel was modified during the copy. Snapshots are cached until the channel next changes.
+ */
+@ParametersAreNonnullByDefault
+final class ChannelState {
+    private final String name;
+    private final StampedLock lock = new StampedLock();
+    private MemberSet members = new MemberSet();
+
+    /**
+     * The members listed so far by a NAMES reply which is in progress. Only accessed by the writer.
+     */
+    private MemberSet pendingNames;
+
+    private volatile long version;
+    private volatile ChannelSnapshot snapshot;
+
+    ChannelState(String name) {
+        this.name = name;
+    }
+
+    void put(String nickname, byte mode) {
+        long stamp = lock.writeLock();
+        try {
+            members.put(nickname, mode);
+            version++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    boolean remove(String nickname) {
+        long stamp = lock.writeLock();
+        try {
+            var removed = members.remove(nickname);
+            if (removed) {
+                version++;
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void rename(String from, String to) {
+        long stamp = lock.writeLock();
+        try {
+            int mode = members.mode(from);
+            if (mode >= 0) {
+                members.remove(from);
+                members.put(to, (byte) mode);
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void setMode(String nickname, int flag, boolean set) {
+        long stamp = lock.writeLock();
+        try {
+            int mode = members.mode(nickname);
+            if (mode >= 0) {
+                members.put(nickname, (byte) (set ? mode | flag : mode & ~flag));
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds a member from a NAMES reply. The listed members replace the current members once the
+     * reply ends.
+     */
+    void addName(String nickname, byte mode) {
+        if (pendingNames == null) {
+            pendingNames = new MemberSet(members.size());
+        }
+        pendingNames.put(nickname, mode);
+    }
+
+    void endNames() {
+        if (pendingNames == null) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            members = pendingNames;
+            version++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        pendingNames = null;
+    }
+
+    ChannelSnapshot snapshot(String prefixSymbols) {
+        var cached = snapshot;
+        if (cached != null && cached.getVersion() == version) {
+            return cached;
+        }
+        long stamp = lock.tryOptimisticRead();
+        long copiedVersion = version;
+        var copy = members.copy();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copiedVersion = version;
+                copy = members.copy();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        var created = new ChannelSnapshot(name, copy, prefixSymbols, copiedVersion);
+        snapshot = created;
+        return created;
+    }
+
+    int memberCount() {
+        return members.size();
+    }
+}
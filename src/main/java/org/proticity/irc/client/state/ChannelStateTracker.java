@@ -0,0 +1,458 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.JoinCommand;
+import org.proticity.irc.client.command.KickCommand;
+import org.proticity.irc.client.command.ModeCommand;
+import org.proticity.irc.client.command.NickCommand;
+import org.proticity.irc.client.command.NicknamePrefix;
+import org.proticity.irc.client.command.NumericReplyCommand;
+import org.proticity.irc.client.command.PartCommand;
+import org.proticity.irc.client.command.QuitCommand;
+
+/**
+ * Tracks the channels a client has joined and their members from the commands the server sends.
+ * <p>
+ * The tracker follows JOIN, PART, KICK, QUIT, NICK and channel MODE commands, and NAMES replies
+ * (353 and 366), including the <code>multi-prefix</code> and <code>userhost-in-names</code>
+ * extensions. The membership prefixes and channel mode types advertised by the server in
+ * ISUPPORT (005) are honoured.
+ * <p>
+ * Commands must be applied by a single thread at a time, in the order they were received, which
+ * the inbound pipeline of an {@link org.proticity.irc.client.IrcClient} guarantees. Any thread may
+ * read the state concurrently; reads do not lock and do not block the pipeline.
+ */
+@ParametersAreNonnullByDefault
+public class ChannelStateTracker {
+    private static final int RPL_WELCOME = 1;
+
+    private static final int RPL_ISUPPORT = 5;
+
+    private static final int RPL_NAMREPLY = 353;
+
+    private static final int RPL_ENDOFNAMES = 366;
+
+    private static final int MAX_PREFIXES = 8;
+
+    private final StringCache strings;
+
+    private final Map<String, ChannelState> channels = new ConcurrentHashMap<>();
+
+    private final Set<String> channelNames = Collections.unmodifiableSet(channels.keySet());
+
+    private final Map<String, Integer> targetLimits = new ConcurrentHashMap<>();
+
+    private volatile String nickname;
+
+    private volatile String ownPrefix;
+
+    private volatile String prefixSymbols = "@+";
+
+    private volatile String channelTypes = "#&";
+
+    private String prefixModes = "ov";
+
+    /**
+     * Channel modes which always take a parameter, being list modes and modes such as a key.
+     */
+    private String parameterModes = "beIk";
+
+    /**
+     * Channel modes which take a parameter only when set.
+     */
+    private String setParameterModes = "l";
+
+    /**
+     * Creates a tracker.
+     *
+     * @param nickname The nickname the client registers with.
+     */
+    public ChannelStateTracker(String nickname) {
+        this(nickname, new StringCache());
+    }
+
+    /**
+     * Creates a tracker which canonicalizes names through a given cache.
+     *
+     * @param nickname The nickname the client registers with.
+     * @param strings  The cache of canonical strings, which may be shared between trackers.
+     */
+    public ChannelStateTracker(String nickname, StringCache strings) {
+        this.nickname = nickname;
+        this.strings = strings;
+    }
+
+    /**
+     * Updates the state from a command received from the server.
+     *
+     * @param command The command.
+     */
+    public void apply(IrcCommand command) {
+        if (command instanceof NumericReplyCommand) {
+            numericReply((NumericReplyCommand) command);
+        } else if (command instanceof JoinCommand) {
+            join((JoinCommand) command);
+        } else if (command instanceof PartCommand) {
+            part((PartCommand) command);
+        } else if (command instanceof KickCommand) {
+            kick((KickCommand) command);
+        } else if (command instanceof QuitCommand) {
+            quit(command);
+        } else if (command instanceof NickCommand) {
+            nick((NickCommand) command);
+        } else if (command instanceof ModeCommand) {
+            mode((ModeCommand) command);
+        }
+    }
+
+    /**
+     * Forgets every channel, as when the connection to the server is lost.
+     */
+    public void clear() {
+        channels.clear();
+    }
+
+    /**
+     * Returns the client's current nickname.
+     *
+     * @return The nickname.
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Returns the client's own prefix, in the form <code>nick!user@host</code>, as the server
+     * presents it to other users. This is learned when the client first joins a channel.
+     *
+     * @return The client's prefix, if it is known.
+     */
+    public Optional<String> getOwnPrefix() {
+        return Optional.ofNullable(ownPrefix);
+    }
+
+    /**
+     * Returns the maximum number of targets the server accepts in one command, as advertised by the
+     * <code>TARGMAX</code> ISUPPORT token.
+     *
+     * @param command The command, such as <code>JOIN</code> or <code>PRIVMSG</code>.
+     * @return The maximum number of targets, or {@link Integer#MAX_VALUE} if there is no known
+     * limit.
+     */
+    public int getTargetLimit(String command) {
+        return targetLimits.getOrDefault(command, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the characters which begin channel names, as advertised by the
+     * <code>CHANTYPES</code> ISUPPORT token.
+     *
+     * @return The channel prefix characters.
+     */
+    public String getChannelTypes() {
+        return channelTypes;
+    }
+
+    /**
+     * Returns the names of the joined channels.
+     *
+     * @return An unmodifiable, live view of the channel names, in lower case.
+     */
+    public Set<String> getChannels() {
+        return channelNames;
+    }
+
+    /**
+     * Returns the number of joined channels.
+     *
+     * @return The number of channels.
+     */
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * Returns whether the client is in a channel.
+     *
+     * @param channel The name of the channel.
+     * @return Whether the channel is joined.
+     */
+    public boolean isJoined(String channel) {
+        return channels.containsKey(lowerCase(channel));
+    }
+
+    /**
+     * Returns a snapshot of the members of a channel.
+     *
+     * @param channel The name of the channel.
+     * @return The members of the channel, if it is joined.
+     */
+    public Optional<ChannelSnapshot> getChannel(String channel) {
+        var state = channels.get(lowerCase(channel));
+        return state == null ? Optional.empty() : Optional.of(state.snapshot(prefixSymbols));
+    }
+
+    private void numericReply(NumericReplyCommand command) {
+        var params = command.getParameters();
+        switch (command.getReplyCode()) {
+            case RPL_WELCOME:
+                if (!params.isEmpty()) {
+                    nickname = strings.canonicalize(params.get(0));
+                }
+                break;
+            case RPL_ISUPPORT:
+                for (int i = 1; i < params.size(); i++) {
+                    isupport(params.get(i));
+                }
+                break;
+            case RPL_NAMREPLY:
+                if (params.size() >= 2 && command.getTrailingParameter().isPresent()) {
+                    var state = channels.get(lowerCase(params.get(params.size() - 1)));
+                    if (state != null) {
+                        names(state, command.getTrailingParameter().get());
+                    }
+                }
+                break;
+            case RPL_ENDOFNAMES:
+                if (params.size() >= 2) {
+                    var state = channels.get(lowerCase(params.get(1)));
+                    if (state != null) {
+                        state.endNames();
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void isupport(String token) {
+        if (token.startsWith("PREFIX=")) {
+            var value = token.substring("PREFIX=".length());
+            int close = value.indexOf(')');
+            if (value.isEmpty()) {
+                prefixModes = "";
+                prefixSymbols = "";
+            } else if (value.charAt(0) == '(' && close > 0) {
+                var modes = value.substring(1, close);
+                var symbols = value.substring(close + 1);
+                if (modes.length() == symbols.length() && modes.length() <= MAX_PREFIXES) {
+                    prefixModes = modes;
+                    prefixSymbols = symbols;
+                }
+            }
+        } else if (token.startsWith("TARGMAX=")) {
+            targetLimits.clear();
+            for (var limit : token.substring("TARGMAX=".length()).split(",")) {
+                int colon = limit.indexOf(':');
+                if (colon > 0 && colon < limit.length() - 1) {
+                    try {
+                        targetLimits.put(limit.substring(0, colon).toUpperCase(Locale.ROOT),
+                                Integer.parseInt(limit.substring(colon + 1)));
+                    } catch (NumberFormatException e) {
+                        // Ignore a malformed limit, leaving the command unlimited.
+                    }
+                }
+            }
+        } else if (token.startsWith("CHANTYPES=")) {
+            channelTypes = token.substring("CHANTYPES=".length());
+        } else if (token.startsWith("CHANMODES=")) {
+            var types = token.substring("CHANMODES=".length()).split(",", -1);
+            if (types.length >= 3) {
+                parameterModes = types[0] + types[1];
+                setParameterModes = types[2];
+            }
+        }
+    }
+
+    private void names(ChannelState state, String names) {
+        int start = 0;
+        while (start < names.length()) {
+            int end = names.indexOf(' ', start);
+            if (end < 0) {
+                end = names.length();
+            }
+            int mode = 0;
+            int nameStart = start;
+            int rank;
+            while (nameStart < end && (rank = prefixSymbols.indexOf(names.charAt(nameStart))) >= 0) {
+                mode |= 1 << rank;
+                nameStart++;
+            }
+            // With userhost-in-names each name is a full nick!user@host prefix.
+            int bang = names.indexOf('!', nameStart);
+            int nameEnd = bang >= 0 && bang < end ? bang : end;
+            if (nameEnd > nameStart) {
+                state.addName(strings.canonicalize(names.substring(nameStart, nameEnd)), (byte) mode);
+            }
+            start = end + 1;
+        }
+    }
+
+    private void join(JoinCommand command) {
+        var source = source(command);
+        if (source == null) {
+            return;
+        }
+        var channel = strings.canonicalize(lowerCase(command.getChannel().toString()));
+        if (isSelf(source.getNickname())) {
+            if (source.getUser().isPresent() && source.getHost().isPresent()) {
+                ownPrefix = source.toString().substring(1);
+            }
+            var state = new ChannelState(channel);
+            state.put(strings.canonicalize(source.getNickname()), (byte) 0);
+            channels.put(channel, state);
+        } else {
+            var state = channels.get(channel);
+            if (state != null) {
+                state.put(strings.canonicalize(source.getNickname()), (byte) 0);
+            }
+        }
+    }
+
+    private void part(PartCommand command) {
+        var source = source(command);
+        if (source != null) {
+            leave(lowerCase(command.getChannel().toString()), source.getNickname());
+        }
+    }
+
+    private void kick(KickCommand command) {
+        var kicked = command.getChannels();
+        var users = command.getUsers();
+        for (int i = 0; i < users.size(); i++) {
+            // Either a single channel with any number of users, or one channel for each user.
+            var channel = kicked.size() == 1 ? kicked.get(0) : i < kicked.size() ? kicked.get(i) : null;
+            if (channel != null) {
+                leave(lowerCase(channel.toString()), users.get(i).getNickname());
+            }
+        }
+    }
+
+    private void leave(String channel, String nickname) {
+        if (isSelf(nickname)) {
+            channels.remove(channel);
+        } else {
+            var state = channels.get(channel);
+            if (state != null) {
+                state.remove(nickname);
+            }
+        }
+    }
+
+    private void quit(IrcCommand command) {
+        var source = source(command);
+        if (source == null) {
+            return;
+        }
+        if (isSelf(source.getNickname())) {
+            channels.clear();
+            return;
+        }
+        for (var state : channels.values()) {
+            state.remove(source.getNickname());
+        }
+    }
+
+    private void nick(NickCommand command) {
+        var source = source(command);
+        if (source == null) {
+            return;
+        }
+        var from = source.getNickname();
+        var to = strings.canonicalize(command.getNickname());
+        if (isSelf(from)) {
+            nickname = to;
+            var prefix = ownPrefix;
+            if (prefix != null) {
+                ownPrefix = to + prefix.substring(prefix.indexOf('!'));
+            }
+        }
+        for (var state : channels.values()) {
+            state.rename(from, to);
+        }
+    }
+
+    private void mode(ModeCommand command) {
+        var state = channels.get(lowerCase(command.getChannel().toString()));
+        var params = command.getParameters();
+        if (state == null || params.size() < 2 && command.getTrailingParameter().isEmpty()) {
+            return;
+        }
+        // The mode string and its arguments, where the last may be a trailing parameter.
+        var trailing = command.getTrailingParameter().orElse(null);
+        int argCount = params.size() - 1 + (trailing != null ? 1 : 0);
+        var modes = argument(params, trailing, 1);
+        int next = 2;
+        boolean set = true;
+        for (int i = 0; i < modes.length(); i++) {
+            char mode = modes.charAt(i);
+            if (mode == '+' || mode == '-') {
+                set = mode == '+';
+                continue;
+            }
+            int rank = prefixModes.indexOf(mode);
+            if (rank >= 0) {
+                if (next <= argCount) {
+                    state.setMode(argument(params, trailing, next++), 1 << rank, set);
+                }
+            } else if (parameterModes.indexOf(mode) >= 0 || set && setParameterModes.indexOf(mode) >= 0) {
+                next++;
+            }
+        }
+    }
+
+    private static String argument(List<String> params, @Nullable String trailing, int index) {
+        return index < params.size() ? params.get(index) : trailing;
+    }
+
+    private boolean isSelf(String nick) {
+        return nick.equalsIgnoreCase(nickname);
+    }
+
+    @Nullable
+    private static NicknamePrefix source(IrcCommand command) {
+        var prefix = command.getPrefix().orElse(null);
+        return prefix instanceof NicknamePrefix ? (NicknamePrefix) prefix : null;
+    }
+
+    /**
+     * Lower-cases a name, returning the same instance when it is already lower case.
+     */
+    private static String lowerCase(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z' || c > 0x7F) {
+                return name.toLowerCase(Locale.ROOT);
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A compact set of channel members and their channel modes.
+ * <p>
+ * Members are held in an open-addressing hash table with linear probing: one array of nicknames and
+ * a parallel array with a byte of membership mode flags for each, rather than an entry object per
+ * member. Removal shifts later entries of a probe sequence back, so the table never holds
+ * tombstones.
+ * <p>
+ * The set is not thread safe. It is written by a single thread and published to readers through
+ * {@link #copy()}.
+ */
+@ParametersAreNonnullByDefault
+final class MemberSet {
+    private static final int MIN_CAPACITY = 8;
+
+    private String[] keys;
+    private byte[] modes;
+    private int size;
+
+    MemberSet() {
+        this(MIN_CAPACITY);
+    }
+
+    MemberSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        modes = new byte[capacity];
+    }
+
+    private MemberSet(String[] keys, byte[] modes, int size) {
+        this.keys = keys;
+        this.modes = modes;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a member, or updates its modes if it is already present.
+     *
+     * @param nickname The member's nickname.
+     * @param mode     The member's mode flags.
+     */
+    void put(String nickname, byte mode) {
+        int index = indexOf(nickname);
+        if (keys[index] == null) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length << 1);
+                index = indexOf(nickname);
+            }
+            keys[index] = nickname;
+            size++;
+        }
+        modes[index] = mode;
+    }
+
+    /**
+     * Returns the mode flags of a member.
+     *
+     * @param nickname The member's nickname.
+     * @return The member's mode flags, or -1 if it is not a member.
+     */
+    int mode(String nickname) {
+        int index = indexOf(nickname);
+        return keys[index] == null ? -1 : modes[index];
+    }
+
+    /**
+     * Removes a member.
+     *
+     * @param nickname The member's nickname.
+     * @return Whether the nickname was a member.
+     */
+    boolean remove(String nickname) {
+        int index = indexOf(nickname);
+        if (keys[index] == null) {
+            return false;
+        }
+        int mask = keys.length - 1;
+        // Shift back later entries of the probe sequence which would otherwise become unreachable.
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != null) {
+            int home = slot(keys[next], mask);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                modes[gap] = modes[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = null;
+        modes[gap] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns an independent copy of the set.
+     *
+     * @return A copy of the set.
+     */
+    MemberSet copy() {
+        return new MemberSet(keys.clone(), modes.clone(), size);
+    }
+
+    /**
+     * Returns an unmodifiable view of the nicknames in the set.
+     *
+     * @return The nicknames in the set.
+     */
+    Set<String> nicknames() {
+        return new AbstractSet<>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && mode((String) o) >= 0;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<>() {
+                    private int index = advance(0);
+
+                    private int advance(int from) {
+                        while (from < keys.length && keys[from] == null) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (index >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        var key = keys[index];
+                        index = advance(index + 1);
+                        return key;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Calls a visitor for each member and its modes.
+     *
+     * @param visitor The visitor.
+     */
+    void forEach(MemberVisitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                visitor.visit(keys[i], modes[i]);
+            }
+        }
+    }
+
+    private int indexOf(String nickname) {
+        int mask = keys.length - 1;
+        int index = slot(nickname, mask);
+        while (keys[index] != null && !keys[index].equals(nickname)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int slot(String nickname, int mask) {
+        int hash = nickname.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void resize(int capacity) {
+        var oldKeys = keys;
+        var oldModes = modes;
+        keys = new String[capacity];
+        modes = new byte[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                modes[index] = oldModes[i];
+            }
+        }
+    }
+
+    /**
+     * A visitor of the members of a {@link MemberSet}.
+     */
+    @FunctionalInterface
+    interface MemberVisitor {
+        void visit(String nickname, byte mode);
+    }
+}
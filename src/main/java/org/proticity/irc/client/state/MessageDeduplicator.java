@@ -0,0 +1,221 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.TagKey;
+
+/**
+ * Recognizes messages which have already been seen by their message IDs.
+ * <p>
+ * Servers tag messages with a unique ID, as <code>msgid</code> under IRCv3 and <code>id</code> on
+ * Twitch, so a message received twice, such as after a reconnect or over redundant connections,
+ * can be recognized. Each ID is reduced to a 64-bit fingerprint and remembered in a fixed-size
+ * open-addressed table, so memory use is bounded and a lookup is a hash and a short probe. Entries
+ * expire once they have not been seen for the time to live, and when a probe finds no free slot
+ * the least recently seen entry in its neighbourhood is replaced. The table is updated with
+ * compare-and-set rather than locks, so it can be shared by several connections.
+ * <p>
+ * Fingerprints are not compared with the full ID, so two different IDs may collide, but with 64
+ * bits the chance is negligible at any realistic message rate.
+ */
+@ParametersAreNonnullByDefault
+public class MessageDeduplicator {
+    /**
+     * The default number of message IDs remembered.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * The default time for which a message ID is remembered.
+     */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private static final TagKey MSGID = new TagKey("msgid");
+
+    private static final TagKey ID = new TagKey("id");
+
+    /**
+     * The number of slots searched for a fingerprint.
+     */
+    private static final int PROBE = 8;
+
+    private final AtomicLongArray fingerprints;
+    private final AtomicLongArray seen;
+    private final int mask;
+    private final long ttl;
+    private final LongSupplier clock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a deduplicator with the {@link #DEFAULT_CAPACITY default capacity} and
+     * {@link #DEFAULT_TTL default time to live}.
+     */
+    public MessageDeduplicator() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates a deduplicator.
+     *
+     * @param capacity The number of message IDs to remember, which is rounded up to a power of two.
+     * @param ttl      The time for which a message ID is remembered after it was last seen.
+     */
+    public MessageDeduplicator(int capacity, Duration ttl) {
+        this(capacity, ttl, System::nanoTime);
+    }
+
+    MessageDeduplicator(int capacity, Duration ttl, LongSupplier clock) {
+        if (capacity < PROBE) {
+            throw new IllegalArgumentException("Capacity must be at least " + PROBE + ".");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("The time to live must be positive.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        fingerprints = new AtomicLongArray(size);
+        seen = new AtomicLongArray(size);
+        mask = size - 1;
+        this.ttl = ttl.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * Returns whether a command is a repeat of one already seen. Commands without a message ID are
+     * never repeats, and are not counted.
+     *
+     * @param command The command.
+     * @return Whether the command's message ID has been seen before.
+     */
+    public boolean isDuplicate(IrcCommand command) {
+        var id = messageId(command);
+        return id != null && isDuplicate(id);
+    }
+
+    /**
+     * Returns the ID the server tagged a command with.
+     *
+     * @param command The command.
+     * @return The command's <code>msgid</code> tag, or failing that its <code>id</code> tag, or
+     * null if it has neither.
+     */
+    @Nullable
+    public static String messageId(IrcCommand command) {
+        var tags = command.getTags();
+        if (tags.isEmpty()) {
+            return null;
+        }
+        var id = tags.get(MSGID);
+        return id != null ? id : tags.get(ID);
+    }
+
+    /**
+     * Returns whether a message ID has been seen before, remembering it if it has not.
+     *
+     * @param id The message ID.
+     * @return Whether the ID has been seen before.
+     */
+    public boolean isDuplicate(String id) {
+        long fingerprint = fingerprint(id);
+        int home = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (true) {
+            long now = clock.getAsLong();
+            int free = -1;
+            int oldest = home;
+            long oldestSeen = Long.MAX_VALUE;
+            for (int i = 0; i < PROBE; i++) {
+                int slot = (home + i) & mask;
+                long current = fingerprints.get(slot);
+                long lastSeen = seen.get(slot);
+                boolean expired = current == 0 || now - lastSeen > ttl;
+                if (current == fingerprint) {
+                    seen.lazySet(slot, now);
+                    if (expired) {
+                        misses.increment();
+                        return false;
+                    }
+                    hits.increment();
+                    return true;
+                }
+                if (expired) {
+                    if (free < 0) {
+                        free = slot;
+                    }
+                } else if (lastSeen < oldestSeen) {
+                    oldest = slot;
+                    oldestSeen = lastSeen;
+                }
+            }
+            int slot = free >= 0 ? free : oldest;
+            long replaced = fingerprints.get(slot);
+            // Stamp the slot before claiming it, so the new fingerprint is never seen with a stale
+            // time. Should another thread claim the slot first, probe again as it may have
+            // inserted this same fingerprint.
+            seen.set(slot, now);
+            if (replaced != fingerprint && fingerprints.compareAndSet(slot, replaced, fingerprint)) {
+                misses.increment();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages recognized as repeats.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of messages with IDs which had not been seen before.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Hashes an ID to a fingerprint which is never zero, as zero marks an empty slot.
+     */
+    private static long fingerprint(String id) {
+        // FNV-1a over the UTF-16 units, with a final mix to spread the bits used for the index.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
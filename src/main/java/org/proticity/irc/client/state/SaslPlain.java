@@ -0,0 +1,84 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Credentials for SASL <code>PLAIN</code> authentication, which is carried out during capability
+ * negotiation.
+ */
+@ParametersAreNonnullByDefault
+public final class SaslPlain {
+    /**
+     * The longest piece of a response which may be sent in one AUTHENTICATE command.
+     */
+    private static final int CHUNK_SIZE = 400;
+
+    private final String account;
+    private final String password;
+
+    /**
+     * Creates credentials for SASL <code>PLAIN</code>.
+     *
+     * @param account  The account to log in to.
+     * @param password The password for the account.
+     */
+    public SaslPlain(String account, String password) {
+        this.account = account;
+        this.password = password;
+    }
+
+    /**
+     * Returns the account to log in to.
+     *
+     * @return The account name.
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * Returns the AUTHENTICATE commands which answer the server's empty challenge with the
+     * credentials, split into pieces of at most 400 bytes.
+     *
+     * @return The commands to send.
+     */
+    List<String> respond() {
+        var response = Base64.getEncoder().encodeToString(
+                (account + '\0' + account + '\0' + password).getBytes(StandardCharsets.UTF_8));
+        var lines = new ArrayList<String>(response.length() / CHUNK_SIZE + 1);
+        for (int i = 0; i < response.length(); i += CHUNK_SIZE) {
+            lines.add("AUTHENTICATE " + response.substring(i, Math.min(response.length(), i + CHUNK_SIZE)));
+        }
+        // A response which fills its last piece exactly is terminated with an empty piece.
+        if (response.length() % CHUNK_SIZE == 0) {
+            lines.add("AUTHENTICATE +");
+        }
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return "SaslPlain[" + account + "]";
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A fixed-size, lossy cache of canonical strings.
+ * <p>
+ * Nicknames, channel names and tag keys repeat constantly in IRC traffic. Passing strings through
+ * the cache lets equal strings share a single instance, so the many copies created by parsing can
+ * be collected while the tracked state holds one copy of each. The cache is a direct-mapped table,
+ * so a lookup is a hash, an index and an equality check, and memory use is bounded: when two
+ * strings collide on a slot the newer one simply replaces the older.
+ */
+@ParametersAreNonnullByDefault
+public class StringCache {
+    /**
+     * The default number of slots in the cache.
+     */
+    public static final int DEFAULT_SIZE = 1 << 16;
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+
+    /**
+     * Creates a cache with the {@link #DEFAULT_SIZE default size}.
+     */
+    public StringCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param size The minimum number of slots in the cache, which is rounded up to a power of two.
+     */
+    public StringCache(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Cache size must be positive.");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Returns the canonical instance of a string.
+     *
+     * @param value The string.
+     * @return A string equal to <code>value</code>, which is the cached instance if there is one.
+     */
+    public String canonicalize(String value) {
+        int hash = value.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        var cached = slots.get(index);
+        if (cached != null && cached.equals(value)) {
+            return cached;
+        }
+        slots.lazySet(index, value);
+        return value;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.state;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.TagKey;
+
+/**
+ * A fixed-size, lossy cache of parsed tag keys.
+ * <p>
+ * Servers send the same few tag keys on almost every message. With a cache the parser looks up
+ * the text of a key rather than matching it against the tag key grammar, and every command
+ * parsed shares the same {@link TagKey} instances. Like {@link StringCache} the cache is a direct-mapped table which
+ * may be shared between parsers on any number of threads. The keys it returns are shared, so they
+ * must not be modified.
+ */
+@ParametersAreNonnullByDefault
+public class TagKeyCache {
+    /**
+     * The default number of slots in the cache.
+     */
+    public static final int DEFAULT_SIZE = 1 << 10;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    /**
+     * Creates a cache with the {@link #DEFAULT_SIZE default size}.
+     */
+    public TagKeyCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param size The minimum number of slots in the cache, which is rounded up to a power of two.
+     */
+    public TagKeyCache(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Cache size must be positive.");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Looks up the key whose text is a region of the input, without copying the region.
+     *
+     * @param input The input.
+     * @param start The start of the key's text.
+     * @param end   The end of the key's text, exclusive.
+     * @return The cached key, or null if it is not cached.
+     */
+    @Nullable
+    public TagKey get(String input, int start, int end) {
+        var entry = slots.get(index(input, start, end));
+        if (entry != null && entry.text.length() == end - start
+                && input.regionMatches(start, entry.text, 0, end - start)) {
+            return entry.key;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the key whose text is a region of the input.
+     *
+     * @param input The input.
+     * @param start The start of the key's text.
+     * @param end   The end of the key's text, exclusive.
+     * @param key   The key parsed from the text.
+     */
+    public void put(String input, int start, int end, TagKey key) {
+        slots.lazySet(index(input, start, end), new Entry(input.substring(start, end), key));
+    }
+
+    private int index(String input, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + input.charAt(i);
+        }
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static final class Entry {
+        private final String text;
+        private final TagKey key;
+
+        private Entry(String text, TagKey key) {
+            this.text = text;
+            this.key = key;
+        }
+    }
+}
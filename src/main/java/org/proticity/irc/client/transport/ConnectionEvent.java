@@ -0,0 +1,146 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.time.Duration;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A change in the state of a {@link Transport}'s connection.
+ *
+ * @see Transport#events()
+ */
+@ParametersAreNonnullByDefault
+public final class ConnectionEvent {
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        /**
+         * A connection is being opened.
+         */
+        CONNECTING,
+
+        /**
+         * A connection has opened.
+         */
+        CONNECTED,
+
+        /**
+         * A connection was lost or could not be opened.
+         */
+        DISCONNECTED,
+
+        /**
+         * Another connection will be attempted after a delay.
+         */
+        RECONNECTING,
+
+        /**
+         * The transport has been closed, or has given up reconnecting, and will not connect again.
+         */
+        CLOSED
+    }
+
+    private final Type type;
+    private final int connection;
+    private final int attempt;
+    private final Duration delay;
+    private final Throwable error;
+
+    /**
+     * Creates an event.
+     *
+     * @param type       The kind of change.
+     * @param connection The number of the connection, counting from 0 for the first connection.
+     * @param attempt    The number of consecutive failed attempts to connect.
+     * @param delay      The delay before reconnecting, for a {@link Type#RECONNECTING} event.
+     * @param error      The reason the connection was lost, if known.
+     */
+    public ConnectionEvent(Type type, int connection, int attempt, @Nullable Duration delay,
+                           @Nullable Throwable error) {
+        this.type = type;
+        this.connection = connection;
+        this.attempt = attempt;
+        this.delay = delay;
+        this.error = error;
+    }
+
+    /**
+     * Returns the kind of change.
+     *
+     * @return The type of the event.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the number of the connection the event concerns, counting from 0 for the first
+     * connection.
+     *
+     * @return The connection number.
+     */
+    public int getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns whether the event concerns a connection which replaced a lost one.
+     *
+     * @return Whether the connection is a reconnection.
+     */
+    public boolean isReconnect() {
+        return connection > 0;
+    }
+
+    /**
+     * Returns the number of consecutive failed attempts to connect.
+     *
+     * @return The number of failed attempts.
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * Returns the delay before the next attempt to connect.
+     *
+     * @return The delay, for a {@link Type#RECONNECTING} event.
+     */
+    public Optional<Duration> getDelay() {
+        return Optional.ofNullable(delay);
+    }
+
+    /**
+     * Returns the reason the connection was lost.
+     *
+     * @return The error, if known.
+     */
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionEvent[" + type + " connection=" + connection + " attempt=" + attempt
+                + (delay != null ? " delay=" + delay : "") + (error != null ? " error=" + error : "") + "]";
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A cache of the addresses host names resolve to, shared by the transports which connect to the
+ * same servers.
+ * <p>
+ * Resolving a name is a blocking call which may take seconds, so it is done once for every
+ * transport which connects within the cache's time to live, and on a thread which may block.
+ * Concurrent lookups of a name share one resolution. Failed lookups are not cached. Addresses are
+ * ordered as RFC 8305 recommends, alternating between IPv6 and IPv4 starting with the family of
+ * the resolver's first choice, so that a connection racing the addresses tries both families early.
+ */
+@ParametersAreNonnullByDefault
+public class DnsCache {
+    /**
+     * The default time for which addresses are cached.
+     */
+    public static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+
+    /**
+     * Resolves a host name to its addresses.
+     */
+    @FunctionalInterface
+    interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final Resolver resolver;
+    private final LongSupplier clock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache which keeps addresses for {@link #DEFAULT_TTL}.
+     */
+    public DnsCache() {
+        this(DEFAULT_TTL);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param ttl The time for which addresses are cached.
+     */
+    public DnsCache(Duration ttl) {
+        this(ttl, InetAddress::getAllByName, System::nanoTime);
+    }
+
+    DnsCache(Duration ttl, Resolver resolver, LongSupplier clock) {
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("The time to live must not be negative.");
+        }
+        this.ttl = ttl.toNanos();
+        this.resolver = resolver;
+        this.clock = clock;
+    }
+
+    /**
+     * Resolves a host name, from the cache if it holds the name.
+     *
+     * @param host The host name or address literal.
+     * @return A {@link Mono} of the addresses in the order in which to connect to them, which fails
+     * with an {@link UnknownHostException} if the name cannot be resolved.
+     */
+    public Mono<List<InetAddress>> resolve(String host) {
+        return Mono.defer(() -> {
+            long now = clock.getAsLong();
+            var entry = entries.get(host);
+            if (entry != null && now - entry.expires < 0) {
+                hits.increment();
+                return entry.addresses;
+            }
+            misses.increment();
+            var lookup = new Entry(now + ttl);
+            lookup.addresses = Mono.fromCallable(() -> order(resolver.resolve(host)))
+                    .subscribeOn(Schedulers.elastic())
+                    .doOnError(error -> entries.remove(host, lookup))
+                    .cache();
+            var current = entries.merge(host, lookup, (old, replacement) ->
+                    now - old.expires < 0 ? old : replacement);
+            return current.addresses;
+        });
+    }
+
+    /**
+     * Forgets the addresses of a host, so that they are resolved again when next needed, as when
+     * none of them could be connected to.
+     *
+     * @param host The host name.
+     */
+    public void invalidate(String host) {
+        entries.remove(host);
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups which resolved the name.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Orders addresses by alternating their families, starting with the family of the first.
+     *
+     * @param addresses The addresses in the resolver's order of preference.
+     * @return The addresses in the order in which to try them.
+     */
+    static List<InetAddress> order(InetAddress[] addresses) {
+        if (addresses.length < 2) {
+            return Arrays.asList(addresses);
+        }
+        var first = new ArrayDeque<InetAddress>();
+        var second = new ArrayDeque<InetAddress>();
+        boolean firstIsV6 = addresses[0] instanceof Inet6Address;
+        for (var address : addresses) {
+            ((address instanceof Inet6Address) == firstIsV6 ? first : second).add(address);
+        }
+        var ordered = new ArrayList<InetAddress>(addresses.length);
+        while (!first.isEmpty() || !second.isEmpty()) {
+            if (!first.isEmpty()) {
+                ordered.add(first.poll());
+            }
+            if (!second.isEmpty()) {
+                ordered.add(second.poll());
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * The addresses of a host and when they expire.
+     */
+    private static final class Entry {
+        private final long expires;
+        private Mono<List<InetAddress>> addresses;
+
+        private Entry(long expires) {
+            this.expires = expires;
+        }
+    }
+}
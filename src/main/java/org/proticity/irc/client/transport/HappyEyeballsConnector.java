@@ -0,0 +1,283 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.proticity.irc.client.metrics.ClientMetrics;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Connects to a host by racing connections to its addresses, as the Happy Eyeballs algorithm of
+ * RFC 8305 does.
+ * <p>
+ * The host name is resolved through a {@link DnsCache}, and a connection to the first address is
+ * started. Each further address is tried when the attempt before it fails or after a short stagger,
+ * whichever comes first, while the earlier attempts carry on. The first connection to succeed is
+ * kept and the others are cancelled or closed. A blackholed address therefore delays connecting by
+ * the stagger rather than by a whole connect timeout.
+ */
+@ParametersAreNonnullByDefault
+public class HappyEyeballsConnector {
+    /**
+     * The default time between starting attempts, which RFC 8305 recommends.
+     */
+    public static final Duration DEFAULT_STAGGER = Duration.ofMillis(250);
+
+    private final DnsCache dns;
+    private final Duration stagger;
+    private final Scheduler timer;
+    private final Timer connectSuccess;
+    private final Timer connectFailure;
+    private final Counter attempts;
+
+    /**
+     * Creates a connector with the default stagger and no metrics.
+     *
+     * @param dns The cache through which host names are resolved.
+     */
+    public HappyEyeballsConnector(DnsCache dns) {
+        this(dns, DEFAULT_STAGGER, null);
+    }
+
+    /**
+     * Creates a connector.
+     *
+     * @param dns      The cache through which host names are resolved.
+     * @param stagger  The time to wait for an attempt before starting the next.
+     * @param registry The registry in which to record the time taken to connect, the number of
+     *                 attempts and the DNS cache's hits and misses, or null for none.
+     */
+    public HappyEyeballsConnector(DnsCache dns, Duration stagger, @Nullable MeterRegistry registry) {
+        this(dns, stagger, registry, Schedulers.parallel());
+    }
+
+    HappyEyeballsConnector(DnsCache dns, Duration stagger, @Nullable MeterRegistry registry, Scheduler timer) {
+        if (stagger.isNegative()) {
+            throw new IllegalArgumentException("The stagger must not be negative.");
+        }
+        this.dns = dns;
+        this.stagger = stagger;
+        this.timer = timer;
+        if (registry != null) {
+            connectSuccess = Timer.builder(ClientMetrics.PREFIX + "connect").tag("outcome", "success")
+                    .description("Time to resolve and connect to a server").register(registry);
+            connectFailure = Timer.builder(ClientMetrics.PREFIX + "connect").tag("outcome", "failure")
+                    .description("Time to resolve and connect to a server").register(registry);
+            attempts = Counter.builder(ClientMetrics.PREFIX + "connect.attempts")
+                    .description("Connections started to a server's addresses").register(registry);
+            FunctionCounter.builder(ClientMetrics.PREFIX + "dns.lookups", dns, DnsCache::getHits)
+                    .tag("result", "hit").description("Host names resolved").register(registry);
+            FunctionCounter.builder(ClientMetrics.PREFIX + "dns.lookups", dns, DnsCache::getMisses)
+                    .tag("result", "miss").description("Host names resolved").register(registry);
+        } else {
+            connectSuccess = null;
+            connectFailure = null;
+            attempts = null;
+        }
+    }
+
+    /**
+     * Returns the cache through which host names are resolved.
+     *
+     * @return The DNS cache.
+     */
+    public DnsCache getDnsCache() {
+        return dns;
+    }
+
+    /**
+     * Connects to a host.
+     *
+     * @param host      The host name.
+     * @param port      The port on which to connect.
+     * @param connector The function which connects to one address. The addresses it is given keep
+     *                  the host name, for TLS server name indication and certificate checks.
+     * @param <C>       The type of connection.
+     * @return A {@link Mono} of the first connection to succeed, which fails if every address
+     * fails.
+     */
+    public <C extends Disposable> Mono<C> connect(String host, int port,
+                                                  Function<InetSocketAddress, ? extends Mono<? extends C>> connector) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return dns.resolve(host)
+                    .flatMap(addresses -> race(socketAddresses(host, port, addresses), attempt -> {
+                        if (attempts != null) {
+                            attempts.increment();
+                        }
+                        return connector.apply(attempt);
+                    }, stagger, timer))
+                    .doOnSuccess(connection -> record(connectSuccess, start))
+                    .doOnError(error -> {
+                        record(connectFailure, start);
+                        // The server may have moved, so resolve its name afresh next time.
+                        dns.invalidate(host);
+                    });
+        });
+    }
+
+    private static void record(@Nullable Timer timer, long start) {
+        if (timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static List<InetSocketAddress> socketAddresses(String host, int port, List<InetAddress> addresses) {
+        var socketAddresses = new ArrayList<InetSocketAddress>(addresses.size());
+        for (var address : addresses) {
+            try {
+                socketAddresses.add(new InetSocketAddress(InetAddress.getByAddress(host, address.getAddress()), port));
+            } catch (UnknownHostException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return socketAddresses;
+    }
+
+    /**
+     * Races connections to some addresses, starting each after the one before fails or after the
+     * stagger.
+     *
+     * @param addresses The addresses, in the order in which to try them.
+     * @param connector The function which connects to one address.
+     * @param stagger   The time to wait for an attempt before starting the next.
+     * @param timer     The scheduler on which to wait.
+     * @param <C>       The type of connection.
+     * @return A {@link Mono} of the first connection to succeed.
+     */
+    static <C extends Disposable> Mono<C> race(List<InetSocketAddress> addresses,
+                                               Function<InetSocketAddress, ? extends Mono<? extends C>> connector,
+                                               Duration stagger, Scheduler timer) {
+        if (addresses.isEmpty()) {
+            return Mono.error(new UnknownHostException("The host has no addresses."));
+        }
+        return Mono.create(sink -> new Race<C>(addresses, connector, stagger, timer, sink).attempt());
+    }
+
+    /**
+     * The state of one race.
+     */
+    private static final class Race<C extends Disposable> {
+        private final List<InetSocketAddress> addresses;
+        private final Function<InetSocketAddress, ? extends Mono<? extends C>> connector;
+        private final long stagger;
+        private final Scheduler timer;
+        private final MonoSink<C> sink;
+        private final Disposable.Composite pending = Disposables.composite();
+        private final AtomicInteger next = new AtomicInteger();
+        private int failures;
+        private boolean done;
+        private IOException error;
+
+        private Race(List<InetSocketAddress> addresses,
+                     Function<InetSocketAddress, ? extends Mono<? extends C>> connector, Duration stagger,
+                     Scheduler timer, MonoSink<C> sink) {
+            this.addresses = addresses;
+            this.connector = connector;
+            this.stagger = stagger.toNanos();
+            this.timer = timer;
+            this.sink = sink;
+            sink.onCancel(this::cancel);
+        }
+
+        /**
+         * Starts an attempt on the next address, if one is left.
+         */
+        private void attempt() {
+            int index = next.getAndIncrement();
+            if (index >= addresses.size() || isDone()) {
+                return;
+            }
+            var address = addresses.get(index);
+            if (index + 1 < addresses.size()) {
+                pending.add(timer.schedule(this::attempt, stagger, TimeUnit.NANOSECONDS));
+            }
+            pending.add(connector.apply(address)
+                    .switchIfEmpty(Mono.error(() -> new IOException("No connection to " + address + ".")))
+                    .subscribe(this::won, failure -> failed(address, failure)));
+        }
+
+        private synchronized boolean isDone() {
+            return done;
+        }
+
+        private void won(C connection) {
+            synchronized (this) {
+                if (done) {
+                    connection.dispose();
+                    return;
+                }
+                done = true;
+            }
+            pending.dispose();
+            sink.success(connection);
+        }
+
+        private void failed(InetSocketAddress address, Throwable failure) {
+            boolean startNext;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (error == null) {
+                    error = new IOException("Unable to connect to " + address.getHostString() + ".");
+                }
+                error.addSuppressed(failure);
+                failures++;
+                done = failures == addresses.size();
+                startNext = !done;
+            }
+            if (startNext) {
+                // Start the next attempt without waiting out the stagger.
+                attempt();
+            } else {
+                pending.dispose();
+                sink.error(error);
+            }
+        }
+
+        private void cancel() {
+            synchronized (this) {
+                done = true;
+            }
+            pending.dispose();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.io.IOException;
+import java.time.Duration;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An exception signalling that nothing was read from a connection within its deadline, so that it
+ * is taken to be dead even though it has not been closed.
+ */
+@ParametersAreNonnullByDefault
+public class IdleTimeoutException extends IOException {
+    private final Duration timeout;
+
+    public IdleTimeoutException(Duration timeout) {
+        super("Nothing was received for " + timeout.toMillis() + "ms.");
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the time for which the connection was silent.
+     *
+     * @return The read timeout which expired.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.proticity.irc.client.command.Utf8;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.concurrent.Queues;
+
+/**
+ * One direction of an in-memory connection, which delivers the text written to it as whole lines.
+ * <p>
+ * The pipe can imitate a network: text can be split into small chunks, as a socket may return a
+ * line over several reads, and delivered after a delay and no faster than a given bandwidth. Text
+ * is delivered in the order it is written.
+ */
+@ParametersAreNonnullByDefault
+final class LoopbackPipe {
+    private final long latency;
+    private final long bandwidth;
+    private final int chunkSize;
+    private final Scheduler scheduler;
+    private final UnicastProcessor<Segment> wire = UnicastProcessor.create(Queues.<Segment>unbounded().get());
+    private final FluxSink<Segment> sink = wire.sink();
+    private volatile boolean closed;
+
+    /**
+     * The time at which the last chunk finished transmitting, accessed only by the pipe's single
+     * subscriber.
+     */
+    private long transmitted;
+
+    /**
+     * Creates a pipe.
+     *
+     * @param latency   The time text takes to arrive.
+     * @param bandwidth The number of bytes per second the pipe carries, or 0 for no limit.
+     * @param chunkSize The number of characters to split text into, or 0 not to split it.
+     * @param scheduler The scheduler on which delayed text is delivered.
+     */
+    LoopbackPipe(Duration latency, long bandwidth, int chunkSize, Scheduler scheduler) {
+        this.latency = latency.toNanos();
+        this.bandwidth = bandwidth;
+        this.chunkSize = chunkSize;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Writes text to the pipe.
+     *
+     * @param text The text.
+     * @throws IllegalStateException If the pipe is closed.
+     */
+    void write(String text) {
+        if (closed) {
+            throw new IllegalStateException("The connection is closed.");
+        }
+        sink.next(new Segment(text, System.nanoTime()));
+    }
+
+    /**
+     * Writes text to the pipe as it is published.
+     *
+     * @param texts A publisher of the text.
+     * @return A {@link Mono} which completes once all the text is written.
+     */
+    Mono<Void> writeAll(Publisher<String> texts) {
+        return Flux.from(texts).doOnNext(this::write).then();
+    }
+
+    /**
+     * Closes the pipe once the text already written has been delivered.
+     */
+    void complete() {
+        closed = true;
+        sink.complete();
+    }
+
+    /**
+     * Closes the pipe with an error once the text already written has been delivered.
+     *
+     * @param error The error.
+     */
+    void error(Throwable error) {
+        closed = true;
+        sink.error(error);
+    }
+
+    /**
+     * Returns whether the pipe is closed.
+     *
+     * @return Whether the pipe is closed.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the lines written to the pipe, each with its line ending. The result may only be
+     * subscribed to once.
+     *
+     * @return A {@link Flux} of the lines.
+     */
+    Flux<String> lines() {
+        Flux<Segment> segments = chunkSize > 0 ? wire.concatMapIterable(this::split) : wire;
+        Flux<String> chunks = latency == 0 && bandwidth == 0 ? segments.map(segment -> segment.text)
+                : segments.concatMap(this::deliver);
+        return Flux.defer(() -> {
+            var framer = new LineFramer();
+            return chunks.concatMapIterable(framer::frame);
+        });
+    }
+
+    /**
+     * Splits a segment into chunks, without separating the halves of a surrogate pair.
+     */
+    private List<Segment> split(Segment segment) {
+        var text = segment.text;
+        if (text.length() <= chunkSize) {
+            return Collections.singletonList(segment);
+        }
+        var chunks = new ArrayList<Segment>(text.length() / chunkSize + 1);
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(start + chunkSize, text.length());
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end += end - 1 > start ? -1 : 1;
+            }
+            chunks.add(new Segment(text.substring(start, end), segment.sentNanos));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Delays a chunk until it would have arrived over the network.
+     */
+    private Mono<String> deliver(Segment segment) {
+        long start = Math.max(segment.sentNanos, transmitted);
+        transmitted = bandwidth == 0 ? start
+                : start + Utf8.length(segment.text) * 1_000_000_000L / bandwidth;
+        long wait = transmitted + latency - System.nanoTime();
+        return wait <= 0 ? Mono.just(segment.text)
+                : Mono.delay(Duration.ofNanos(wait), scheduler).thenReturn(segment.text);
+    }
+
+    /**
+     * Text written to the pipe and the time at which it was written.
+     */
+    private static final class Segment {
+        private final String text;
+        private final long sentNanos;
+
+        private Segment(String text, long sentNanos) {
+            this.text = text;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    /**
+     * Reassembles lines from chunks of text.
+     */
+    static final class LineFramer {
+        private final StringBuilder partial = new StringBuilder();
+
+        /**
+         * Returns the lines a chunk completes, keeping any incomplete line for the next chunk.
+         *
+         * @param text The chunk.
+         * @return The complete lines, each with its line ending.
+         */
+        List<String> frame(String text) {
+            int end = text.indexOf('\n');
+            if (end < 0) {
+                partial.append(text);
+                return Collections.emptyList();
+            }
+            if (partial.length() == 0 && end == text.length() - 1) {
+                return Collections.singletonList(text);
+            }
+            var lines = new ArrayList<String>();
+            int start = 0;
+            while (end >= 0) {
+                if (partial.length() > 0) {
+                    lines.add(partial.append(text, start, end + 1).toString());
+                    partial.setLength(0);
+                } else {
+                    lines.add(text.substring(start, end + 1));
+                }
+                start = end + 1;
+                end = text.indexOf('\n', start);
+            }
+            partial.append(text, start, text.length());
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.util.concurrent.Queues;
+
+/**
+ * The server end of a {@link LoopbackTransport}.
+ * <p>
+ * Tests and benchmarks use the server to send lines to the client and to see or answer what the
+ * client sends. Lines received from the client are buffered until {@link #received()} is
+ * subscribed to.
+ */
+@ParametersAreNonnullByDefault
+public class LoopbackServer {
+    private final LoopbackPipe toClient;
+    private final UnicastProcessor<String> received = UnicastProcessor.create(Queues.<String>unbounded().get());
+    private final FluxSink<String> receivedSink = received.sink();
+    private volatile Function<String, ? extends Iterable<String>> script;
+
+    /**
+     * Creates the server end of a connection.
+     *
+     * @param toClient   The pipe to the client.
+     * @param fromClient The pipe from the client.
+     */
+    LoopbackServer(LoopbackPipe toClient, LoopbackPipe fromClient) {
+        this.toClient = toClient;
+        fromClient.lines().map(LoopbackServer::strip).subscribe(this::receive, receivedSink::error,
+                receivedSink::complete);
+    }
+
+    /**
+     * Answers each line the client sends.
+     * <p>
+     * The script is called with each line, without its line ending, and the lines it returns are
+     * sent back to the client. Lines are still emitted by {@link #received()}.
+     *
+     * @param script The function from the lines the client sends to the replies, or null to stop
+     *               answering.
+     * @return The server.
+     */
+    public LoopbackServer respond(@Nullable Function<String, ? extends Iterable<String>> script) {
+        this.script = script;
+        return this;
+    }
+
+    /**
+     * Returns the lines the client sends, without their line endings. The result may only be
+     * subscribed to once.
+     *
+     * @return A {@link Flux} of the lines, which completes when the client closes the connection.
+     */
+    public Flux<String> received() {
+        return received;
+    }
+
+    /**
+     * Sends lines to the client, adding line endings where they are missing.
+     *
+     * @param lines The lines.
+     */
+    public void send(String... lines) {
+        for (var line : lines) {
+            toClient.write(terminate(line));
+        }
+    }
+
+    /**
+     * Sends lines to the client as they are published, adding line endings where they are missing.
+     *
+     * @param lines A publisher of the lines.
+     * @return A {@link Mono} which completes once all the lines are sent.
+     */
+    public Mono<Void> send(Publisher<String> lines) {
+        return toClient.writeAll(Flux.from(lines).map(LoopbackServer::terminate));
+    }
+
+    /**
+     * Sends text to the client as it is, which may hold several lines or end part way through one.
+     *
+     * @param text The text.
+     */
+    public void write(String text) {
+        toClient.write(text);
+    }
+
+    /**
+     * Closes the connection once the client has received what was already sent.
+     */
+    public void close() {
+        toClient.complete();
+    }
+
+    /**
+     * Closes the connection with an error once the client has received what was already sent.
+     *
+     * @param error The error the client receives.
+     */
+    public void fail(Throwable error) {
+        toClient.error(error);
+    }
+
+    /**
+     * Returns whether the connection to the client has been closed by either end.
+     *
+     * @return Whether the connection is closed.
+     */
+    public boolean isClosed() {
+        return toClient.isClosed();
+    }
+
+    private void receive(String line) {
+        var replies = script;
+        if (replies != null && !toClient.isClosed()) {
+            var lines = replies.apply(line);
+            if (lines != null) {
+                for (var reply : lines) {
+                    toClient.write(terminate(reply));
+                }
+            }
+        }
+        receivedSink.next(line);
+    }
+
+    /**
+     * Removes the line ending from a line.
+     */
+    private static String strip(String line) {
+        int end = line.length() - 1;
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    static String terminate(String line) {
+        return line.endsWith("\n") ? line : line + "\r\n";
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.time.Duration;
+import java.util.List;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A {@link Transport} implementation which connects to a {@link LoopbackServer} in memory.
+ * <p>
+ * The transport needs no network, so the client can be tested and benchmarked by itself, and
+ * without the cost of sockets it can carry millions of lines a second. The connection can instead
+ * be made to imitate a network, with latency, a limited bandwidth and lines split over several
+ * reads.
+ * <pre>{@code
+ * var transport = LoopbackTransport.create().latency(Duration.ofMillis(20)).chunkSize(16).build();
+ * transport.getServer().respond(line -> line.startsWith("PING")
+ *         ? List.of("PONG" + line.substring(4)) : List.of());
+ * var client = IrcClient.create().transport(transport).nickname("nick").connect();
+ * }</pre>
+ */
+@ParametersAreNonnullByDefault
+public class LoopbackTransport implements Transport {
+    private final LoopbackPipe inbound;
+    private final LoopbackPipe outbound;
+    private final LoopbackServer server;
+
+    /**
+     * Creates a transport from a builder.
+     *
+     * @param builder The builder.
+     */
+    protected LoopbackTransport(LoopbackTransportBuilder builder) {
+        inbound = new LoopbackPipe(builder.latency, builder.bandwidth, builder.chunkSize, builder.scheduler);
+        outbound = new LoopbackPipe(builder.latency, builder.bandwidth, builder.chunkSize, builder.scheduler);
+        server = new LoopbackServer(inbound, outbound);
+    }
+
+    /**
+     * Creates a new builder for a {@link LoopbackTransport}.
+     *
+     * @return The builder.
+     */
+    public static LoopbackTransportBuilder create() {
+        return new LoopbackTransportBuilder();
+    }
+
+    /**
+     * Returns the server end of the connection.
+     *
+     * @return The server.
+     */
+    public LoopbackServer getServer() {
+        return server;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        dispose().block();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> dispose() {
+        return Mono.fromRunnable(() -> {
+            if (!outbound.isClosed()) {
+                outbound.complete();
+            }
+            if (!inbound.isClosed()) {
+                inbound.complete();
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<String> receive() {
+        return inbound.lines();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> send(Publisher<String> publisher) {
+        return outbound.writeAll(Flux.from(publisher).map(LoopbackServer::terminate));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The messages are written to the server as a single piece of text.
+     */
+    @Override
+    public Mono<Void> sendBatch(List<String> messages) {
+        if (messages.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.fromRunnable(() -> outbound.write(LoopbackServer.terminate(String.join("\r\n", messages))));
+    }
+
+    /**
+     * A builder for new instances of the {@link LoopbackTransport}.
+     */
+    @ParametersAreNonnullByDefault
+    public static class LoopbackTransportBuilder {
+        private Duration latency = Duration.ZERO;
+
+        private long bandwidth;
+
+        private int chunkSize;
+
+        private Scheduler scheduler = Schedulers.parallel();
+
+        /**
+         * Creates a new {@link LoopbackTransportBuilder}.
+         */
+        protected LoopbackTransportBuilder() {
+        }
+
+        /**
+         * Set the time text takes to reach the other end, in either direction.
+         * <p>
+         * The default is no latency.
+         *
+         * @param latency The one-way latency.
+         * @return The instance of the {@link LoopbackTransportBuilder}.
+         */
+        public LoopbackTransportBuilder latency(Duration latency) {
+            if (latency.isNegative()) {
+                throw new IllegalArgumentException("The latency must not be negative.");
+            }
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Limit the rate at which text is carried in each direction.
+         * <p>
+         * By default the rate is not limited.
+         *
+         * @param bytesPerSecond The number of bytes of UTF-8 carried a second, or 0 for no limit.
+         * @return The instance of the {@link LoopbackTransportBuilder}.
+         */
+        public LoopbackTransportBuilder bandwidth(long bytesPerSecond) {
+            if (bytesPerSecond < 0) {
+                throw new IllegalArgumentException("The bandwidth must not be negative.");
+            }
+            bandwidth = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Split text into chunks of at most some number of characters, as a socket may return a
+         * line over several reads, so that reassembling lines is exercised.
+         * <p>
+         * By default text is delivered as it was written.
+         *
+         * @param chunkSize The greatest number of characters in a chunk, or 0 not to split text.
+         * @return The instance of the {@link LoopbackTransportBuilder}.
+         */
+        public LoopbackTransportBuilder chunkSize(int chunkSize) {
+            if (chunkSize < 0) {
+                throw new IllegalArgumentException("The chunk size must not be negative.");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Set the scheduler on which text delayed by latency or bandwidth is delivered.
+         * <p>
+         * The default is {@link Schedulers#parallel()}.
+         *
+         * @param scheduler The scheduler.
+         * @return The instance of the {@link LoopbackTransportBuilder}.
+         */
+        public LoopbackTransportBuilder scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Creates the transport.
+         *
+         * @return The transport, connected to its {@link LoopbackTransport#getServer() server}.
+         */
+        public LoopbackTransport build() {
+            return new LoopbackTransport(this);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.netty.channel.Channel;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * The bounds on how many messages read from a connection may wait for demand, which pause and
+ * resume reading from the socket.
+ * <p>
+ * Netty otherwise reads from the socket whenever data arrives, however slowly the messages are
+ * consumed, so a stalled consumer lets read messages pile up in memory without bound. Instead, once
+ * the messages read but not yet requested reach the high watermark, reading is paused, and the
+ * server's sends back up into the socket buffers and then the server. Reading resumes once demand
+ * has brought the backlog down to the low watermark. The gap between the two keeps reading from
+ * flapping on and off with each message.
+ */
+@ParametersAreNonnullByDefault
+public final class ReadWatermarks {
+    /**
+     * The default backlog of messages at or below which reading resumes.
+     */
+    public static final int DEFAULT_LOW = 1024;
+
+    /**
+     * The default backlog of messages at which reading pauses.
+     */
+    public static final int DEFAULT_HIGH = 4096;
+
+    /**
+     * The default watermarks.
+     */
+    public static final ReadWatermarks DEFAULT = new ReadWatermarks(DEFAULT_LOW, DEFAULT_HIGH);
+
+    private final int low;
+    private final int high;
+
+    private ReadWatermarks(int low, int high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Returns watermarks.
+     *
+     * @param low  The backlog of messages at or below which reading resumes.
+     * @param high The backlog of messages at which reading pauses, which must be greater than the
+     *             low watermark.
+     * @return The watermarks.
+     */
+    public static ReadWatermarks of(int low, int high) {
+        if (low < 0 || high <= low) {
+            throw new IllegalArgumentException("The high watermark must be above the low, which must not be negative.");
+        }
+        return new ReadWatermarks(low, high);
+    }
+
+    /**
+     * Returns the backlog at or below which reading resumes.
+     *
+     * @return The low watermark, in messages.
+     */
+    public int getLow() {
+        return low;
+    }
+
+    /**
+     * Returns the backlog at which reading pauses.
+     *
+     * @return The high watermark, in messages.
+     */
+    public int getHigh() {
+        return high;
+    }
+
+    /**
+     * Buffers the messages read from a channel until they are requested, pausing reads from the
+     * channel while the buffer is above the watermarks.
+     *
+     * @param channel  The channel the messages are read from.
+     * @param messages The messages, which are requested without bound.
+     * @param <T>      The type of message.
+     * @return The messages, as they are requested.
+     */
+    <T> Flux<T> apply(Channel channel, Flux<? extends T> messages) {
+        return Flux.create(sink -> {
+            // The messages emitted less the messages requested, so the backlog when positive.
+            var backlog = new AtomicLong();
+            var paused = new AtomicBoolean();
+            sink.onRequest(n -> {
+                if (n == Long.MAX_VALUE) {
+                    backlog.set(Long.MIN_VALUE / 2);
+                } else if (backlog.addAndGet(-n) > low) {
+                    return;
+                }
+                if (paused.compareAndSet(true, false)) {
+                    // Netty reads again as soon as reading is enabled.
+                    channel.config().setAutoRead(true);
+                }
+            });
+            var subscription = messages.subscribe(message -> {
+                if (backlog.incrementAndGet() >= high && paused.compareAndSet(false, true)) {
+                    channel.config().setAutoRead(false);
+                    // Demand may have drained the backlog before reading was paused.
+                    if (backlog.get() <= low && paused.compareAndSet(true, false)) {
+                        channel.config().setAutoRead(true);
+                    }
+                }
+                sink.next(message);
+            }, sink::error, sink::complete);
+            sink.onDispose(() -> {
+                subscription.dispose();
+                if (paused.compareAndSet(true, false)) {
+                    channel.config().setAutoRead(true);
+                }
+            });
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    @Override
+    public String toString() {
+        return "ReadWatermarks[low=" + low + " high=" + high + "]";
+    }
+}
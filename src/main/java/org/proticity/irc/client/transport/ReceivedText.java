@@ -0,0 +1,64 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Text received by a {@link Transport} along with the time at which it was read.
+ */
+@ParametersAreNonnullByDefault
+public final class ReceivedText {
+    private final String text;
+    private final long receivedNanos;
+
+    /**
+     * Creates a new {@link ReceivedText}.
+     *
+     * @param text          The text that was received.
+     * @param receivedNanos The value of {@link System#nanoTime()} when the text was read.
+     */
+    public ReceivedText(String text, long receivedNanos) {
+        this.text = text;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * Returns the text that was received.
+     *
+     * @return The text that was received.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the time at which the text was read, from the monotonic {@link System#nanoTime()}
+     * clock.
+     *
+     * @return The time the text was read, in nanoseconds.
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+/**
+ * A {@link Transport} which reconnects when its connection is lost.
+ * <p>
+ * Each connection is made by a fresh transport from a factory. When a connection closes or fails
+ * the transport waits and then connects again, with the wait growing exponentially with each
+ * consecutive failure up to a maximum. The wait is randomly shortened by up to a fraction of its
+ * length, so that many clients which lost their connections at once do not all reconnect at once.
+ * <p>
+ * The stream returned by {@link #receive()} or {@link #receiveTimed()} continues across
+ * reconnections, only completing when the transport is closed, or failing once the maximum number
+ * of attempts has failed. Messages sent while disconnected fail. The changes in the connection's
+ * state are emitted by {@link #events()}, from which a client can tell that it must register
+ * again.
+ * <p>
+ * A connection can also be given a read timeout, after which a connection that has been silent is
+ * closed and replaced with an {@link IdleTimeoutException} as the reason. A half-open connection,
+ * whose peer has vanished without closing it, is otherwise only noticed when the operating system
+ * gives up on it, which may take many minutes. Clients keep a healthy connection from falling
+ * silent by pinging the server.
+ */
+@ParametersAreNonnullByDefault
+public class ReconnectingTransport implements Transport {
+    /**
+     * The default wait before the first reconnection attempt.
+     */
+    public static final Duration DEFAULT_MIN_BACKOFF = Duration.ofMillis(500);
+
+    /**
+     * The default longest wait between reconnection attempts.
+     */
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMinutes(1);
+
+    /**
+     * The default fraction of each wait which is randomized.
+     */
+    public static final double DEFAULT_JITTER = 0.5;
+
+    /**
+     * The default time a connection must stay up before it is taken to have succeeded.
+     */
+    public static final Duration DEFAULT_MIN_UPTIME = Duration.ofSeconds(30);
+
+    private final Supplier<? extends Transport> factory;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final double jitter;
+    private final int maxAttempts;
+    private final Duration readTimeout;
+    private final long minUptime;
+
+    private final DirectProcessor<ConnectionEvent> events = DirectProcessor.create();
+    private final FluxSink<ConnectionEvent> eventSink = events.sink();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * The transport for the current connection, if one has been made.
+     */
+    private Transport current;
+
+    /**
+     * The number of the current connection.
+     */
+    private int connection = -1;
+
+    /**
+     * Whether the current transport has yet to be received from.
+     */
+    private boolean fresh;
+
+    private volatile boolean disposed;
+
+    /**
+     * Creates a transport which reconnects with the default backoff, and never gives up.
+     *
+     * @param factory Creates the transport for each connection.
+     */
+    public ReconnectingTransport(Supplier<? extends Transport> factory) {
+        this(factory, DEFAULT_MIN_BACKOFF, DEFAULT_MAX_BACKOFF, DEFAULT_JITTER, 0);
+    }
+
+    /**
+     * Creates a transport which reconnects.
+     *
+     * @param factory     Creates the transport for each connection.
+     * @param minBackoff  The wait before the first reconnection attempt, which doubles after each
+     *                    consecutive failure.
+     * @param maxBackoff  The longest wait between attempts.
+     * @param jitter      The fraction of each wait, between 0 and 1, by which it may be randomly
+     *                    shortened.
+     * @param maxAttempts The number of consecutive failed attempts after which to give up, or 0 to
+     *                    never give up.
+     */
+    public ReconnectingTransport(Supplier<? extends Transport> factory, Duration minBackoff, Duration maxBackoff,
+                                 double jitter, int maxAttempts) {
+        this(factory, minBackoff, maxBackoff, jitter, maxAttempts, null);
+    }
+
+    /**
+     * Creates a transport which reconnects, and which reconnects when its connection falls silent.
+     *
+     * @param factory     Creates the transport for each connection.
+     * @param minBackoff  The wait before the first reconnection attempt, which doubles after each
+     *                    consecutive failure.
+     * @param maxBackoff  The longest wait between attempts.
+     * @param jitter      The fraction of each wait, between 0 and 1, by which it may be randomly
+     *                    shortened.
+     * @param maxAttempts The number of consecutive failed attempts after which to give up, or 0 to
+     *                    never give up.
+     * @param readTimeout The time after which a connection from which nothing has been read is
+     *                    dropped, or null to wait for the connection to close.
+     */
+    public ReconnectingTransport(Supplier<? extends Transport> factory, Duration minBackoff, Duration maxBackoff,
+                                 double jitter, int maxAttempts, @Nullable Duration readTimeout) {
+        this(factory, minBackoff, maxBackoff, jitter, maxAttempts, readTimeout, DEFAULT_MIN_UPTIME);
+    }
+
+    /**
+     * Creates a transport which reconnects, and which reconnects when its connection falls silent.
+     * <p>
+     * A connection which the server accepts only to close it again, as when it refuses the
+     * client's credentials or throttles it, counts as a failed attempt unless it stays up for the
+     * minimum uptime or is declared {@link #stable() stable}. The backoff therefore keeps growing
+     * while the server turns the client away.
+     *
+     * @param factory     Creates the transport for each connection.
+     * @param minBackoff  The wait before the first reconnection attempt, which doubles after each
+     *                    consecutive failure.
+     * @param maxBackoff  The longest wait between attempts.
+     * @param jitter      The fraction of each wait, between 0 and 1, by which it may be randomly
+     *                    shortened.
+     * @param maxAttempts The number of consecutive failed attempts after which to give up, or 0 to
+     *                    never give up.
+     * @param readTimeout The time after which a connection from which nothing has been read is
+     *                    dropped, or null to wait for the connection to close.
+     * @param minUptime   The time a connection must stay up for the consecutive failures to be
+     *                    forgotten.
+     */
+    public ReconnectingTransport(Supplier<? extends Transport> factory, Duration minBackoff, Duration maxBackoff,
+                                 double jitter, int maxAttempts, @Nullable Duration readTimeout,
+                                 Duration minUptime) {
+        if (minBackoff.isNegative() || minBackoff.isZero() || maxBackoff.compareTo(minBackoff) < 0) {
+            throw new IllegalArgumentException("Backoff must be positive, with the maximum at least the minimum.");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1.");
+        }
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("The maximum number of attempts cannot be negative.");
+        }
+        if (readTimeout != null && (readTimeout.isNegative() || readTimeout.isZero())) {
+            throw new IllegalArgumentException("The read timeout must be positive.");
+        }
+        if (minUptime.isNegative()) {
+            throw new IllegalArgumentException("The minimum uptime cannot be negative.");
+        }
+        this.factory = factory;
+        this.minBackoff = minBackoff.toNanos();
+        this.maxBackoff = maxBackoff.toNanos();
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+        this.readTimeout = readTimeout;
+        this.minUptime = minUptime.toNanos();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        dispose().block();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> dispose() {
+        return Mono.defer(() -> {
+            Transport transport;
+            int number;
+            synchronized (this) {
+                if (disposed) {
+                    return Mono.empty();
+                }
+                disposed = true;
+                transport = current;
+                number = connection;
+            }
+            eventSink.next(new ConnectionEvent(ConnectionEvent.Type.CLOSED, number, failures.get(), null, null));
+            eventSink.complete();
+            return transport != null ? transport.dispose() : Mono.empty();
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> connect() {
+        return Mono.defer(() -> current().connect());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<ConnectionEvent> events() {
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<String> receive() {
+        return receiveTimed().map(ReceivedText::getText);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<ReceivedText> receiveTimed() {
+        return Flux.defer(this::session).retryWhen(errors -> errors.takeWhile(error -> !disposed)
+                .concatMap(error -> {
+                    int attempt = failures.incrementAndGet();
+                    if (maxAttempts > 0 && attempt > maxAttempts) {
+                        eventSink.next(new ConnectionEvent(ConnectionEvent.Type.CLOSED, connection, attempt - 1,
+                                null, error));
+                        return Mono.error(error);
+                    }
+                    var delay = Duration.ofNanos(backoff(attempt, minBackoff, maxBackoff, jitter,
+                            ThreadLocalRandom.current().nextDouble()));
+                    eventSink.next(new ConnectionEvent(ConnectionEvent.Type.RECONNECTING, connection, attempt, delay,
+                            error));
+                    return Mono.delay(delay);
+                }));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> send(Publisher<String> publisher) {
+        return Mono.defer(() -> current().send(publisher));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> sendBatch(List<String> messages) {
+        return Mono.defer(() -> current().sendBatch(messages));
+    }
+
+    /**
+     * Declares the current connection to be working, such as once the client has registered on
+     * it, so that the backoff starts afresh when it is next lost.
+     */
+    public void stable() {
+        failures.set(0);
+    }
+
+    /**
+     * Returns the time after which a connection from which nothing has been read is dropped and
+     * replaced.
+     *
+     * @return The read timeout, if connections are dropped when idle.
+     */
+    public Optional<Duration> getReadTimeout() {
+        return Optional.ofNullable(readTimeout);
+    }
+
+    /**
+     * Reads from one connection, failing when the connection closes so that it is retried.
+     */
+    private Flux<ReceivedText> session() {
+        Transport transport;
+        int number;
+        synchronized (this) {
+            if (disposed) {
+                return Flux.empty();
+            }
+            if (current == null || !fresh) {
+                open();
+            }
+            fresh = false;
+            transport = current;
+            number = connection;
+        }
+        var received = transport.receiveTimed();
+        if (readTimeout != null) {
+            received = received.timeout(readTimeout,
+                    Flux.defer(() -> Flux.error(new IdleTimeoutException(readTimeout))));
+        }
+        var connectedAt = new AtomicLong();
+        return transport.connect()
+                .doOnSuccess(v -> {
+                    connectedAt.set(System.nanoTime());
+                    eventSink.next(new ConnectionEvent(ConnectionEvent.Type.CONNECTED, number, failures.get(),
+                            null, null));
+                })
+                .thenMany(received)
+                .concatWith(Flux.defer(() -> disposed ? Flux.empty()
+                        : Flux.error(new IOException("The connection was closed."))))
+                .doOnError(error -> {
+                    long connected = connectedAt.get();
+                    if (connected != 0 && System.nanoTime() - connected >= minUptime) {
+                        // The connection worked for a while, so start backing off afresh.
+                        failures.set(0);
+                    }
+                    eventSink.next(new ConnectionEvent(ConnectionEvent.Type.DISCONNECTED, number, failures.get(),
+                            null, error));
+                    transport.dispose().subscribe(null, disposeError -> { });
+                });
+    }
+
+    /**
+     * Returns the transport for the current connection, creating it if there is none.
+     */
+    private synchronized Transport current() {
+        if (current == null) {
+            open();
+        }
+        return current;
+    }
+
+    private void open() {
+        current = factory.get();
+        fresh = true;
+        connection++;
+        eventSink.next(new ConnectionEvent(ConnectionEvent.Type.CONNECTING, connection, failures.get(), null, null));
+    }
+
+    /**
+     * Calculates the wait before an attempt to reconnect.
+     *
+     * @param attempt The number of consecutive failed attempts, from 1.
+     * @param min     The wait after the first failure, in nanoseconds.
+     * @param max     The longest wait, in nanoseconds.
+     * @param jitter  The fraction of the wait which is randomized.
+     * @param random  A random number from 0 to 1.
+     * @return The wait, in nanoseconds.
+     */
+    public static long backoff(int attempt, long min, long max, double jitter, double random) {
+        int doublings = Math.min(attempt - 1, 62 - (64 - Long.numberOfLeadingZeros(min)));
+        long wait = Math.min(max, min << Math.max(doublings, 0));
+        return wait - (long) (wait * jitter * random);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A {@link Transport} which records the text another transport receives to a capture file, which
+ * a {@link ReplayTransport} can play back.
+ * <p>
+ * Each line is appended with the wall-clock time at which it was read, so a file may hold several
+ * recordings one after another. To record every connection of a reconnecting transport, wrap the
+ * {@link ReconnectingTransport} rather than the transports it creates. Records are buffered in
+ * memory and written when the buffer fills, when the received stream ends and when the transport
+ * is disposed. Records are handed to a thread shared by all recording transports which writes the
+ * file, so reading from the connection never waits for the disk.
+ * <p>
+ * A capture file starts with the eight bytes {@code IRCCAP\0\1}, followed by records each made of
+ * the time as nanoseconds since the epoch in 8 bytes, the length of the text in 4 bytes and the
+ * text in UTF-8, with numbers in big-endian order.
+ */
+@ParametersAreNonnullByDefault
+public class RecordingTransport implements Transport {
+    /**
+     * The bytes with which a capture file starts.
+     */
+    static final byte[] MAGIC = {'I', 'R', 'C', 'C', 'A', 'P', 0, 1};
+
+    /**
+     * The size of the header of each record.
+     */
+    static final int RECORD_HEADER = Long.BYTES + Integer.BYTES;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The thread which writes the capture files, so that the event loops never block on them.
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(task -> {
+        var thread = new Thread(task, "irc-capture-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Transport transport;
+
+    /**
+     * The capture file, which is only used by the writer thread once the transport is created.
+     */
+    private final FileChannel file;
+
+    /**
+     * The records not yet written, which is only used by the writer thread once the transport is
+     * created.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * The text received but not yet handed to the writer thread's buffer.
+     */
+    private final Queue<ReceivedText> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the writer thread has been asked to take the pending text.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * The first failure to write the capture file, after which nothing more is written.
+     */
+    private volatile IOException failure;
+
+    /**
+     * The difference between the wall clock in nanoseconds and {@link System#nanoTime()}.
+     */
+    private final long epochOffset;
+
+    /**
+     * Creates a transport which records what another receives.
+     *
+     * @param transport The transport to record.
+     * @param file      The capture file to append to, which is created if it does not exist.
+     * @throws UncheckedIOException If the file cannot be opened.
+     */
+    public RecordingTransport(Transport transport, Path file) {
+        this.transport = transport;
+        epochOffset = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+        try {
+            this.file = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (this.file.size() == 0) {
+                buffer.put(MAGIC);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open the capture file " + file + ".", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        dispose().block();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The capture file is written out and closed once the recorded transport is disposed, which
+     * fails should any record have failed to be written.
+     */
+    @Override
+    public Mono<Void> dispose() {
+        return transport.dispose().then(Mono.defer(() -> Mono.fromFuture(onWriter(this::closeFile))))
+                .then(Mono.fromRunnable(this::checkFailure));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> connect() {
+        return transport.connect();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<ConnectionEvent> events() {
+        return transport.events();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<String> receive() {
+        return receiveTimed().map(ReceivedText::getText);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<ReceivedText> receiveTimed() {
+        return transport.receiveTimed().doOnNext(this::record).doFinally(signal -> onWriter(this::writeBuffer));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> send(Publisher<String> publisher) {
+        return transport.send(publisher);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> sendBatch(List<String> messages) {
+        return transport.sendBatch(messages);
+    }
+
+    /**
+     * Writes the buffered records to the capture file, waiting for the writer thread to do so.
+     *
+     * @throws UncheckedIOException If the file cannot be written.
+     */
+    public void flush() {
+        onWriter(this::writeBuffer).join();
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Unable to write to the capture file.", failure);
+        }
+    }
+
+    private void record(ReceivedText received) {
+        pending.add(received);
+        if (draining.compareAndSet(false, true)) {
+            WRITER.execute(this::drain);
+        }
+    }
+
+    private CompletableFuture<Void> onWriter(IoAction action) {
+        return CompletableFuture.runAsync(() -> {
+            drain();
+            try {
+                action.run();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }, WRITER);
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    // The methods below run on the writer thread.
+
+    private void drain() {
+        draining.set(false);
+        ReceivedText received;
+        while ((received = pending.poll()) != null) {
+            try {
+                append(received);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void append(ReceivedText received) throws IOException {
+        if (failure != null || !file.isOpen()) {
+            return;
+        }
+        var text = received.getText().getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < RECORD_HEADER + text.length) {
+            writeBuffer();
+        }
+        if (buffer.remaining() < RECORD_HEADER + text.length) {
+            var record = ByteBuffer.allocate(RECORD_HEADER + text.length);
+            record.putLong(epochOffset + received.getReceivedNanos()).putInt(text.length).put(text).flip();
+            while (record.hasRemaining()) {
+                file.write(record);
+            }
+            return;
+        }
+        buffer.putLong(epochOffset + received.getReceivedNanos()).putInt(text.length).put(text);
+    }
+
+    private void writeBuffer() throws IOException {
+        if (failure != null || !file.isOpen()) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void closeFile() throws IOException {
+        try {
+            writeBuffer();
+        } finally {
+            file.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoAction {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A {@link Transport} which plays back a capture file written by a {@link RecordingTransport}.
+ * <p>
+ * The file is memory-mapped, so that it is read straight from the page cache without copying
+ * through a stream. Lines can be played back with their original timing, a multiple of its speed,
+ * or as fast as they can be consumed, and each subscription to the received text plays the file
+ * from its start. Everything sent to the transport is discarded.
+ */
+@ParametersAreNonnullByDefault
+public class ReplayTransport implements Transport {
+    /**
+     * The speed at which to play back lines with the timing with which they were recorded.
+     */
+    public static final double ORIGINAL_SPEED = 1.0;
+
+    /**
+     * The speed at which to play back lines as fast as they can be consumed.
+     */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private final Path file;
+    private final double speed;
+    private final Scheduler scheduler;
+    private volatile boolean disposed;
+
+    /**
+     * Creates a transport which plays back a capture file as fast as possible.
+     *
+     * @param file The capture file.
+     */
+    public ReplayTransport(Path file) {
+        this(file, MAX_SPEED);
+    }
+
+    /**
+     * Creates a transport which plays back a capture file at some speed.
+     *
+     * @param file  The capture file.
+     * @param speed The multiple of the original speed at which to play back lines, such as
+     *              {@link #ORIGINAL_SPEED} or {@link #MAX_SPEED}.
+     */
+    public ReplayTransport(Path file, double speed) {
+        this(file, speed, Schedulers.parallel());
+    }
+
+    /**
+     * Creates a transport which plays back a capture file at some speed.
+     *
+     * @param file      The capture file.
+     * @param speed     The multiple of the original speed at which to play back lines, such as
+     *                  {@link #ORIGINAL_SPEED} or {@link #MAX_SPEED}.
+     * @param scheduler The scheduler on which lines are delayed to keep their timing.
+     */
+    public ReplayTransport(Path file, double speed, Scheduler scheduler) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("The speed must be positive.");
+        }
+        this.file = file;
+        this.speed = speed;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        dispose().block();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Playback stops and the received text completes.
+     */
+    @Override
+    public Mono<Void> dispose() {
+        return Mono.fromRunnable(() -> disposed = true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<String> receive() {
+        return receiveTimed().map(ReceivedText::getText);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Lines are stamped with the time at which they are played back.
+     */
+    @Override
+    public Flux<ReceivedText> receiveTimed() {
+        return Flux.using(() -> new CaptureReader(file), reader -> {
+            // The records carry their recorded time, which is replaced by the playback time.
+            Flux<ReceivedText> records = Flux.generate(sink -> {
+                try {
+                    ReceivedText record = disposed ? null : reader.next();
+                    if (record == null) {
+                        sink.complete();
+                    } else {
+                        sink.next(record);
+                    }
+                } catch (IOException e) {
+                    sink.error(e);
+                }
+            });
+            if (speed == MAX_SPEED) {
+                return records.map(record -> new ReceivedText(record.getText(), System.nanoTime()));
+            }
+            var timing = new long[2];
+            return records.concatMap(record -> {
+                long now = System.nanoTime();
+                if (timing[1] == 0) {
+                    timing[0] = record.getReceivedNanos();
+                    timing[1] = now;
+                }
+                long due = timing[1] + (long) ((record.getReceivedNanos() - timing[0]) / speed);
+                return due <= now ? Mono.just(new ReceivedText(record.getText(), now))
+                        : Mono.delay(Duration.ofNanos(due - now), scheduler)
+                                .map(tick -> new ReceivedText(record.getText(), System.nanoTime()));
+            });
+        }, CaptureReader::close);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The messages are discarded.
+     */
+    @Override
+    public Mono<Void> send(Publisher<String> publisher) {
+        return Flux.from(publisher).then();
+    }
+
+    /**
+     * Reads the records of a capture file through memory-mapped windows onto it.
+     */
+    static final class CaptureReader implements Closeable {
+        /**
+         * The most of the file mapped at once, as a mapping may not exceed 2GiB.
+         */
+        private static final long WINDOW = 1L << 30;
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private byte[] bytes = new byte[1024];
+
+        /**
+         * Opens a capture file.
+         *
+         * @param file The capture file.
+         * @throws IOException If the file cannot be read or is not a capture file.
+         */
+        CaptureReader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                size = channel.size();
+                var magic = new byte[RecordingTransport.MAGIC.length];
+                if (!map(0, magic.length)) {
+                    throw new IOException(file + " is not a capture file.");
+                }
+                window.get(magic);
+                if (!Arrays.equals(magic, RecordingTransport.MAGIC)) {
+                    throw new IOException(file + " is not a capture file.");
+                }
+                position = magic.length;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return The text of the record with its recorded time in nanoseconds since the epoch, or
+         * null at the end of the file or of the last complete record.
+         * @throws IOException If the file cannot be read.
+         */
+        ReceivedText next() throws IOException {
+            if (!map(position, RecordingTransport.RECORD_HEADER)) {
+                return null;
+            }
+            long time = window.getLong();
+            int length = window.getInt();
+            if (length < 0 || !map(position + RecordingTransport.RECORD_HEADER, length)) {
+                return null;
+            }
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            window.get(bytes, 0, length);
+            position += RecordingTransport.RECORD_HEADER + length;
+            return new ReceivedText(new String(bytes, 0, length, StandardCharsets.UTF_8), time);
+        }
+
+        /**
+         * Positions the window at some bytes of the file, mapping more of it if they are outside the
+         * window.
+         *
+         * @return Whether the file holds the bytes.
+         */
+        private boolean map(long start, int length) throws IOException {
+            if (start + length > size) {
+                return false;
+            }
+            if (window == null || start < windowStart || start + length > windowStart + window.limit()) {
+                windowStart = start;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(size - start, Math.max(WINDOW, length)));
+            }
+            window.position((int) (start - windowStart));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -17,15 +17,18 @@
  */
 package org.proticity.irc.client.transport;
 
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.ssl.SslContext;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.netty.Connection;
-import reactor.netty.NettyInbound;
+import reactor.netty.resources.LoopResources;
 import reactor.netty.tcp.TcpClient;
 
 /**
@@ -43,13 +46,57 @@ public class TcpTransport implements Transport {
      */
     private static final int DEFAULT_INSECURE_TCP_PORT = 6667;
 
+    /**
+     * The longest line accepted from the server, allowing for the 8191 bytes IRCv3 permits for tags
+     * with generous room for the message itself.
+     */
+    private static final int MAX_LINE_LENGTH = 16384;
+
     /**
      * A {@link Mono} for a connection that will be used for the TCP transport.
      */
     private Mono<? extends Connection> connection;
 
+    /**
+     * The connection as given, before lines are framed, from which a transport with other read
+     * watermarks is made.
+     */
+    private final Mono<? extends Connection> source;
+
+    /**
+     * The bounds on the messages read but not yet requested, which pause and resume reading.
+     */
+    private final ReadWatermarks watermarks;
+
     public TcpTransport(Mono<? extends Connection> connection) {
-        this.connection = connection.cache();
+        this(connection, ReadWatermarks.DEFAULT);
+    }
+
+    /**
+     * Creates a transport over a connection, which stops reading from the connection while too
+     * many messages wait for demand.
+     *
+     * @param connection The connection.
+     * @param watermarks The bounds on the messages read but not yet requested.
+     */
+    public TcpTransport(Mono<? extends Connection> connection, ReadWatermarks watermarks) {
+        this.source = connection;
+        this.watermarks = watermarks;
+        // Frame the stream into lines so each inbound message is a whole line which can be stamped
+        // with the time it was read.
+        this.connection = connection.doOnNext(conn -> conn.addHandlerLast("irc-line-decoder",
+                new LineBasedFrameDecoder(MAX_LINE_LENGTH, false, false))).cache();
+    }
+
+    /**
+     * Creates a transport over the same connection which uses other read watermarks. The
+     * connection is shared, so only one of the two transports should be used.
+     *
+     * @param watermarks The bounds on the messages read but not yet requested.
+     * @return A transport over the same connection.
+     */
+    public TcpTransport withWatermarks(ReadWatermarks watermarks) {
+        return new TcpTransport(source, watermarks);
     }
 
     /**
@@ -68,14 +115,33 @@ public class TcpTransport implements Transport {
         return connection.doOnNext(Connection::dispose).then();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> connect() {
+        return connection.then();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Flux<String> receive() {
-        return connection.map(Connection::inbound)
-                .flatMapMany(NettyInbound::receive)
-                .map(buf -> buf.toString(Charset.forName("UTF-8")));
+        return receiveTimed().map(ReceivedText::getText);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<ReceivedText> receiveTimed() {
+        // Each line is decoded before it is buffered, as its buffer is released once emitted.
+        return connection.flatMapMany(conn -> watermarks.apply(conn.channel(), conn.inbound().receive()
+                .map(buf -> {
+                    long now = System.nanoTime();
+                    return new ReceivedText(buf.toString(StandardCharsets.UTF_8), now);
+                })));
     }
 
     /**
@@ -83,18 +149,98 @@ public class TcpTransport implements Transport {
      */
     @Override
     public Mono<Void> send(Publisher<String> publisher) {
-        return connection.flatMap(conn -> conn.outbound().sendString(publisher).then());
+        return connection.flatMap(conn -> conn.outbound()
+                .sendString(Flux.from(publisher).map(TcpTransport::terminate)).then());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The messages are written to the socket in a single buffer.
+     */
+    @Override
+    public Mono<Void> sendBatch(List<String> messages) {
+        if (messages.isEmpty()) {
+            return Mono.empty();
+        }
+        return send(Mono.just(String.join("\r\n", messages)));
+    }
+
+    /**
+     * Terminates a message with a line ending, unless it already has one.
+     *
+     * @param message The message.
+     * @return The message as a line.
+     */
+    private static String terminate(String message) {
+        return message.endsWith("\n") ? message : message + "\r\n";
     }
 
     public static TcpTransport createSecure(String host) {
         return createSecure(host, DEFAULT_SECURE_TCP_PORT);
     }
 
+    /**
+     * Creates a TLS transport using the {@link TlsContexts#shared() shared TLS context}, so that
+     * reconnections can resume their sessions.
+     *
+     * @param host The host to which to connect.
+     * @param port The port on which to connect.
+     * @return The transport.
+     */
     public static TcpTransport createSecure(String host, int port) {
-        return new TcpTransport(TcpClient.create().secure().host(host)
+        return createSecure(host, port, TlsContexts.shared());
+    }
+
+    /**
+     * Creates a TLS transport using a TLS context.
+     *
+     * @param host       The host to which to connect.
+     * @param port       The port on which to connect.
+     * @param sslContext The TLS context, whose session cache allows later handshakes with the
+     *                   same server to resume a session.
+     * @return The transport.
+     */
+    public static TcpTransport createSecure(String host, int port, SslContext sslContext) {
+        return new TcpTransport(TcpClient.create().secure(spec -> spec.sslContext(sslContext)).host(host)
                 .port(port).connect());
     }
 
+    /**
+     * Creates a TLS transport which runs on shared event loops and shares a TLS context, so that
+     * many connections need neither threads nor TLS sessions of their own.
+     *
+     * @param host       The host to which to connect.
+     * @param port       The port on which to connect.
+     * @param loops      The event loops on which to run the connection.
+     * @param sslContext The TLS context, whose session cache allows later handshakes with the
+     *                   same server to resume a session.
+     * @return The transport.
+     */
+    public static TcpTransport createSecure(String host, int port, LoopResources loops, SslContext sslContext) {
+        return new TcpTransport(TcpClient.create().runOn(loops).secure(spec -> spec.sslContext(sslContext))
+                .host(host).port(port).connect());
+    }
+
+    /**
+     * Creates a TLS transport which runs on shared event loops and races connections to the
+     * host's addresses, so that an unreachable address does not hold up connecting.
+     *
+     * @param host       The host to which to connect.
+     * @param port       The port on which to connect.
+     * @param loops      The event loops on which to run the connection.
+     * @param sslContext The TLS context, whose session cache allows later handshakes with the
+     *                   same server to resume a session.
+     * @param connector  The connector which resolves the host and races its addresses.
+     * @return The transport.
+     */
+    public static TcpTransport createSecure(String host, int port, LoopResources loops, SslContext sslContext,
+                                            HappyEyeballsConnector connector) {
+        var client = TcpClient.create().runOn(loops).secure(spec -> spec.sslContext(sslContext));
+        return new TcpTransport(connector.connect(host, port,
+                address -> client.addressSupplier(() -> address).connect()));
+    }
+
     public static TcpTransport createInsecure(String host) {
         return createInsecure(host, DEFAULT_INSECURE_TCP_PORT);
     }
@@ -103,4 +249,16 @@ public class TcpTransport implements Transport {
         return new TcpTransport(TcpClient.create().host(host)
                 .port(port).connect());
     }
+
+    /**
+     * Creates a transport without TLS which runs on shared event loops.
+     *
+     * @param host  The host to which to connect.
+     * @param port  The port on which to connect.
+     * @param loops The event loops on which to run the connection.
+     * @return The transport.
+     */
+    public static TcpTransport createInsecure(String host, int port, LoopResources loops) {
+        return new TcpTransport(TcpClient.create().runOn(loops).host(host).port(port).connect());
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.net.ssl.SSLException;
+
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+
+/**
+ * Creates the client TLS contexts which secure transports share.
+ * <p>
+ * A TLS context holds the cache of sessions which lets a reconnection resume a session with an
+ * abbreviated handshake, by session ID or session ticket, rather than repeat the key exchange.
+ * Sharing one context across transports lets a mass reconnection after a server restart resume
+ * most of its sessions. Contexts use Netty's OpenSSL engine when its native library is available,
+ * which handshakes and encrypts faster than the JDK's engine, and the JDK's engine otherwise.
+ */
+@ParametersAreNonnullByDefault
+public final class TlsContexts {
+    /**
+     * The default number of sessions cached for resumption.
+     */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 1024;
+
+    /**
+     * The default time for which sessions are cached.
+     */
+    public static final Duration DEFAULT_SESSION_TIMEOUT = Duration.ofHours(1);
+
+    private TlsContexts() {
+    }
+
+    /**
+     * Returns the context shared by secure transports which are not given one, which caches
+     * {@value #DEFAULT_SESSION_CACHE_SIZE} sessions for an hour.
+     *
+     * @return The shared context.
+     * @throws UncheckedIOException If the context cannot be created.
+     */
+    public static SslContext shared() {
+        return Shared.CONTEXT;
+    }
+
+    /**
+     * Returns the TLS engine new contexts use.
+     *
+     * @return {@link SslProvider#OPENSSL} if its native library is available, or else
+     * {@link SslProvider#JDK}.
+     */
+    public static SslProvider provider() {
+        return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+    }
+
+    /**
+     * Creates a client context with its own session cache.
+     *
+     * @param sessionCacheSize The number of sessions to cache.
+     * @param sessionTimeout   The time for which sessions are cached.
+     * @return The context.
+     * @throws UncheckedIOException If the context cannot be created.
+     */
+    public static SslContext create(int sessionCacheSize, Duration sessionTimeout) {
+        var provider = provider();
+        try {
+            return build(provider, sessionCacheSize, sessionTimeout);
+        } catch (SSLException e) {
+            if (provider == SslProvider.JDK) {
+                throw new UncheckedIOException("Unable to create a TLS context.", e);
+            }
+        }
+        // OpenSSL may load but lack a feature the context needs, in which case the JDK is used.
+        try {
+            return build(SslProvider.JDK, sessionCacheSize, sessionTimeout);
+        } catch (SSLException e) {
+            throw new UncheckedIOException("Unable to create a TLS context.", e);
+        }
+    }
+
+    private static SslContext build(SslProvider provider, int sessionCacheSize, Duration sessionTimeout)
+            throws SSLException {
+        return SslContextBuilder.forClient().sslProvider(provider).sessionCacheSize(sessionCacheSize)
+                .sessionTimeout(sessionTimeout.getSeconds()).build();
+    }
+
+    /**
+     * Holds the shared context, which is created when it is first used.
+     */
+    private static final class Shared {
+        private static final SslContext CONTEXT = create(DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT);
+    }
+}
@@ -18,6 +18,7 @@
 package org.proticity.irc.client.transport;
 
 import java.io.Closeable;
+import java.util.List;
 
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
@@ -51,6 +52,30 @@ public interface Transport extends Closeable {
      */
     Mono<Void> dispose();
 
+    /**
+     * Opens the connection, if it is not already open.
+     * <p>
+     * Transports otherwise connect when they are first sent to or received from. The default
+     * implementation completes immediately.
+     *
+     * @return A {@link Mono} which completes once the connection is open.
+     */
+    default Mono<Void> connect() {
+        return Mono.empty();
+    }
+
+    /**
+     * Returns the changes in the state of the transport's connection.
+     * <p>
+     * Events are not buffered, so only those which happen while subscribed are received. The
+     * default implementation emits no events.
+     *
+     * @return A {@link Flux} of connection events.
+     */
+    default Flux<ConnectionEvent> events() {
+        return Flux.empty();
+    }
+
     /**
      * Receive a stream of inbound text messages.
      *
@@ -58,6 +83,19 @@ public interface Transport extends Closeable {
      */
     Flux<String> receive();
 
+    /**
+     * Receive a stream of inbound text messages, each stamped with the time at which it was read.
+     * <p>
+     * The default implementation stamps each message as it is emitted by {@link #receive()}.
+     * Implementations should stamp messages as close to the network read as they are able.
+     *
+     * @return A {@link Flux} which emits the incoming text messages from the server with the time
+     * they were read.
+     */
+    default Flux<ReceivedText> receiveTimed() {
+        return receive().map(text -> new ReceivedText(text, System.nanoTime()));
+    }
+
     /**
      * Sends messages to the server.
      *
@@ -67,4 +105,17 @@ public interface Transport extends Closeable {
      * completing.
      */
     Mono<Void> send(Publisher<String> publisher);
+
+    /**
+     * Sends a batch of messages to the server in as few writes as the transport allows.
+     * <p>
+     * The default implementation sends the messages with {@link #send(Publisher)}.
+     *
+     * @param messages The messages to send, in order.
+     *
+     * @return A {@link Mono} emitting the completion of the send.
+     */
+    default Mono<Void> sendBatch(List<String> messages) {
+        return send(Flux.fromIterable(messages));
+    }
 }
@@ -0,0 +1,201 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2019 John Stewart.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.proticity.irc.client.transport;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import reactor.netty.http.client.HttpClient;
+
+/**
+ * The settings with which a {@link WebSocketTransport} negotiates the <code>permessage-deflate</code>
+ * extension of RFC 7692, which compresses each message.
+ * <p>
+ * IRC compresses well, as messages repeat the same tags, hostnames and commands, so compression
+ * can cut the bandwidth of a busy connection several times over for some CPU time. Context
+ * takeover, where each message is compressed with the ones before it as its dictionary, saves the
+ * most but keeps a compression window in memory for each direction of each connection. A server
+ * which does not support the extension is talked to without compression.
+ */
+@ParametersAreNonnullByDefault
+public class WebSocketCompression {
+    /**
+     * The name of the handler which negotiates the extension.
+     */
+    private static final String HANDLER_NAME = "irc-ws-compression";
+
+    private int compressionLevel = 6;
+
+    private int serverWindowBits = 15;
+
+    private boolean allowClientWindowBits;
+
+    private boolean serverNoContextTakeover;
+
+    private boolean allowClientNoContextTakeover;
+
+    /**
+     * Creates the default settings.
+     */
+    protected WebSocketCompression() {
+    }
+
+    /**
+     * Creates the default settings, which are a compression level of 6, the largest windows and
+     * context takeover in both directions.
+     *
+     * @return The settings.
+     */
+    public static WebSocketCompression create() {
+        return new WebSocketCompression();
+    }
+
+    /**
+     * Set the level at which messages to the server are compressed.
+     *
+     * @param level The level, from 0 for no compression to 9 for the smallest messages and the
+     *              most CPU time.
+     * @return The settings.
+     */
+    public WebSocketCompression compressionLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("The compression level must be between 0 and 9.");
+        }
+        compressionLevel = level;
+        return this;
+    }
+
+    /**
+     * Ask the server to compress with a smaller window, which saves the server memory at some cost
+     * in compression.
+     *
+     * @param bits The base 2 logarithm of the window size, from 8 to 15.
+     * @return The settings.
+     */
+    public WebSocketCompression serverWindowBits(int bits) {
+        if (bits < 8 || bits > 15) {
+            throw new IllegalArgumentException("The window size must be between 8 and 15 bits.");
+        }
+        serverWindowBits = bits;
+        return this;
+    }
+
+    /**
+     * Allow the server to ask the client to compress with a smaller window.
+     *
+     * @param allow Whether the server may choose the client's window size.
+     * @return The settings.
+     */
+    public WebSocketCompression allowClientWindowBits(boolean allow) {
+        allowClientWindowBits = allow;
+        return this;
+    }
+
+    /**
+     * Ask the server to compress each message by itself, which frees the server's compression
+     * window between messages at some cost in compression.
+     *
+     * @param noContextTakeover Whether to ask the server not to take over its context.
+     * @return The settings.
+     */
+    public WebSocketCompression serverNoContextTakeover(boolean noContextTakeover) {
+        serverNoContextTakeover = noContextTakeover;
+        return this;
+    }
+
+    /**
+     * Allow the server to ask the client to compress each message by itself.
+     *
+     * @param allow Whether the server may turn off the client's context takeover.
+     * @return The settings.
+     */
+    public WebSocketCompression allowClientNoContextTakeover(boolean allow) {
+        allowClientNoContextTakeover = allow;
+        return this;
+    }
+
+    /**
+     * Returns the compression level.
+     *
+     * @return The compression level.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Returns the window size requested of the server.
+     *
+     * @return The base 2 logarithm of the window size.
+     */
+    public int getServerWindowBits() {
+        return serverWindowBits;
+    }
+
+    /**
+     * Returns whether the server may choose the client's window size.
+     *
+     * @return Whether the server may choose the client's window size.
+     */
+    public boolean isAllowClientWindowBits() {
+        return allowClientWindowBits;
+    }
+
+    /**
+     * Returns whether the server is asked not to take over its context.
+     *
+     * @return Whether the server is asked not to take over its context.
+     */
+    public boolean isServerNoContextTakeover() {
+        return serverNoContextTakeover;
+    }
+
+    /**
+     * Returns whether the server may turn off the client's context takeover.
+     *
+     * @return Whether the server may turn off the client's context takeover.
+     */
+    public boolean isAllowClientNoContextTakeover() {
+        return allowClientNoContextTakeover;
+    }
+
+    /**
+     * Configures a client to offer the extension in its WebSocket handshake. The extension's
+     * encoder and decoder are added to the connection if the server accepts it.
+     *
+     * @param client The client.
+     * @return The client which negotiates compression.
+     */
+    HttpClient apply(HttpClient client) {
+        int level = compressionLevel;
+        int windowBits = serverWindowBits;
+        boolean clientWindowBits = allowClientWindowBits;
+        boolean clientNoContext = allowClientNoContextTakeover;
+        boolean serverNoContext = serverNoContextTakeover;
+        return client.doOnRequest((request, conn) -> {
+            // The handler must be in place before the handshake request is written, so that it can
+            // offer the extension and install the codec when the server accepts it.
+            if (conn.channel().pipeline().get(HANDLER_NAME) == null) {
+                conn.addHandlerFirst(HANDLER_NAME, new WebSocketClientExtensionHandler(
+                        new PerMessageDeflateClientExtensionHandshaker(level, clientWindowBits, windowBits,
+                                clientNoContext, serverNoContext)));
+            }
+        });
+    }
+}
@@ -17,26 +17,54 @@
  */
 package org.proticity.irc.client.transport;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.ssl.SslContext;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.netty.Connection;
 import reactor.netty.http.client.HttpClient;
 import reactor.netty.http.websocket.WebsocketInbound;
+import reactor.netty.resources.LoopResources;
 
 /**
  * A {@link Transport} implementation which communicates IRC over Websocket.
  */
 @ParametersAreNonnullByDefault
 public class WebSocketTransport implements Transport {
+    /**
+     * The default limit on the size of a message reassembled from fragmented frames.
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1 << 20;
+
     /**
      * A {@link Mono} for a connection that will be used for the webSocket transport.
      */
     private Mono<? extends Connection> connection;
 
+    /**
+     * The connection as given, from which a transport with other read watermarks is made.
+     */
+    private final Mono<? extends Connection> source;
+
+    /**
+     * The greatest size of a message reassembled from fragmented frames.
+     */
+    private final int maxFrameSize;
+
+    /**
+     * The bounds on the messages read but not yet requested, which pause and resume reading.
+     */
+    private final ReadWatermarks watermarks;
+
     /**
      * The default port for insecure connections.
      */
@@ -54,7 +82,52 @@ public class WebSocketTransport implements Transport {
      *                   connection.
      */
     public WebSocketTransport(Mono<? extends Connection> connection) {
+        this(connection, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Create a new {@link WebSocketTransport} from a Netty Reactor {@link Connection}, with a limit
+     * on the size of messages.
+     *
+     * @param connection   A {@link Connection} which must be a webSocket {@link HttpClient}
+     *                     connection.
+     * @param maxFrameSize The greatest size in bytes of a message reassembled from a frame and its
+     *                     continuation frames. A larger message fails the connection.
+     */
+    public WebSocketTransport(Mono<? extends Connection> connection, int maxFrameSize) {
+        this(connection, maxFrameSize, ReadWatermarks.DEFAULT);
+    }
+
+    /**
+     * Create a new {@link WebSocketTransport} from a Netty Reactor {@link Connection}, with a limit
+     * on the size of messages, which stops reading from the connection while too many messages
+     * wait for demand.
+     *
+     * @param connection   A {@link Connection} which must be a webSocket {@link HttpClient}
+     *                     connection.
+     * @param maxFrameSize The greatest size in bytes of a message reassembled from a frame and its
+     *                     continuation frames. A larger message fails the connection.
+     * @param watermarks   The bounds on the messages read but not yet requested.
+     */
+    public WebSocketTransport(Mono<? extends Connection> connection, int maxFrameSize, ReadWatermarks watermarks) {
+        if (maxFrameSize < 1) {
+            throw new IllegalArgumentException("The maximum frame size must be positive.");
+        }
+        this.source = connection;
         this.connection = connection.cache();
+        this.maxFrameSize = maxFrameSize;
+        this.watermarks = watermarks;
+    }
+
+    /**
+     * Creates a transport over the same connection which uses other read watermarks. The
+     * connection is shared, so only one of the two transports should be used.
+     *
+     * @param watermarks The bounds on the messages read but not yet requested.
+     * @return A transport over the same connection.
+     */
+    public WebSocketTransport withWatermarks(ReadWatermarks watermarks) {
+        return new WebSocketTransport(source, maxFrameSize, watermarks);
     }
 
     public void close() {
@@ -69,15 +142,34 @@ public class WebSocketTransport implements Transport {
         return connection.doOnNext(Connection::dispose).then();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> connect() {
+        return connection.then();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Flux<String> receive() {
-        return connection.map(conn -> (WebsocketInbound) conn.inbound())
-                .flatMapMany(WebsocketInbound::receiveFrames)
-                .filter(frame -> frame instanceof TextWebSocketFrame)
-                .map(frame -> ((TextWebSocketFrame) frame).text());
+        return receiveTimed().map(ReceivedText::getText);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Fragmented messages are reassembled from their continuation frames, and a frame holding
+     * several lines, as Twitch sends, is split into one message for each line.
+     */
+    @Override
+    public Flux<ReceivedText> receiveTimed() {
+        return connection.flatMapMany(conn -> watermarks.apply(conn.channel(),
+                ((WebsocketInbound) conn.inbound()).aggregateFrames(maxFrameSize).receiveFrames()
+                        .filter(frame -> frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame)
+                        .concatMapIterable(frame -> lines(frame.content(), System.nanoTime()))));
     }
 
     /**
@@ -88,13 +180,106 @@ public class WebSocketTransport implements Transport {
         return connection.flatMap(conn -> conn.outbound().sendString(publisher).then());
     }
 
+    /**
+     * Splits the content of a frame into lines, decoding each straight from the frame's buffer.
+     * <p>
+     * Each line keeps its line ending. A frame which does not end with a line ending holds one
+     * line without one, as the IRCv3 WebSocket specification sends.
+     *
+     * @param content       The content of the frame.
+     * @param receivedNanos The time at which the frame was read.
+     * @return The lines in the frame.
+     */
+    static List<ReceivedText> lines(ByteBuf content, long receivedNanos) {
+        int start = content.readerIndex();
+        int end = content.writerIndex();
+        int lf = content.indexOf(start, end, (byte) '\n');
+        if (lf < 0 || lf == end - 1) {
+            // Most frames hold a single line.
+            return start == end || isBlank(content, start, end) ? Collections.emptyList()
+                    : Collections.singletonList(new ReceivedText(content.toString(start, end - start,
+                            StandardCharsets.UTF_8), receivedNanos));
+        }
+        var lines = new ArrayList<ReceivedText>();
+        while (start < end) {
+            int next = lf < 0 ? end : lf + 1;
+            if (!isBlank(content, start, next)) {
+                lines.add(new ReceivedText(content.toString(start, next - start, StandardCharsets.UTF_8),
+                        receivedNanos));
+            }
+            start = next;
+            lf = start < end ? content.indexOf(start, end, (byte) '\n') : -1;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns whether some bytes are only a line ending.
+     */
+    private static boolean isBlank(ByteBuf content, int start, int end) {
+        int length = end - start;
+        return (length == 1 && content.getByte(start) == '\n')
+                || (length == 2 && content.getByte(start) == '\r' && content.getByte(start + 1) == '\n');
+    }
+
     public static WebSocketTransport createSecure(String uri) {
         return createSecure(uri, DEFAULT_SECURE_PORT);
     }
 
+    /**
+     * Creates a secure WebSocket transport using the {@link TlsContexts#shared() shared TLS
+     * context}, so that reconnections can resume their sessions.
+     *
+     * @param uri  The URI to which to connect.
+     * @param port The port on which to connect.
+     * @return The transport.
+     */
     public static WebSocketTransport createSecure(String uri, int port) {
-        return new WebSocketTransport(HttpClient.create().secure().port(port).websocket()
-                .uri(uri).connect());
+        return createSecure(uri, port, TlsContexts.shared());
+    }
+
+    /**
+     * Creates a secure WebSocket transport using a TLS context.
+     *
+     * @param uri        The URI to which to connect.
+     * @param port       The port on which to connect.
+     * @param sslContext The TLS context, whose session cache allows later handshakes with the
+     *                   same server to resume a session.
+     * @return The transport.
+     */
+    public static WebSocketTransport createSecure(String uri, int port, SslContext sslContext) {
+        return new WebSocketTransport(HttpClient.create().secure(spec -> spec.sslContext(sslContext)).port(port)
+                .websocket().uri(uri).connect());
+    }
+
+    /**
+     * Creates a secure WebSocket transport which offers to compress messages.
+     *
+     * @param uri         The URI to which to connect.
+     * @param port        The port on which to connect.
+     * @param compression The compression settings to negotiate.
+     * @return The transport.
+     */
+    public static WebSocketTransport createSecure(String uri, int port, WebSocketCompression compression) {
+        return new WebSocketTransport(compression.apply(HttpClient.create()
+                .secure(spec -> spec.sslContext(TlsContexts.shared())).port(port)).websocket().uri(uri).connect());
+    }
+
+    /**
+     * Creates a secure WebSocket transport which runs on shared event loops and shares a TLS
+     * context, so that many connections need neither threads nor TLS sessions of their own.
+     *
+     * @param uri        The URI to which to connect.
+     * @param port       The port on which to connect.
+     * @param loops      The event loops on which to run the connection.
+     * @param sslContext The TLS context, whose session cache allows later handshakes with the
+     *                   same server to resume a session.
+     * @return The transport.
+     */
+    public static WebSocketTransport createSecure(String uri, int port, LoopResources loops,
+                                                  SslContext sslContext) {
+        return new WebSocketTransport(HttpClient.create().tcpConfiguration(tcp -> tcp.runOn(loops))
+                .secure(spec -> spec.sslContext(sslContext)).port(port).websocket().uri(uri).connect());
     }
 
     public static WebSocketTransport createInsecure(String uri) {
@@ -102,7 +287,20 @@ public class WebSocketTransport implements Transport {
     }
 
     public static WebSocketTransport createInsecure(String uri, int port) {
-        return new WebSocketTransport(HttpClient.create().secure().port(port).websocket()
+        return new WebSocketTransport(HttpClient.create().port(port).websocket()
+                .uri(uri).connect());
+    }
+
+    /**
+     * Creates an insecure WebSocket transport which offers to compress messages.
+     *
+     * @param uri         The URI to which to connect.
+     * @param port        The port on which to connect.
+     * @param compression The compression settings to negotiate.
+     * @return The transport.
+     */
+    public static WebSocketTransport createInsecure(String uri, int port, WebSocketCompression compression) {
+        return new WebSocketTransport(compression.apply(HttpClient.create().port(port)).websocket()
                 .uri(uri).connect());
     }
 }
@@ -0,0 +1,64 @@
+package org.proticity.irc.client;
+
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HashRingTest {
+    private static HashRing ring(int shards) {
+        var ring = new HashRing(64);
+        for (int i = 0; i < shards; i++) {
+            Assertions.assertEquals(i, ring.addShard());
+        }
+        return ring;
+    }
+
+    @Test
+    public void testBalance() {
+        var ring = ring(8);
+        var counts = new int[8];
+        for (int i = 0; i < 20000; i++) {
+            counts[ring.locate("#channel" + i, shard -> true)]++;
+        }
+        for (var count : counts) {
+            Assertions.assertTrue(count > 20000 / 8 / 2 && count < 20000 / 8 * 2, "Shard count " + count);
+        }
+    }
+
+    @Test
+    public void testAddingShardMovesFewKeys() {
+        var before = new HashMap<String, Integer>();
+        var ring = ring(4);
+        for (int i = 0; i < 10000; i++) {
+            before.put("#c" + i, ring.locate("#c" + i, shard -> true));
+        }
+        ring.addShard();
+        int moved = 0;
+        for (var entry : before.entrySet()) {
+            int now = ring.locate(entry.getKey(), shard -> true);
+            if (now != entry.getValue()) {
+                Assertions.assertEquals(4, now);
+                moved++;
+            }
+        }
+        Assertions.assertTrue(moved > 1000 && moved < 3500, "Moved " + moved);
+    }
+
+    @Test
+    public void testSkipsShards() {
+        var ring = ring(4);
+        var counts = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            int shard = ring.locate("#c" + i, s -> s != 2);
+            Assertions.assertNotEquals(2, shard);
+            counts[shard]++;
+        }
+        // The skipped shard's keys are spread over the others.
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(i == 2 || counts[i] > 4000 / 3 / 2);
+        }
+        Assertions.assertEquals(-1, ring.locate("#c", s -> false));
+        Assertions.assertEquals(-1, new HashRing(8).locate("#c", s -> true));
+    }
+}
@@ -1,7 +1,28 @@
 package org.proticity.irc.client;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.PongCommand;
+import org.proticity.irc.client.transport.IdleTimeoutException;
+import org.proticity.irc.client.transport.LoopbackTransport;
+import org.proticity.irc.client.transport.ReadWatermarks;
+import org.proticity.irc.client.transport.ReconnectingTransport;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.test.scheduler.VirtualTimeScheduler;
 
 public class IrcClientTest {
     @Test
@@ -15,4 +36,244 @@ public class IrcClientTest {
         Assertions.assertThrows(IllegalArgumentException.class, () ->
                 IrcClient.create().tcp("chat.freenode.net").connect());
     }
+
+    @Test
+    public void testWatermarksNeedNetworkTransport() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> IrcClient.create().nickname("Nick")
+                .transport(LoopbackTransport.create().build()).readWatermarks(ReadWatermarks.of(1, 2)).connect());
+    }
+
+    @Test
+    public void testKeepAliveNeedsReadTimeout() {
+        var transport = new ReconnectingTransport(() -> LoopbackTransport.create().build());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> IrcClient.create().nickname("Nick")
+                .transport(transport).keepAlive(Duration.ofSeconds(1), Duration.ofSeconds(1)).connect());
+    }
+
+    /**
+     * Creates a loopback transport whose server answers pings, counting them.
+     */
+    private static LoopbackTransport ponging(AtomicInteger pings) {
+        var transport = LoopbackTransport.create().build();
+        transport.getServer().respond(line -> {
+            if (!line.startsWith("PING ")) {
+                return List.of();
+            }
+            pings.incrementAndGet();
+            return List.of(":irc.example.com PONG irc.example.com " + line.substring(5));
+        });
+        return transport;
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        var timer = VirtualTimeScheduler.create();
+        var pings = new AtomicInteger();
+        var client = IrcClient.create().nickname("Nick").transport(ponging(pings)).timer(timer)
+                .keepAlive(Duration.ofMillis(50), Duration.ofSeconds(5)).connect();
+        var pong = client.commands().filter(PongCommand.class::isInstance).next().toFuture();
+        timer.advanceTimeBy(Duration.ofMillis(49));
+        Assertions.assertEquals(0, pings.get());
+        Assertions.assertTrue(client.keepAliveRoundTripTime().isEmpty());
+
+        timer.advanceTimeBy(Duration.ofMillis(1));
+        pong.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, pings.get());
+        Assertions.assertTrue(client.keepAliveRoundTripTime().isPresent());
+        client.close();
+    }
+
+    @Test
+    public void testKeepAliveShortTimeout() throws InterruptedException {
+        var timer = VirtualTimeScheduler.create();
+        var pings = new AtomicInteger();
+        // The ping must leave as soon as the interval has passed for a reply to beat the timeout.
+        var client = IrcClient.create().nickname("Nick").transport(ponging(pings)).timer(timer)
+                .keepAlive(Duration.ofMillis(400), Duration.ofMillis(150)).connect();
+        var error = new AtomicReference<Throwable>();
+        BlockingQueue<IrcCommand> pongs = new LinkedBlockingQueue<>();
+        client.commands().filter(PongCommand.class::isInstance).subscribe(pongs::add, error::set);
+        int answered = 0;
+        for (int i = 0; i < 30; i++) {
+            timer.advanceTimeBy(Duration.ofMillis(50));
+            // Wait for the answer to each ping before time moves on.
+            for (; answered < pings.get(); answered++) {
+                Assertions.assertNotNull(pongs.poll(5, TimeUnit.SECONDS));
+            }
+        }
+        Assertions.assertNull(error.get());
+        Assertions.assertEquals(3, pings.get());
+        Assertions.assertTrue(client.keepAliveRoundTripTime().isPresent());
+        client.close();
+    }
+
+    @Test
+    public void testKeepAliveTimeout() {
+        var transport = LoopbackTransport.create().build();
+        var client = IrcClient.create().nickname("Nick").transport(transport)
+                .keepAlive(Duration.ofMillis(50), Duration.ofMillis(100)).connect();
+        var error = Assertions.assertThrows(RuntimeException.class,
+                () -> client.commands().blockLast(Duration.ofSeconds(5)));
+        Assertions.assertTrue(error.getCause() instanceof IdleTimeoutException);
+    }
+
+    /**
+     * A subscriber which requests nothing until told to.
+     */
+    private static final class StalledSubscriber extends BaseSubscriber<IrcCommand> {
+        private final List<String> texts = new CopyOnWriteArrayList<>();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+        }
+
+        @Override
+        protected void hookOnNext(IrcCommand command) {
+            texts.add(command.getTrailingParameter().orElse(""));
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            error.set(throwable);
+        }
+    }
+
+    private static StalledSubscriber stalled(InboundOverflow overflow) throws InterruptedException {
+        var transport = LoopbackTransport.create().build();
+        var client = IrcClient.create().nickname("Nick").transport(transport).connect();
+        var subscriber = new StalledSubscriber();
+        client.commands(2, overflow).subscribe(subscriber);
+        var received = client.commands().take(4).collectList();
+        transport.getServer().send(":a!a@a PRIVMSG #chan :1", ":a!a@a PRIVMSG #chan :2",
+                ":a!a@a PRIVMSG #chan :3", ":a!a@a PRIVMSG #chan :4");
+        // The stalled subscriber does not hold up the others.
+        Assertions.assertEquals(4, received.block(Duration.ofSeconds(5)).size());
+        subscriber.request(10);
+        Thread.sleep(50);
+        client.close();
+        return subscriber;
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        var subscriber = stalled(InboundOverflow.DROP_OLDEST);
+        Assertions.assertEquals(List.of("3", "4"), subscriber.texts);
+        Assertions.assertNull(subscriber.error.get());
+    }
+
+    @Test
+    public void testOverflowError() throws InterruptedException {
+        var subscriber = stalled(InboundOverflow.ERROR);
+        Assertions.assertNotNull(subscriber.error.get());
+    }
+
+    @Test
+    public void testBlock() {
+        var transport = LoopbackTransport.create().build();
+        var client = IrcClient.create().nickname("Nick").transport(transport).connect();
+        var received = client.commands(1, InboundOverflow.BLOCK).take(4)
+                .map(command -> command.getTrailingParameter().orElse("")).collectList();
+        transport.getServer().send(":a!a@a PRIVMSG #chan :1", ":a!a@a PRIVMSG #chan :2",
+                ":a!a@a PRIVMSG #chan :3", ":a!a@a PRIVMSG #chan :4");
+        Assertions.assertEquals(List.of("1", "2", "3", "4"), received.block(Duration.ofSeconds(5)));
+        client.close();
+    }
+
+    @Test
+    public void testBlockHoldsUpPipeline() throws InterruptedException {
+        var transport = LoopbackTransport.create().build();
+        var client = IrcClient.create().nickname("Nick").transport(transport).connect();
+        var subscriber = new StalledSubscriber();
+        client.commands(2, InboundOverflow.BLOCK).subscribe(subscriber);
+        var received = new CopyOnWriteArrayList<IrcCommand>();
+        var buffered = new CountDownLatch(2);
+        var all = new CountDownLatch(4);
+        client.commands().subscribe(command -> {
+            received.add(command);
+            buffered.countDown();
+            all.countDown();
+        });
+        transport.getServer().send(":a!a@a PRIVMSG #chan :1", ":a!a@a PRIVMSG #chan :2",
+                ":a!a@a PRIVMSG #chan :3", ":a!a@a PRIVMSG #chan :4");
+        // The others see only what fits in the stalled subscriber's buffer until it catches up. A
+        // loopback without latency delivers on the sending thread, so nothing more is on its way.
+        Assertions.assertTrue(buffered.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, received.size());
+        subscriber.request(10);
+        Assertions.assertTrue(all.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(4, received.size());
+        Assertions.assertEquals(List.of("1", "2", "3", "4"), subscriber.texts);
+        client.close();
+    }
+
+    @Test
+    public void testMessagePacing() {
+        var timer = VirtualTimeScheduler.create();
+        var transport = LoopbackTransport.create().build();
+        var client = IrcClient.create().nickname("Nick").transport(transport).timer(timer)
+                .messageRate(2, Duration.ofMillis(400)).connect();
+        client.commands().subscribe();
+        var arrivals = new CopyOnWriteArrayList<Long>();
+        transport.getServer().received().filter(line -> line.startsWith("PRIVMSG "))
+                .subscribe(line -> arrivals.add(timer.now(TimeUnit.MILLISECONDS)));
+        client.privmsg("#chan", "1\n2\n3\n4\n5\n6").subscribe();
+        for (int i = 0; i < 20 && arrivals.size() < 6; i++) {
+            timer.advanceTimeBy(Duration.ofMillis(100));
+        }
+        // No window of the period holds more than the limit, and each message goes as soon as the
+        // limit allows.
+        for (int i = 0; i < arrivals.size(); i++) {
+            int inWindow = 0;
+            for (int j = i; j < arrivals.size() && arrivals.get(j) < arrivals.get(i) + 400; j++) {
+                inWindow++;
+            }
+            Assertions.assertTrue(inWindow <= 2, arrivals.toString());
+        }
+        Assertions.assertEquals(List.of(0L, 0L, 400L, 400L, 800L, 800L), arrivals);
+        client.close();
+    }
+
+    @Test
+    public void testJoinAllTimesOut() throws Exception {
+        var timer = VirtualTimeScheduler.create();
+        var transport = LoopbackTransport.create().build();
+        // The server answers the join of one channel and ignores the other.
+        transport.getServer().respond(line -> line.startsWith("JOIN ") ? List.of(":Nick!u@h JOIN #a") : List.of());
+        var client = IrcClient.create().nickname("Nick").transport(transport).timer(timer)
+                .requests(8, Duration.ofSeconds(10)).connect();
+        client.commands().subscribe();
+        var results = new CopyOnWriteArrayList<JoinResult>();
+        var first = new CompletableFuture<JoinResult>();
+        var done = new AtomicBoolean();
+        client.joinAll(List.of("#a", "#b")).doOnNext(first::complete).doOnComplete(() -> done.set(true))
+                .subscribe(results::add);
+        Assertions.assertTrue(first.get(5, TimeUnit.SECONDS).isJoined());
+
+        timer.advanceTimeBy(Duration.ofSeconds(9));
+        Assertions.assertFalse(done.get());
+        for (int i = 0; i < 20 && !done.get(); i++) {
+            timer.advanceTimeBy(Duration.ofSeconds(1));
+        }
+        Assertions.assertTrue(done.get());
+        Assertions.assertEquals("#b", results.get(1).getChannel());
+        Assertions.assertFalse(results.get(1).isJoined());
+        client.close();
+    }
+
+    @Test
+    public void testJoinAndPartFollowServer() throws Exception {
+        var transport = LoopbackTransport.create().build();
+        var client = IrcClient.create().nickname("Nick").transport(transport).connect();
+        client.commands().subscribe();
+        Assertions.assertFalse(client.join("#chan").block(Duration.ofSeconds(5)));
+        // The channel is not joined until the server says so.
+        Assertions.assertFalse(client.join("#chan").block(Duration.ofSeconds(5)));
+        var joined = client.commands().filter(command -> "JOIN".equals(command.getCommand())).next().toFuture();
+        transport.getServer().send(":Nick!u@h JOIN #chan");
+        joined.get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(client.join("#chan").block(Duration.ofSeconds(5)));
+        Assertions.assertTrue(client.part("#chan").block(Duration.ofSeconds(5)));
+        client.close();
+    }
 }
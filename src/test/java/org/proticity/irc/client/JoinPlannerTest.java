@@ -0,0 +1,42 @@
+package org.proticity.irc.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JoinPlannerTest {
+    @Test
+    public void testTargetLimit() {
+        var lines = JoinPlanner.plan(List.of("#a", "#b", "#c", "#d", "#e"), 510, 2);
+        Assertions.assertEquals(List.of("JOIN #a,#b", "JOIN #c,#d", "JOIN #e"), lines);
+        Assertions.assertEquals(2, JoinPlanner.targets(lines.get(0)));
+        Assertions.assertEquals(1, JoinPlanner.targets(lines.get(2)));
+    }
+
+    @Test
+    public void testLineLength() {
+        var channels = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            channels.add("#channel" + i);
+        }
+        var lines = JoinPlanner.plan(channels, 510, Integer.MAX_VALUE);
+        int count = 0;
+        for (var line : lines) {
+            Assertions.assertTrue(line.length() <= 510, line);
+            Assertions.assertTrue(line.startsWith("JOIN #"), line);
+            count += JoinPlanner.targets(line);
+        }
+        Assertions.assertEquals(3000, count);
+        Assertions.assertTrue(lines.size() < 100);
+        Assertions.assertTrue(lines.get(0).length() > 490);
+    }
+
+    @Test
+    public void testMultibyte() {
+        var channel = "#\u00e9\u00e9\u00e9\u00e9";
+        var lines = JoinPlanner.plan(List.of(channel, channel, channel), 5 + 9 + 1 + 9, Integer.MAX_VALUE);
+        Assertions.assertEquals(List.of("JOIN " + channel + "," + channel, "JOIN " + channel), lines);
+    }
+}
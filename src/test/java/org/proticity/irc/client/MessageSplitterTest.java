@@ -0,0 +1,70 @@
+package org.proticity.irc.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MessageSplitterTest {
+    private static int bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Test
+    public void testShortText() {
+        Assertions.assertEquals(List.of("hello world"), MessageSplitter.split("hello world", 400));
+        Assertions.assertEquals(List.of(""), MessageSplitter.split("", 400));
+    }
+
+    @Test
+    public void testSplitsAtSpaces() {
+        var text = "the quick brown fox jumps over the lazy dog ".repeat(30).trim();
+        var pieces = MessageSplitter.split(text, 100);
+        Assertions.assertTrue(pieces.size() > 1);
+        for (var piece : pieces) {
+            Assertions.assertTrue(bytes(piece) <= 100);
+            Assertions.assertFalse(piece.startsWith(" ") || piece.endsWith(" "));
+        }
+        Assertions.assertEquals(text, String.join(" ", pieces));
+    }
+
+    @Test
+    public void testSplitsLongWords() {
+        var pieces = MessageSplitter.split("x".repeat(250), 100);
+        Assertions.assertEquals(List.of("x".repeat(100), "x".repeat(100), "x".repeat(50)), pieces);
+    }
+
+    @Test
+    public void testMultibyte() {
+        var pieces = MessageSplitter.split("\u00e9".repeat(120), 101);
+        Assertions.assertEquals(List.of("\u00e9".repeat(50), "\u00e9".repeat(50), "\u00e9".repeat(20)), pieces);
+
+        var emoji = "\ud83d\ude00";
+        pieces = MessageSplitter.split(emoji.repeat(30), 10);
+        Assertions.assertEquals(15, pieces.size());
+        for (var piece : pieces) {
+            Assertions.assertEquals(emoji.repeat(2), piece);
+        }
+    }
+
+    @Test
+    public void testKeepsClustersTogether() {
+        var pieces = MessageSplitter.split("e\u0301".repeat(10), 5);
+        Assertions.assertEquals(10, pieces.size());
+        for (var piece : pieces) {
+            Assertions.assertEquals("e\u0301", piece);
+        }
+
+        // A thumbs up with a skin tone modifier is one cluster.
+        var thumbs = "\ud83d\udc4d\ud83c\udffd";
+        pieces = MessageSplitter.split(thumbs.repeat(3), 12);
+        Assertions.assertEquals(List.of(thumbs, thumbs, thumbs), pieces);
+    }
+
+    @Test
+    public void testLineBreaks() {
+        Assertions.assertEquals(List.of("one", "two", "three"), MessageSplitter.split("one\r\ntwo\n\nthree\n", 400));
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.proticity.irc.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.transport.LoopbackTransport;
+import reactor.core.publisher.Flux;
+
+public class OutboundBalancerTest {
+    private final List<LoopbackTransport> transports = new ArrayList<>();
+
+    private IrcClient client(int messages, Duration period) {
+        var transport = LoopbackTransport.create().build();
+        transports.add(transport);
+        var client = IrcClient.create().nickname("Nick").transport(transport).messageRate(messages, period).connect();
+        client.commands().subscribe();
+        return client;
+    }
+
+    private List<String> texts(int index, int count) {
+        return transports.get(index).getServer().received().filter(line -> line.startsWith("PRIVMSG "))
+                .map(line -> line.substring(line.indexOf(" :") + 2)).take(count).collectList()
+                .block(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void testBalancesByBudget() {
+        var clients = List.of(client(2, Duration.ofSeconds(10)), client(2, Duration.ofSeconds(10)));
+        var balancer = new OutboundBalancer(clients);
+        for (int i = 0; i < 4; i++) {
+            balancer.privmsg("#chan", "message " + i).block(Duration.ofSeconds(5));
+        }
+        Assertions.assertEquals(4, balancer.getSent());
+        Assertions.assertEquals(2, balancer.getSent(clients.get(0)));
+        Assertions.assertEquals(2, balancer.getSent(clients.get(1)));
+        clients.forEach(IrcClient::close);
+    }
+
+    @Test
+    public void testPinned() {
+        var clients = List.of(client(20, Duration.ofSeconds(30)), client(20, Duration.ofSeconds(30)));
+        var balancer = new OutboundBalancer(clients).pin("#Mod", clients.get(1));
+        for (int i = 0; i < 3; i++) {
+            balancer.privmsg("#mod", "message " + i).block(Duration.ofSeconds(5));
+        }
+        Assertions.assertEquals(3, balancer.getSent(clients.get(1)));
+        Assertions.assertEquals(List.of("message 0", "message 1", "message 2"), texts(1, 3));
+        clients.forEach(IrcClient::close);
+    }
+
+    @Test
+    public void testOrdered() {
+        var clients = List.of(client(1, Duration.ofMillis(100)), client(1, Duration.ofMillis(100)));
+        var balancer = new OutboundBalancer(clients).ordered("#chan");
+        Flux.merge(balancer.privmsg("#chan", "1"), balancer.privmsg("#chan", "2"), balancer.privmsg("#chan", "3"))
+                .blockLast(Duration.ofSeconds(5));
+        // Every message went through the client the first was sent through, while any were pending.
+        int through = balancer.getSent(clients.get(0)) == 3 ? 0 : 1;
+        Assertions.assertEquals(3, balancer.getSent(clients.get(through)));
+        Assertions.assertEquals(List.of("1", "2", "3"), texts(through, 3));
+        clients.forEach(IrcClient::close);
+    }
+
+    @Test
+    public void testCancelledOrderedMessageIsDropped() {
+        var client = client(1, Duration.ofMillis(200));
+        var balancer = new OutboundBalancer(List.of(client)).ordered("#chan");
+        balancer.privmsg("#chan", "1").block(Duration.ofSeconds(5));
+        balancer.privmsg("#chan", "2").subscribe();
+        balancer.privmsg("#chan", "3").subscribe().dispose();
+        balancer.privmsg("#chan", "4").block(Duration.ofSeconds(5));
+        Assertions.assertEquals(List.of("1", "2", "4"), texts(0, 3));
+        Assertions.assertEquals(3, balancer.getSent());
+
+        // The channel is not held by the cancelled message.
+        balancer.privmsg("#chan", "5").block(Duration.ofSeconds(5));
+        Assertions.assertEquals(4, balancer.getSent());
+        client.close();
+    }
+}
@@ -0,0 +1,95 @@
+package org.proticity.irc.client;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.parser.IrcParser;
+import org.proticity.irc.client.transport.LoopbackTransport;
+
+public class RedundantIrcClientTest {
+    private static LoopbackTransport server() {
+        var transport = LoopbackTransport.create().build();
+        transport.getServer().respond(line -> {
+            if (line.startsWith("CAP LS")) {
+                return List.of(":irc.example.com CAP * LS :");
+            } else if (line.startsWith("NICK ")) {
+                return List.of(":irc.example.com 001 Nick :Welcome");
+            }
+            return List.of();
+        });
+        return transport;
+    }
+
+    private static RedundantIrcClient client(LoopbackTransport... transports) {
+        var client = new RedundantIrcClient(i -> IrcClient.create().nickname("Nick").transport(transports[i]),
+                transports.length);
+        for (var member : client.getClients()) {
+            member.registration().block(Duration.ofSeconds(5));
+        }
+        return client;
+    }
+
+    private static List<String> texts(List<IrcCommand> commands) {
+        return commands.stream().filter(command -> "PRIVMSG".equals(command.getCommand()))
+                .map(command -> command.getTrailingParameter().orElse("")).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testDeduplicates() throws InterruptedException {
+        var transports = new LoopbackTransport[] {server(), server()};
+        var client = client(transports);
+        var received = new CopyOnWriteArrayList<IrcCommand>();
+        client.commands().subscribe(received::add);
+
+        for (int i = 0; i < transports.length; i++) {
+            transports[i].getServer().send("@msgid=1 :a!a@a PRIVMSG #chan :tagged",
+                    "@time=2024-01-01T00:00:00.000Z :a!a@a PRIVMSG #chan :timed",
+                    ":a!a@a PRIVMSG #chan :untagged " + i);
+        }
+        for (int i = 0; i < 100 && received.size() < 3; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(100);
+        var texts = texts(received);
+        Assertions.assertEquals(3, texts.size(), texts.toString());
+        Assertions.assertTrue(texts.containsAll(List.of("tagged", "timed", "untagged 0")));
+        Assertions.assertEquals(2, client.getDeduplicator().getHits());
+        client.close();
+    }
+
+    @Test
+    public void testFailover() throws InterruptedException {
+        var transports = new LoopbackTransport[] {server(), server()};
+        var client = client(transports);
+        Assertions.assertSame(client.getClients().get(0), client.getPrimary());
+
+        transports[0].getServer().close();
+        for (int i = 0; i < 100 && client.getFailovers() == 0; i++) {
+            Thread.sleep(20);
+        }
+        Assertions.assertSame(client.getClients().get(1), client.getPrimary());
+        Assertions.assertEquals(1, client.getFailovers());
+
+        client.privmsg("#chan", "hello").block(Duration.ofSeconds(5));
+        var sent = transports[1].getServer().received().filter(line -> line.startsWith("PRIVMSG"))
+                .next().block(Duration.ofSeconds(5));
+        Assertions.assertEquals("PRIVMSG #chan :hello", sent);
+        client.close();
+    }
+
+    @Test
+    public void testContentKey() {
+        var parser = new IrcParser();
+        var first = parser.parse("@time=2024-01-01T00:00:00.000Z :a!a@a PRIVMSG #chan :hi\r\n").get(0);
+        var again = parser.parse("@time=2024-01-01T00:00:00.000Z;x=y :a!a@a PRIVMSG #chan :hi\r\n").get(0);
+        var other = parser.parse("@time=2024-01-01T00:00:00.000Z :b!b@b PRIVMSG #chan :hi\r\n").get(0);
+        Assertions.assertEquals(RedundantIrcClient.contentKey(1, first), RedundantIrcClient.contentKey(1, again));
+        Assertions.assertNotEquals(RedundantIrcClient.contentKey(1, first), RedundantIrcClient.contentKey(1, other));
+        Assertions.assertNotEquals(RedundantIrcClient.contentKey(1, first), RedundantIrcClient.contentKey(2, first));
+    }
+}
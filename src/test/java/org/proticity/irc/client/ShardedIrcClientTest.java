@@ -0,0 +1,142 @@
+package org.proticity.irc.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.transport.LoopbackTransport;
+
+public class ShardedIrcClientTest {
+    private final Map<Integer, List<LoopbackTransport>> transports = new ConcurrentHashMap<>();
+
+    private LoopbackTransport server(int index) {
+        var transport = LoopbackTransport.create().build();
+        transport.getServer().respond(line -> {
+            if (line.startsWith("CAP LS")) {
+                return List.of(":irc.example.com CAP * LS :");
+            } else if (line.startsWith("NICK ")) {
+                return List.of(":irc.example.com 001 Nick :Welcome");
+            } else if (line.startsWith("JOIN ")) {
+                var replies = new ArrayList<String>();
+                for (var channel : line.substring(5).split(" ")[0].split(",")) {
+                    replies.add(":Nick!u@h JOIN " + channel);
+                }
+                return replies;
+            }
+            return List.of();
+        });
+        transports.computeIfAbsent(index, i -> new CopyOnWriteArrayList<>()).add(transport);
+        return transport;
+    }
+
+    private ShardedIrcClient client(int shards, int channelsPerShard) {
+        return new ShardedIrcClient(i -> IrcClient.create().nickname("Nick").transport(server(i)), shards,
+                channelsPerShard, Duration.ofMillis(50), Duration.ofMillis(100));
+    }
+
+    private LoopbackTransport latest(int index) {
+        var opened = transports.get(index);
+        return opened.get(opened.size() - 1);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 250 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(20);
+        }
+        Assertions.assertTrue(condition.getAsBoolean());
+    }
+
+    private static List<String> joined(LoopbackTransport transport) {
+        var channels = new ArrayList<String>();
+        transport.getServer().received().filter(line -> line.startsWith("JOIN "))
+                .take(Duration.ofMillis(200))
+                .toIterable().forEach(line -> channels.addAll(List.of(line.substring(5).split(" ")[0].split(","))));
+        return channels;
+    }
+
+    @Test
+    public void testOpensShardWhenFull() {
+        var client = client(1, 2);
+        var results = client.joinAll(List.of("#a", "#b", "#c")).collectList().block(Duration.ofSeconds(5));
+        Assertions.assertEquals(3, results.size());
+        Assertions.assertTrue(results.stream().allMatch(JoinResult::isJoined));
+        Assertions.assertEquals(2, client.getShards().size());
+        Assertions.assertEquals(3, client.getChannelCount());
+        client.close();
+    }
+
+    @Test
+    public void testFailover() throws InterruptedException {
+        var client = client(2, 10);
+        for (var shard : client.getShards()) {
+            shard.registration().block(Duration.ofSeconds(5));
+        }
+        var channels = List.of("#a", "#b", "#c", "#d", "#e", "#f");
+        client.joinAll(channels).collectList().block(Duration.ofSeconds(5));
+        var lost = client.getShards().get(0);
+        var moved = new ArrayList<String>();
+        for (var channel : channels) {
+            if (client.shardFor(channel).get() == lost) {
+                moved.add(channel);
+            }
+        }
+
+        latest(0).getServer().close();
+        await(() -> moved.stream().allMatch(channel -> client.shardFor(channel)
+                .filter(shard -> shard == client.getShards().get(1)).isPresent()));
+        Assertions.assertTrue(joined(latest(1)).containsAll(moved));
+        Assertions.assertEquals(channels.size(), client.getChannelCount());
+
+        // The lost shard is replaced after the backoff, without opening more shards.
+        await(() -> transports.get(0).size() == 2 && client.getShards().get(0) != lost);
+        Assertions.assertEquals(2, client.getShards().size());
+        client.close();
+    }
+
+    @Test
+    public void testReplacementTakesWaitingChannels() throws InterruptedException {
+        var client = client(2, 2);
+        var channels = List.of("#a", "#b", "#c", "#d");
+        client.joinAll(channels).collectList().block(Duration.ofSeconds(5));
+        Assertions.assertEquals(2, client.getShards().size());
+        var lost = client.getShards().get(0);
+
+        latest(0).getServer().close();
+        await(() -> transports.get(0).size() == 2);
+        await(() -> channels.stream().allMatch(channel -> client.shardFor(channel).isPresent()));
+        var replacement = client.getShards().get(0);
+        Assertions.assertNotSame(lost, replacement);
+        Assertions.assertEquals(2, client.getShards().size());
+        var waiting = new ArrayList<String>();
+        for (var channel : channels) {
+            if (client.shardFor(channel).get() == replacement) {
+                waiting.add(channel);
+            }
+        }
+        Assertions.assertEquals(2, waiting.size());
+        Assertions.assertTrue(joined(latest(0)).containsAll(waiting));
+        client.close();
+    }
+
+    @Test
+    public void testMergesReplacementCommands() throws InterruptedException {
+        var client = client(1, 10);
+        var received = new CopyOnWriteArrayList<IrcCommand>();
+        client.commands().subscribe(received::add);
+        client.getShards().get(0).registration().block(Duration.ofSeconds(5));
+
+        latest(0).getServer().close();
+        await(() -> transports.get(0).size() == 2);
+        client.getShards().get(0).registration().block(Duration.ofSeconds(5));
+        latest(0).getServer().send(":a!a@a PRIVMSG #chan :after");
+        await(() -> received.stream().anyMatch(command -> "PRIVMSG".equals(command.getCommand())));
+        client.close();
+    }
+}
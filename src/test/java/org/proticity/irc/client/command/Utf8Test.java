@@ -0,0 +1,31 @@
+package org.proticity.irc.client.command;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class Utf8Test {
+    private static int bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Test
+    public void testTextLength() {
+        Assertions.assertEquals(5, Utf8.length("hello"));
+        Assertions.assertEquals(2, Utf8.length("\u00e9"));
+        Assertions.assertEquals(3, Utf8.length("\u20ac"));
+        Assertions.assertEquals(4, Utf8.length("\ud83d\ude00"));
+        for (var text : List.of("", "ascii", "\u00e9t\u00e9", "\u20ac", "\ud83d\ude00!", "e\u0301")) {
+            Assertions.assertEquals(bytes(text), Utf8.length(text), text);
+        }
+    }
+
+    @Test
+    public void testCodePointLength() {
+        for (var text : List.of("a", "\u00e9", "\u07ff", "\u0800", "\u20ac", "\uffff", "\ud83d\ude00")) {
+            Assertions.assertEquals(bytes(text), Utf8.length(text.codePointAt(0)), text);
+        }
+    }
+}
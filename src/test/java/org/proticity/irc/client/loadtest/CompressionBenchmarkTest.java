@@ -0,0 +1,139 @@
+package org.proticity.irc.client.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Estimates the CPU cost of <code>permessage-deflate</code> against the bandwidth it saves on
+ * Twitch style traffic, compressing frames as RFC 7692 does with raw deflate flushed at each
+ * message.
+ * <p>
+ * This is an estimate made with zlib through {@link Deflater} and {@link Inflater} alone. It does
+ * not run the transport, Netty's extension codec or WebSocket framing, whose overheads it leaves
+ * out; {@code WebSocketCompressionTest} covers compression through the transport.
+ */
+public class CompressionBenchmarkTest {
+    private static final byte[] TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+
+    /**
+     * The result of compressing some frames.
+     */
+    private static final class Result {
+        private long raw;
+        private long compressed;
+        private long deflateNanos;
+        private long inflateNanos;
+
+        private double ratio() {
+            return (double) compressed / raw;
+        }
+    }
+
+    /**
+     * Generates frames each holding some lines, as a server writes the lines of a tick together.
+     */
+    private static List<byte[]> frames(int count, int linesPerFrame) {
+        var generator = new TrafficGenerator(new TrafficProfile().channels(50));
+        var frames = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            var frame = new StringBuilder();
+            for (int j = 0; j < linesPerFrame; j++) {
+                frame.append(generator.nextLine(generator.nextChannel(), 1_600_000_000_000L + i * 10)).append("\r\n");
+            }
+            frames.add(frame.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return frames;
+    }
+
+    private static long cpuNanos() {
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+
+    private static Result compress(List<byte[]> frames, int level, boolean contextTakeover)
+            throws DataFormatException {
+        var result = new Result();
+        var deflater = new Deflater(level, true);
+        var inflater = new Inflater(true);
+        var out = new byte[1 << 20];
+        var in = new byte[1 << 20];
+        for (var frame : frames) {
+            long start = cpuNanos();
+            deflater.setInput(frame);
+            int length = 0;
+            do {
+                length += deflater.deflate(out, length, out.length - length, Deflater.SYNC_FLUSH);
+            } while (!deflater.needsInput());
+            // The empty block which ends each flush is left off the wire.
+            length -= TAIL.length;
+            if (!contextTakeover) {
+                deflater.reset();
+            }
+            long deflated = cpuNanos();
+
+            System.arraycopy(TAIL, 0, out, length, TAIL.length);
+            inflater.setInput(out, 0, length + TAIL.length);
+            int inflatedLength = inflater.inflate(in);
+            if (!contextTakeover) {
+                inflater.reset();
+            }
+            result.inflateNanos += cpuNanos() - deflated;
+            result.deflateNanos += deflated - start;
+            Assertions.assertArrayEquals(frame, Arrays.copyOf(in, inflatedLength));
+            result.raw += frame.length;
+            result.compressed += length;
+        }
+        deflater.end();
+        inflater.end();
+        return result;
+    }
+
+    @Test
+    public void testRatio() throws DataFormatException {
+        var frames = frames(200, 10);
+        var shared = compress(frames, 6, true);
+        var separate = compress(frames, 6, false);
+        Assertions.assertTrue(shared.ratio() < separate.ratio());
+        Assertions.assertTrue(shared.ratio() < 0.5, "ratio " + shared.ratio());
+    }
+
+    /**
+     * Prints the zlib compression and CPU time at each level, with and without context takeover,
+     * and what they come to at a message rate. Run with <code>-Dirc.benchmark=true</code>, and
+     * optionally <code>-Dirc.benchmark.rate</code> for the messages a second to project to.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "irc.benchmark", matches = "true")
+    public void benchmark() throws DataFormatException {
+        int rate = Integer.getInteger("irc.benchmark.rate", 20_000);
+        for (int linesPerFrame : new int[] {1, 20}) {
+            var frames = frames(200_000 / linesPerFrame, linesPerFrame);
+            // Warm up the JIT and zlib before measuring.
+            compress(frames.subList(0, frames.size() / 10), 6, true);
+            for (int level : new int[] {1, 6, 9}) {
+                for (boolean takeover : new boolean[] {true, false}) {
+                    var result = compress(frames, level, takeover);
+                    double bytesPerMessage = (double) result.raw / 200_000;
+                    double savedMbits = rate * bytesPerMessage * (1 - result.ratio()) * 8 / 1e6;
+                    double deflateCore = result.deflateNanos / 200_000.0 * rate / 1e9;
+                    double inflateCore = result.inflateNanos / 200_000.0 * rate / 1e9;
+                    System.out.printf("zlib estimate: lines/frame %2d level %d takeover %-5b: ratio %.3f, "
+                                    + "deflate %.0f MB/s, inflate %.0f MB/s; at %d msg/s saves %.1f Mbit/s for "
+                                    + "%.1f%% of a core to deflate and %.1f%% to inflate%n",
+                            linesPerFrame, level, takeover, result.ratio(), result.raw * 1e3 / result.deflateNanos,
+                            result.raw * 1e3 / result.inflateNanos, rate, savedMbits, deflateCore * 100,
+                            inflateCore * 100);
+                }
+            }
+        }
+    }
+}
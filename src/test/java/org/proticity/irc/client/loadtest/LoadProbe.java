@@ -0,0 +1,70 @@
+package org.proticity.irc.client.loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.proticity.irc.client.IrcClient;
+import org.proticity.irc.client.metrics.LatencyHistogram;
+import org.proticity.irc.client.metrics.ServerTime;
+import reactor.core.Disposable;
+
+/**
+ * Measures what a client observes of a {@link SyntheticIrcServer}'s traffic: how many messages
+ * it receives and how long they take to reach its subscribers.
+ * <p>
+ * The delivery latency is measured from the <code>tmi-sent-ts</code> tag the server stamps on
+ * each message, so it has a resolution of a millisecond. The server and client share a clock as
+ * they run in the same JVM.
+ */
+public class LoadProbe implements Disposable {
+    private final LongAdder messages = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Disposable subscription;
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Starts measuring a client.
+     *
+     * @param client The client.
+     */
+    public LoadProbe(IrcClient client) {
+        subscription = client.commands().subscribe(command -> {
+            long sent = ServerTime.of(command);
+            if (sent != ServerTime.UNKNOWN) {
+                messages.increment();
+                latency.record((System.currentTimeMillis() - sent) * 1_000_000L);
+            }
+        }, error -> { });
+    }
+
+    /**
+     * Returns the number of messages received.
+     *
+     * @return The number of messages.
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * Returns a summary of the messages received and their latency since the last report.
+     *
+     * @return The report.
+     */
+    public String report() {
+        var snapshot = latency.intervalSnapshot();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return String.format("%d messages, %.0f/s overall; since last report p50 %.1fms, p99 %.1fms, max %.1fms",
+                getMessages(), getMessages() / seconds, snapshot.getValueAtPercentile(50) / 1e6,
+                snapshot.getValueAtPercentile(99) / 1e6, snapshot.getMax() / 1e6);
+    }
+
+    @Override
+    public void dispose() {
+        subscription.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return subscription.isDisposed();
+    }
+}
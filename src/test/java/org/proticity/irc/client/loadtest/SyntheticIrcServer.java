@@ -0,0 +1,467 @@
+package org.proticity.irc.client.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.NettyInbound;
+import reactor.netty.NettyOutbound;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.tcp.TcpServer;
+import reactor.util.concurrent.Queues;
+
+/**
+ * An embeddable IRC server which imitates Twitch's chat servers and floods its clients with
+ * synthetic chat, for soak and scale testing of the client.
+ * <p>
+ * The server listens on the loopback interface for plain TCP and for WebSocket connections on
+ * <code>/</code>. It answers capability negotiation, registration, <code>JOIN</code>,
+ * <code>PART</code> and <code>PING</code> as Twitch does, and sends each client the messages
+ * generated for the channels it is in, described by a {@link TrafficProfile}. The messages of
+ * each tick are written to a client at once, several lines to a WebSocket frame, as Twitch does.
+ * <p>
+ * The WebSocket endpoint may accept the <code>permessage-deflate</code> extension, in which case
+ * the server records the extension it agreed to in each handshake.
+ */
+public class SyntheticIrcServer implements AutoCloseable {
+    private static final String HOST = "tmi.twitch.tv";
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final TrafficProfile profile;
+    private final TrafficGenerator generator;
+    private final String[] channelNames;
+    private final Map<String, Set<Session>> members = new ConcurrentHashMap<>();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder privmsgs = new LongAdder();
+    private final List<String> negotiatedExtensions = new CopyOnWriteArrayList<>();
+    private final Scheduler scheduler = Schedulers.newSingle("irc-load-server");
+    private final long startNanos = System.nanoTime();
+    private final DisposableServer tcp;
+    private final DisposableServer webSocket;
+    private final Disposable traffic;
+    private final Disposable pings;
+    private long lastTick = startNanos;
+    private double due;
+
+    private SyntheticIrcServer(TrafficProfile profile, boolean webSocketCompression) {
+        this.profile = profile;
+        generator = new TrafficGenerator(profile);
+        channelNames = new String[profile.getChannels()];
+        for (int i = 0; i < channelNames.length; i++) {
+            channelNames[i] = "#channel" + i;
+        }
+        tcp = TcpServer.create().host("127.0.0.1").port(0)
+                .doOnConnection(conn -> conn.addHandlerLast("irc-line-decoder",
+                        new LineBasedFrameDecoder(MAX_LINE_LENGTH)))
+                .handle(this::serve).bindNow();
+        var http = HttpServer.create().host("127.0.0.1").port(0);
+        if (webSocketCompression) {
+            // The recorder sits nearer the network than the compression handler, so that it sees the
+            // handshake response after the extension has been added to it.
+            http = http.tcpConfiguration(server -> server.doOnConnection(conn -> conn
+                    .addHandlerFirst("irc-ws-compression", new WebSocketServerCompressionHandler())
+                    .addHandlerFirst("irc-ws-extensions", new ExtensionRecorder())));
+        }
+        webSocket = http.route(routes -> routes.ws("/", this::serve)).bindNow();
+        long tick = profile.getTick().toNanos();
+        traffic = scheduler.schedulePeriodically(this::tick, tick, tick, TimeUnit.NANOSECONDS);
+        long ping = profile.getPingInterval().toNanos();
+        pings = scheduler.schedulePeriodically(this::ping, ping, ping, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param profile The traffic to send.
+     * @return The server, listening on ephemeral ports.
+     */
+    public static SyntheticIrcServer start(TrafficProfile profile) {
+        return start(profile, false);
+    }
+
+    /**
+     * Starts a server whose WebSocket endpoint may accept <code>permessage-deflate</code>.
+     *
+     * @param profile              The traffic to send.
+     * @param webSocketCompression Whether to accept compression on WebSocket connections.
+     * @return The server, listening on ephemeral ports.
+     */
+    public static SyntheticIrcServer start(TrafficProfile profile, boolean webSocketCompression) {
+        return new SyntheticIrcServer(profile, webSocketCompression);
+    }
+
+    /**
+     * Returns the port on which the server accepts plain TCP connections.
+     *
+     * @return The port.
+     */
+    public int getTcpPort() {
+        return tcp.port();
+    }
+
+    /**
+     * Returns the port on which the server accepts WebSocket connections.
+     *
+     * @return The port.
+     */
+    public int getWebSocketPort() {
+        return webSocket.port();
+    }
+
+    /**
+     * Returns the URI of the server's WebSocket endpoint.
+     *
+     * @return The URI.
+     */
+    public String getWebSocketUri() {
+        return "ws://127.0.0.1:" + webSocket.port() + "/";
+    }
+
+    /**
+     * Returns the names of the channels traffic is generated for, busiest first.
+     *
+     * @return The channel names.
+     */
+    public List<String> getChannels() {
+        return List.of(channelNames);
+    }
+
+    /**
+     * Returns the number of clients connected.
+     *
+     * @return The number of clients.
+     */
+    public int getClientCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the number of generated messages written to clients, counting a message once for
+     * each client it was written to.
+     *
+     * @return The number of messages sent.
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * Returns the number of lines received from clients.
+     *
+     * @return The number of lines received.
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * Returns the <code>Sec-WebSocket-Extensions</code> header of each WebSocket handshake the
+     * server has answered, which is empty where no extension was agreed. Handshakes are only
+     * recorded when the server accepts compression.
+     *
+     * @return The extensions agreed, by handshake.
+     */
+    public List<String> getNegotiatedExtensions() {
+        return List.copyOf(negotiatedExtensions);
+    }
+
+    /**
+     * Returns the number of <code>PRIVMSG</code> commands received from clients.
+     *
+     * @return The number of messages received.
+     */
+    public long getPrivmsgsReceived() {
+        return privmsgs.sum();
+    }
+
+    @Override
+    public void close() {
+        traffic.dispose();
+        pings.dispose();
+        sessions.forEach(Session::close);
+        tcp.disposeNow();
+        webSocket.disposeNow();
+        scheduler.dispose();
+    }
+
+    private Publisher<Void> serve(NettyInbound in, NettyOutbound out) {
+        var session = new Session();
+        sessions.add(session);
+        var reads = in.receive().asString(StandardCharsets.UTF_8)
+                .doOnNext(session::receive)
+                .doFinally(signal -> session.close())
+                .then();
+        return Mono.when(reads, out.sendString(session.outbound, StandardCharsets.UTF_8).then());
+    }
+
+    /**
+     * Generates the messages due since the last tick and writes them to the clients.
+     */
+    private void tick() {
+        long now = System.nanoTime();
+        due += profile.rateAt(Duration.ofNanos(now - startNanos)) * (now - lastTick) / 1e9;
+        lastTick = now;
+        long millis = System.currentTimeMillis();
+        for (; due >= 1; due--) {
+            int channel = generator.nextChannel();
+            var clients = members.get(channelNames[channel]);
+            if (clients == null || clients.isEmpty()) {
+                continue;
+            }
+            var line = generator.nextLine(channel, millis);
+            for (var client : clients) {
+                client.queue(line);
+            }
+            sent.add(clients.size());
+        }
+        for (var session : sessions) {
+            session.flush();
+        }
+    }
+
+    private void ping() {
+        for (var session : sessions) {
+            if (session.registered) {
+                session.send("PING :" + HOST);
+            }
+        }
+    }
+
+    /**
+     * Records the extensions in the responses which upgrade connections to WebSocket.
+     */
+    private final class ExtensionRecorder extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof HttpResponse
+                    && HttpResponseStatus.SWITCHING_PROTOCOLS.equals(((HttpResponse) msg).status())) {
+                var extensions = ((HttpResponse) msg).headers().get(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS);
+                negotiatedExtensions.add(extensions == null ? "" : extensions);
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    /**
+     * A client's connection.
+     */
+    private final class Session {
+        private final UnicastProcessor<String> outbound = UnicastProcessor.create(Queues.<String>unbounded().get());
+        private final FluxSink<String> sink = outbound.sink();
+        private final Set<String> channels = ConcurrentHashMap.newKeySet();
+        private final StringBuilder pending = new StringBuilder();
+        private volatile String nick;
+        private volatile boolean registered;
+        private boolean negotiating;
+
+        /**
+         * Handles text from the client, which over WebSocket may hold several lines.
+         */
+        private void receive(String text) {
+            int start = 0;
+            while (start < text.length()) {
+                int end = text.indexOf('\n', start);
+                if (end < 0) {
+                    end = text.length();
+                }
+                int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+                if (lineEnd > start) {
+                    handle(text.substring(start, lineEnd));
+                }
+                start = end + 1;
+            }
+        }
+
+        private void handle(String line) {
+            received.increment();
+            if (line.startsWith("@")) {
+                int space = line.indexOf(' ');
+                line = space < 0 ? "" : line.substring(space + 1);
+            }
+            var params = new ArrayList<String>();
+            int start = 0;
+            while (start < line.length()) {
+                if (line.charAt(start) == ':' && !params.isEmpty()) {
+                    params.add(line.substring(start + 1));
+                    break;
+                }
+                int end = line.indexOf(' ', start);
+                if (end < 0) {
+                    end = line.length();
+                }
+                if (end > start) {
+                    params.add(line.substring(start, end));
+                }
+                start = end + 1;
+            }
+            if (params.isEmpty()) {
+                return;
+            }
+            var command = params.remove(0).toUpperCase(Locale.ROOT);
+            switch (command) {
+                case "CAP":
+                    capability(params);
+                    break;
+                case "NICK":
+                    if (!params.isEmpty()) {
+                        nick = params.get(0).toLowerCase(Locale.ROOT);
+                        welcome();
+                    }
+                    break;
+                case "PING":
+                    send(":" + HOST + " PONG " + HOST + " :" + (params.isEmpty() ? "" : params.get(0)));
+                    break;
+                case "JOIN":
+                    if (registered && !params.isEmpty()) {
+                        join(params.get(0));
+                    }
+                    break;
+                case "PART":
+                    if (registered && !params.isEmpty()) {
+                        part(params.get(0));
+                    }
+                    break;
+                case "PRIVMSG":
+                    privmsgs.increment();
+                    break;
+                case "QUIT":
+                    close();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void capability(List<String> params) {
+            var subcommand = params.isEmpty() ? "" : params.get(0).toUpperCase(Locale.ROOT);
+            switch (subcommand) {
+                case "LS":
+                    negotiating = !registered;
+                    send(":" + HOST + " CAP * LS :twitch.tv/tags twitch.tv/commands twitch.tv/membership");
+                    break;
+                case "REQ":
+                    negotiating = !registered;
+                    send(":" + HOST + " CAP * ACK :" + (params.size() > 1 ? params.get(1) : ""));
+                    break;
+                case "END":
+                    negotiating = false;
+                    welcome();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void welcome() {
+            if (registered || negotiating || nick == null) {
+                return;
+            }
+            registered = true;
+            send(":" + HOST + " 001 " + nick + " :Welcome, GLHF!",
+                    ":" + HOST + " 002 " + nick + " :Your host is " + HOST,
+                    ":" + HOST + " 003 " + nick + " :This server is rather new",
+                    ":" + HOST + " 004 " + nick + " :-",
+                    ":" + HOST + " 375 " + nick + " :-",
+                    ":" + HOST + " 372 " + nick + " :You are in a maze of twisty passages, all alike.",
+                    ":" + HOST + " 376 " + nick + " :>");
+        }
+
+        private void join(String targets) {
+            var replies = new ArrayList<String>();
+            for (var channel : targets.toLowerCase(Locale.ROOT).split(",")) {
+                if (!channel.startsWith("#") || !channels.add(channel)) {
+                    continue;
+                }
+                members.computeIfAbsent(channel, name -> ConcurrentHashMap.newKeySet()).add(this);
+                var prefix = ":" + nick + "!" + nick + "@" + nick + "." + HOST;
+                replies.add(prefix + " JOIN " + channel);
+                replies.add(":" + nick + "." + HOST + " 353 " + nick + " = " + channel + " :" + nick);
+                replies.add(":" + nick + "." + HOST + " 366 " + nick + " " + channel + " :End of /NAMES list");
+                int roomId = 1000 + Math.floorMod(channel.hashCode(), 1000);
+                replies.add("@emote-only=0;followers-only=-1;r9k=0;room-id=" + roomId + ";slow=0;subs-only=0 :"
+                        + HOST + " ROOMSTATE " + channel);
+            }
+            send(replies.toArray(new String[0]));
+        }
+
+        private void part(String targets) {
+            for (var channel : targets.toLowerCase(Locale.ROOT).split(",")) {
+                if (channels.remove(channel)) {
+                    var clients = members.get(channel);
+                    if (clients != null) {
+                        clients.remove(this);
+                    }
+                    send(":" + nick + "!" + nick + "@" + nick + "." + HOST + " PART " + channel);
+                }
+            }
+        }
+
+        /**
+         * Adds a generated message to those written at the end of the tick.
+         */
+        private synchronized void queue(String line) {
+            pending.append(line).append("\r\n");
+        }
+
+        /**
+         * Writes the messages of the tick.
+         */
+        private void flush() {
+            String text;
+            synchronized (this) {
+                if (pending.length() == 0) {
+                    return;
+                }
+                text = pending.toString();
+                pending.setLength(0);
+            }
+            sink.next(text);
+        }
+
+        private void send(String... lines) {
+            if (lines.length > 0) {
+                sink.next(String.join("\r\n", lines) + "\r\n");
+            }
+        }
+
+        private void close() {
+            if (sessions.remove(this)) {
+                for (var channel : channels) {
+                    var clients = members.get(channel);
+                    if (clients != null) {
+                        clients.remove(this);
+                    }
+                }
+                sink.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.proticity.irc.client.loadtest;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.proticity.irc.client.IrcClient;
+import org.proticity.irc.client.JoinResult;
+import org.proticity.irc.client.command.TagKey;
+import org.proticity.irc.client.parser.IrcParser;
+import org.proticity.irc.client.transport.TcpTransport;
+import org.proticity.irc.client.transport.WebSocketTransport;
+import reactor.core.publisher.Flux;
+
+public class SyntheticIrcServerTest {
+    private static IrcClient.IrcClientBuilder client() {
+        return IrcClient.create().twitch().joinRate(1000, Duration.ofSeconds(1));
+    }
+
+    private static void run(SyntheticIrcServer server, IrcClient client) {
+        var probe = new LoadProbe(client);
+        try {
+            client.registration().block(Duration.ofSeconds(10));
+            var channels = server.getChannels().subList(0, 10);
+            Assertions.assertEquals(10, client.joinAll(channels).filter(JoinResult::isJoined)
+                    .count().block(Duration.ofSeconds(10)));
+            Flux.interval(Duration.ofMillis(50)).filter(tick -> probe.getMessages() >= 100).blockFirst(
+                    Duration.ofSeconds(10));
+            client.privmsg(channels.get(0), "hello").block(Duration.ofSeconds(10));
+            Flux.interval(Duration.ofMillis(50)).filter(tick -> server.getPrivmsgsReceived() == 1).blockFirst(
+                    Duration.ofSeconds(10));
+            Assertions.assertEquals(1, server.getClientCount());
+            Assertions.assertTrue(server.getSent() >= probe.getMessages());
+        } finally {
+            probe.dispose();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testGenerator() {
+        var generator = new TrafficGenerator(new TrafficProfile().channels(20).emoteChance(1).userNoticeChance(0.5));
+        var parser = new IrcParser();
+        var emotes = new TagKey("emotes");
+        for (int i = 0; i < 1000; i++) {
+            int channel = generator.nextChannel();
+            Assertions.assertTrue(channel >= 0 && channel < 20);
+            var commands = parser.parse(generator.nextLine(channel, 1_500_000_000_000L) + "\r\n");
+            Assertions.assertEquals(1, commands.size());
+            var command = commands.get(0);
+            Assertions.assertEquals("#channel" + channel, command.getParameters().get(0));
+            Assertions.assertEquals("1500000000000", command.getTags().get(new TagKey("tmi-sent-ts")));
+            var text = command.getTrailingParameter().orElseThrow();
+            var ranges = command.getTags().get(emotes);
+            if (!ranges.isEmpty()) {
+                for (var emote : ranges.split("/")) {
+                    var range = emote.substring(emote.indexOf(':') + 1).split("-");
+                    var name = text.substring(Integer.parseInt(range[0]), Integer.parseInt(range[1]) + 1);
+                    Assertions.assertTrue(List.of("Kappa", "PogChamp", "LUL", "Kreygasm", "4Head", "BibleThump")
+                            .contains(name), name);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTcp() {
+        try (var server = SyntheticIrcServer.start(new TrafficProfile().channels(20).messagesPerSecond(5000))) {
+            run(server, client().transport(() -> TcpTransport.createInsecure("127.0.0.1", server.getTcpPort()))
+                    .connect());
+        }
+    }
+
+    @Test
+    public void testWebSocket() {
+        try (var server = SyntheticIrcServer.start(new TrafficProfile().channels(20).messagesPerSecond(5000))) {
+            run(server, client().transport(() -> WebSocketTransport.createInsecure(server.getWebSocketUri(),
+                    server.getWebSocketPort())).connect());
+        }
+    }
+
+    /**
+     * Floods a single client for a while and reports what it observes. Run with
+     * <code>-Dirc.soak=true</code>, and optionally <code>-Dirc.soak.channels</code>,
+     * <code>-Dirc.soak.rate</code> and <code>-Dirc.soak.seconds</code>.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "irc.soak", matches = "true")
+    public void testSoak() {
+        int channels = Integer.getInteger("irc.soak.channels", 1000);
+        int rate = Integer.getInteger("irc.soak.rate", 100_000);
+        int seconds = Integer.getInteger("irc.soak.seconds", 60);
+        var profile = new TrafficProfile().channels(channels).messagesPerSecond(rate)
+                .bursts(3, Duration.ofSeconds(15), Duration.ofSeconds(2));
+        try (var server = SyntheticIrcServer.start(profile)) {
+            var client = client().transport(() -> TcpTransport.createInsecure("127.0.0.1", server.getTcpPort()))
+                    .joinRate(100_000, Duration.ofSeconds(1)).pipelineLatency().connect();
+            var probe = new LoadProbe(client);
+            client.registration().block(Duration.ofSeconds(10));
+            client.joinAll(server.getChannels()).blockLast(Duration.ofMinutes(1));
+            for (int i = 0; i < seconds; i += 5) {
+                Flux.interval(Duration.ofSeconds(5)).blockFirst();
+                System.out.println("soak: " + probe.report() + "; server sent " + server.getSent());
+            }
+            probe.dispose();
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.proticity.irc.client.loadtest;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Generates Twitch chat lines with the tags Twitch sends.
+ */
+class TrafficGenerator {
+    private static final String[] WORDS = {
+        "hello", "chat", "lol", "gg", "nice", "what", "is", "this", "play", "wow", "that", "was", "close",
+        "clip", "it", "no", "way", "let's", "go", "first", "time", "here", "love", "the", "stream", "omg"
+    };
+
+    private static final String[] EMOTES = {"Kappa", "PogChamp", "LUL", "Kreygasm", "4Head", "BibleThump"};
+
+    private static final String[] EMOTE_IDS = {"25", "305954156", "425618", "41", "354", "86"};
+
+    private static final String[] COLORS = {"#1E90FF", "#FF0000", "#008000", "#B22222", "#FF7F50", "#9ACD32", ""};
+
+    private static final String[] BADGES = {
+        "", "subscriber/12,premium/1", "moderator/1", "vip/1", "subscriber/3", "turbo/1", "glhf-pledge/1"
+    };
+
+    private static final int USERS = 5000;
+
+    private final TrafficProfile profile;
+    private final SplittableRandom random;
+    private final StringBuilder line = new StringBuilder(512);
+    private final StringBuilder text = new StringBuilder(128);
+    private final StringBuilder emotes = new StringBuilder(64);
+
+    TrafficGenerator(TrafficProfile profile) {
+        this.profile = profile;
+        random = new SplittableRandom(profile.getSeed());
+    }
+
+    /**
+     * Chooses the channel of the next message, favouring the lower numbered channels.
+     *
+     * @return The index of the channel.
+     */
+    int nextChannel() {
+        double r = random.nextDouble();
+        return (int) (profile.getChannels() * r * r);
+    }
+
+    /**
+     * Generates a message to a channel.
+     *
+     * @param channel    The index of the channel.
+     * @param sentMillis The time at which the message is sent, in milliseconds since the epoch.
+     * @return The message, without a line ending.
+     */
+    String nextLine(int channel, long sentMillis) {
+        int user = random.nextInt(USERS);
+        boolean userNotice = random.nextDouble() < profile.getUserNoticeChance();
+        text.setLength(0);
+        emotes.setLength(0);
+        int words = 1 + random.nextInt(12);
+        boolean withEmotes = random.nextDouble() < profile.getEmoteChance();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            if (withEmotes && random.nextInt(3) == 0) {
+                int emote = random.nextInt(EMOTES.length);
+                if (emotes.length() > 0) {
+                    emotes.append('/');
+                }
+                emotes.append(EMOTE_IDS[emote]).append(':').append(text.length()).append('-')
+                        .append(text.length() + EMOTES[emote].length() - 1);
+                text.append(EMOTES[emote]);
+            } else {
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+        }
+
+        line.setLength(0);
+        line.append("@badge-info=;badges=").append(BADGES[user % BADGES.length])
+                .append(";color=").append(COLORS[user % COLORS.length])
+                .append(";display-name=Viewer").append(user)
+                .append(";emotes=").append(emotes)
+                .append(";flags=;id=").append(new UUID(random.nextLong(), random.nextLong()))
+                .append(";mod=").append(user % BADGES.length == 2 ? 1 : 0);
+        if (userNotice) {
+            line.append(";msg-id=resub;msg-param-cumulative-months=").append(1 + random.nextInt(60))
+                    .append(";msg-param-sub-plan=1000");
+        }
+        line.append(";room-id=").append(1000 + channel)
+                .append(";subscriber=").append(user % BADGES.length == 1 ? 1 : 0)
+                .append(";tmi-sent-ts=").append(sentMillis)
+                .append(";turbo=0;user-id=").append(100_000 + user)
+                .append(";user-type=");
+        if (userNotice) {
+            line.append(" :tmi.twitch.tv USERNOTICE #channel").append(channel).append(" :").append(text);
+        } else {
+            line.append(" :viewer").append(user).append("!viewer").append(user).append("@viewer").append(user)
+                    .append(".tmi.twitch.tv PRIVMSG #channel").append(channel).append(" :").append(text);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,175 @@
+package org.proticity.irc.client.loadtest;
+
+import java.time.Duration;
+
+/**
+ * The traffic a {@link SyntheticIrcServer} generates.
+ * <p>
+ * Messages are spread over a fixed set of channels named <code>#channel0</code> to
+ * <code>#channelN</code>, with the lower numbered channels busier, as a few channels carry most
+ * of Twitch's chat. Messages are only delivered to the clients in their channel, so a client in
+ * some of the channels receives a share of the total rate.
+ */
+public class TrafficProfile {
+    private int channels = 100;
+
+    private double messagesPerSecond = 1000;
+
+    private double burstFactor = 1;
+
+    private Duration burstInterval = Duration.ofSeconds(10);
+
+    private Duration burstLength = Duration.ofSeconds(1);
+
+    private double emoteChance = 0.3;
+
+    private double userNoticeChance = 0.01;
+
+    private Duration pingInterval = Duration.ofMinutes(1);
+
+    private Duration tick = Duration.ofMillis(10);
+
+    private long seed = 42;
+
+    /**
+     * Set the number of channels messages are sent to. The default is 100.
+     *
+     * @param channels The number of channels.
+     * @return The profile.
+     */
+    public TrafficProfile channels(int channels) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("There must be at least one channel.");
+        }
+        this.channels = channels;
+        return this;
+    }
+
+    /**
+     * Set the total rate of messages over all the channels. The default is 1000 a second.
+     *
+     * @param messagesPerSecond The number of messages a second.
+     * @return The profile.
+     */
+    public TrafficProfile messagesPerSecond(double messagesPerSecond) {
+        if (messagesPerSecond < 0) {
+            throw new IllegalArgumentException("The message rate must not be negative.");
+        }
+        this.messagesPerSecond = messagesPerSecond;
+        return this;
+    }
+
+    /**
+     * Multiply the message rate periodically, as happens when something exciting happens on a
+     * stream. By default there are no bursts.
+     *
+     * @param factor   The multiple of the message rate during a burst.
+     * @param interval The time from the start of one burst to the start of the next.
+     * @param length   The length of a burst.
+     * @return The profile.
+     */
+    public TrafficProfile bursts(double factor, Duration interval, Duration length) {
+        if (factor < 1 || length.compareTo(interval) > 0) {
+            throw new IllegalArgumentException("Bursts must not slow traffic or overlap.");
+        }
+        burstFactor = factor;
+        burstInterval = interval;
+        burstLength = length;
+        return this;
+    }
+
+    /**
+     * Set the chance that a message includes emotes. The default is 0.3.
+     *
+     * @param chance The chance between 0 and 1.
+     * @return The profile.
+     */
+    public TrafficProfile emoteChance(double chance) {
+        emoteChance = chance;
+        return this;
+    }
+
+    /**
+     * Set the chance that a message is a <code>USERNOTICE</code> such as a subscription rather than
+     * a <code>PRIVMSG</code>. The default is 0.01.
+     *
+     * @param chance The chance between 0 and 1.
+     * @return The profile.
+     */
+    public TrafficProfile userNoticeChance(double chance) {
+        userNoticeChance = chance;
+        return this;
+    }
+
+    /**
+     * Set how often clients are pinged. The default is once a minute.
+     *
+     * @param interval The time between pings.
+     * @return The profile.
+     */
+    public TrafficProfile pingInterval(Duration interval) {
+        pingInterval = interval;
+        return this;
+    }
+
+    /**
+     * Set how often messages are generated and written, each client receiving the messages of a
+     * tick in a single write. The default is every 10 milliseconds.
+     *
+     * @param tick The time between writes.
+     * @return The profile.
+     */
+    public TrafficProfile tick(Duration tick) {
+        this.tick = tick;
+        return this;
+    }
+
+    /**
+     * Set the seed of the random traffic, so that runs can be repeated.
+     *
+     * @param seed The seed.
+     * @return The profile.
+     */
+    public TrafficProfile seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    double getEmoteChance() {
+        return emoteChance;
+    }
+
+    double getUserNoticeChance() {
+        return userNoticeChance;
+    }
+
+    Duration getPingInterval() {
+        return pingInterval;
+    }
+
+    Duration getTick() {
+        return tick;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the message rate at some time, including any burst.
+     *
+     * @param elapsed The time since the server started.
+     * @return The number of messages a second.
+     */
+    double rateAt(Duration elapsed) {
+        if (burstFactor == 1) {
+            return messagesPerSecond;
+        }
+        long offset = elapsed.toNanos() % burstInterval.toNanos();
+        return offset < burstLength.toNanos() ? messagesPerSecond * burstFactor : messagesPerSecond;
+    }
+}
@@ -0,0 +1,175 @@
+package org.proticity.irc.client.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class WireLoggerTest {
+    @Test
+    public void testLinesWrittenInOrder() {
+        var output = new ByteArrayOutputStream();
+        var logger = new WireLogger(output, false);
+        logger.inbound("PING :tmi.twitch.tv");
+        logger.outbound("PONG :tmi.twitch.tv");
+        logger.close();
+
+        var lines = output.toString(StandardCharsets.UTF_8).split(System.lineSeparator());
+        Assertions.assertEquals(2, lines.length);
+        Assertions.assertTrue(lines[0].endsWith(" < PING :tmi.twitch.tv"));
+        Assertions.assertTrue(lines[1].endsWith(" >> PONG :tmi.twitch.tv"));
+    }
+
+    @Test
+    public void testSampling() {
+        var output = new ByteArrayOutputStream();
+        var logger = new WireLogger(output, false, 64, OverflowPolicy.BLOCK, 10);
+        for (int i = 0; i < 100; i++) {
+            logger.inbound("line " + i);
+        }
+        logger.close();
+
+        Assertions.assertEquals(10, output.toString(StandardCharsets.UTF_8).split(System.lineSeparator()).length);
+    }
+
+    @Test
+    public void testDropWhenFull() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var logger = new WireLogger(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void flush() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, false, 4, OverflowPolicy.DROP, 1);
+        for (int i = 0; i < 100; i++) {
+            logger.inbound("line " + i);
+        }
+        release.countDown();
+        logger.close();
+
+        Assertions.assertTrue(logger.getDroppedCount() > 0);
+    }
+
+    @Test
+    public void testOutputLeftOpen() {
+        var closed = new AtomicBoolean();
+        var output = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        var logger = new WireLogger(output, false);
+        logger.inbound("PING :tmi.twitch.tv");
+        logger.close();
+
+        Assertions.assertFalse(closed.get());
+        Assertions.assertTrue(output.toString(StandardCharsets.UTF_8).endsWith(" < PING :tmi.twitch.tv"
+                + System.lineSeparator()));
+    }
+
+    @Test
+    public void testSharedDrainThread() {
+        Set<Thread> writers = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        var output = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writers.add(Thread.currentThread());
+                super.write(b, off, len);
+            }
+        };
+        var loggers = new ArrayList<WireLogger>();
+        for (int i = 0; i < 4; i++) {
+            var logger = new WireLogger(output, false);
+            logger.inbound("line " + i);
+            loggers.add(logger);
+        }
+        loggers.forEach(WireLogger::close);
+
+        Assertions.assertEquals(4, output.toString(StandardCharsets.UTF_8).split(System.lineSeparator()).length);
+        Assertions.assertEquals(1, writers.size());
+    }
+
+    @Test
+    public void testBlockedOutputDoesNotStallOthers() {
+        var release = new CountDownLatch(1);
+        var blocked = new WireLogger(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void flush() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, false, 4, OverflowPolicy.BLOCK, 1);
+        blocked.inbound("line");
+
+        var output = new ByteArrayOutputStream();
+        var logger = new WireLogger(output, false, 4, OverflowPolicy.BLOCK, 1);
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            for (int i = 0; i < 100; i++) {
+                logger.inbound("line " + i);
+            }
+            logger.close();
+        });
+        Assertions.assertEquals(100, output.toString(StandardCharsets.UTF_8).split(System.lineSeparator()).length);
+
+        release.countDown();
+        blocked.close();
+    }
+
+    @Test
+    public void testShutdownDoesNotWait() throws InterruptedException {
+        var flushing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var written = new CountDownLatch(1);
+        var logger = new WireLogger(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void flush() {
+                flushing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                written.countDown();
+            }
+        }, false);
+        logger.inbound("line");
+        Assertions.assertTrue(flushing.await(5, TimeUnit.SECONDS));
+
+        // The output is blocked, so shutdown must return without waiting for the write.
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), logger::shutdown);
+        Assertions.assertEquals(1, written.getCount());
+        release.countDown();
+        Assertions.assertTrue(written.await(5, TimeUnit.SECONDS));
+        logger.close();
+    }
+}
@@ -0,0 +1,83 @@
+package org.proticity.irc.client.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ClientMetricsTest {
+    @Test
+    public void testCommandTagsAreBounded() {
+        var registry = new SimpleMeterRegistry();
+        var metrics = new ClientMetrics(registry, "test");
+        metrics.inbound("PRIVMSG");
+        metrics.inbound("001");
+        metrics.inbound("SOMETHINGNEW");
+        metrics.outbound("@label=1 PRIVMSG #chan :hello");
+        metrics.outbound("ANOTHERNEW foo");
+
+        Assertions.assertEquals(1.0, registry.get("irc.client.messages").tag("direction", "inbound")
+                .tag("command", "PRIVMSG").counter().count());
+        Assertions.assertEquals(1.0, registry.get("irc.client.messages").tag("direction", "inbound")
+                .tag("command", "numeric").counter().count());
+        Assertions.assertEquals(1.0, registry.get("irc.client.messages").tag("direction", "inbound")
+                .tag("command", "other").counter().count());
+        Assertions.assertEquals(1.0, registry.get("irc.client.messages").tag("direction", "outbound")
+                .tag("command", "PRIVMSG").counter().count());
+        Assertions.assertEquals(1.0, registry.get("irc.client.messages").tag("direction", "outbound")
+                .tag("command", "other").counter().count());
+    }
+
+    @Test
+    public void testCloseRemovesMeters() {
+        var registry = new SimpleMeterRegistry();
+        var metrics = new ClientMetrics(registry, "test");
+        metrics.gauge("custom", this, test -> 1.0);
+        Assertions.assertFalse(registry.getMeters().isEmpty());
+        metrics.close();
+        Assertions.assertTrue(registry.getMeters().isEmpty());
+    }
+
+    @Test
+    public void testConnectionsHaveOwnMeters() {
+        var registry = new SimpleMeterRegistry();
+        var first = new ClientMetrics(registry, null);
+        var second = new ClientMetrics(registry, null);
+        var named = new ClientMetrics(registry, "test");
+        var sameName = new ClientMetrics(registry, "test");
+        Assertions.assertEquals("0", first.getTags().stream().findFirst().get().getValue());
+        Assertions.assertEquals("1", second.getTags().stream().findFirst().get().getValue());
+        Assertions.assertEquals("test", named.getTags().stream().findFirst().get().getValue());
+        Assertions.assertEquals("test-1", sameName.getTags().stream().findFirst().get().getValue());
+        first.gauge("custom", this, test -> 1.0);
+        second.gauge("custom", this, test -> 2.0);
+        Assertions.assertEquals(2.0, registry.get("irc.client.custom").tag(ClientMetrics.CONNECTION_TAG, "1")
+                .gauge().value());
+
+        first.close();
+        Assertions.assertThrows(RuntimeException.class, () -> registry.get("irc.client.custom")
+                .tag(ClientMetrics.CONNECTION_TAG, "0").gauge());
+        Assertions.assertEquals(2.0, registry.get("irc.client.custom").tag(ClientMetrics.CONNECTION_TAG, "1")
+                .gauge().value());
+        // The closed connection's tag is reused.
+        var third = new ClientMetrics(registry, null);
+        Assertions.assertEquals("0", third.getTags().stream().findFirst().get().getValue());
+        second.close();
+        third.close();
+        named.close();
+        sameName.close();
+        Assertions.assertTrue(registry.getMeters().isEmpty());
+    }
+
+    @Test
+    public void testRegistriesAreCountedApart() {
+        var first = new SimpleMeterRegistry();
+        var second = new SimpleMeterRegistry();
+        var inFirst = new ClientMetrics(first, "test");
+        var inSecond = new ClientMetrics(second, "test");
+        inFirst.close();
+        Assertions.assertTrue(first.getMeters().isEmpty());
+        Assertions.assertFalse(second.getMeters().isEmpty());
+        inSecond.close();
+        Assertions.assertTrue(second.getMeters().isEmpty());
+    }
+}
@@ -0,0 +1,39 @@
+package org.proticity.irc.client.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketsAreContiguous() {
+        for (long value = 0; value < 1_000_000; value++) {
+            int index = LatencyHistogram.index(value);
+            Assertions.assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+            if (index > 0) {
+                Assertions.assertTrue(LatencyHistogram.highestEquivalentValue(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        var histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+        var snapshot = histogram.intervalSnapshot();
+
+        Assertions.assertEquals(10_000, snapshot.getTotalCount());
+        Assertions.assertEquals(10_000_000, snapshot.getMax());
+        Assertions.assertEquals(5_000_000, snapshot.getValueAtPercentile(50.0), 50_000);
+        Assertions.assertEquals(9_900_000, snapshot.getValueAtPercentile(99.0), 99_000);
+    }
+
+    @Test
+    public void testIntervalReset() {
+        var histogram = new LatencyHistogram();
+        histogram.record(100);
+        Assertions.assertEquals(1, histogram.intervalSnapshot().getTotalCount());
+        Assertions.assertEquals(0, histogram.intervalSnapshot().getTotalCount());
+    }
+}
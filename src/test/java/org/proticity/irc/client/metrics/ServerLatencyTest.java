@@ -0,0 +1,50 @@
+package org.proticity.irc.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.command.CommandBuilder;
+import org.proticity.irc.client.command.IrcCommand;
+
+public class ServerLatencyTest {
+    private final long nanoStart = System.nanoTime();
+    private final long wallStart = System.currentTimeMillis();
+
+    private IrcCommand message(long sentMillis, long receivedNanos) {
+        return new IrcCommand(new CommandBuilder().tag(ServerTime.TMI_SENT_TS, Long.toString(sentMillis))
+                .command("PRIVMSG").parameter("#chan").trailingParameter("hello").receivedNanos(receivedNanos));
+    }
+
+    @Test
+    public void testLatencyStepIsNotTakenForSkew() {
+        var latency = new ServerLatency();
+        // A minute of messages delivered in 50 ms, then five minutes of messages delivered in 500 ms.
+        for (int second = 0; second < 360; second++) {
+            long delay = second < 60 ? 50 : 500;
+            latency.record(message(wallStart + second * 1000L - delay, nanoStart + TimeUnit.SECONDS.toNanos(second)));
+        }
+        long skew = latency.getClockSkewMillis();
+        Assertions.assertTrue(Math.abs(skew - 50) <= 20, "Skew " + skew);
+        var channel = latency.getChannelLatency("#chan").get();
+        Assertions.assertTrue(channel.getAverageMillis() > 400, "Average " + channel.getAverageMillis());
+    }
+
+    @Test
+    public void testSkewFromProbe() {
+        var latency = new ServerLatency();
+        // The server's clock is 200 ms behind the client's.
+        Assertions.assertTrue(latency.pong(latency.probeToken(), System.currentTimeMillis() - 200));
+        long skew = latency.getClockSkewMillis();
+        Assertions.assertTrue(Math.abs(skew - 200) <= 20, "Skew " + skew);
+
+        for (int second = 0; second < 360; second++) {
+            long delay = second < 60 ? 30 : 500;
+            latency.record(message(wallStart + second * 1000L - 200 - delay,
+                    nanoStart + TimeUnit.SECONDS.toNanos(second)));
+        }
+        Assertions.assertTrue(Math.abs(latency.getClockSkewMillis() - 200) <= 20);
+        var channel = latency.getChannelLatency("#chan").get();
+        Assertions.assertTrue(channel.getAverageMillis() > 450, "Average " + channel.getAverageMillis());
+    }
+}
@@ -0,0 +1,39 @@
+package org.proticity.irc.client.metrics;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.parser.IrcParser;
+
+public class ServerTimeTest {
+    @Test
+    public void testIso8601() {
+        for (var text : new String[] {"2011-10-19T16:40:51.620Z", "1970-01-01T00:00:00.000Z", "2000-02-29T23:59:59Z",
+                "2019-12-31T12:00:00.5Z", "2100-03-01T01:02:03.456789Z"}) {
+            Assertions.assertEquals(Instant.parse(text).toEpochMilli(), ServerTime.parseIso8601(text), text);
+        }
+        Assertions.assertEquals(ServerTime.UNKNOWN, ServerTime.parseIso8601("2011-10-19 16:40:51.620Z"));
+        Assertions.assertEquals(ServerTime.UNKNOWN, ServerTime.parseIso8601("2011-10-19T16:40:51.620+01:00"));
+        Assertions.assertEquals(ServerTime.UNKNOWN, ServerTime.parseIso8601(null));
+    }
+
+    @Test
+    public void testEpochMillis() {
+        Assertions.assertEquals(1556900000000L, ServerTime.parseEpochMillis("1556900000000"));
+        Assertions.assertEquals(ServerTime.UNKNOWN, ServerTime.parseEpochMillis("15569x0000000"));
+        Assertions.assertEquals(ServerTime.UNKNOWN, ServerTime.parseEpochMillis(""));
+    }
+
+    @Test
+    public void testFromTags() {
+        var parser = new IrcParser();
+        var twitch = parser.parse("@tmi-sent-ts=1556900000000 :nick!nick@nick.tmi.twitch.tv PRIVMSG #chan :hi\r\n");
+        var ircv3 = parser.parse("@time=2011-10-19T16:40:51.620Z :nick!user@host PRIVMSG #chan :hi\r\n");
+        var untagged = parser.parse(":nick!user@host PRIVMSG #chan :hi\r\n");
+
+        Assertions.assertEquals(1556900000000L, ServerTime.of(twitch.get(0)));
+        Assertions.assertEquals(Instant.parse("2011-10-19T16:40:51.620Z").toEpochMilli(), ServerTime.of(ircv3.get(0)));
+        Assertions.assertEquals(ServerTime.UNKNOWN, ServerTime.of(untagged.get(0)));
+    }
+}
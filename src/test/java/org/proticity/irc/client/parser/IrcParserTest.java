@@ -2,10 +2,12 @@ package org.proticity.irc.client.parser;
 
 import org.proticity.irc.client.command.Channel;
 import org.proticity.irc.client.command.PrivmsgCommand;
+import org.proticity.irc.client.command.QuitCommand;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import reactor.core.publisher.Flux;
 
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class IrcParserTest {
@@ -29,4 +31,17 @@ public class IrcParserTest {
 
         Assertions.assertEquals(3, cmdList.size());
     }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testQuitMessage() {
+        var parser = new IrcParser();
+        var quit = (QuitCommand) parser.parse(":nick!user@server.com QUIT :Gone\r\n").get(0);
+        Assertions.assertEquals(Optional.of("Gone"), quit.message());
+        Assertions.assertEquals("Gone", quit.getMessage());
+
+        var silent = (QuitCommand) parser.parse(":nick!user@server.com QUIT\r\n").get(0);
+        Assertions.assertEquals(Optional.empty(), silent.message());
+        Assertions.assertNull(silent.getMessage());
+    }
 }
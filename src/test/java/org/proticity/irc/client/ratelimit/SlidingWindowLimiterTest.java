@@ -0,0 +1,91 @@
+package org.proticity.irc.client.ratelimit;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SlidingWindowLimiterTest {
+    private static final long PERIOD = Duration.ofSeconds(10).toNanos();
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    private final SlidingWindowLimiter limiter = new SlidingWindowLimiter(20, Duration.ofSeconds(10), clock::get);
+
+    @Test
+    public void testBurst() {
+        Assertions.assertEquals(20, limiter.available());
+        Assertions.assertTrue(limiter.tryAcquire(15));
+        Assertions.assertEquals(5, limiter.available());
+        Assertions.assertFalse(limiter.tryAcquire(6));
+        Assertions.assertTrue(limiter.tryAcquire(5));
+        Assertions.assertEquals(0, limiter.available());
+    }
+
+    @Test
+    public void testNoRefillWithinWindow() {
+        Assertions.assertTrue(limiter.tryAcquire(20));
+        clock.addAndGet(Duration.ofSeconds(9).toNanos());
+        Assertions.assertEquals(0, limiter.available());
+        Assertions.assertFalse(limiter.tryAcquire(1));
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        Assertions.assertEquals(20, limiter.available());
+    }
+
+    @Test
+    public void testReserve() {
+        Assertions.assertEquals(0, limiter.reserve(20));
+        Assertions.assertEquals(PERIOD, limiter.reserve(10));
+        Assertions.assertEquals(PERIOD, limiter.reserve(10));
+        Assertions.assertEquals(2 * PERIOD, limiter.reserve(1));
+        Assertions.assertFalse(limiter.tryAcquire(1));
+        clock.addAndGet(PERIOD);
+        Assertions.assertEquals(PERIOD, limiter.reserve(0));
+        Assertions.assertEquals(0, limiter.available());
+    }
+
+    @Test
+    public void testDelay() {
+        Assertions.assertEquals(0, limiter.delay(20));
+        Assertions.assertTrue(limiter.tryAcquire(18));
+        clock.addAndGet(Duration.ofSeconds(4).toNanos());
+        Assertions.assertTrue(limiter.tryAcquire(1));
+        Assertions.assertEquals(0, limiter.delay(1));
+        Assertions.assertEquals(Duration.ofSeconds(6).toNanos(), limiter.delay(2));
+        Assertions.assertEquals(Duration.ofSeconds(10).toNanos(), limiter.delay(20));
+        Assertions.assertEquals(1, limiter.available());
+    }
+
+    @Test
+    public void testNoWindowExceedsCapacity() {
+        // Operations reserved at uneven times, some in bursts, are admitted no more than the
+        // capacity in any window.
+        var admitted = new ArrayList<Long>();
+        for (int i = 0; i < 200; i++) {
+            int operations = 1 + i % 7;
+            long wait = limiter.reserve(operations);
+            for (int j = 0; j < operations; j++) {
+                admitted.add(clock.get() + wait);
+            }
+            clock.addAndGet(Duration.ofMillis(50 + (i * 37) % 900).toNanos());
+        }
+        for (int i = 0; i < admitted.size(); i++) {
+            int inWindow = 0;
+            for (int j = i; j < admitted.size() && admitted.get(j) < admitted.get(i) + PERIOD; j++) {
+                inWindow++;
+            }
+            Assertions.assertTrue(inWindow <= 20, "Window at " + i + " admitted " + inWindow);
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new SlidingWindowLimiter(0, Duration.ofSeconds(1)));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new SlidingWindowLimiter(1, Duration.ZERO));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> limiter.reserve(21));
+    }
+}
@@ -0,0 +1,174 @@
+package org.proticity.irc.client.request;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.parser.IrcParser;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class RequestCorrelatorTest {
+    private final IrcParser parser = new IrcParser();
+
+    private final List<String> sent = new ArrayList<>();
+
+    private RequestCorrelator correlator(boolean labeled, int maxInFlight) {
+        return new RequestCorrelator(line -> {
+            sent.add(line);
+            return Mono.empty();
+        }, () -> labeled, maxInFlight, Duration.ofMinutes(1));
+    }
+
+    private void route(RequestCorrelator correlator, String... lines) {
+        for (var line : lines) {
+            parser.parse(line + "\r\n").forEach(correlator::route);
+        }
+    }
+
+    private static final class Reply {
+        private final List<IrcCommand> commands = new ArrayList<>();
+        private Throwable error;
+        private boolean complete;
+        private final Disposable subscription;
+
+        private Reply(Flux<IrcCommand> reply) {
+            subscription = reply.subscribe(commands::add, error -> this.error = error, () -> complete = true);
+        }
+
+        private List<String> codes() {
+            return commands.stream().map(IrcCommand::getCommand).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testForCommand() {
+        Assertions.assertEquals(Optional.of(ReplyPattern.WHO), ReplyPattern.forCommand("who #chan"));
+        Assertions.assertEquals(Optional.of(ReplyPattern.CHANNEL_MODE), ReplyPattern.forCommand("MODE #chan"));
+        Assertions.assertEquals(Optional.of(ReplyPattern.BAN_LIST), ReplyPattern.forCommand("MODE #chan +b"));
+        Assertions.assertEquals(Optional.empty(), ReplyPattern.forCommand("MODE #chan +o nick"));
+        Assertions.assertEquals(Optional.empty(), ReplyPattern.forCommand("PRIVMSG #chan :hi"));
+        Assertions.assertEquals(Optional.empty(), ReplyPattern.forCommand("MODE nick"));
+        Assertions.assertEquals(Optional.empty(), ReplyPattern.forCommand("MODE !chan"));
+        Assertions.assertEquals(Optional.of(ReplyPattern.CHANNEL_MODE), ReplyPattern.forCommand("MODE !chan", "#!"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> correlator(false, 1).request("PING x"));
+    }
+
+    @Test
+    public void testInOrder() {
+        var correlator = correlator(false, 8);
+        var first = new Reply(correlator.request("WHO #a"));
+        var names = new Reply(correlator.request("NAMES #b"));
+        var second = new Reply(correlator.request("WHO #c"));
+        Assertions.assertEquals(List.of("WHO #a", "NAMES #b", "WHO #c"), sent);
+        route(correlator,
+                ":s 352 me #a u h s alice H :0 Alice",
+                ":s 315 me #a :End of WHO",
+                ":s 353 me = #b :alice bob",
+                ":s 352 me #c u h s carol H :0 Carol",
+                ":s 366 me #b :End of NAMES",
+                ":s 315 me #c :End of WHO");
+        Assertions.assertEquals(List.of("352", "315"), first.codes());
+        Assertions.assertEquals(List.of("353", "366"), names.codes());
+        Assertions.assertEquals(List.of("352", "315"), second.codes());
+        Assertions.assertTrue(first.complete && names.complete && second.complete);
+        Assertions.assertEquals(0, correlator.getInFlight());
+    }
+
+    @Test
+    public void testFailure() {
+        var correlator = correlator(false, 8);
+        var mode = new Reply(correlator.request("MODE #a +b"));
+        var who = new Reply(correlator.request("WHO #b"));
+        route(correlator, ":s 482 me #a :You're not channel operator", ":s 421 me WHO :Unknown command");
+        Assertions.assertTrue(mode.error instanceof ReplyException);
+        Assertions.assertEquals("482", ((ReplyException) mode.error).getReply().getCommand());
+        Assertions.assertTrue(who.error instanceof ReplyException);
+    }
+
+    @Test
+    public void testCancelledRequestAbsorbsReply() {
+        var correlator = correlator(false, 8);
+        var cancelled = new Reply(correlator.request("WHO #a"));
+        var next = new Reply(correlator.request("WHO #b"));
+        cancelled.subscription.dispose();
+        Assertions.assertEquals(1, correlator.getInFlight());
+        route(correlator,
+                ":s 352 me #a u h s alice H :0 Alice",
+                ":s 315 me #a :End of WHO",
+                ":s 352 me #b u h s bob H :0 Bob",
+                ":s 315 me #b :End of WHO");
+        Assertions.assertEquals(List.of(), cancelled.commands);
+        Assertions.assertEquals("#b", next.commands.get(0).getParameters().get(1));
+        Assertions.assertTrue(next.complete);
+    }
+
+    @Test
+    public void testMaxInFlight() {
+        var correlator = correlator(false, 1);
+        var first = new Reply(correlator.request("ISON alice"));
+        var second = new Reply(correlator.request("ISON bob"));
+        Assertions.assertEquals(List.of("ISON alice"), sent);
+        Assertions.assertEquals(1, correlator.getWaiting());
+        route(correlator, ":s 303 me :alice");
+        Assertions.assertTrue(first.complete);
+        Assertions.assertEquals(List.of("ISON alice", "ISON bob"), sent);
+        route(correlator, ":s 303 me :");
+        Assertions.assertTrue(second.complete);
+    }
+
+    @Test
+    public void testLabeled() {
+        var correlator = correlator(true, 8);
+        var who = new Reply(correlator.request("WHO #a"));
+        var ison = new Reply(correlator.request("ISON alice"));
+        Assertions.assertEquals(List.of("@label=0 WHO #a", "@label=1 ISON alice"), sent);
+        route(correlator,
+                "@label=1 :s 303 me :alice",
+                "@label=0 :s BATCH +x labeled-response",
+                "@batch=x :s 352 me #a u h s alice H :0 Alice",
+                "@batch=x :s 315 me #a :End of WHO");
+        Assertions.assertTrue(ison.complete);
+        Assertions.assertEquals(List.of("303"), ison.codes());
+        Assertions.assertFalse(who.complete);
+        route(correlator, ":s BATCH -x");
+        Assertions.assertTrue(who.complete);
+        Assertions.assertEquals(List.of("352", "315"), who.codes());
+    }
+
+    @Test
+    public void testClose() {
+        var correlator = correlator(false, 1);
+        var first = new Reply(correlator.request("WHO #a"));
+        var waiting = new Reply(correlator.request("WHO #b"));
+        var error = new IllegalStateException("closed");
+        correlator.close(error);
+        Assertions.assertSame(error, first.error);
+        Assertions.assertSame(error, waiting.error);
+        Assertions.assertSame(error, new Reply(correlator.request("WHO #c")).error);
+    }
+
+    @Test
+    public void testAbandonedRequestExpires() throws InterruptedException {
+        var correlator = new RequestCorrelator(line -> {
+            sent.add(line);
+            return Mono.empty();
+        }, () -> false, 8, Duration.ofMillis(50));
+        var abandoned = new Reply(correlator.request("WHO #a"));
+        abandoned.subscription.dispose();
+        Thread.sleep(100);
+        var next = new Reply(correlator.request("WHO #b"));
+        route(correlator,
+                ":s 352 me #b u h s alice H :0 Alice",
+                ":s 315 me #b :End of WHO");
+        Assertions.assertTrue(abandoned.commands.isEmpty());
+        Assertions.assertTrue(next.complete);
+        Assertions.assertEquals(List.of("352", "315"), next.codes());
+    }
+}
@@ -0,0 +1,146 @@
+package org.proticity.irc.client.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.command.Capability;
+import org.proticity.irc.client.parser.IrcParser;
+
+public class CapabilityNegotiatorTest {
+    private final IrcParser parser = new IrcParser();
+
+    private List<String> apply(CapabilityNegotiator negotiator, String line) {
+        var sent = new ArrayList<String>();
+        parser.parse(line + "\r\n").forEach(command -> sent.addAll(negotiator.apply(command)));
+        return sent;
+    }
+
+    private static CapabilityNegotiator negotiator(String... caps) {
+        var wanted = new ArrayList<Capability>();
+        for (var cap : caps) {
+            wanted.add(new Capability(cap));
+        }
+        return new CapabilityNegotiator(wanted);
+    }
+
+    @Test
+    public void testNegotiation() {
+        var negotiator = negotiator("server-time", "message-tags", "draft/chathistory", "sasl");
+        Assertions.assertEquals(List.of("CAP LS 302"), negotiator.start());
+        Assertions.assertEquals(List.of(), apply(negotiator, ":server CAP * LS * :multi-prefix sasl=PLAIN,EXTERNAL"));
+        Assertions.assertEquals(List.of("CAP REQ :server-time message-tags sasl"),
+                apply(negotiator, ":server CAP * LS :server-time message-tags account-tag"));
+        Assertions.assertFalse(negotiator.isComplete());
+        Assertions.assertEquals(Optional.of("PLAIN,EXTERNAL"), negotiator.getValue(new Capability("sasl")));
+        Assertions.assertEquals(List.of("CAP END"),
+                apply(negotiator, ":server CAP * ACK :server-time message-tags sasl"));
+        Assertions.assertTrue(negotiator.isComplete());
+        Assertions.assertTrue(negotiator.isEnabled("server-time"));
+        Assertions.assertFalse(negotiator.isEnabled("multi-prefix"));
+        Assertions.assertEquals(5, negotiator.getAvailable().size());
+    }
+
+    @Test
+    public void testNak() {
+        var negotiator = negotiator("server-time");
+        Assertions.assertEquals(List.of("CAP REQ :server-time"), apply(negotiator, ":server CAP * LS :server-time"));
+        Assertions.assertEquals(List.of("CAP END"), apply(negotiator, ":server CAP * NAK :server-time"));
+        Assertions.assertEquals(Set.of(), negotiator.getEnabled());
+    }
+
+    @Test
+    public void testNothingWanted() {
+        var negotiator = negotiator("twitch.tv/tags");
+        Assertions.assertEquals(List.of("CAP END"), apply(negotiator, ":server CAP * LS :server-time"));
+        Assertions.assertTrue(negotiator.isComplete());
+    }
+
+    @Test
+    public void testNotify() {
+        var negotiator = negotiator("away-notify", "server-time");
+        apply(negotiator, ":server CAP * LS :cap-notify server-time");
+        apply(negotiator, ":server CAP * ACK :server-time");
+        Assertions.assertEquals(List.of("CAP REQ :away-notify"), apply(negotiator, ":server CAP me NEW :away-notify"));
+        Assertions.assertEquals(List.of(), apply(negotiator, ":server CAP me ACK :away-notify"));
+        Assertions.assertTrue(negotiator.isEnabled("away-notify"));
+        apply(negotiator, ":server CAP me DEL :away-notify");
+        Assertions.assertFalse(negotiator.isEnabled("away-notify"));
+        Assertions.assertFalse(negotiator.getAvailable().contains(new Capability("away-notify")));
+        apply(negotiator, ":server CAP me ACK :-server-time");
+        Assertions.assertFalse(negotiator.isEnabled("server-time"));
+    }
+
+    @Test
+    public void testRegisteredWithoutList() {
+        var negotiator = negotiator("twitch.tv/tags", "twitch.tv/commands");
+        Assertions.assertEquals(List.of("CAP REQ :twitch.tv/tags twitch.tv/commands"),
+                apply(negotiator, ":tmi.twitch.tv 001 justinfan12345 :Welcome, GLHF!"));
+        Assertions.assertTrue(negotiator.isComplete());
+        Assertions.assertEquals(List.of(),
+                apply(negotiator, ":tmi.twitch.tv CAP * ACK :twitch.tv/tags twitch.tv/commands"));
+        Assertions.assertTrue(negotiator.isEnabled("twitch.tv/commands"));
+    }
+
+    @Test
+    public void testSasl() {
+        var negotiator = new CapabilityNegotiator(List.of(new Capability("server-time")),
+                new SaslPlain("account", "secret"));
+        apply(negotiator, ":server CAP * LS :server-time sasl=PLAIN");
+        Assertions.assertEquals(List.of("AUTHENTICATE PLAIN"),
+                apply(negotiator, ":server CAP * ACK :server-time sasl"));
+        Assertions.assertFalse(negotiator.isComplete());
+        Assertions.assertEquals(List.of("AUTHENTICATE YWNjb3VudABhY2NvdW50AHNlY3JldA=="),
+                apply(negotiator, "AUTHENTICATE +"));
+        apply(negotiator, ":server 900 me me!user@host account :You are now logged in as account");
+        Assertions.assertEquals(List.of("CAP END"),
+                apply(negotiator, ":server 903 me :SASL authentication successful"));
+        Assertions.assertEquals(Optional.of("account"), negotiator.getAccount());
+    }
+
+    @Test
+    public void testPipelined() {
+        var negotiator = new CapabilityNegotiator(List.of(new Capability("server-time"),
+                new Capability("twitch.tv/tags")), new SaslPlain("account", "secret"));
+        Assertions.assertEquals(List.of("CAP LS 302", "CAP REQ :server-time twitch.tv/tags", "CAP REQ :sasl",
+                "AUTHENTICATE PLAIN"), negotiator.startPipelined());
+        Assertions.assertEquals(List.of(), apply(negotiator, ":server CAP * LS :server-time sasl"));
+        Assertions.assertEquals(List.of("CAP REQ :server-time"),
+                apply(negotiator, ":server CAP * NAK :server-time twitch.tv/tags"));
+        Assertions.assertEquals(List.of(), apply(negotiator, ":server CAP * ACK :sasl"));
+        Assertions.assertEquals(1, apply(negotiator, "AUTHENTICATE +").size());
+        Assertions.assertEquals(List.of(), apply(negotiator, ":server 904 me :SASL authentication failed"));
+        Assertions.assertEquals(List.of("CAP END"), apply(negotiator, ":server CAP * ACK :server-time"));
+        Assertions.assertEquals(Set.of(new Capability("server-time"), new Capability("sasl")),
+                negotiator.getEnabled());
+        Assertions.assertEquals(Optional.empty(), negotiator.getAccount());
+    }
+
+    @Test
+    public void testPipelinedSaslRefused() {
+        var negotiator = new CapabilityNegotiator(List.of(), new SaslPlain("account", "secret"));
+        negotiator.startPipelined();
+        apply(negotiator, ":server CAP * LS :server-time");
+        Assertions.assertEquals(List.of("CAP END"), apply(negotiator, ":server CAP * NAK :sasl"));
+        Assertions.assertTrue(negotiator.isSettled());
+    }
+
+    @Test
+    public void testRequestLines() {
+        var caps = new ArrayList<Capability>();
+        for (int i = 0; i < 100; i++) {
+            caps.add(new Capability("example.com", "capability-" + i));
+        }
+        var lines = CapabilityNegotiator.requestLines(caps);
+        Assertions.assertTrue(lines.size() > 1);
+        int count = 0;
+        for (var line : lines) {
+            Assertions.assertTrue(line.length() <= 510);
+            count += line.substring("CAP REQ :".length()).split(" ").length;
+        }
+        Assertions.assertEquals(100, count);
+    }
+}
@@ -0,0 +1,109 @@
+package org.proticity.irc.client.state;
+
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.parser.IrcParser;
+
+public class ChannelStateTrackerTest {
+    private final IrcParser parser = new IrcParser();
+
+    private void apply(ChannelStateTracker tracker, String... lines) {
+        for (var line : lines) {
+            parser.parse(line + "\r\n").forEach(tracker::apply);
+        }
+    }
+
+    private ChannelStateTracker joined() {
+        var tracker = new ChannelStateTracker("me");
+        apply(tracker,
+                ":server 001 me :Welcome",
+                ":server 005 me PREFIX=(qaohv)~&@%+ CHANMODES=beI,k,l,imnst TARGMAX=JOIN:,PRIVMSG:4 :are supported",
+                ":me!user@host JOIN #Chan",
+                ":server 353 me = #chan :~me @op!o@h %half +voice regular",
+                ":server 353 me = #chan :@+both",
+                ":server 366 me #chan :End of /NAMES list.");
+        return tracker;
+    }
+
+    @Test
+    public void testNames() {
+        var tracker = joined();
+        Assertions.assertTrue(tracker.isJoined("#CHAN"));
+        Assertions.assertEquals(Optional.of("me!user@host"), tracker.getOwnPrefix());
+        var chan = tracker.getChannel("#chan").orElseThrow();
+        Assertions.assertEquals("#chan", chan.getName());
+        Assertions.assertEquals(Set.of("me", "op", "half", "voice", "regular", "both"), chan.getMembers());
+        Assertions.assertEquals(Optional.of("~"), chan.getPrefixes("me"));
+        Assertions.assertEquals(Optional.of("@"), chan.getPrefixes("op"));
+        Assertions.assertEquals(Optional.of("@+"), chan.getPrefixes("both"));
+        Assertions.assertEquals(Optional.of(""), chan.getPrefixes("regular"));
+        Assertions.assertEquals(Optional.empty(), chan.getPrefixes("nobody"));
+        Assertions.assertEquals(4, tracker.getTargetLimit("PRIVMSG"));
+        Assertions.assertEquals(Integer.MAX_VALUE, tracker.getTargetLimit("JOIN"));
+    }
+
+    @Test
+    public void testMembership() {
+        var tracker = joined();
+        var before = tracker.getChannel("#chan").orElseThrow();
+        apply(tracker,
+                ":new!u@h JOIN :#chan",
+                ":regular!u@h PART #chan :bye",
+                ":op!o@h KICK #chan voice :out",
+                ":half!u@h QUIT :gone",
+                ":both!u@h NICK renamed");
+        var chan = tracker.getChannel("#chan").orElseThrow();
+        Assertions.assertEquals(Set.of("me", "op", "new", "renamed"), chan.getMembers());
+        Assertions.assertEquals(Optional.of("@+"), chan.getPrefixes("renamed"));
+        Assertions.assertEquals(6, before.getMemberCount());
+        Assertions.assertSame(chan, tracker.getChannel("#chan").orElseThrow());
+    }
+
+    @Test
+    public void testModes() {
+        var tracker = joined();
+        apply(tracker,
+                ":op!o@h MODE #chan +o-v+kl regular both key 10",
+                ":op!o@h MODE #chan -o+b op :*!*@banned",
+                ":op!o@h MODE #chan +v :voice");
+        var chan = tracker.getChannel("#chan").orElseThrow();
+        Assertions.assertEquals(Optional.of("@"), chan.getPrefixes("regular"));
+        Assertions.assertEquals(Optional.of("@"), chan.getPrefixes("both"));
+        Assertions.assertEquals(Optional.of(""), chan.getPrefixes("op"));
+        Assertions.assertEquals(Optional.of("+"), chan.getPrefixes("voice"));
+        apply(tracker, ":me!user@host MODE me :+i");
+        Assertions.assertTrue(tracker.isJoined("#chan"));
+    }
+
+    @Test
+    public void testSelf() {
+        var tracker = joined();
+        apply(tracker, ":me!user@host JOIN #other", ":me!user@host NICK :you");
+        Assertions.assertEquals("you", tracker.getNickname());
+        Assertions.assertEquals(Optional.of("you!user@host"), tracker.getOwnPrefix());
+        Assertions.assertTrue(tracker.getChannel("#other").orElseThrow().isMember("you"));
+        apply(tracker, ":op!o@h KICK #chan you");
+        Assertions.assertEquals(Set.of("#other"), tracker.getChannels());
+        apply(tracker, ":you!user@host PART #other");
+        Assertions.assertEquals(0, tracker.getChannelCount());
+    }
+
+    @Test
+    public void testManyMembers() {
+        var tracker = joined();
+        for (int i = 0; i < 1000; i++) {
+            apply(tracker, ":user" + i + "!u@h JOIN #chan");
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            apply(tracker, ":user" + i + "!u@h PART #chan");
+        }
+        var chan = tracker.getChannel("#chan").orElseThrow();
+        Assertions.assertEquals(506, chan.getMemberCount());
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(i % 2 == 1, chan.isMember("user" + i));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.proticity.irc.client.state;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.parser.IrcParser;
+
+public class MessageDeduplicatorTest {
+    private final AtomicLong now = new AtomicLong();
+
+    private MessageDeduplicator deduplicator(int capacity) {
+        return new MessageDeduplicator(capacity, Duration.ofSeconds(10), now::get);
+    }
+
+    @Test
+    public void testRepeats() {
+        var deduplicator = deduplicator(64);
+        Assertions.assertFalse(deduplicator.isDuplicate("a"));
+        Assertions.assertFalse(deduplicator.isDuplicate("b"));
+        Assertions.assertTrue(deduplicator.isDuplicate("a"));
+        Assertions.assertTrue(deduplicator.isDuplicate("b"));
+        Assertions.assertEquals(2, deduplicator.getHits());
+        Assertions.assertEquals(2, deduplicator.getMisses());
+    }
+
+    @Test
+    public void testExpiry() {
+        var deduplicator = deduplicator(64);
+        Assertions.assertFalse(deduplicator.isDuplicate("a"));
+        now.addAndGet(Duration.ofSeconds(8).toNanos());
+        Assertions.assertTrue(deduplicator.isDuplicate("a"));
+        // Seeing the message again keeps it alive.
+        now.addAndGet(Duration.ofSeconds(8).toNanos());
+        Assertions.assertTrue(deduplicator.isDuplicate("a"));
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        Assertions.assertFalse(deduplicator.isDuplicate("a"));
+        Assertions.assertTrue(deduplicator.isDuplicate("a"));
+    }
+
+    @Test
+    public void testBoundedSize() {
+        var deduplicator = deduplicator(8);
+        for (int i = 0; i < 1000; i++) {
+            now.incrementAndGet();
+            Assertions.assertFalse(deduplicator.isDuplicate("id-" + i));
+        }
+        // The most recent message is always remembered, the earliest long since evicted.
+        Assertions.assertTrue(deduplicator.isDuplicate("id-999"));
+        Assertions.assertFalse(deduplicator.isDuplicate("id-0"));
+    }
+
+    @Test
+    public void testCommands() {
+        var parser = new IrcParser();
+        var deduplicator = deduplicator(64);
+        var twitch = parser.parse("@id=1234;room-id=1 :a!a@a.tmi.twitch.tv PRIVMSG #chan :hi\r\n").get(0);
+        var ircv3 = parser.parse("@msgid=abcd :a!a@a PRIVMSG #chan :hi\r\n").get(0);
+        var untagged = parser.parse(":a!a@a PRIVMSG #chan :hi\r\n").get(0);
+        Assertions.assertFalse(deduplicator.isDuplicate(twitch));
+        Assertions.assertTrue(deduplicator.isDuplicate(twitch));
+        Assertions.assertFalse(deduplicator.isDuplicate(ircv3));
+        Assertions.assertTrue(deduplicator.isDuplicate(ircv3));
+        Assertions.assertFalse(deduplicator.isDuplicate(untagged));
+        Assertions.assertFalse(deduplicator.isDuplicate(untagged));
+        Assertions.assertEquals(2, deduplicator.getHits());
+        Assertions.assertEquals("1234", MessageDeduplicator.messageId(twitch));
+        Assertions.assertEquals("abcd", MessageDeduplicator.messageId(ircv3));
+        Assertions.assertNull(MessageDeduplicator.messageId(untagged));
+    }
+}
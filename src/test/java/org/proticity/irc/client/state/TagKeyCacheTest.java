@@ -0,0 +1,38 @@
+package org.proticity.irc.client.state;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.command.TagKey;
+import org.proticity.irc.client.parser.IrcParser;
+
+public class TagKeyCacheTest {
+    private static final String LINE =
+            "@badge-info=;+example.com/key=v;id=1;flag :nick!user@host PRIVMSG #chan :hello\r\n";
+
+    @Test
+    public void testSharedKeys() {
+        var parser = new IrcParser(new TagKeyCache());
+        var first = new ArrayList<>(parser.parse(LINE).get(0).getTags().keySet());
+        var second = new ArrayList<>(parser.parse(LINE).get(0).getTags().keySet());
+        var uncached = new ArrayList<>(new IrcParser().parse(LINE).get(0).getTags().keySet());
+        Assertions.assertEquals(uncached, first);
+        Assertions.assertEquals(first, second);
+        for (int i = 0; i < first.size(); i++) {
+            Assertions.assertSame(first.get(i), second.get(i));
+        }
+        Assertions.assertTrue(first.contains(new TagKey(true, "example.com", "key")));
+        Assertions.assertTrue(first.contains(new TagKey("flag")));
+    }
+
+    @Test
+    public void testLookup() {
+        var cache = new TagKeyCache(4);
+        var key = new TagKey("msgid");
+        Assertions.assertNull(cache.get("@msgid=1", 1, 6));
+        cache.put("@msgid=1", 1, 6, key);
+        Assertions.assertSame(key, cache.get("x;msgid ", 2, 7));
+        Assertions.assertNull(cache.get("@msgi=1", 1, 5));
+    }
+}
@@ -0,0 +1,106 @@
+package org.proticity.irc.client.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+public class DnsCacheTest {
+    private static InetAddress v4(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {(byte) 192, 0, 2, (byte) last});
+    }
+
+    private static InetAddress v6(int last) throws UnknownHostException {
+        var address = new byte[16];
+        address[0] = 0x20;
+        address[1] = 0x01;
+        address[2] = 0x0d;
+        address[3] = (byte) 0xb8;
+        address[15] = (byte) last;
+        return InetAddress.getByAddress(address);
+    }
+
+    @Test
+    public void testOrder() throws UnknownHostException {
+        Assertions.assertEquals(List.of(v6(1), v4(1), v6(2), v4(2), v4(3)),
+                DnsCache.order(new InetAddress[] {v6(1), v6(2), v4(1), v4(2), v4(3)}));
+        Assertions.assertEquals(List.of(v4(1), v6(1), v4(2)),
+                DnsCache.order(new InetAddress[] {v4(1), v4(2), v6(1)}));
+        Assertions.assertEquals(List.of(v4(1)), DnsCache.order(new InetAddress[] {v4(1)}));
+    }
+
+    @Test
+    public void testCached() throws UnknownHostException {
+        var lookups = new AtomicInteger();
+        var clock = new AtomicLong();
+        var address = v4(1);
+        var dns = new DnsCache(Duration.ofSeconds(30), host -> {
+            lookups.incrementAndGet();
+            return new InetAddress[] {address};
+        }, clock::get);
+
+        Assertions.assertEquals(List.of(address), dns.resolve("irc.example.com").block());
+        clock.addAndGet(Duration.ofSeconds(29).toNanos());
+        Assertions.assertEquals(List.of(address), dns.resolve("irc.example.com").block());
+        Assertions.assertEquals(1, lookups.get());
+        Assertions.assertEquals(1, dns.getHits());
+        Assertions.assertEquals(1, dns.getMisses());
+
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        dns.resolve("irc.example.com").block();
+        Assertions.assertEquals(2, lookups.get());
+
+        dns.invalidate("irc.example.com");
+        dns.resolve("irc.example.com").block();
+        Assertions.assertEquals(3, lookups.get());
+        Assertions.assertEquals(3, dns.getMisses());
+    }
+
+    @Test
+    public void testSharedLookup() throws UnknownHostException {
+        var lookups = new AtomicInteger();
+        var address = v4(1);
+        var dns = new DnsCache(Duration.ofSeconds(30), host -> {
+            lookups.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new InetAddress[] {address};
+        }, System::nanoTime);
+
+        var results = Mono.zip(dns.resolve("irc.example.com"), dns.resolve("irc.example.com")).block();
+        Assertions.assertEquals(List.of(address), results.getT1());
+        Assertions.assertEquals(List.of(address), results.getT2());
+        Assertions.assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testFailureNotCached() throws UnknownHostException {
+        var lookups = new AtomicInteger();
+        var address = v4(1);
+        var dns = new DnsCache(Duration.ofSeconds(30), host -> {
+            if (lookups.incrementAndGet() == 1) {
+                throw new UnknownHostException(host);
+            }
+            return new InetAddress[] {address};
+        }, System::nanoTime);
+
+        Assertions.assertThrows(UnknownHostException.class, () -> {
+            try {
+                dns.resolve("irc.example.com").block();
+            } catch (RuntimeException e) {
+                throw e.getCause();
+            }
+        });
+        Assertions.assertEquals(List.of(address), dns.resolve("irc.example.com").block());
+        Assertions.assertEquals(2, lookups.get());
+    }
+}
@@ -0,0 +1,124 @@
+package org.proticity.irc.client.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+public class HappyEyeballsConnectorTest {
+    private static InetSocketAddress address(int port) throws UnknownHostException {
+        return new InetSocketAddress(InetAddress.getByAddress("irc.example.com", new byte[] {(byte) 192, 0, 2, 1}),
+                port);
+    }
+
+    private static final class Connection implements Disposable {
+        private final int port;
+        private volatile boolean disposed;
+
+        private Connection(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public void dispose() {
+            disposed = true;
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed;
+        }
+    }
+
+    @Test
+    public void testStagger() throws UnknownHostException {
+        var blackholeCancelled = new AtomicBoolean();
+        long start = System.nanoTime();
+        var connection = HappyEyeballsConnector.race(List.of(address(1), address(2)), address -> {
+            if (address.getPort() == 1) {
+                return Mono.<Connection>never().doOnCancel(() -> blackholeCancelled.set(true));
+            }
+            return Mono.just(new Connection(2));
+        }, Duration.ofMillis(50), Schedulers.parallel()).block(Duration.ofSeconds(5));
+
+        Assertions.assertEquals(2, connection.port);
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(50).toNanos());
+        Assertions.assertTrue(blackholeCancelled.get());
+    }
+
+    @Test
+    public void testFailureStartsNext() throws UnknownHostException {
+        var connection = HappyEyeballsConnector.race(List.of(address(1), address(2)), address -> {
+            if (address.getPort() == 1) {
+                return Mono.<Connection>error(new IOException("Connection refused"));
+            }
+            return Mono.just(new Connection(2));
+        }, Duration.ofMinutes(1), Schedulers.parallel()).block(Duration.ofSeconds(5));
+
+        Assertions.assertEquals(2, connection.port);
+    }
+
+    @Test
+    public void testLaterSuccessDisposed() throws UnknownHostException {
+        var late = new Connection(1);
+        var connection = HappyEyeballsConnector.race(List.of(address(1), address(2)), address -> {
+            if (address.getPort() == 1) {
+                return Mono.delay(Duration.ofMillis(100)).map(tick -> late)
+                        .doOnCancel(() -> late.dispose());
+            }
+            return Mono.just(new Connection(2));
+        }, Duration.ofMillis(10), Schedulers.parallel()).block(Duration.ofSeconds(5));
+
+        Assertions.assertEquals(2, connection.port);
+        Assertions.assertFalse(connection.isDisposed());
+        Assertions.assertTrue(late.isDisposed());
+    }
+
+    @Test
+    public void testAllFail() throws UnknownHostException {
+        var attempts = new AtomicInteger();
+        var race = HappyEyeballsConnector.race(List.of(address(1), address(2), address(3)), address -> {
+            attempts.incrementAndGet();
+            return address.getPort() == 3 ? Mono.<Connection>empty()
+                    : Mono.<Connection>error(new IOException("Connection refused"));
+        }, Duration.ofMinutes(1), Schedulers.parallel());
+
+        var error = Assertions.assertThrows(RuntimeException.class, () -> race.block(Duration.ofSeconds(5)));
+        Assertions.assertTrue(error.getCause() instanceof IOException);
+        Assertions.assertEquals(3, error.getCause().getSuppressed().length);
+        Assertions.assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testNoAddresses() {
+        var error = Assertions.assertThrows(RuntimeException.class, () -> HappyEyeballsConnector
+                .race(List.<InetSocketAddress>of(), address -> Mono.<Connection>never(), Duration.ZERO,
+                        Schedulers.parallel()).block());
+        Assertions.assertTrue(error.getCause() instanceof UnknownHostException);
+    }
+
+    @Test
+    public void testConnectKeepsHostName() throws UnknownHostException {
+        var loopback = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        var dns = new DnsCache(Duration.ofSeconds(30), host -> new InetAddress[] {loopback}, System::nanoTime);
+        var connector = new HappyEyeballsConnector(dns);
+        var connection = connector.connect("irc.example.com", 6697, address -> {
+            Assertions.assertEquals("irc.example.com", address.getHostString());
+            Assertions.assertEquals(loopback, address.getAddress());
+            return Mono.just(new Connection(address.getPort()));
+        }).block(Duration.ofSeconds(5));
+
+        Assertions.assertEquals(6697, connection.port);
+        Assertions.assertEquals(1, dns.getMisses());
+    }
+}
@@ -0,0 +1,89 @@
+package org.proticity.irc.client.transport;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+public class LoopbackTransportTest {
+    @Test
+    public void testFramer() {
+        var framer = new LoopbackPipe.LineFramer();
+        Assertions.assertEquals(List.of("PING :a\r\n"), framer.frame("PING :a\r\n"));
+        Assertions.assertEquals(List.of(), framer.frame("PRIV"));
+        Assertions.assertEquals(List.of(), framer.frame("MSG #c :hi\r"));
+        Assertions.assertEquals(List.of("PRIVMSG #c :hi\r\n", "PING :b\r\n"), framer.frame("\nPING :b\r\nPO"));
+        Assertions.assertEquals(List.of("PONG\r\n"), framer.frame("NG\r\n"));
+    }
+
+    @Test
+    public void testReceive() {
+        var transport = LoopbackTransport.create().build();
+        var server = transport.getServer();
+        server.send("PING :a", "PING :b\r\n");
+        server.write("PING :c\r\nPING :");
+        server.write("d\r\n");
+        server.close();
+        Assertions.assertEquals(List.of("PING :a\r\n", "PING :b\r\n", "PING :c\r\n", "PING :d\r\n"),
+                transport.receive().collectList().block());
+    }
+
+    @Test
+    public void testChunks() {
+        var transport = LoopbackTransport.create().chunkSize(3).build();
+        var server = transport.getServer();
+        server.write(":server 001 nick :Welcome \uD83D\uDE00\r\nPING :x\r\n");
+        server.close();
+        Assertions.assertEquals(List.of(":server 001 nick :Welcome \uD83D\uDE00\r\n", "PING :x\r\n"),
+                transport.receive().collectList().block());
+    }
+
+    @Test
+    public void testSend() {
+        var transport = LoopbackTransport.create().chunkSize(5).build();
+        transport.send(Flux.just("NICK nick", "USER user 0 * :Real")).block();
+        transport.sendBatch(List.of("JOIN #a", "JOIN #b")).block();
+        transport.close();
+        Assertions.assertEquals(List.of("NICK nick", "USER user 0 * :Real", "JOIN #a", "JOIN #b"),
+                transport.getServer().received().collectList().block());
+    }
+
+    @Test
+    public void testRespond() {
+        var transport = LoopbackTransport.create().build();
+        transport.getServer().respond(line -> line.startsWith("PING")
+                ? List.of("PONG" + line.substring(4)) : List.of());
+        transport.send(Flux.just("PING :1", "NICK nick", "PING :2")).block();
+        transport.getServer().close();
+        Assertions.assertEquals(List.of("PONG :1\r\n", "PONG :2\r\n"), transport.receive().collectList().block());
+    }
+
+    @Test
+    public void testLatency() {
+        var transport = LoopbackTransport.create().latency(Duration.ofMillis(50)).build();
+        long start = System.nanoTime();
+        transport.getServer().send("PING :a", "PING :b");
+        Assertions.assertEquals("PING :b\r\n", transport.receive().take(2).blockLast());
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(50).toNanos());
+    }
+
+    @Test
+    public void testBandwidth() {
+        var transport = LoopbackTransport.create().bandwidth(1000).build();
+        long start = System.nanoTime();
+        transport.getServer().write("x".repeat(98) + "\r\n");
+        transport.receive().blockFirst();
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(100).toNanos());
+    }
+
+    @Test
+    public void testClosed() {
+        var transport = LoopbackTransport.create().build();
+        transport.close();
+        Assertions.assertTrue(transport.getServer().isClosed());
+        Assertions.assertThrows(IllegalStateException.class, () -> transport.getServer().send("PING :a"));
+        Assertions.assertThrows(IllegalStateException.class, () -> transport.send(Flux.just("PONG")).block());
+    }
+}
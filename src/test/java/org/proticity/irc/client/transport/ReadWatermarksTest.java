@@ -0,0 +1,72 @@
+package org.proticity.irc.client.transport;
+
+import java.util.ArrayList;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.DirectProcessor;
+
+public class ReadWatermarksTest {
+    private static final class SlowSubscriber extends BaseSubscriber<String> {
+        private final ArrayList<String> received = new ArrayList<>();
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+        }
+
+        @Override
+        protected void hookOnNext(String value) {
+            received.add(value);
+        }
+    }
+
+    @Test
+    public void testPausesReads() {
+        var channel = new EmbeddedChannel();
+        var source = DirectProcessor.<String>create();
+        var subscriber = new SlowSubscriber();
+        ReadWatermarks.of(1, 3).<String>apply(channel, source).subscribe(subscriber);
+
+        source.onNext("a");
+        source.onNext("b");
+        Assertions.assertTrue(channel.config().isAutoRead());
+        source.onNext("c");
+        Assertions.assertFalse(channel.config().isAutoRead());
+
+        subscriber.request(1);
+        Assertions.assertFalse(channel.config().isAutoRead());
+        subscriber.request(1);
+        Assertions.assertTrue(channel.config().isAutoRead());
+        subscriber.request(1);
+        Assertions.assertEquals(3, subscriber.received.size());
+
+        source.onNext("d");
+        source.onNext("e");
+        source.onNext("f");
+        Assertions.assertFalse(channel.config().isAutoRead());
+        subscriber.dispose();
+        Assertions.assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testUnbounded() {
+        var channel = new EmbeddedChannel();
+        var source = DirectProcessor.<String>create();
+        var received = new ArrayList<String>();
+        ReadWatermarks.of(1, 2).<String>apply(channel, source).subscribe(received::add);
+        for (int i = 0; i < 10; i++) {
+            source.onNext("line " + i);
+        }
+        Assertions.assertTrue(channel.config().isAutoRead());
+        Assertions.assertEquals(10, received.size());
+    }
+
+    @Test
+    public void testInvalid() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ReadWatermarks.of(4, 4));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ReadWatermarks.of(-1, 4));
+    }
+}
@@ -0,0 +1,143 @@
+package org.proticity.irc.client.transport;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class ReconnectingTransportTest {
+    /**
+     * A transport which delivers some lines and then closes, or fails to connect.
+     */
+    private static final class ScriptedTransport implements Transport {
+        private final List<String> lines;
+        private final boolean fail;
+
+        private ScriptedTransport(List<String> lines, boolean fail) {
+            this.lines = lines;
+            this.fail = fail;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Mono<Void> dispose() {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> connect() {
+            return fail ? Mono.error(new IOException("refused")) : Mono.empty();
+        }
+
+        @Override
+        public Flux<String> receive() {
+            return Flux.fromIterable(lines);
+        }
+
+        @Override
+        public Mono<Void> send(Publisher<String> publisher) {
+            return Flux.from(publisher).then();
+        }
+    }
+
+    @Test
+    public void testBackoff() {
+        long min = Duration.ofMillis(100).toNanos();
+        long max = Duration.ofSeconds(1).toNanos();
+        Assertions.assertEquals(min, ReconnectingTransport.backoff(1, min, max, 0.5, 0));
+        Assertions.assertEquals(min * 2, ReconnectingTransport.backoff(2, min, max, 0.5, 0));
+        Assertions.assertEquals(min * 8, ReconnectingTransport.backoff(4, min, max, 0.5, 0));
+        Assertions.assertEquals(max, ReconnectingTransport.backoff(5, min, max, 0.5, 0));
+        Assertions.assertEquals(max, ReconnectingTransport.backoff(Integer.MAX_VALUE, min, max, 0.5, 0));
+        Assertions.assertEquals(max / 2, ReconnectingTransport.backoff(9, min, max, 0.5, 1));
+    }
+
+    @Test
+    public void testReceivesAcrossReconnections() {
+        var connections = new AtomicInteger();
+        var transport = new ReconnectingTransport(() -> {
+            int n = connections.getAndIncrement();
+            return new ScriptedTransport(List.of("line " + n + "a", "line " + n + "b"), n == 1);
+        }, Duration.ofMillis(1), Duration.ofMillis(10), 0.5, 0);
+        var events = new CopyOnWriteArrayList<ConnectionEvent>();
+        transport.events().subscribe(events::add);
+
+        var lines = transport.receive().take(4).collectList().block(Duration.ofSeconds(10));
+        Assertions.assertEquals(List.of("line 0a", "line 0b", "line 2a", "line 2b"), lines);
+        Assertions.assertEquals(3, connections.get());
+
+        var connected = events.stream().filter(event -> event.getType() == ConnectionEvent.Type.CONNECTED)
+                .mapToInt(ConnectionEvent::getConnection).boxed().toArray();
+        Assertions.assertArrayEquals(new Integer[] {0, 2}, connected);
+        Assertions.assertTrue(events.stream().anyMatch(event -> event.getType() == ConnectionEvent.Type.RECONNECTING
+                && event.getAttempt() == 2));
+        transport.close();
+        Assertions.assertEquals(ConnectionEvent.Type.CLOSED, events.get(events.size() - 1).getType());
+    }
+
+    @Test
+    public void testGivesUp() {
+        var transport = new ReconnectingTransport(() -> new ScriptedTransport(List.of(), true),
+                Duration.ofMillis(1), Duration.ofMillis(1), 0, 3);
+        var error = Assertions.assertThrows(RuntimeException.class,
+                () -> transport.receive().blockLast(Duration.ofSeconds(10)));
+        Assertions.assertTrue(error.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void testIdleTimeout() {
+        var connections = new AtomicInteger();
+        var transport = new ReconnectingTransport(() -> {
+            var loopback = LoopbackTransport.create().build();
+            loopback.getServer().send("line " + connections.getAndIncrement());
+            return loopback;
+        }, Duration.ofMillis(1), Duration.ofMillis(10), 0.5, 0, Duration.ofMillis(100));
+        var events = new CopyOnWriteArrayList<ConnectionEvent>();
+        transport.events().subscribe(events::add);
+
+        var lines = transport.receive().map(String::strip).take(2).collectList().block(Duration.ofSeconds(10));
+        Assertions.assertEquals(List.of("line 0", "line 1"), lines);
+        Assertions.assertTrue(events.stream().anyMatch(event -> event.getType() == ConnectionEvent.Type.DISCONNECTED
+                && event.getError().filter(IdleTimeoutException.class::isInstance).isPresent()));
+        transport.close();
+    }
+
+    @Test
+    public void testDroppedConnectionsBackOff() {
+        var transport = new ReconnectingTransport(() -> new ScriptedTransport(List.of(), false),
+                Duration.ofMillis(1), Duration.ofSeconds(1), 0, 4, null, Duration.ofMinutes(1));
+        var events = new CopyOnWriteArrayList<ConnectionEvent>();
+        transport.events().subscribe(events::add);
+
+        // The server accepts every connection and closes it at once, so each counts as a failure.
+        Assertions.assertThrows(RuntimeException.class, () -> transport.receive().blockLast(Duration.ofSeconds(10)));
+        var attempts = events.stream().filter(event -> event.getType() == ConnectionEvent.Type.RECONNECTING)
+                .mapToInt(ConnectionEvent::getAttempt).boxed().toArray();
+        Assertions.assertArrayEquals(new Integer[] {1, 2, 3, 4}, attempts);
+    }
+
+    @Test
+    public void testStableResetsBackoff() {
+        var transport = new ReconnectingTransport(() -> new ScriptedTransport(List.of("line"), false),
+                Duration.ofMillis(1), Duration.ofSeconds(1), 0, 2, null, Duration.ofMinutes(1));
+        var events = new CopyOnWriteArrayList<ConnectionEvent>();
+        transport.events().subscribe(events::add);
+
+        var lines = transport.receive().doOnNext(line -> transport.stable()).take(5).collectList()
+                .block(Duration.ofSeconds(10));
+        Assertions.assertEquals(5, lines.size());
+        Assertions.assertTrue(events.stream().filter(event -> event.getType() == ConnectionEvent.Type.RECONNECTING)
+                .allMatch(event -> event.getAttempt() == 1));
+        transport.close();
+    }
+}
@@ -0,0 +1,103 @@
+package org.proticity.irc.client.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ReplayTransportTest {
+    private static Path tempFile() throws IOException {
+        var file = Files.createTempFile("capture", ".irc");
+        file.toFile().deleteOnExit();
+        Files.delete(file);
+        return file;
+    }
+
+    /**
+     * Writes a capture file holding lines received some milliseconds apart.
+     */
+    private static Path capture(long intervalMillis, String... lines) throws IOException {
+        var file = tempFile();
+        var buffer = ByteBuffer.allocate(1 << 16).put(RecordingTransport.MAGIC);
+        long time = 1_000_000_000L;
+        for (var line : lines) {
+            var bytes = line.getBytes(StandardCharsets.UTF_8);
+            buffer.putLong(time).putInt(bytes.length).put(bytes);
+            time += Duration.ofMillis(intervalMillis).toNanos();
+        }
+        Files.write(file, Arrays.copyOf(buffer.array(), buffer.position()));
+        return file;
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException {
+        var file = tempFile();
+        for (int i = 0; i < 2; i++) {
+            var loopback = LoopbackTransport.create().build();
+            var recording = new RecordingTransport(loopback, file);
+            loopback.getServer().send("PING :" + i, "@id=1 :n!u@h PRIVMSG #c :caf\u00E9 \uD83D\uDE00");
+            loopback.getServer().close();
+            Assertions.assertEquals(2, recording.receive().count().block());
+            recording.close();
+        }
+        Assertions.assertEquals(List.of("PING :0\r\n", "@id=1 :n!u@h PRIVMSG #c :caf\u00E9 \uD83D\uDE00\r\n",
+                "PING :1\r\n", "@id=1 :n!u@h PRIVMSG #c :caf\u00E9 \uD83D\uDE00\r\n"),
+                new ReplayTransport(file).receive().collectList().block());
+    }
+
+    @Test
+    public void testFlushWhileConnected() throws IOException {
+        var file = tempFile();
+        var loopback = LoopbackTransport.create().build();
+        var recording = new RecordingTransport(loopback, file);
+        var received = recording.receive().take(2).collectList().toFuture();
+        loopback.getServer().send("PING :a", "PING :b");
+        received.join();
+        recording.flush();
+        Assertions.assertEquals(List.of("PING :a\r\n", "PING :b\r\n"),
+                new ReplayTransport(file).receive().collectList().block());
+        recording.close();
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        var file = capture(0, "PING :a\r\n", "PING :b\r\n");
+        var bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        Assertions.assertEquals(List.of("PING :a\r\n"), new ReplayTransport(file).receive().collectList().block());
+    }
+
+    @Test
+    public void testNotCapture() throws IOException {
+        var file = tempFile();
+        Files.write(file, "PING :a\r\n".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertThrows(IOException.class, () -> new ReplayTransport.CaptureReader(file));
+    }
+
+    @Test
+    public void testTiming() throws IOException {
+        var file = capture(100, "PING :a\r\n", "PING :b\r\n", "PING :c\r\n");
+        long start = System.nanoTime();
+        Assertions.assertEquals(3, new ReplayTransport(file, ReplayTransport.ORIGINAL_SPEED).receive().count().block());
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(200).toNanos());
+
+        start = System.nanoTime();
+        var times = new ReplayTransport(file, 4).receiveTimed().map(ReceivedText::getReceivedNanos)
+                .collectList().block();
+        Assertions.assertTrue(times.get(2) - times.get(0) >= Duration.ofMillis(50).toNanos());
+        Assertions.assertTrue(System.nanoTime() - start < Duration.ofMillis(200).toNanos());
+    }
+
+    @Test
+    public void testInvalidSpeed() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ReplayTransport(Path.of("x"), 0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ReplayTransport(Path.of("x"), Double.NaN));
+    }
+}
@@ -0,0 +1,30 @@
+package org.proticity.irc.client.transport;
+
+import java.time.Duration;
+
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TlsContextsTest {
+    @Test
+    public void testProvider() {
+        Assertions.assertEquals(OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK, TlsContexts.provider());
+    }
+
+    @Test
+    public void testShared() {
+        Assertions.assertSame(TlsContexts.shared(), TlsContexts.shared());
+        Assertions.assertTrue(TlsContexts.shared().isClient());
+        Assertions.assertEquals(TlsContexts.DEFAULT_SESSION_CACHE_SIZE, TlsContexts.shared().sessionCacheSize());
+    }
+
+    @Test
+    public void testCreate() {
+        var context = TlsContexts.create(16, Duration.ofMinutes(5));
+        Assertions.assertNotSame(TlsContexts.shared(), context);
+        Assertions.assertEquals(16, context.sessionCacheSize());
+        Assertions.assertEquals(300, context.sessionTimeout());
+    }
+}
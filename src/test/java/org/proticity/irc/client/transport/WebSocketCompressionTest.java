@@ -0,0 +1,117 @@
+package org.proticity.irc.client.transport;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.proticity.irc.client.IrcClient;
+import org.proticity.irc.client.JoinResult;
+import org.proticity.irc.client.command.IrcCommand;
+import org.proticity.irc.client.command.TagKey;
+import org.proticity.irc.client.loadtest.SyntheticIrcServer;
+import org.proticity.irc.client.loadtest.TrafficProfile;
+import org.proticity.irc.client.metrics.ServerTime;
+
+public class WebSocketCompressionTest {
+    @Test
+    public void testDefaults() {
+        var compression = WebSocketCompression.create();
+        Assertions.assertEquals(6, compression.getCompressionLevel());
+        Assertions.assertEquals(15, compression.getServerWindowBits());
+        Assertions.assertFalse(compression.isServerNoContextTakeover());
+        Assertions.assertFalse(compression.isAllowClientNoContextTakeover());
+        Assertions.assertFalse(compression.isAllowClientWindowBits());
+    }
+
+    @Test
+    public void testSettings() {
+        var compression = WebSocketCompression.create().compressionLevel(1).serverWindowBits(10)
+                .serverNoContextTakeover(true).allowClientNoContextTakeover(true).allowClientWindowBits(true);
+        Assertions.assertEquals(1, compression.getCompressionLevel());
+        Assertions.assertEquals(10, compression.getServerWindowBits());
+        Assertions.assertTrue(compression.isServerNoContextTakeover());
+        Assertions.assertTrue(compression.isAllowClientNoContextTakeover());
+        Assertions.assertTrue(compression.isAllowClientWindowBits());
+    }
+
+    @Test
+    public void testInvalid() {
+        var compression = WebSocketCompression.create();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> compression.compressionLevel(10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> compression.serverWindowBits(7));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> compression.serverWindowBits(16));
+    }
+
+    /**
+     * Checks that a generated message arrived whole, as its emote ranges index into its text.
+     */
+    private static void assertIntact(IrcCommand command, List<String> channels) {
+        Assertions.assertTrue(channels.contains(command.getParameters().get(0)), command.toString());
+        Assertions.assertNotEquals(ServerTime.UNKNOWN, ServerTime.of(command), command.toString());
+        var text = command.getTrailingParameter().orElseThrow();
+        var ranges = command.getTags().get(new TagKey("emotes"));
+        if (ranges != null && !ranges.isEmpty()) {
+            for (var emote : ranges.split("/")) {
+                var range = emote.substring(emote.indexOf(':') + 1).split("-");
+                var name = text.substring(Integer.parseInt(range[0]), Integer.parseInt(range[1]) + 1);
+                Assertions.assertTrue(List.of("Kappa", "PogChamp", "LUL", "Kreygasm", "4Head", "BibleThump")
+                        .contains(name), command.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testNegotiatedWithServer() throws InterruptedException, ExecutionException, TimeoutException {
+        var profile = new TrafficProfile().channels(10).messagesPerSecond(5000).emoteChance(0.5);
+        try (var server = SyntheticIrcServer.start(profile, true)) {
+            var client = IrcClient.create().twitch().joinRate(1000, Duration.ofSeconds(1))
+                    .transport(() -> WebSocketTransport.createInsecure(server.getWebSocketUri(),
+                            server.getWebSocketPort(), WebSocketCompression.create()))
+                    .connect();
+            try {
+                var messages = client.commands().filter(command -> "PRIVMSG".equals(command.getCommand()))
+                        .take(1000).collectList().toFuture();
+                client.registration().block(Duration.ofSeconds(10));
+                var channels = server.getChannels();
+                Assertions.assertEquals(channels.size(), client.joinAll(channels).filter(JoinResult::isJoined)
+                        .count().block(Duration.ofSeconds(10)));
+
+                // The server writes the messages of each tick to one frame, which the client inflates
+                // and splits back into lines.
+                for (var command : messages.get(10, TimeUnit.SECONDS)) {
+                    assertIntact(command, channels);
+                }
+                var extensions = server.getNegotiatedExtensions();
+                Assertions.assertEquals(1, extensions.size());
+                Assertions.assertTrue(extensions.get(0).startsWith("permessage-deflate"), extensions.get(0));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testUncompressedWhenRefused() throws InterruptedException, ExecutionException, TimeoutException {
+        try (var server = SyntheticIrcServer.start(new TrafficProfile().channels(10).messagesPerSecond(5000))) {
+            var client = IrcClient.create().twitch().joinRate(1000, Duration.ofSeconds(1))
+                    .transport(() -> WebSocketTransport.createInsecure(server.getWebSocketUri(),
+                            server.getWebSocketPort(), WebSocketCompression.create()))
+                    .connect();
+            try {
+                var messages = client.commands().filter(command -> "PRIVMSG".equals(command.getCommand()))
+                        .take(100).collectList().toFuture();
+                client.registration().block(Duration.ofSeconds(10));
+                client.joinAll(server.getChannels()).blockLast(Duration.ofSeconds(10));
+                for (var command : messages.get(10, TimeUnit.SECONDS)) {
+                    assertIntact(command, server.getChannels());
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
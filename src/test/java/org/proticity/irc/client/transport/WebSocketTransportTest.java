@@ -1,7 +1,20 @@
 package org.proticity.irc.client.transport;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
 import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
 
 public class WebSocketTransportTest {
     private DisposableServer httpServer;
@@ -11,4 +24,60 @@ public class WebSocketTransportTest {
         if (httpServer != null)
             httpServer.disposeNow();
     }
+
+    private static List<String> lines(String frame) {
+        var content = Unpooled.copiedBuffer(frame, StandardCharsets.UTF_8);
+        try {
+            return WebSocketTransport.lines(content, 0).stream().map(ReceivedText::getText)
+                    .collect(Collectors.toList());
+        } finally {
+            content.release();
+        }
+    }
+
+    @Test
+    public void testLines() {
+        Assertions.assertEquals(List.of("PING :a\r\n"), lines("PING :a\r\n"));
+        Assertions.assertEquals(List.of("PING :a"), lines("PING :a"));
+        Assertions.assertEquals(List.of(), lines(""));
+        Assertions.assertEquals(List.of(), lines("\r\n"));
+        Assertions.assertEquals(List.of("PING :a\r\n", "PING :b\n", "PING :c"),
+                lines("PING :a\r\nPING :b\n\r\nPING :c"));
+        Assertions.assertEquals(List.of("PRIVMSG #c :caf\u00E9\r\n", "PRIVMSG #c :\uD83D\uDE00\r\n"),
+                lines("PRIVMSG #c :caf\u00E9\r\nPRIVMSG #c :\uD83D\uDE00\r\n"));
+    }
+
+    @Test
+    public void testFragmentedFrames() {
+        var tail = "x".repeat(100_000);
+        httpServer = HttpServer.create().host("127.0.0.1").port(0).route(routes -> routes.ws("/", (in, out) ->
+                out.sendObject(Flux.just(new TextWebSocketFrame(false, 0, "PING :a\r\nPRIVMSG #c :"),
+                        new ContinuationWebSocketFrame(false, 0, tail),
+                        new ContinuationWebSocketFrame(true, 0, "\r\nPING :b\r\n"))).then()))
+                .bindNow();
+        var transport = new WebSocketTransport(HttpClient.create().port(httpServer.port()).websocket()
+                .uri("ws://127.0.0.1:" + httpServer.port() + "/").connect());
+        try {
+            Assertions.assertEquals(List.of("PING :a\r\n", "PRIVMSG #c :" + tail + "\r\n", "PING :b\r\n"),
+                    transport.receive().take(3).collectList().block(Duration.ofSeconds(10)));
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testFrameTooLarge() {
+        httpServer = HttpServer.create().host("127.0.0.1").port(0).route(routes -> routes.ws("/", (in, out) ->
+                out.sendObject(Flux.just(new TextWebSocketFrame(false, 0, "PRIVMSG #c :"),
+                        new ContinuationWebSocketFrame(true, 0, "x".repeat(2000)))).then()))
+                .bindNow();
+        var transport = new WebSocketTransport(HttpClient.create().port(httpServer.port()).websocket()
+                .uri("ws://127.0.0.1:" + httpServer.port() + "/").connect(), 1024);
+        try {
+            Assertions.assertThrows(RuntimeException.class,
+                    () -> transport.receive().blockLast(Duration.ofSeconds(10)));
+        } finally {
+            transport.close();
+        }
+    }
 }